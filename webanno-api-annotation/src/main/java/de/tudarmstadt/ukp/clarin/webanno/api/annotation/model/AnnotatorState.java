@@ -26,7 +26,6 @@ import java.util.Map;
 import org.apache.uima.jcas.JCas;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
-import de.tudarmstadt.ukp.clarin.webanno.constraints.model.ParsedConstraints;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
@@ -149,11 +148,6 @@ public interface AnnotatorState
 
     void setProject(Project aProject);
 
-    // REC: we cache the constraints when a document is opened because parsing them takes some time
-    ParsedConstraints getConstraints();
-
-    void setConstraints(ParsedConstraints aConstraints);
-
     // ---------------------------------------------------------------------------------------------
     // Selection
     // ---------------------------------------------------------------------------------------------
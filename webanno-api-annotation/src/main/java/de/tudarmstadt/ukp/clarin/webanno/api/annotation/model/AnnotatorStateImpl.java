@@ -32,7 +32,6 @@ import org.apache.uima.cas.CASException;
 import org.apache.uima.jcas.JCas;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
-import de.tudarmstadt.ukp.clarin.webanno.constraints.model.ParsedConstraints;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.LinkMode;
@@ -119,11 +118,6 @@ public class AnnotatorStateImpl
 
     private List<FeatureState> featureModels = new ArrayList<>();          
     
-    /**
-     * Constraints object from rule file
-     */
-    private ParsedConstraints constraints;
-
     // Annotation preferences, to be saved in a file system
     /**
      * The annotation layers available in the current project.
@@ -184,18 +178,6 @@ public class AnnotatorStateImpl
         mode = aMode;
     }
 
-    @Override
-    public ParsedConstraints getConstraints()
-    {
-        return constraints;
-    }
-
-    @Override
-    public void setConstraints(ParsedConstraints aConstraints)
-    {
-        constraints = aConstraints;
-    }
-
     @Override
     public String getUserAction()
     {
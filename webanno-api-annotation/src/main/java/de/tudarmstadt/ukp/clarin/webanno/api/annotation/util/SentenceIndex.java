@@ -0,0 +1,262 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.text.AnnotationIndex;
+import org.apache.uima.jcas.JCas;
+
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+/**
+ * Immutable index of the sentences of a CAS. It holds the begin and end offsets and the addresses
+ * of all sentences in index order, so that the sentence navigation helpers in
+ * {@link WebAnnoCasUtil} do not need to iterate over the sentences of the CAS.
+ * <p>
+ * An index is built once per CAS and reused until the sentences of the CAS change. Changes are
+ * detected by comparing the document text, the number of sentences and the next free address of
+ * the CAS heap with those the index was built from. Creating a sentence always allocates a new
+ * feature structure and thereby moves the next free address, so a removed sentence cannot go
+ * unnoticed because another one has been added in its place. Creating any other feature structure
+ * moves the address as well and causes the index to be rebuilt on its next use, which is cheap
+ * compared to the lookups it saves. Sentences are never changed in place in WebAnno, they are
+ * only added or removed. Code which does so or which adds a previously removed sentence back to
+ * the indexes must call {@link #invalidate(JCas)}.
+ * <p>
+ * If the sentences do not overlap, which is the normal case, lookups by offset are binary
+ * searches. Otherwise, the lookups fall back to a linear scan over the index.
+ */
+public final class SentenceIndex
+{
+    private static final Map<CAS, SentenceIndex> INDEXES = Collections
+            .synchronizedMap(new WeakHashMap<>());
+
+    private final String text;
+    private final int nextFreeAddress;
+    private final int[] begins;
+    private final int[] ends;
+    private final int[] addresses;
+
+    /**
+     * Sentence addresses in ascending order and the position of each of these sentences in the
+     * index.
+     */
+    private final int[] sortedAddresses;
+    private final int[] positions;
+
+    /**
+     * Whether each sentence ends before or where the next sentence begins.
+     */
+    private final boolean disjoint;
+
+    private SentenceIndex(String aText, int aNextFreeAddress, int[] aBegins, int[] aEnds,
+            int[] aAddresses)
+    {
+        text = aText;
+        nextFreeAddress = aNextFreeAddress;
+        begins = aBegins;
+        ends = aEnds;
+        addresses = aAddresses;
+
+        boolean isDisjoint = true;
+        for (int i = 1; i < begins.length && isDisjoint; i++) {
+            isDisjoint = ends[i - 1] <= begins[i];
+        }
+        disjoint = isDisjoint;
+
+        long[] pairs = new long[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            pairs[i] = ((long) addresses[i] << 32) | i;
+        }
+        Arrays.sort(pairs);
+        sortedAddresses = new int[pairs.length];
+        positions = new int[pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            sortedAddresses[i] = (int) (pairs[i] >>> 32);
+            positions[i] = (int) pairs[i];
+        }
+    }
+
+    /**
+     * Get the sentence index of the given CAS, building it if necessary.
+     *
+     * @param aJCas
+     *            the JCas.
+     * @return the sentence index.
+     */
+    public static SentenceIndex get(JCas aJCas)
+    {
+        CAS cas = aJCas.getCas();
+        SentenceIndex index = INDEXES.get(cas);
+        if (index == null || !index.isUpToDate(aJCas)) {
+            index = build(aJCas);
+            INDEXES.put(cas, index);
+        }
+        return index;
+    }
+
+    /**
+     * Drop the sentence index of the given CAS. This is only necessary if the sentences of the
+     * CAS are changed in place or if a removed sentence is added back to the indexes.
+     *
+     * @param aJCas
+     *            the JCas.
+     */
+    public static void invalidate(JCas aJCas)
+    {
+        INDEXES.remove(aJCas.getCas());
+    }
+
+    private static SentenceIndex build(JCas aJCas)
+    {
+        AnnotationIndex<Sentence> index = aJCas.getAnnotationIndex(Sentence.class);
+        int size = index.size();
+        int[] begins = new int[size];
+        int[] ends = new int[size];
+        int[] addresses = new int[size];
+
+        CASImpl cas = aJCas.getCasImpl();
+        int i = 0;
+        for (Sentence sentence : index) {
+            begins[i] = sentence.getBegin();
+            ends[i] = sentence.getEnd();
+            addresses[i] = cas.ll_getFSRef(sentence);
+            i++;
+        }
+
+        return new SentenceIndex(aJCas.getDocumentText(), cas.getHeap().getNextId(), begins,
+                ends, addresses);
+    }
+
+    private boolean isUpToDate(JCas aJCas)
+    {
+        // Deserializing or resetting the CAS creates a new document text
+        if (text != aJCas.getDocumentText()) {
+            return false;
+        }
+
+        // Any sentence added since the index was built lies at or above the old free address
+        if (aJCas.getCasImpl().getHeap().getNextId() != nextFreeAddress) {
+            return false;
+        }
+
+        return aJCas.getAnnotationIndex(Sentence.class).size() == size();
+    }
+
+    /**
+     * @return the number of sentences.
+     */
+    public int size()
+    {
+        return addresses.length;
+    }
+
+    public int getBegin(int aPosition)
+    {
+        return begins[aPosition];
+    }
+
+    public int getEnd(int aPosition)
+    {
+        return ends[aPosition];
+    }
+
+    public int getAddress(int aPosition)
+    {
+        return addresses[aPosition];
+    }
+
+    /**
+     * @param aAddress
+     *            a sentence address.
+     * @return the position of the sentence with the given address or -1 if there is no such
+     *         sentence.
+     */
+    public int positionOfAddress(int aAddress)
+    {
+        int i = Arrays.binarySearch(sortedAddresses, aAddress);
+        return i < 0 ? -1 : positions[i];
+    }
+
+    /**
+     * @param aOffset
+     *            a character offset.
+     * @return the position of the first sentence which contains the given offset (including the
+     *         sentence end) or -1 if there is no such sentence.
+     */
+    public int positionOfOffset(int aOffset)
+    {
+        if (disjoint) {
+            int i = firstEndingAtOrAfter(aOffset);
+            return i < size() && begins[i] <= aOffset ? i : -1;
+        }
+
+        for (int i = 0; i < size(); i++) {
+            if (begins[i] <= aOffset && aOffset <= ends[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param aOffset
+     *            a character offset.
+     * @return the position of the first sentence which ends at or after the given offset or
+     *         {@link #size()} if there is no such sentence.
+     */
+    public int firstEndingAtOrAfter(int aOffset)
+    {
+        if (disjoint) {
+            // If the sentences are disjoint, the ends are sorted as well
+            int low = 0;
+            int high = size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (ends[mid] < aOffset) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        for (int i = 0; i < size(); i++) {
+            if (ends[i] >= aOffset) {
+                return i;
+            }
+        }
+        return size();
+    }
+
+    /**
+     * @return whether the sentences do not overlap each other.
+     */
+    public boolean isDisjoint()
+    {
+        return disjoint;
+    }
+}
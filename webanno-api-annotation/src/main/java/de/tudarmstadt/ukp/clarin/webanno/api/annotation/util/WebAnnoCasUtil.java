@@ -100,22 +100,9 @@ public class WebAnnoCasUtil
         int offset1 = Math.min(aReferenceOffset, aCompareOffset);
         int offset2 = Math.max(aReferenceOffset, aCompareOffset);
 
-        // Scanning through sentences
-        Iterator<Sentence> si = JCasUtil.iterator(aJcas, Sentence.class);
-        while (si.hasNext()) {
-            Sentence s = si.next();
-            if (s.getBegin() <= offset1 && offset1 <= s.getEnd()) {
-                return s.getBegin() <= offset2 && offset2 <= s.getEnd();
-            }
-
-            // Sentences are sorted. When we hit the first sentence that is beyond the reference
-            // offset, we will never again find a sentence that contains it.
-            if (offset1 < s.getBegin()) {
-                return false;
-            }
-        }
-
-        return false;
+        SentenceIndex sentences = SentenceIndex.get(aJcas);
+        int i = sentences.positionOfOffset(offset1);
+        return i >= 0 && offset2 <= sentences.getEnd(i);
     }
 
     public static int getAddr(FeatureStructure aFS)
@@ -306,15 +293,24 @@ public class WebAnnoCasUtil
      */
     public static Sentence getCurrentSentence(JCas aJCas, int aBegin, int aEnd)
     {
-        Sentence currentSentence = null;
-        for (Sentence sentence : select(aJCas, Sentence.class)) {
-            if (sentence.getBegin() <= aBegin && sentence.getEnd() > aBegin
-                    && sentence.getEnd() <= aEnd) {
-                currentSentence = sentence;
-                break;
+        SentenceIndex sentences = SentenceIndex.get(aJCas);
+        if (sentences.isDisjoint()) {
+            // Only the first sentence ending after the begin offset can contain it
+            int i = sentences.firstEndingAtOrAfter(aBegin + 1);
+            if (i < sentences.size() && sentences.getBegin(i) <= aBegin
+                    && sentences.getEnd(i) <= aEnd) {
+                return selectByAddr(aJCas, Sentence.class, sentences.getAddress(i));
             }
+            return null;
         }
-        return currentSentence;
+        
+        for (int i = 0; i < sentences.size(); i++) {
+            if (sentences.getBegin(i) <= aBegin && sentences.getEnd(i) > aBegin
+                    && sentences.getEnd(i) <= aEnd) {
+                return selectByAddr(aJCas, Sentence.class, sentences.getAddress(i));
+            }
+        }
+        return null;
     }
 
     /**
@@ -326,17 +322,14 @@ public class WebAnnoCasUtil
      */
     public static Sentence getSentenceByAnnoEnd(JCas aJCas, int aEnd)
     {
-
-        int prevEnd = 0;
-        Sentence sent = null;
-        for (Sentence sentence : select(aJCas, Sentence.class)) {
-            if (prevEnd >= aEnd) {
-                return sent;
-            }
-            sent = sentence;
-            prevEnd = sent.getEnd();
+        SentenceIndex sentences = SentenceIndex.get(aJCas);
+        if (aEnd <= 0 || sentences.size() == 0) {
+            return null;
         }
-        return sent;
+        
+        // The first sentence ending at or after the given offset - or the last sentence
+        int i = Math.min(sentences.firstEndingAtOrAfter(aEnd), sentences.size() - 1);
+        return selectByAddr(aJCas, Sentence.class, sentences.getAddress(i));
     }
 
     public static Token getNextToken(JCas aJCas, int aBegin, int aEnd)
@@ -608,13 +601,12 @@ public class WebAnnoCasUtil
     public static List<Integer> getDisplayWindowBeginningSentenceAddresses(JCas aJcas,
             int aWindowSize)
     {
+        SentenceIndex sentences = SentenceIndex.get(aJcas);
         List<Integer> beginningAddresses = new ArrayList<Integer>();
-        int j = 0;
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if (j % aWindowSize == 0) {
-                beginningAddresses.add(getAddr(sentence));
+        for (int i = 0; i < sentences.size(); i++) {
+            if (i % aWindowSize == 0) {
+                beginningAddresses.add(sentences.getAddress(i));
             }
-            j++;
         }
         return beginningAddresses;
 
@@ -634,15 +626,9 @@ public class WebAnnoCasUtil
     @Deprecated
     public static int getFirstSentenceNumber(JCas aJcas, int aSentenceAddress)
     {
-        int sentenceNumber = 0;
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if (getAddr(sentence) == aSentenceAddress) {
-                break;
-            }
-            sentenceNumber++;
-        }
-        return sentenceNumber;
-
+        SentenceIndex sentences = SentenceIndex.get(aJcas);
+        int i = sentences.positionOfAddress(aSentenceAddress);
+        return i >= 0 ? i : sentences.size();
     }
 
     /**
@@ -656,15 +642,9 @@ public class WebAnnoCasUtil
      */
     public static int getSentenceNumber(JCas aJcas, int aBeginOffset)
     {
-        int sentenceNumber = 0;
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if (sentence.getBegin() <= aBeginOffset && aBeginOffset <= sentence.getEnd()) {
-                sentenceNumber++;
-                break;
-            }
-            sentenceNumber++;
-        }
-        return sentenceNumber;
+        SentenceIndex sentences = SentenceIndex.get(aJcas);
+        int i = sentences.positionOfOffset(aBeginOffset);
+        return i >= 0 ? i + 1 : sentences.size();
     }
 
     public static int getSentenceSize(JCas aJcas)
@@ -683,23 +663,13 @@ public class WebAnnoCasUtil
      */
     public static int getSentenceAddress(JCas aJcas, int aSentenceNumber)
     {
-        int i = 1;
-        int address = 0;
-        if (aSentenceNumber < 1) {
-            return 0;
-        }
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if (i == aSentenceNumber) {
-                address = getAddr(sentence);
-                break;
-            }
-            address = getAddr(sentence);
-            i++;
-        }
-        if (aSentenceNumber > i) {
+        SentenceIndex sentences = SentenceIndex.get(aJcas);
+        if (aSentenceNumber < 1 || aSentenceNumber > sentences.size() + 1
+                || sentences.size() == 0) {
             return 0;
         }
-        return address;
+        // One past the last sentence yields the last sentence
+        return sentences.getAddress(Math.min(aSentenceNumber, sentences.size()) - 1);
     }
 
     /**
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+/**
+ * Compares the sentence navigation helpers against a scan over all sentences.
+ */
+public class SentenceIndexTest
+{
+    @Test
+    public void testDisjointSentences()
+        throws Exception
+    {
+        // Sentences separated by a space, touching sentences and a gap
+        JCas jcas = createJCas(new int[][] { { 0, 5 }, { 6, 10 }, { 10, 14 }, { 20, 25 } });
+        
+        assertSame(SentenceIndex.get(jcas), SentenceIndex.get(jcas));
+        assertNavigation(jcas);
+    }
+    
+    @Test
+    public void testOverlappingSentences()
+        throws Exception
+    {
+        JCas jcas = createJCas(new int[][] { { 0, 10 }, { 2, 5 }, { 4, 14 }, { 20, 25 } });
+        
+        assertFalse(SentenceIndex.get(jcas).isDisjoint());
+        assertNavigation(jcas);
+    }
+    
+    @Test
+    public void testIndexIsRebuiltWhenSentencesChange()
+        throws Exception
+    {
+        JCas jcas = createJCas(new int[][] { { 0, 5 }, { 6, 10 } });
+        SentenceIndex index = SentenceIndex.get(jcas);
+        
+        new Sentence(jcas, 11, 14).addToIndexes();
+        
+        assertNotSame(index, SentenceIndex.get(jcas));
+        assertEquals(3, SentenceIndex.get(jcas).size());
+        assertNavigation(jcas);
+    }
+    
+    @Test
+    public void testIndexIsRebuiltWhenMiddleSentenceIsReplaced()
+        throws Exception
+    {
+        JCas jcas = createJCas(new int[][] { { 0, 5 }, { 6, 10 }, { 11, 14 }, { 20, 25 } });
+        SentenceIndex index = SentenceIndex.get(jcas);
+        
+        // Same number of sentences and same first and last sentence as before
+        new ArrayList<>(select(jcas, Sentence.class)).get(1).removeFromIndexes();
+        new Sentence(jcas, 15, 19).addToIndexes();
+        
+        assertNotSame(index, SentenceIndex.get(jcas));
+        assertEquals(4, SentenceIndex.get(jcas).size());
+        assertNavigation(jcas);
+    }
+    
+    private void assertNavigation(JCas aJCas)
+    {
+        List<Sentence> sentences = new ArrayList<>(select(aJCas, Sentence.class));
+        
+        for (int offset = -1; offset <= aJCas.getDocumentText().length() + 1; offset++) {
+            assertEquals("sentence number at " + offset, expectedSentenceNumber(sentences, offset),
+                    WebAnnoCasUtil.getSentenceNumber(aJCas, offset));
+            assertSame("sentence by end " + offset, expectedSentenceByAnnoEnd(sentences, offset),
+                    WebAnnoCasUtil.getSentenceByAnnoEnd(aJCas, offset));
+            for (int end = offset; end <= aJCas.getDocumentText().length() + 1; end++) {
+                assertSame("current sentence at " + offset + "-" + end,
+                        expectedCurrentSentence(sentences, offset, end),
+                        WebAnnoCasUtil.getCurrentSentence(aJCas, offset, end));
+            }
+        }
+        
+        for (int n = -1; n <= sentences.size() + 2; n++) {
+            int expected = 0;
+            if (n >= 1 && n <= sentences.size()) {
+                expected = getAddr(sentences.get(n - 1));
+            }
+            else if (n == sentences.size() + 1 && !sentences.isEmpty()) {
+                expected = getAddr(sentences.get(sentences.size() - 1));
+            }
+            assertEquals("sentence address " + n, expected,
+                    WebAnnoCasUtil.getSentenceAddress(aJCas, n));
+        }
+        
+        for (int i = 0; i < sentences.size(); i++) {
+            assertEquals(i, WebAnnoCasUtil.getFirstSentenceNumber(aJCas,
+                    getAddr(sentences.get(i))));
+        }
+        assertEquals(sentences.size(), WebAnnoCasUtil.getFirstSentenceNumber(aJCas, -1));
+        
+        List<Integer> pages = new ArrayList<>();
+        for (int i = 0; i < sentences.size(); i += 2) {
+            pages.add(getAddr(sentences.get(i)));
+        }
+        assertEquals(pages, WebAnnoCasUtil.getDisplayWindowBeginningSentenceAddresses(aJCas, 2));
+    }
+    
+    private static int expectedSentenceNumber(List<Sentence> aSentences, int aOffset)
+    {
+        for (int i = 0; i < aSentences.size(); i++) {
+            Sentence s = aSentences.get(i);
+            if (s.getBegin() <= aOffset && aOffset <= s.getEnd()) {
+                return i + 1;
+            }
+        }
+        return aSentences.size();
+    }
+    
+    private static Sentence expectedSentenceByAnnoEnd(List<Sentence> aSentences, int aEnd)
+    {
+        int prevEnd = 0;
+        Sentence sent = null;
+        for (Sentence sentence : aSentences) {
+            if (prevEnd >= aEnd) {
+                return sent;
+            }
+            sent = sentence;
+            prevEnd = sent.getEnd();
+        }
+        return sent;
+    }
+    
+    private static Sentence expectedCurrentSentence(List<Sentence> aSentences, int aBegin,
+            int aEnd)
+    {
+        for (Sentence s : aSentences) {
+            if (s.getBegin() <= aBegin && s.getEnd() > aBegin && s.getEnd() <= aEnd) {
+                return s;
+            }
+        }
+        return null;
+    }
+    
+    private static JCas createJCas(int[][] aSentences)
+        throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("This is a test . And another test .");
+        for (int[] s : aSentences) {
+            new Sentence(jcas, s[0], s[1]).addToIndexes();
+        }
+        return jcas;
+    }
+}
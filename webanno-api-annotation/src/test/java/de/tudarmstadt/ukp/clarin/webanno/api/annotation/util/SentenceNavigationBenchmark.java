@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
+
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+/**
+ * Navigates through documents of different sizes. The time per navigation step is printed - it
+ * should barely grow with the number of sentences in the document. The results of the navigation
+ * helpers are checked by {@link SentenceIndexTest}.
+ * <p>
+ * Not part of the regular test run - use {@code mvn test -Pbenchmark}.
+ */
+public class SentenceNavigationBenchmark
+{
+    private static final int SENTENCE_LENGTH = 20;
+    private static final int ITERATIONS = 10_000;
+
+    @Test
+    public void benchmark200Sentences()
+        throws Exception
+    {
+        run(200);
+    }
+
+    @Test
+    public void benchmark20000Sentences()
+        throws Exception
+    {
+        run(20_000);
+    }
+
+    private void run(int aSentences)
+        throws Exception
+    {
+        JCas jcas = createJCas(aSentences);
+
+        // Warm up
+        navigate(jcas, aSentences);
+
+        long start = System.nanoTime();
+        navigate(jcas, aSentences);
+        long duration = System.nanoTime() - start;
+
+        System.out.printf("%d sentences: %.2f us per navigation step%n", aSentences,
+                duration / 1000.0 / ITERATIONS);
+    }
+
+    /**
+     * Performs the lookups done when paging through a document.
+     */
+    private void navigate(JCas aJCas, int aSentences)
+    {
+        for (int i = 0; i < ITERATIONS; i++) {
+            int sentence = (i * 7919) % aSentences;
+            int offset = sentence * SENTENCE_LENGTH + 1;
+            int address = WebAnnoCasUtil.getSentenceAddress(aJCas, sentence + 1);
+            WebAnnoCasUtil.getFirstSentenceNumber(aJCas, address);
+            WebAnnoCasUtil.getSentenceNumber(aJCas, offset);
+            WebAnnoCasUtil.getCurrentSentence(aJCas, offset, offset + SENTENCE_LENGTH);
+            WebAnnoCasUtil.getSentenceByAnnoEnd(aJCas, offset);
+        }
+    }
+
+    private static JCas createJCas(int aSentences)
+        throws Exception
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < aSentences; i++) {
+            text.append("This is sentence . ");
+            while (text.length() < (i + 1) * SENTENCE_LENGTH) {
+                text.append(' ');
+            }
+        }
+
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText(text.toString());
+        for (int i = 0; i < aSentences; i++) {
+            new Sentence(jcas, i * SENTENCE_LENGTH, i * SENTENCE_LENGTH + 18).addToIndexes();
+        }
+        return jcas;
+    }
+}
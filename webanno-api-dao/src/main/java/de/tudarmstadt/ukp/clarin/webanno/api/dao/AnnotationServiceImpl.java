@@ -26,6 +26,9 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
@@ -43,6 +46,7 @@ import org.springframework.transaction.annotation.Transactional;
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
 import de.tudarmstadt.ukp.clarin.webanno.api.Logging;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.SchemaCache.ProjectSchema;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.LinkMode;
@@ -75,17 +79,28 @@ public class AnnotationServiceImpl
     @SpringBean(name = "documentRepository")
     private RepositoryService projectRepository;
 
+    private final AtomicLong schemaVersionCounter = new AtomicLong();
+    private final Map<Long, Long> schemaVersions = new ConcurrentHashMap<>();
+
+    private final SchemaCache schemaCache = new SchemaCache();
+
     public AnnotationServiceImpl()
     {
 
     }
 
+    public SchemaCache getSchemaCache()
+    {
+        return schemaCache;
+    }
+
     @Override
     @Transactional
     public void createTag(Tag aTag)
         throws IOException
     {
         entityManager.persist(aTag);
+        schemaCache.invalidate(aTag.getTagSet());
 
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aTag.getTagSet().getProject().getId()))) {
@@ -110,6 +125,8 @@ public class AnnotationServiceImpl
             entityManager.merge(aTagSet);
         }
         
+        schemaCache.invalidate(aTagSet.getProject());
+        
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aTagSet.getProject().getId()))) {
             Project project = aTagSet.getProject();
@@ -130,6 +147,8 @@ public class AnnotationServiceImpl
             entityManager.merge(aLayer);
         }
         
+        schemaChanged(aLayer.getProject());
+        
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aLayer.getProject().getId()))) {
             Project project = aLayer.getProject();
@@ -148,15 +167,21 @@ public class AnnotationServiceImpl
         else {
             entityManager.merge(aFeature);
         }
+        
+        schemaChanged(aFeature.getProject());
     }
 
     @Override
     @Transactional
     public Tag getTag(String aTagName, TagSet aTagSet)
     {
-        return entityManager
-                .createQuery("FROM Tag WHERE name = :name AND" + " tagSet =:tagSet", Tag.class)
-                .setParameter("name", aTagName).setParameter("tagSet", aTagSet).getSingleResult();
+        for (Tag tag : listTags(aTagSet)) {
+            if (tag.getName().equals(aTagName)) {
+                return tag;
+            }
+        }
+        throw new NoResultException("No tag [" + aTagName + "] in tagset [" + aTagSet.getName()
+                + "]");
     }
 
     @Override
@@ -208,45 +233,30 @@ public class AnnotationServiceImpl
     @Transactional(noRollbackFor = NoResultException.class)
     public boolean existsLayer(String aName, String aType, Project aProject)
     {
-        try {
-            entityManager
-                    .createQuery(
-                            "FROM AnnotationLayer WHERE name = :name AND type = :type AND project = :project",
-                            AnnotationLayer.class).setParameter("name", aName)
-                    .setParameter("type", aType).setParameter("project", aProject)
-                    .getSingleResult();
-            return true;
-        }
-        catch (NoResultException e) {
-            return false;
-
-        }
+        AnnotationLayer layer = getSchema(aProject).getLayer(aName);
+        return layer != null && aType.equals(layer.getType());
     }
 
     @Override
     public boolean existsFeature(String aName, AnnotationLayer aLayer)
     {
-
-        try {
-            entityManager
-                    .createQuery("FROM AnnotationFeature WHERE name = :name AND layer = :layer",
-                            AnnotationFeature.class).setParameter("name", aName)
-                    .setParameter("layer", aLayer).getSingleResult();
-            return true;
-        }
-        catch (NoResultException e) {
+        if (aLayer.getId() == 0) {
             return false;
-
         }
+        
+        return getSchema(aLayer.getProject()).getFeature(aName, aLayer) != null;
     }
 
     @Override
     @Transactional
     public TagSet getTagSet(String aName, Project aProject)
     {
-        return entityManager
-                .createQuery("FROM TagSet WHERE name = :name AND project =:project", TagSet.class)
-                .setParameter("name", aName).setParameter("project", aProject).getSingleResult();
+        TagSet tagSet = getSchema(aProject).getTagSet(aName);
+        if (tagSet == null) {
+            throw new NoResultException("No tagset [" + aName + "] in project ["
+                    + aProject.getName() + "]");
+        }
+        return tagSet;
     }
 
     @Override
@@ -261,6 +271,11 @@ public class AnnotationServiceImpl
     @Transactional
     public AnnotationLayer getLayer(long aId)
     {
+        AnnotationLayer layer = schemaCache.findLayer(aId);
+        if (layer != null) {
+            return layer;
+        }
+        
         return entityManager
                 .createQuery("FROM AnnotationLayer WHERE id = :id", AnnotationLayer.class)
                 .setParameter("id", aId).getSingleResult();
@@ -270,16 +285,23 @@ public class AnnotationServiceImpl
     @Transactional(noRollbackFor = NoResultException.class)
     public AnnotationLayer getLayer(String aName, Project aProject)
     {
-        return entityManager
-                .createQuery("From AnnotationLayer where name = :name AND project =:project",
-                        AnnotationLayer.class).setParameter("name", aName)
-                .setParameter("project", aProject).getSingleResult();
+        AnnotationLayer layer = getSchema(aProject).getLayer(aName);
+        if (layer == null) {
+            throw new NoResultException("No layer [" + aName + "] in project ["
+                    + aProject.getName() + "]");
+        }
+        return layer;
     }
 
     @Override
     @Transactional(noRollbackFor = NoResultException.class)
     public AnnotationFeature getFeature(long aId)
     {
+        AnnotationFeature feature = schemaCache.findFeature(aId);
+        if (feature != null) {
+            return feature;
+        }
+        
         return entityManager
                 .createQuery("From AnnotationFeature where id = :id", AnnotationFeature.class)
                 .setParameter("id", aId).getSingleResult();
@@ -289,10 +311,13 @@ public class AnnotationServiceImpl
     @Transactional(noRollbackFor = NoResultException.class)
     public AnnotationFeature getFeature(String aName, AnnotationLayer aLayer)
     {
-        return entityManager
-                .createQuery("From AnnotationFeature where name = :name AND layer = :layer",
-                        AnnotationFeature.class).setParameter("name", aName)
-                .setParameter("layer", aLayer).getSingleResult();
+        AnnotationFeature feature = aLayer.getId() != 0
+                ? getSchema(aLayer.getProject()).getFeature(aName, aLayer) : null;
+        if (feature == null) {
+            throw new NoResultException("No feature [" + aName + "] in layer ["
+                    + aLayer.getName() + "]");
+        }
+        return feature;
     }
 
     @Override
@@ -717,9 +742,7 @@ public class AnnotationServiceImpl
     @Transactional
     public List<AnnotationLayer> listAnnotationLayer(Project aProject)
     {
-        return entityManager
-                .createQuery("FROM AnnotationLayer WHERE project =:project ORDER BY uiName",
-                        AnnotationLayer.class).setParameter("project", aProject).getResultList();
+        return getSchema(aProject).getLayers();
     }
 
     @Override
@@ -759,19 +782,14 @@ public class AnnotationServiceImpl
             return new ArrayList<AnnotationFeature>();
         }
 
-        return entityManager
-                .createQuery("FROM AnnotationFeature  WHERE layer =:layer ORDER BY uiName",
-                        AnnotationFeature.class).setParameter("layer", aLayer).getResultList();
+        return getSchema(aLayer.getProject()).getFeatures(aLayer);
     }
 
     @Override
     @Transactional
     public List<AnnotationFeature> listAnnotationFeature(Project aProject)
     {
-        return entityManager
-                .createQuery(
-                        "FROM AnnotationFeature f WHERE project =:project ORDER BY f.layer.uiName, f.uiName",
-                        AnnotationFeature.class).setParameter("project", aProject).getResultList();
+        return getSchema(aProject).getFeatures();
     }
 
     @Override
@@ -785,14 +803,9 @@ public class AnnotationServiceImpl
     @Transactional
     public List<Tag> listTags(TagSet aTagSet)
     {
-        List<Tag> tags = entityManager
+        return schemaCache.getTags(aTagSet, tagSet -> entityManager
                 .createQuery("FROM Tag WHERE tagSet = :tagSet ORDER BY name ASC", Tag.class)
-                .setParameter("tagSet", aTagSet).getResultList();
-        // FIXME ?!? This loop appears to make absolutely not sense!
-        for (int i = 0; i < tags.size(); i++) {
-            tags.get(i).setName(tags.get(i).getName());
-        }
-        return tags;
+                .setParameter("tagSet", tagSet).getResultList());
     }
 
     @Override
@@ -807,16 +820,15 @@ public class AnnotationServiceImpl
     @Transactional(noRollbackFor = NoResultException.class)
     public List<TagSet> listTagSets(Project aProject)
     {
-        return entityManager
-                .createQuery("FROM TagSet where project = :project ORDER BY name ASC", TagSet.class)
-                .setParameter("project", aProject).getResultList();
+        return getSchema(aProject).getTagSets();
     }
 
     @Override
     @Transactional
     public void removeTag(Tag aTag)
     {
-        entityManager.remove(aTag);
+        entityManager.remove(entityManager.merge(aTag));
+        schemaCache.invalidate(aTag.getTagSet());
     }
 
     @Override
@@ -824,30 +836,80 @@ public class AnnotationServiceImpl
     public void removeTagSet(TagSet aTagSet)
     {
         for (Tag tag : listTags(aTagSet)) {
-            entityManager.remove(tag);
+            entityManager.remove(entityManager.merge(tag));
         }
-        entityManager.remove(aTagSet);
+        entityManager.remove(entityManager.merge(aTagSet));
+        schemaCache.invalidate(aTagSet);
+        schemaCache.invalidate(aTagSet.getProject());
     }
 
     @Override
     @Transactional
     public void removeAnnotationFeature(AnnotationFeature aFeature)
     {
-        entityManager.remove(aFeature);
+        entityManager.remove(entityManager.merge(aFeature));
+        schemaChanged(aFeature.getProject());
     }
 
     @Override
     @Transactional
     public void removeAnnotationLayer(AnnotationLayer aLayer)
     {
-        entityManager.remove(aLayer);
+        entityManager.remove(entityManager.merge(aLayer));
+        schemaChanged(aLayer.getProject());
     }
 
 	@Override
 	@Transactional
 	public void removeAllTags(TagSet aTagSet) {
 		for (Tag tag : listTags(aTagSet)) {
-			entityManager.remove(tag);
+			entityManager.remove(entityManager.merge(tag));
 		}
+		schemaCache.invalidate(aTagSet);
 	}
+
+    @Override
+    public long getSchemaVersion(Project aProject)
+    {
+        Long version = schemaVersions.get(aProject.getId());
+        return version != null ? version : 0;
+    }
+
+    /**
+     * Bump the schema version of the given project and drop its cached schema.
+     */
+    private void schemaChanged(Project aProject)
+    {
+        long projectId = aProject.getId();
+        CacheGeneration.runNowAndAfterCompletion(() -> schemaVersions.put(projectId,
+                schemaVersionCounter.incrementAndGet()));
+        schemaCache.invalidate(aProject);
+    }
+
+    /**
+     * Get the cached schema of the given project, loading it if necessary.
+     */
+    private ProjectSchema getSchema(Project aProject)
+    {
+        return schemaCache.getSchema(aProject, this::loadSchema);
+    }
+
+    private ProjectSchema loadSchema(Project aProject)
+    {
+        List<AnnotationLayer> layers = entityManager
+                .createQuery("FROM AnnotationLayer WHERE project =:project ORDER BY uiName",
+                        AnnotationLayer.class)
+                .setParameter("project", aProject).getResultList();
+        List<AnnotationFeature> features = entityManager
+                .createQuery(
+                        "FROM AnnotationFeature f WHERE project =:project "
+                                + "ORDER BY f.layer.uiName, f.uiName",
+                        AnnotationFeature.class)
+                .setParameter("project", aProject).getResultList();
+        List<TagSet> tagSets = entityManager
+                .createQuery("FROM TagSet where project = :project ORDER BY name ASC",
+                        TagSet.class)
+                .setParameter("project", aProject).getResultList();
+        return new ProjectSchema(layers, features, tagSets);
+    }
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Guards a read-through cache against caching stale data.
+ * <p>
+ * A value which is loaded while the cache is invalidated must not be cached, so a loader records
+ * the generation before loading and only caches the result if the generation is still
+ * {@link #isCurrent(long) current} afterwards. Since other threads cannot see the changes of a
+ * transaction before it is committed, they could load and cache the old data while the
+ * transaction is still running. Therefore, an {@link #invalidate(Runnable) invalidation} is
+ * repeated after the current transaction (if any) completes.
+ */
+public class CacheGeneration
+{
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @return the current generation. Record it before loading a value to be cached.
+     */
+    public long get()
+    {
+        return generation.get();
+    }
+
+    /**
+     * @param aGeneration
+     *            the generation recorded before loading a value.
+     * @return whether the cache has not been invalidated since, i.e. whether the value may be
+     *         cached.
+     */
+    public boolean isCurrent(long aGeneration)
+    {
+        return generation.get() == aGeneration;
+    }
+
+    /**
+     * Start a new generation and drop the affected cache entries, now and again when the current
+     * transaction completes.
+     *
+     * @param aInvalidation
+     *            drops the affected cache entries.
+     */
+    public void invalidate(Runnable aInvalidation)
+    {
+        runNowAndAfterCompletion(() -> {
+            generation.incrementAndGet();
+            aInvalidation.run();
+        });
+    }
+
+    /**
+     * Run the given action now and, if a transaction is active, again when it completes.
+     *
+     * @param aAction
+     *            the action.
+     */
+    public static void runNowAndAfterCompletion(Runnable aAction)
+    {
+        aAction.run();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(
+                    new TransactionSynchronizationAdapter()
+                    {
+                        @Override
+                        public void afterCompletion(int aStatus)
+                        {
+                            aAction.run();
+                        }
+                    });
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+import org.apache.uima.jcas.JCas;
+import org.springframework.dao.DataRetrievalFailureException;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+
+/**
+ * Reads the CASes of many annotation documents. The CASes are deserialized in parallel on a
+ * bounded pool of threads. How many CASes are read ahead of the caller is limited by a memory
+ * budget, so a caller processing the CASes one after the other only needs to keep a few of them
+ * in memory at any time.
+ */
+public class CasBatchLoader
+{
+    /**
+     * A deserialized CAS takes several times the size of its file in memory.
+     */
+    static final int MEMORY_PER_FILE_BYTE = 4;
+
+    private static final long IDLE_TIMEOUT_S = 60;
+
+    private final int threads;
+    private final long memoryBudget;
+    private final ExecutorService executor;
+
+    private final AtomicLong loaded = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+
+    /**
+     * Reads a single CAS.
+     */
+    @FunctionalInterface
+    public interface CasReader
+    {
+        JCas read(AnnotationDocument aDocument)
+            throws IOException;
+    }
+
+    /**
+     * @param aThreads
+     *            the maximum number of CASes deserialized in parallel. If it is zero or negative,
+     *            the CASes are read on the calling thread.
+     * @param aMemoryBudget
+     *            the memory (in bytes) the CASes read ahead of the caller may take up. At least
+     *            one CAS is always read ahead.
+     */
+    public CasBatchLoader(int aThreads, long aMemoryBudget)
+    {
+        threads = aThreads;
+        memoryBudget = aMemoryBudget;
+
+        if (aThreads > 0) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(aThreads, aThreads, IDLE_TIMEOUT_S,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                        Thread thread = new Thread(r, "cas-loader");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+        }
+        else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Read the CASes of the given annotation documents.
+     *
+     * @param aDocuments
+     *            the annotation documents.
+     * @param aFileSize
+     *            the size of the file of the CAS of an annotation document or -1 if there is no
+     *            such file yet. CASes without a file are read on the calling thread, as they may
+     *            have to be created first.
+     * @param aReader
+     *            reads a CAS.
+     * @return the CASes in the order of the annotation documents.
+     * @throws IOException
+     *             if a CAS cannot be read.
+     */
+    public List<JCas> load(List<AnnotationDocument> aDocuments,
+            ToLongFunction<AnnotationDocument> aFileSize, CasReader aReader)
+        throws IOException
+    {
+        List<JCas> cases = new ArrayList<>(aDocuments.size());
+        Batch batch = new Batch(aDocuments, aFileSize, aReader);
+        try {
+            while (batch.hasNext()) {
+                cases.add(batch.nextCas());
+            }
+        }
+        finally {
+            batch.cancel();
+        }
+        return cases;
+    }
+
+    /**
+     * Read the CASes of the given annotation documents one after the other. The CASes are read
+     * ahead in the background within the memory budget. If a CAS cannot be read, {@code next()}
+     * throws a {@link DataRetrievalFailureException} for it, but the following CASes can still be
+     * retrieved.
+     *
+     * @param aDocuments
+     *            the annotation documents.
+     * @param aFileSize
+     *            see {@link #load}.
+     * @param aReader
+     *            reads a CAS.
+     * @return the CASes in the order of the annotation documents.
+     */
+    public Iterator<JCas> iterate(List<AnnotationDocument> aDocuments,
+            ToLongFunction<AnnotationDocument> aFileSize, CasReader aReader)
+    {
+        Batch batch = new Batch(aDocuments, aFileSize, aReader);
+        return new Iterator<JCas>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return batch.hasNext();
+            }
+
+            @Override
+            public JCas next()
+            {
+                try {
+                    return batch.nextCas();
+                }
+                catch (IOException e) {
+                    throw new DataRetrievalFailureException(e.getMessage(), e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Stop the threads reading CASes.
+     */
+    public void stop()
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the maximum number of CASes deserialized in parallel.
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    /**
+     * @return the memory budget for CASes read ahead.
+     */
+    public long getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the number of CASes read.
+     */
+    public long getLoaded()
+    {
+        return loaded.get();
+    }
+
+    /**
+     * @return how often a caller had to wait for a CAS still being read.
+     */
+    public long getWaits()
+    {
+        return waits.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CasBatchLoader [threads=" + threads + ", memoryBudget=" + memoryBudget
+                + ", loaded=" + getLoaded() + ", waits=" + getWaits() + "]";
+    }
+
+    /**
+     * The state of reading the CASes of a list of annotation documents.
+     */
+    private class Batch
+    {
+        private final Iterator<AnnotationDocument> documents;
+        private final ToLongFunction<AnnotationDocument> fileSize;
+        private final CasReader reader;
+
+        /**
+         * The CASes read ahead in the order of the annotation documents.
+         */
+        private final Deque<Pending> pending = new ArrayDeque<>();
+        private long pendingMemory;
+
+        private Batch(List<AnnotationDocument> aDocuments,
+                ToLongFunction<AnnotationDocument> aFileSize, CasReader aReader)
+        {
+            documents = aDocuments.iterator();
+            fileSize = aFileSize;
+            reader = aReader;
+        }
+
+        private boolean hasNext()
+        {
+            return !pending.isEmpty() || documents.hasNext();
+        }
+
+        private JCas nextCas()
+            throws IOException
+        {
+            readAhead();
+
+            Pending next = pending.poll();
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            pendingMemory -= next.memory;
+
+            // Keep the threads busy while the caller processes this CAS
+            readAhead();
+
+            try {
+                JCas cas;
+                if (next.future != null) {
+                    if (!next.future.isDone()) {
+                        waits.incrementAndGet();
+                    }
+                    cas = next.future.get();
+                }
+                else {
+                    cas = reader.read(next.document);
+                }
+                loaded.incrementAndGet();
+                return cas;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading CAS", e);
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+
+        /**
+         * Start reading further CASes as long as the memory budget permits. CASes read on the
+         * calling thread are only read when they are needed.
+         */
+        private void readAhead()
+        {
+            while (documents.hasNext() && (pending.isEmpty() || (executor != null
+                    && pending.size() <= threads && pendingMemory < memoryBudget))) {
+                AnnotationDocument document = documents.next();
+                long size = fileSize.applyAsLong(document);
+
+                Pending next = new Pending(document);
+                if (executor != null && size >= 0) {
+                    next.memory = size * MEMORY_PER_FILE_BYTE;
+                    next.future = executor.submit(() -> reader.read(document));
+                }
+                pending.add(next);
+                pendingMemory += next.memory;
+            }
+        }
+
+        private void cancel()
+        {
+            for (Pending p : pending) {
+                if (p.future != null) {
+                    p.future.cancel(false);
+                }
+            }
+            pending.clear();
+        }
+    }
+
+    private static class Pending
+    {
+        private final AnnotationDocument document;
+        private Future<JCas> future;
+        private long memory;
+
+        private Pending(AnnotationDocument aDocument)
+        {
+            document = aDocument;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.uima.cas.impl.CASCompleteSerializer;
+import org.apache.uima.cas.impl.CASMgrSerializer;
+import org.apache.uima.cas.impl.CASSerializer;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Size-bounded LRU cache of deserialized CAS snapshots. An entry is only valid as long as the
+ * timestamp of the CAS file it was loaded from does not change.
+ * <p>
+ * The cache does not hold live CAS instances because callers modify the CASes they obtain from
+ * the repository. Instead, it holds the {@link CASCompleteSerializer} read from the CAS file. This
+ * avoids disk access and Java deserialization while every caller still gets an independent CAS.
+ */
+public class CasCache
+{
+    private final long maxSize;
+    private long size;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final LinkedHashMap<Key, CachedCas> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param aMaxSize
+     *            the cache budget in bytes. If the budget is zero or negative, nothing is cached.
+     */
+    public CasCache(long aMaxSize)
+    {
+        maxSize = aMaxSize;
+    }
+
+    /**
+     * Get the CAS snapshot for the given document and user.
+     *
+     * @param aDocument
+     *            the source document.
+     * @param aUsername
+     *            the user owning the CAS.
+     * @param aTimestamp
+     *            the last-modified timestamp of the CAS file.
+     * @return the cached snapshot or {@code null} if there is none or if it is outdated.
+     */
+    public synchronized CachedCas get(SourceDocument aDocument, String aUsername, long aTimestamp)
+    {
+        Key key = new Key(aDocument.getId(), aUsername);
+        CachedCas entry = entries.get(key);
+
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        if (entry.timestamp != aTimestamp) {
+            // The file has been changed behind our back - drop the stale entry
+            entries.remove(key);
+            size -= entry.size;
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * Add a CAS snapshot to the cache. Least recently used entries are evicted until the cache
+     * fits its budget again.
+     *
+     * @param aDocument
+     *            the source document.
+     * @param aUsername
+     *            the user owning the CAS.
+     * @param aTimestamp
+     *            the last-modified timestamp of the CAS file.
+     * @param aSize
+     *            the size of the CAS in bytes.
+     * @param aSerializer
+     *            the CAS snapshot.
+     * @param aFingerprint
+     *            the type system fingerprint of the CAS (may be {@code null}).
+     * @param aDeltas
+     *            the number of changes stored in the CAS file or -1 if no further changes can be
+     *            appended to the file.
+     */
+    public synchronized void put(SourceDocument aDocument, String aUsername, long aTimestamp,
+            long aSize, CASCompleteSerializer aSerializer, String aFingerprint, int aDeltas)
+    {
+        // Do not let a single huge CAS flush the whole cache
+        if (aSize > maxSize) {
+            return;
+        }
+
+        CachedCas old = entries.put(new Key(aDocument.getId(), aUsername),
+                new CachedCas(aTimestamp, aSize, aSerializer, aFingerprint, aDeltas));
+        if (old != null) {
+            size -= old.size;
+        }
+        size += aSize;
+
+        Iterator<CachedCas> i = entries.values().iterator();
+        while (size > maxSize && i.hasNext()) {
+            CachedCas eldest = i.next();
+            i.remove();
+            size -= eldest.size;
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drop the cached CAS for the given document and user.
+     *
+     * @param aDocument
+     *            the source document.
+     * @param aUsername
+     *            the user owning the CAS.
+     */
+    public synchronized void invalidate(SourceDocument aDocument, String aUsername)
+    {
+        CachedCas old = entries.remove(new Key(aDocument.getId(), aUsername));
+        if (old != null) {
+            size -= old.size;
+        }
+    }
+
+    /**
+     * Drop the cached CASes of all users for the given document.
+     *
+     * @param aDocument
+     *            the source document.
+     */
+    public synchronized void invalidate(SourceDocument aDocument)
+    {
+        Iterator<Map.Entry<Key, CachedCas>> i = entries.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry<Key, CachedCas> e = i.next();
+            if (e.getKey().documentId == aDocument.getId()) {
+                i.remove();
+                size -= e.getValue().size;
+            }
+        }
+    }
+
+    /**
+     * Estimate the memory used by a CAS snapshot. The size of a CAS file cannot be used for this
+     * since CAS files may be stored in a compressed format.
+     *
+     * @param aSerializer
+     *            the CAS snapshot.
+     * @return the estimated size in bytes.
+     */
+    public static long estimateSize(CASCompleteSerializer aSerializer)
+    {
+        long size = 0;
+        
+        CASSerializer cas = aSerializer.getCASSerializer();
+        if (cas != null) {
+            size += sizeOf(cas.heapArray) + sizeOf(cas.heapMetaData) + sizeOf(cas.fsIndex)
+                    + sizeOf(cas.stringTable);
+            size += cas.byteHeapArray != null ? cas.byteHeapArray.length : 0;
+            size += cas.shortHeapArray != null ? 2L * cas.shortHeapArray.length : 0;
+            size += cas.longHeapArray != null ? 8L * cas.longHeapArray.length : 0;
+        }
+        
+        CASMgrSerializer typeSystem = aSerializer.getCASMgrSerializer();
+        if (typeSystem != null) {
+            size += sizeOf(typeSystem.typeNames) + sizeOf(typeSystem.featureNames)
+                    + sizeOf(typeSystem.typeInheritance) + sizeOf(typeSystem.featDecls)
+                    + sizeOf(typeSystem.typeOrder) + sizeOf(typeSystem.featureOffsets);
+        }
+        
+        return size;
+    }
+    
+    private static long sizeOf(int[] aArray)
+    {
+        return aArray != null ? 4L * aArray.length : 0;
+    }
+    
+    private static long sizeOf(String[] aArray)
+    {
+        if (aArray == null) {
+            return 0;
+        }
+        
+        // Reference plus object header and character data of each string
+        long size = 0;
+        for (String s : aArray) {
+            size += 8 + (s != null ? 40 + 2L * s.length() : 0);
+        }
+        return size;
+    }
+
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+    public long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    public synchronized int getEntryCount()
+    {
+        return entries.size();
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    public long getEvictions()
+    {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CasCache [entries=" + getEntryCount() + ", size=" + getSize() + ", maxSize="
+                + maxSize + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions="
+                + getEvictions() + "]";
+    }
+
+    private static final class Key
+    {
+        private final long documentId;
+        private final String username;
+
+        public Key(long aDocumentId, String aUsername)
+        {
+            documentId = aDocumentId;
+            username = aUsername;
+        }
+
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (!(aOther instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) aOther;
+            return documentId == other.documentId && username.equals(other.username);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(documentId, username);
+        }
+    }
+
+    public static final class CachedCas
+    {
+        private final long timestamp;
+        private final long size;
+        private final CASCompleteSerializer serializer;
+        private final String fingerprint;
+        private final int deltas;
+
+        private CachedCas(long aTimestamp, long aSize, CASCompleteSerializer aSerializer,
+                String aFingerprint, int aDeltas)
+        {
+            timestamp = aTimestamp;
+            size = aSize;
+            serializer = aSerializer;
+            fingerprint = aFingerprint;
+            deltas = aDeltas;
+        }
+
+        public CASCompleteSerializer getSerializer()
+        {
+            return serializer;
+        }
+
+        public String getFingerprint()
+        {
+            return fingerprint;
+        }
+
+        public int getDeltas()
+        {
+            return deltas;
+        }
+    }
+}
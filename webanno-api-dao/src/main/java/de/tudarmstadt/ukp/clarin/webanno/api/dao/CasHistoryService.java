@@ -0,0 +1,462 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.api.Logging;
+
+/**
+ * Maintains the history of CAS files ({@code <username>.ser.<timestamp>.bak}) in the background.
+ * Saving a CAS only registers the save. A background thread later creates the history file and
+ * removes history files exceeding the configured number or age.
+ * <p>
+ * All saves of a document/user pair within the backup interval are coalesced into a single
+ * history file. The snapshot is taken once the interval since the previous history file has
+ * passed, so the last state saved within an interval always ends up in the history.
+ * <p>
+ * The history files of a document/user pair are listed only once. Afterwards, their timestamps
+ * are tracked in memory so that the annotation folder does not need to be scanned on every save.
+ */
+public class CasHistoryService
+{
+    private static final Logger LOG = LoggerFactory.getLogger(CasHistoryService.class);
+
+    private static final String HISTORY_SUFFIX = ".bak";
+
+    /**
+     * How often the background thread checks for pending snapshots.
+     */
+    private static final long CHECK_INTERVAL_MS = 1000;
+
+    private final long interval;
+    private final int keepNumber;
+    private final long keepTime;
+    private final Snapshotter snapshotter;
+
+    private final Map<Key, PendingSnapshot> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Timestamps of the history files by document/user, oldest first. Guarded by the monitor of
+     * this service.
+     */
+    private final Map<Key, Deque<Long>> histories = new HashMap<>();
+
+    private final AtomicLong saves = new AtomicLong();
+    private final AtomicLong snapshots = new AtomicLong();
+    private final AtomicLong pruned = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates the history file for a CAS.
+     */
+    @FunctionalInterface
+    public interface Snapshotter
+    {
+        /**
+         * Copy the current CAS of the given user to the given history file.
+         */
+        void snapshot(SourceDocument aDocument, String aUsername, File aHistoryFile)
+            throws IOException;
+    }
+
+    /**
+     * @param aInterval
+     *            the minimum time between two history files. If it is zero or negative, no
+     *            history is kept.
+     * @param aKeepNumber
+     *            the maximum number of history files to keep (0 for unlimited).
+     * @param aKeepTime
+     *            the maximum age of history files to keep (0 for unlimited).
+     * @param aSnapshotter
+     *            creates the history files.
+     */
+    public CasHistoryService(long aInterval, int aKeepNumber, long aKeepTime,
+            Snapshotter aSnapshotter)
+    {
+        interval = aInterval;
+        keepNumber = aKeepNumber;
+        keepTime = aKeepTime;
+        snapshotter = aSnapshotter;
+    }
+
+    /**
+     * @return whether history files are created at all.
+     */
+    public boolean isEnabled()
+    {
+        return interval > 0;
+    }
+
+    /**
+     * Start processing pending snapshots in the background.
+     */
+    public synchronized void start()
+    {
+        if (!isEnabled() || scheduler != null) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cas-history");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> process(System.currentTimeMillis()),
+                CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop processing pending snapshots. Snapshots which are due are still taken.
+     */
+    public void stop()
+    {
+        ScheduledExecutorService s;
+        synchronized (this) {
+            s = scheduler;
+            scheduler = null;
+        }
+
+        if (s != null) {
+            s.shutdown();
+            try {
+                s.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            process(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Register that the CAS of the given user has been saved.
+     *
+     * @param aDocument
+     *            the source document.
+     * @param aUsername
+     *            the user owning the CAS.
+     * @param aAnnotationFolder
+     *            the folder holding the CAS file and its history.
+     * @param aTimestamp
+     *            the time of the save.
+     */
+    public void saved(SourceDocument aDocument, String aUsername, File aAnnotationFolder,
+            long aTimestamp)
+    {
+        if (!isEnabled()) {
+            return;
+        }
+
+        saves.incrementAndGet();
+        pending.merge(new Key(aDocument.getId(), aUsername),
+                new PendingSnapshot(aDocument, aUsername, aAnnotationFolder, aTimestamp),
+                (existing, added) -> existing.update(aTimestamp));
+    }
+
+    /**
+     * Take all snapshots which are due at the given time and prune the history.
+     *
+     * @param aNow
+     *            the current time.
+     */
+    synchronized void process(long aNow)
+    {
+        Iterator<Map.Entry<Key, PendingSnapshot>> i = pending.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry<Key, PendingSnapshot> e = i.next();
+            Key key = e.getKey();
+            PendingSnapshot snapshot = e.getValue();
+
+            try {
+                Deque<Long> history = getHistory(key, snapshot);
+                long due = history.isEmpty() ? snapshot.getFirstSave()
+                        : Math.max(snapshot.getFirstSave(), history.getLast() + interval + 1);
+                if (due > aNow) {
+                    continue;
+                }
+
+                // Saves registered from now on need a new snapshot
+                pending.remove(key, snapshot);
+                long timestamp = snapshot.getLastSave();
+                File historyFile = getHistoryFile(snapshot, timestamp);
+                snapshotter.snapshot(snapshot.document, snapshot.username, historyFile);
+                historyFile.setLastModified(timestamp);
+                history.addLast(timestamp);
+                snapshots.incrementAndGet();
+
+                prune(snapshot, history, timestamp);
+            }
+            catch (IOException ex) {
+                // The document may have been deleted in the meantime - do not keep trying
+                pending.remove(key, snapshot);
+                histories.remove(key);
+                failures.incrementAndGet();
+                LOG.warn("Unable to create history file for user [{}] on document [{}]({})",
+                        snapshot.username, snapshot.document.getName(),
+                        snapshot.document.getId(), ex);
+            }
+        }
+    }
+
+    private Deque<Long> getHistory(Key aKey, PendingSnapshot aSnapshot)
+    {
+        Deque<Long> history = histories.get(aKey);
+        if (history != null) {
+            return history;
+        }
+
+        Matcher matcher = Pattern
+                .compile(Pattern.quote(aSnapshot.username) + "\\.ser\\.([0-9]+)\\.bak")
+                .matcher("");
+        List<Long> timestamps = new ArrayList<>();
+        String[] names = aSnapshot.folder.list();
+        if (names != null) {
+            for (String name : names) {
+                if (matcher.reset(name).matches()) {
+                    timestamps.add(Long.valueOf(matcher.group(1)));
+                }
+            }
+        }
+        timestamps.sort(null);
+
+        history = new ArrayDeque<>(timestamps);
+        histories.put(aKey, history);
+        return history;
+    }
+
+    private void prune(PendingSnapshot aSnapshot, Deque<Long> aHistory, long aNow)
+    {
+        // Prune history based on number of backups
+        if (keepNumber > 0) {
+            while (aHistory.size() > keepNumber) {
+                remove(aSnapshot, aHistory.removeFirst(), "surplus");
+            }
+        }
+
+        // Prune history based on time - the newest history file is always kept
+        if (keepTime > 0) {
+            while (aHistory.size() > 1 && aHistory.getFirst() + keepTime < aNow) {
+                remove(aSnapshot, aHistory.removeFirst(), "outdated");
+            }
+        }
+    }
+
+    private void remove(PendingSnapshot aSnapshot, long aTimestamp, String aReason)
+    {
+        File file = getHistoryFile(aSnapshot, aTimestamp);
+        FileUtils.deleteQuietly(file);
+        pruned.incrementAndGet();
+
+        Project project = aSnapshot.document.getProject();
+        try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                String.valueOf(project.getId()))) {
+            LOG.info("Removed {} history file [{}] of user [{}] for document [{}]({}) in "
+                    + "project [{}]({})", aReason, file.getName(), aSnapshot.username,
+                    aSnapshot.document.getName(), aSnapshot.document.getId(), project.getName(),
+                    project.getId());
+        }
+    }
+
+    private static File getHistoryFile(PendingSnapshot aSnapshot, long aTimestamp)
+    {
+        return new File(aSnapshot.folder,
+                aSnapshot.username + ".ser." + aTimestamp + HISTORY_SUFFIX);
+    }
+
+    /**
+     * Forget the history of all users of the given document, e.g. because it has been deleted.
+     *
+     * @param aDocument
+     *            the source document.
+     */
+    public void forget(SourceDocument aDocument)
+    {
+        pending.keySet().removeIf(k -> k.documentId == aDocument.getId());
+        synchronized (this) {
+            histories.keySet().removeIf(k -> k.documentId == aDocument.getId());
+        }
+    }
+
+    /**
+     * Forget the history of the given user on the given document, e.g. because the CAS of the
+     * user has been deleted. Pending snapshots of the user are dropped.
+     *
+     * @param aDocument
+     *            the source document.
+     * @param aUsername
+     *            the user owning the CAS.
+     */
+    public void forget(SourceDocument aDocument, String aUsername)
+    {
+        Key key = new Key(aDocument.getId(), aUsername);
+        pending.remove(key);
+        synchronized (this) {
+            histories.remove(key);
+        }
+    }
+
+    /**
+     * @return the number of document/user pairs waiting for a snapshot.
+     */
+    public int getQueueDepth()
+    {
+        return pending.size();
+    }
+
+    /**
+     * @return the time in milliseconds since the oldest save which has not been included in a
+     *         snapshot yet.
+     */
+    public long getLag()
+    {
+        long oldest = Long.MAX_VALUE;
+        for (PendingSnapshot snapshot : pending.values()) {
+            oldest = Math.min(oldest, snapshot.getFirstSave());
+        }
+        return oldest == Long.MAX_VALUE ? 0 : Math.max(System.currentTimeMillis() - oldest, 0);
+    }
+
+    /**
+     * @return the number of saves registered.
+     */
+    public long getSaves()
+    {
+        return saves.get();
+    }
+
+    /**
+     * @return the number of history files created.
+     */
+    public long getSnapshots()
+    {
+        return snapshots.get();
+    }
+
+    /**
+     * @return the number of history files removed.
+     */
+    public long getPruned()
+    {
+        return pruned.get();
+    }
+
+    /**
+     * @return the number of history files which could not be created.
+     */
+    public long getFailures()
+    {
+        return failures.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CasHistoryService [queueDepth=" + getQueueDepth() + ", lagMs=" + getLag()
+                + ", saves=" + getSaves() + ", snapshots=" + getSnapshots() + ", pruned="
+                + getPruned() + ", failures=" + getFailures() + "]";
+    }
+
+    private static final class Key
+    {
+        private final long documentId;
+        private final String username;
+
+        public Key(long aDocumentId, String aUsername)
+        {
+            documentId = aDocumentId;
+            username = aUsername;
+        }
+
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (!(aOther instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) aOther;
+            return documentId == other.documentId && username.equals(other.username);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(documentId, username);
+        }
+    }
+
+    private static final class PendingSnapshot
+    {
+        private final SourceDocument document;
+        private final String username;
+        private final File folder;
+        private final long firstSave;
+        private volatile long lastSave;
+
+        public PendingSnapshot(SourceDocument aDocument, String aUsername, File aFolder,
+                long aTimestamp)
+        {
+            document = aDocument;
+            username = aUsername;
+            folder = aFolder;
+            firstSave = aTimestamp;
+            lastSave = aTimestamp;
+        }
+
+        public PendingSnapshot update(long aTimestamp)
+        {
+            lastSave = Math.max(lastSave, aTimestamp);
+            return this;
+        }
+
+        public long getFirstSave()
+        {
+            return firstSave;
+        }
+
+        public long getLastSave()
+        {
+            return lastSave;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Striped read/write locks guarding the serialized CAS files of a document/user pair. Readers of
+ * the same CAS do not block each other and I/O on unrelated documents runs in parallel. Since the
+ * number of stripes is fixed, the memory used by the locks does not grow with the number of
+ * documents in the repository.
+ * <p>
+ * Note that two unrelated document/user pairs may share a stripe. A thread holding a lock from
+ * this class must therefore never try to acquire another one. If the CAS files of two users are
+ * needed at the same time, e.g. to read the base CAS of a CAS which only stores changes, both
+ * locks must be acquired together using {@link #lockForReading(SourceDocument, String, String)}.
+ */
+public class CasStorageLocks
+{
+    private static final Logger LOG = LoggerFactory.getLogger(CasStorageLocks.class);
+
+    /**
+     * Waiting for a lock longer than this is logged as contention.
+     */
+    private static final long CONTENTION_LOG_THRESHOLD_MS = 500;
+
+    private final ReadWriteLock[] stripes;
+
+    private final AtomicLong acquisitions = new AtomicLong();
+    private final AtomicLong contendedAcquisitions = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public CasStorageLocks(int aStripes)
+    {
+        if (aStripes < 1) {
+            throw new IllegalArgumentException("Number of stripes must be positive");
+        }
+
+        stripes = new ReadWriteLock[aStripes];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * Acquires the shared lock for reading the CAS of the given user.
+     *
+     * @param aDocument
+     *            the source document.
+     * @param aUsername
+     *            the user owning the CAS.
+     * @return the acquired lock which must be released by the caller.
+     */
+    public CasLock lockForReading(SourceDocument aDocument, String aUsername)
+    {
+        return new CasLock(acquire(getStripe(aDocument, aUsername).readLock(), aDocument,
+                aUsername));
+    }
+
+    /**
+     * Acquires the shared locks for reading the CAS of the given user and the CAS of the given
+     * base user. The stripes are always locked in the same order, so threads acquiring locks for
+     * the same pairs cannot deadlock.
+     *
+     * @param aDocument
+     *            the source document.
+     * @param aUsername
+     *            the user owning the CAS.
+     * @param aBaseUsername
+     *            the user owning the base CAS.
+     * @return the acquired locks which must be released together by the caller.
+     */
+    public CasLock lockForReading(SourceDocument aDocument, String aUsername,
+            String aBaseUsername)
+    {
+        int stripe = getStripeIndex(aDocument, aUsername);
+        int baseStripe = getStripeIndex(aDocument, aBaseUsername);
+        if (stripe == baseStripe) {
+            return new CasLock(acquire(stripes[stripe].readLock(), aDocument, aUsername));
+        }
+
+        Lock first = acquire(stripes[Math.min(stripe, baseStripe)].readLock(), aDocument,
+                aUsername);
+        try {
+            Lock second = acquire(stripes[Math.max(stripe, baseStripe)].readLock(), aDocument,
+                    aBaseUsername);
+            return new CasLock(first, second);
+        }
+        catch (RuntimeException e) {
+            first.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Acquires the exclusive lock for writing the CAS of the given user.
+     *
+     * @param aDocument
+     *            the source document.
+     * @param aUsername
+     *            the user owning the CAS.
+     * @return the acquired lock which must be released by the caller.
+     */
+    public CasLock lockForWriting(SourceDocument aDocument, String aUsername)
+    {
+        return new CasLock(acquire(getStripe(aDocument, aUsername).writeLock(), aDocument,
+                aUsername));
+    }
+
+    private ReadWriteLock getStripe(SourceDocument aDocument, String aUsername)
+    {
+        return stripes[getStripeIndex(aDocument, aUsername)];
+    }
+
+    private int getStripeIndex(SourceDocument aDocument, String aUsername)
+    {
+        int hash = 31 * Long.hashCode(aDocument.getId()) + aUsername.hashCode();
+        // Spread the bits a bit - document IDs are sequential
+        hash ^= (hash >>> 16);
+        return Math.floorMod(hash, stripes.length);
+    }
+
+    private Lock acquire(Lock aLock, SourceDocument aDocument, String aUsername)
+    {
+        acquisitions.incrementAndGet();
+
+        // Fast path - no waiting
+        if (aLock.tryLock()) {
+            return aLock;
+        }
+
+        long start = System.nanoTime();
+        aLock.lock();
+        long waited = System.nanoTime() - start;
+
+        contendedAcquisitions.incrementAndGet();
+        totalWaitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+        long waitedMs = waited / 1_000_000;
+        if (waitedMs >= CONTENTION_LOG_THRESHOLD_MS) {
+            LOG.warn("Waited {}ms for CAS lock of user [{}] on document [{}]({})", waitedMs,
+                    aUsername, aDocument.getName(), aDocument.getId());
+        }
+
+        return aLock;
+    }
+
+    /**
+     * @return the total number of lock acquisitions.
+     */
+    public long getAcquisitions()
+    {
+        return acquisitions.get();
+    }
+
+    /**
+     * @return the number of lock acquisitions which had to wait for another thread.
+     */
+    public long getContendedAcquisitions()
+    {
+        return contendedAcquisitions.get();
+    }
+
+    /**
+     * @return the accumulated time in milliseconds callers waited for locks.
+     */
+    public long getTotalWaitTime()
+    {
+        return totalWaitNanos.get() / 1_000_000;
+    }
+
+    /**
+     * @return the longest time in milliseconds a caller waited for a lock.
+     */
+    public long getMaxWaitTime()
+    {
+        return maxWaitNanos.get() / 1_000_000;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CasStorageLocks [stripes=" + stripes.length + ", acquisitions=" + getAcquisitions()
+                + ", contended=" + getContendedAcquisitions() + ", totalWaitMs="
+                + getTotalWaitTime() + ", maxWaitMs=" + getMaxWaitTime() + "]";
+    }
+
+    /**
+     * A CAS lock which has already been acquired. It can only be released, either by calling
+     * {@link #unlock()} or by using it in a try-with-resources statement.
+     */
+    public static final class CasLock
+        implements AutoCloseable
+    {
+        private final Lock first;
+        private final Lock second;
+
+        private CasLock(Lock aLock)
+        {
+            this(aLock, null);
+        }
+
+        private CasLock(Lock aFirst, Lock aSecond)
+        {
+            first = aFirst;
+            second = aSecond;
+        }
+
+        /**
+         * Release the lock. Locks acquired together are released in the reverse order.
+         */
+        public void unlock()
+        {
+            try {
+                if (second != null) {
+                    second.unlock();
+                }
+            }
+            finally {
+                first.unlock();
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            unlock();
+        }
+    }
+}
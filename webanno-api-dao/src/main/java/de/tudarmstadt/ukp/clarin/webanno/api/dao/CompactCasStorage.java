@@ -0,0 +1,792 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.CASException;
+import org.apache.uima.cas.Marker;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.CASMgrSerializer;
+import org.apache.uima.cas.impl.Serialization;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compact binary storage format for CAS files. A file in this format consists of a short header
+ * followed by one or more segments containing the CAS in the UIMA compressed binary form 4:
+ * 
+ * <pre>
+ * "WACAS" format-version type-system-fingerprint base-user [base-heap-size]
+ * (segment-length segment-data)*
+ * </pre>
+ * 
+ * Unlike the Java-serialized {@link org.apache.uima.cas.impl.CASCompleteSerializer}, a compact
+ * file does not contain the type system and the index definitions. These are stored only once per
+ * project in a file named after the type system fingerprint (see {@link TypeSystemFingerprints})
+ * and shared by all CAS files using that type system.
+ * <p>
+ * If the base user is empty, the first segment holds the full CAS. Otherwise, the CAS of the base
+ * user (normally the initial CAS of the document) is loaded first and all segments are deltas.
+ * Further deltas can be appended to a file, so that saving a CAS only writes the changes made
+ * since it was read. A delta can only be applied to exactly the state of the CAS it was recorded
+ * against. The heap size of the base CAS is therefore stored in the header and checked on read.
+ * <p>
+ * Form 4 is used instead of form 6 because form 4 preserves the addresses of the feature
+ * structures which are used as annotation IDs throughout WebAnno.
+ * <p>
+ * Files are never overwritten in place. A full write goes to a temporary file which is synced and
+ * then moved over the old file. Changes are only ever appended. To avoid a disk sync on every
+ * save, appended changes can be synced in batches (see {@link #setSyncInterval(long)}). Data left
+ * behind by an incomplete append is ignored when reading and removed by {@link #recover(File)}.
+ */
+public class CompactCasStorage
+{
+    private static final Logger LOG = LoggerFactory.getLogger(CompactCasStorage.class);
+    
+    private static final byte[] MAGIC = { 'W', 'A', 'C', 'A', 'S' };
+    
+    /**
+     * Version 1 files contain a single full CAS without segment length. Version 2 adds the base
+     * user and segments.
+     */
+    private static final int VERSION_1 = 1;
+    private static final int VERSION = 2;
+    
+    private static final String TYPE_SYSTEM_SUFFIX = ".ts";
+    
+    /**
+     * Suffix of the temporary files used while writing. Such files left behind by a crash can
+     * safely be deleted.
+     */
+    public static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Type systems by fingerprint. Since the fingerprint is a hash over the type system, the same
+     * entry can be shared by all projects.
+     */
+    private final Map<String, CASMgrSerializer> typeSystems = new ConcurrentHashMap<>();
+
+    private final AtomicLong fullWrites = new AtomicLong();
+    private final AtomicLong fullBytesWritten = new AtomicLong();
+    private final AtomicLong deltaWrites = new AtomicLong();
+    private final AtomicLong deltaBytesWritten = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    
+    /**
+     * Files to which changes have been appended but which have not been synced to disk yet.
+     */
+    private final Set<File> unsynced = ConcurrentHashMap.newKeySet();
+    private long syncInterval;
+    private ScheduledExecutorService syncScheduler;
+    
+    /**
+     * Writes the contents of a file.
+     */
+    @FunctionalInterface
+    public interface ContentWriter
+    {
+        void write(OutputStream aOs)
+            throws IOException;
+    }
+    
+    /**
+     * Loads the CAS of the base user into the given CAS.
+     */
+    @FunctionalInterface
+    public interface BaseLoader
+    {
+        void load(String aBaseUser, CAS aCas)
+            throws IOException;
+    }
+    
+    /**
+     * Information about a compact CAS file obtained while reading it.
+     */
+    public static class CompactCasInfo
+    {
+        private final int version;
+        private final String fingerprint;
+        private final String baseUser;
+        private final int segments;
+        private final long length;
+        
+        private CompactCasInfo(int aVersion, String aFingerprint, String aBaseUser, int aSegments,
+                long aLength)
+        {
+            version = aVersion;
+            fingerprint = aFingerprint;
+            baseUser = aBaseUser;
+            segments = aSegments;
+            length = aLength;
+        }
+        
+        /**
+         * @return whether changes can be appended to the file.
+         */
+        public boolean isAppendable()
+        {
+            return version >= VERSION;
+        }
+        
+        /**
+         * @return the fingerprint of the type system of the CAS.
+         */
+        public String getFingerprint()
+        {
+            return fingerprint;
+        }
+        
+        /**
+         * @return the user whose CAS the segments are based on or {@code null} if the first
+         *         segment is a full CAS.
+         */
+        public String getBaseUser()
+        {
+            return baseUser;
+        }
+        
+        /**
+         * @return the number of deltas stored in the file.
+         */
+        public int getDeltas()
+        {
+            return baseUser != null ? segments : segments - 1;
+        }
+        
+        /**
+         * @return the length of the valid part of the file. Data after this point has been left
+         *         behind by an incomplete write and is discarded when the next delta is appended.
+         */
+        public long getLength()
+        {
+            return length;
+        }
+    }
+
+    /**
+     * Check if the given file is in the compact format. Files in the legacy format start with the
+     * Java serialization stream header instead.
+     * 
+     * @param aFile
+     *            the CAS file.
+     * @return whether the file is in the compact format.
+     * @throws IOException
+     *             if the file cannot be read.
+     */
+    public static boolean isCompact(File aFile)
+        throws IOException
+    {
+        byte[] header = new byte[MAGIC.length];
+        try (InputStream is = new FileInputStream(aFile)) {
+            int read = 0;
+            while (read < header.length) {
+                int n = is.read(header, read, header.length - read);
+                if (n < 0) {
+                    return false;
+                }
+                read += n;
+            }
+        }
+        return Arrays.equals(MAGIC, header);
+    }
+
+    /**
+     * Write the full CAS to the given file. If the type system of the CAS has not been stored in
+     * the given type system folder yet, it is stored there as well.
+     * 
+     * @param aCas
+     *            the CAS.
+     * @param aFingerprint
+     *            the fingerprint of the type system of the CAS.
+     * @param aTypeSystemFolder
+     *            the folder holding the type systems of the project.
+     * @param aFile
+     *            the target file.
+     * @throws IOException
+     *             if the CAS cannot be written.
+     */
+    public void write(CAS aCas, String aFingerprint, File aTypeSystemFolder, File aFile)
+        throws IOException
+    {
+        storeTypeSystem(aCas, aFingerprint, aTypeSystemFolder);
+        
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        Serialization.serializeWithCompression(aCas, data);
+        
+        writeAtomically(aFile, os -> {
+            DataOutputStream dos = new DataOutputStream(os);
+            writeHeader(dos, aFingerprint, null, 0);
+            writeSegment(dos, data.toByteArray());
+            dos.flush();
+        });
+        
+        // Changes appended to the old file do not need to be synced anymore
+        unsynced.remove(aFile);
+        
+        fullWrites.incrementAndGet();
+        fullBytesWritten.addAndGet(aFile.length());
+    }
+
+    /**
+     * Write the changes made to the CAS since the given marker was created to a new file which
+     * refers to the CAS of the given base user. The CAS must have been read from the file of the
+     * base user and the marker must have been created right after reading it.
+     * 
+     * @param aCas
+     *            the CAS.
+     * @param aMarker
+     *            the marker created after reading the base CAS.
+     * @param aFingerprint
+     *            the fingerprint of the type system of the CAS.
+     * @param aTypeSystemFolder
+     *            the folder holding the type systems of the project.
+     * @param aBaseUser
+     *            the user owning the base CAS.
+     * @param aBaseHeapSize
+     *            the heap size of the base CAS.
+     * @param aFile
+     *            the target file.
+     * @throws IOException
+     *             if the CAS cannot be written.
+     */
+    public void writeDelta(CAS aCas, Marker aMarker, String aFingerprint, File aTypeSystemFolder,
+            String aBaseUser, int aBaseHeapSize, File aFile)
+        throws IOException
+    {
+        storeTypeSystem(aCas, aFingerprint, aTypeSystemFolder);
+        
+        byte[] delta = serializeDelta(aCas, aMarker);
+        
+        writeAtomically(aFile, os -> {
+            DataOutputStream dos = new DataOutputStream(os);
+            writeHeader(dos, aFingerprint, aBaseUser, aBaseHeapSize);
+            writeSegment(dos, delta);
+            dos.flush();
+        });
+        unsynced.remove(aFile);
+        
+        deltaWrites.incrementAndGet();
+        deltaBytesWritten.addAndGet(aFile.length());
+    }
+    
+    /**
+     * Append the changes made to the CAS since the given marker was created to the given file.
+     * The CAS must have been read from the file and the marker must have been created right after
+     * reading it. Unless a sync interval has been set, the file is synced to disk before this
+     * method returns.
+     * 
+     * @param aCas
+     *            the CAS.
+     * @param aMarker
+     *            the marker created after reading the CAS.
+     * @param aFile
+     *            the file.
+     * @param aLength
+     *            the length of the valid part of the file (see {@link CompactCasInfo#getLength()}).
+     * @throws IOException
+     *             if the delta cannot be written.
+     */
+    public void appendDelta(CAS aCas, Marker aMarker, File aFile, long aLength)
+        throws IOException
+    {
+        byte[] delta = serializeDelta(aCas, aMarker);
+        
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + delta.length);
+        buffer.putInt(delta.length);
+        buffer.put(delta);
+        buffer.flip();
+        
+        try (FileChannel channel = FileChannel.open(aFile.toPath(), StandardOpenOption.WRITE)) {
+            // Drop anything an incomplete write may have left behind
+            channel.truncate(aLength);
+            channel.position(aLength);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            
+            if (syncInterval <= 0) {
+                channel.force(false);
+                syncs.incrementAndGet();
+            }
+        }
+        
+        if (syncInterval > 0) {
+            unsynced.add(aFile);
+        }
+        
+        deltaWrites.incrementAndGet();
+        deltaBytesWritten.addAndGet(Integer.BYTES + delta.length);
+    }
+
+    /**
+     * Read a CAS file in the compact format into the given CAS. The previous contents and type
+     * system of the CAS are replaced.
+     * 
+     * @param aFile
+     *            the CAS file.
+     * @param aTypeSystemFolder
+     *            the folder holding the type systems of the project.
+     * @param aCas
+     *            the CAS to read into.
+     * @param aBaseLoader
+     *            the loader for the base CAS if the file contains only deltas.
+     * @return information about the file.
+     * @throws IOException
+     *             if the CAS cannot be read.
+     */
+    public CompactCasInfo read(File aFile, File aTypeSystemFolder, CAS aCas,
+            BaseLoader aBaseLoader)
+        throws IOException
+    {
+        try (DataInputStream is = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(aFile)))) {
+            byte[] magic = new byte[MAGIC.length];
+            is.readFully(magic);
+            if (!Arrays.equals(MAGIC, magic)) {
+                throw new IOException("File [" + aFile + "] is not a compact CAS file");
+            }
+            
+            int version = is.readUnsignedByte();
+            if (version != VERSION && version != VERSION_1) {
+                throw new IOException("File [" + aFile + "] has unsupported format version ["
+                        + version + "]");
+            }
+            
+            String fingerprint = is.readUTF();
+            
+            CASImpl cas = (CASImpl) aCas;
+            if (version == VERSION_1) {
+                cas.setupCasFromCasMgrSerializer(loadTypeSystem(fingerprint, aTypeSystemFolder));
+                Serialization.deserializeCAS(cas, is);
+                aCas.getJCas();
+                return new CompactCasInfo(version, fingerprint, null, 1, aFile.length());
+            }
+            
+            String baseUser = is.readUTF();
+            long length = MAGIC.length + 1 + utfLength(fingerprint) + utfLength(baseUser);
+            if (baseUser.isEmpty()) {
+                baseUser = null;
+                cas.setupCasFromCasMgrSerializer(loadTypeSystem(fingerprint, aTypeSystemFolder));
+            }
+            else {
+                int baseHeapSize = is.readInt();
+                length += Integer.BYTES;
+                aBaseLoader.load(baseUser, aCas);
+                if (cas.getHeap().getNextId() != baseHeapSize) {
+                    throw new IOException("Base CAS of user [" + baseUser + "] has changed - "
+                            + "unable to apply the changes stored in [" + aFile + "]");
+                }
+            }
+            
+            int segments = 0;
+            while (true) {
+                byte[] segment;
+                try {
+                    int segmentLength = is.readInt();
+                    if (segmentLength < 0
+                            || segmentLength > aFile.length() - length - Integer.BYTES) {
+                        throw new EOFException();
+                    }
+                    segment = new byte[segmentLength];
+                    is.readFully(segment);
+                }
+                catch (EOFException e) {
+                    if (length < aFile.length()) {
+                        LOG.warn("Ignoring incomplete data at the end of [{}]", aFile);
+                    }
+                    break;
+                }
+                
+                Serialization.deserializeCAS(cas, new ByteArrayInputStream(segment));
+                length += Integer.BYTES + segment.length;
+                segments++;
+            }
+            
+            if (baseUser == null && segments == 0) {
+                throw new IOException("File [" + aFile + "] does not contain a CAS");
+            }
+            
+            // Initialize the JCas sub-system which is the most often used API in DKPro Core
+            // components
+            aCas.getJCas();
+            
+            return new CompactCasInfo(version, fingerprint, baseUser, segments, length);
+        }
+        catch (CASException e) {
+            throw new IOException(e);
+        }
+    }
+    
+    private static void writeHeader(DataOutputStream aOs, String aFingerprint, String aBaseUser,
+            int aBaseHeapSize)
+        throws IOException
+    {
+        aOs.write(MAGIC);
+        aOs.writeByte(VERSION);
+        aOs.writeUTF(aFingerprint);
+        aOs.writeUTF(aBaseUser != null ? aBaseUser : "");
+        if (aBaseUser != null) {
+            aOs.writeInt(aBaseHeapSize);
+        }
+    }
+    
+    private static void writeSegment(DataOutputStream aOs, byte[] aData)
+        throws IOException
+    {
+        aOs.writeInt(aData.length);
+        aOs.write(aData);
+    }
+    
+    private static byte[] serializeDelta(CAS aCas, Marker aMarker)
+        throws IOException
+    {
+        if (aMarker == null || !aMarker.isValid()) {
+            throw new IllegalArgumentException("Delta requires a valid marker");
+        }
+        
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        Serialization.serializeWithCompression(aCas, delta, aMarker);
+        return delta.toByteArray();
+    }
+    
+    private static int utfLength(String aString)
+        throws IOException
+    {
+        // Modified UTF-8 as written by DataOutputStream.writeUTF including the length prefix
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        new DataOutputStream(buf).writeUTF(aString);
+        return buf.size();
+    }
+    
+    private void storeTypeSystem(CAS aCas, String aFingerprint, File aTypeSystemFolder)
+        throws IOException
+    {
+        File file = getTypeSystemFile(aFingerprint, aTypeSystemFolder);
+        if (file.exists()) {
+            return;
+        }
+        
+        CASMgrSerializer typeSystem = Serialization.serializeCASMgr((CASImpl) aCas);
+        
+        // Readers never see a partially written type system, even if several threads store the
+        // same type system concurrently
+        FileUtils.forceMkdir(aTypeSystemFolder);
+        writeAtomically(file, os -> {
+            ObjectOutputStream oos = new ObjectOutputStream(os);
+            oos.writeObject(typeSystem);
+            oos.flush();
+        });
+        
+        typeSystems.putIfAbsent(aFingerprint, typeSystem);
+    }
+    
+    private CASMgrSerializer loadTypeSystem(String aFingerprint, File aTypeSystemFolder)
+        throws IOException
+    {
+        CASMgrSerializer typeSystem = typeSystems.get(aFingerprint);
+        if (typeSystem != null) {
+            return typeSystem;
+        }
+        
+        File file = getTypeSystemFile(aFingerprint, aTypeSystemFolder);
+        if (!file.exists()) {
+            throw new FileNotFoundException("Type system [" + aFingerprint + "] not found in ["
+                    + aTypeSystemFolder + "]");
+        }
+        
+        try (ObjectInputStream is = new ObjectInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            typeSystem = (CASMgrSerializer) is.readObject();
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        
+        typeSystems.putIfAbsent(aFingerprint, typeSystem);
+        return typeSystem;
+    }
+    
+    private static File getTypeSystemFile(String aFingerprint, File aTypeSystemFolder)
+    {
+        return new File(aTypeSystemFolder, aFingerprint + TYPE_SYSTEM_SUFFIX);
+    }
+    
+    /**
+     * Write a file such that readers either see the complete old or the complete new file, even
+     * if the system crashes while writing. The new file is written to a temporary file and synced
+     * to disk before it replaces the old file.
+     * 
+     * @param aFile
+     *            the file.
+     * @param aWriter
+     *            writes the content of the file.
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    public static void writeAtomically(File aFile, ContentWriter aWriter)
+        throws IOException
+    {
+        File tempFile = File.createTempFile(aFile.getName() + ".", TEMP_SUFFIX,
+                aFile.getParentFile());
+        try {
+            try (FileOutputStream fos = new FileOutputStream(tempFile)) {
+                BufferedOutputStream os = new BufferedOutputStream(fos);
+                aWriter.write(os);
+                os.flush();
+                fos.getFD().sync();
+            }
+            moveAtomically(tempFile, aFile);
+        }
+        finally {
+            FileUtils.deleteQuietly(tempFile);
+        }
+    }
+    
+    /**
+     * Replace the target file with the source file such that readers either see the complete old
+     * or the complete new file.
+     * 
+     * @param aSource
+     *            the source file.
+     * @param aTarget
+     *            the target file.
+     * @throws IOException
+     *             if the file cannot be moved.
+     */
+    public static void moveAtomically(File aSource, File aTarget)
+        throws IOException
+    {
+        try {
+            Files.move(aSource.toPath(), aTarget.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(aSource.toPath(), aTarget.toPath(), REPLACE_EXISTING);
+        }
+    }
+    
+    /**
+     * Remove data left behind by an incomplete append from the given file.
+     * 
+     * @param aFile
+     *            the CAS file.
+     * @return whether the file had to be repaired.
+     * @throws IOException
+     *             if the file is not a valid compact CAS file or cannot be repaired.
+     */
+    public static boolean recover(File aFile)
+        throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(aFile.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            DataInputStream is = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel)));
+            byte[] magic = new byte[MAGIC.length];
+            is.readFully(magic);
+            if (!Arrays.equals(MAGIC, magic)) {
+                throw new IOException("File [" + aFile + "] is not a compact CAS file");
+            }
+            
+            int version = is.readUnsignedByte();
+            if (version != VERSION) {
+                // Nothing can be appended to other versions
+                return false;
+            }
+            
+            String fingerprint = is.readUTF();
+            String baseUser = is.readUTF();
+            long length = MAGIC.length + 1 + utfLength(fingerprint) + utfLength(baseUser);
+            if (!baseUser.isEmpty()) {
+                is.readInt();
+                length += Integer.BYTES;
+            }
+            
+            // Skip over all complete segments
+            long fileLength = channel.size();
+            while (length + Integer.BYTES <= fileLength) {
+                int segmentLength = is.readInt();
+                if (segmentLength < 0 || segmentLength > fileLength - length - Integer.BYTES) {
+                    break;
+                }
+                is.skipBytes(segmentLength);
+                length += Integer.BYTES + segmentLength;
+            }
+            
+            if (length == fileLength) {
+                return false;
+            }
+            
+            channel.truncate(length);
+            channel.force(false);
+            return true;
+        }
+    }
+    
+    /**
+     * Set the interval in which appended changes are synced to disk. Changes appended since the
+     * last sync survive a crash of the application, but may be lost if the operating system
+     * crashes.
+     * 
+     * @param aInterval
+     *            the interval in milliseconds. If it is zero or negative, every appended change is
+     *            synced right away.
+     */
+    public synchronized void setSyncInterval(long aInterval)
+    {
+        syncInterval = aInterval;
+        
+        if (syncInterval > 0 && syncScheduler == null) {
+            syncScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "cas-storage-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncScheduler.scheduleWithFixedDelay(this::sync, syncInterval, syncInterval,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * Sync all files to disk to which changes have been appended since the last sync.
+     */
+    public void sync()
+    {
+        Iterator<File> i = unsynced.iterator();
+        while (i.hasNext()) {
+            File file = i.next();
+            i.remove();
+            
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.WRITE)) {
+                channel.force(false);
+                syncs.incrementAndGet();
+            }
+            catch (NoSuchFileException e) {
+                // The file has been deleted in the meantime
+            }
+            catch (IOException e) {
+                LOG.error("Unable to sync [{}] to disk", file, e);
+            }
+        }
+    }
+    
+    /**
+     * Stop the background sync and sync all pending changes.
+     */
+    public synchronized void close()
+    {
+        if (syncScheduler != null) {
+            syncScheduler.shutdown();
+            syncScheduler = null;
+        }
+        sync();
+    }
+    
+    /**
+     * @return the number of full CAS writes.
+     */
+    public long getFullWrites()
+    {
+        return fullWrites.get();
+    }
+    
+    /**
+     * @return the bytes written by full CAS writes.
+     */
+    public long getFullBytesWritten()
+    {
+        return fullBytesWritten.get();
+    }
+    
+    /**
+     * @return the number of delta writes.
+     */
+    public long getDeltaWrites()
+    {
+        return deltaWrites.get();
+    }
+    
+    /**
+     * @return the bytes written by delta writes.
+     */
+    public long getDeltaBytesWritten()
+    {
+        return deltaBytesWritten.get();
+    }
+    
+    /**
+     * @return the number of times appended changes have been synced to disk.
+     */
+    public long getSyncs()
+    {
+        return syncs.get();
+    }
+    
+    /**
+     * @return the number of files with appended changes which are not synced to disk yet.
+     */
+    public int getUnsynced()
+    {
+        return unsynced.size();
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "CompactCasStorage [fullWrites=" + getFullWrites() + ", fullBytes="
+                + getFullBytesWritten() + ", deltaWrites=" + getDeltaWrites() + ", deltaBytes="
+                + getDeltaBytesWritten() + ", syncs=" + getSyncs() + ", unsynced="
+                + getUnsynced() + "]";
+    }
+}
@@ -33,10 +33,10 @@ import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngineDesc
 import static org.apache.uima.fit.pipeline.SimplePipeline.runPipeline;
 
 import java.beans.PropertyDescriptor;
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -47,23 +47,27 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Resource;
 import javax.persistence.EntityManager;
@@ -73,7 +77,6 @@ import javax.persistence.PersistenceContext;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.LineIterator;
-import org.apache.commons.io.comparator.LastModifiedFileComparator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -85,6 +88,7 @@ import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.CASException;
 import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Marker;
 import org.apache.uima.cas.Type;
 import org.apache.uima.cas.TypeSystem;
 import org.apache.uima.cas.impl.CASCompleteSerializer;
@@ -106,17 +110,25 @@ import org.hibernate.Session;
 import org.hibernate.jdbc.Work;
 import org.springframework.beans.BeanWrapper;
 import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
 import org.springframework.dao.DataRetrievalFailureException;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.transaction.annotation.Transactional;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
 import de.tudarmstadt.ukp.clarin.webanno.api.Logging;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectProgress;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
+import de.tudarmstadt.ukp.clarin.webanno.api.SourceDocumentRemovedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasCache.CachedCas;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageLocks.CasLock;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CompactCasStorage.CompactCasInfo;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.grammar.ConstraintsGrammar;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.grammar.ParseException;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.grammar.syntaxtree.Parse;
@@ -153,7 +165,7 @@ import de.tudarmstadt.ukp.dkpro.core.tokit.BreakIteratorSegmenter;
  * Implementation of methods defined in the {@link RepositoryService} interface
  */
 public class RepositoryServiceDbData
-    implements RepositoryService, InitializingBean
+    implements RepositoryService, InitializingBean, DisposableBean, ApplicationEventPublisherAware
 {
     private final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -175,6 +187,24 @@ public class RepositoryServiceDbData
     @Value(value = "${ui.brat.sentences.number}")
     private int numberOfSentences;
 
+    @Value(value = "${cas.cache.size}")
+    private long casCacheSize;
+
+    @Value(value = "${cas.storage.compact}")
+    private boolean compactCasStorage;
+
+    @Value(value = "${cas.storage.delta.limit}")
+    private int deltaLimit;
+
+    @Value(value = "${cas.storage.sync.interval}")
+    private long syncInterval;
+
+    @Value(value = "${cas.load.threads}")
+    private int casLoadThreads;
+
+    @Value(value = "${cas.load.memory}")
+    private long casLoadMemory;
+
     @Value(value = "${webanno.repository}")
     private File dir;
 
@@ -195,25 +225,261 @@ public class RepositoryServiceDbData
     private static final String HELP_FILE = "/help.properties";
 
     private static final String CONSTRAINTS = "/constraints/";
+    private static final String TYPE_SYSTEM = "/typesystem";
+
+    private static final int CAS_LOCK_STRIPES = 256;
 
     @PersistenceContext
     private EntityManager entityManager;
 
+    private ApplicationEventPublisher applicationEventPublisher;
+
     // The annotation preference properties File name
     String annotationPreferencePropertiesFileName;
 
-    private final Object lock = new Object();
+    private final CasStorageLocks casLocks = new CasStorageLocks(CAS_LOCK_STRIPES);
+
+    private CasCache casCache = new CasCache(0);
+
+    private CasHistoryService casHistory = new CasHistoryService(0, 0, 0, null);
+
+    private CasBatchLoader casLoader = new CasBatchLoader(0, 0);
+
+    private final Map<Long, ProjectTypeSystem> typeSystemCache = new ConcurrentHashMap<>();
+
+    private final TypeSystemFingerprints fingerprints = new TypeSystemFingerprints();
+
+    private final CompactCasStorage compactStorage = new CompactCasStorage();
+
+    /**
+     * The files the CASes handed out by {@link #readCas} and {@link #readInitialCas} were read
+     * from. When such a CAS is written back, only the changes made since it was read are stored.
+     */
+    private final Map<CAS, CasLoadState> loadStates = Collections
+            .synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Parsed constraints by project. Projects without constraints and projects whose constraints
+     * cannot be parsed are cached as well.
+     */
+    private final Map<Long, CachedConstraints> constraintsCache = new ConcurrentHashMap<>();
+    
+    private final CacheGeneration constraintsGeneration = new CacheGeneration();
+
+    /**
+     * Annotation progress by project.
+     */
+    private final Map<Long, ProjectProgress> progressCache = new ConcurrentHashMap<>();
+
+    private final CacheGeneration progressGeneration = new CacheGeneration();
+
+    /**
+     * Permission levels by user and project.
+     */
+    private final Map<String, Map<Long, Set<PermissionLevel>>> permissionCache =
+            new ConcurrentHashMap<>();
+
+    private final CacheGeneration permissionGeneration = new CacheGeneration();
 
     public RepositoryServiceDbData()
     {
 
     }
 
+    /**
+     * @return the locks guarding the CAS files, e.g. to inspect lock contention.
+     */
+    public CasStorageLocks getCasStorageLocks()
+    {
+        return casLocks;
+    }
+
+    /**
+     * @return the compact CAS storage, e.g. to inspect the number of bytes written.
+     */
+    public CompactCasStorage getCompactCasStorage()
+    {
+        return compactStorage;
+    }
+
+    /**
+     * @return the service maintaining the CAS history, e.g. to inspect its queue depth.
+     */
+    public CasHistoryService getCasHistoryService()
+    {
+        return casHistory;
+    }
+
+    /**
+     * @return the loader reading many CASes at once, e.g. to inspect how often callers wait.
+     */
+    public CasBatchLoader getCasBatchLoader()
+    {
+        return casLoader;
+    }
+
+    /**
+     * @return the in-memory CAS cache, e.g. to inspect the hit rate.
+     */
+    public CasCache getCasCache()
+    {
+        return casCache;
+    }
+
+    @Override
+    public void setApplicationEventPublisher(ApplicationEventPublisher aApplicationEventPublisher)
+    {
+        applicationEventPublisher = aApplicationEventPublisher;
+    }
+
     @Override
     public void afterPropertiesSet()
         throws Exception
     {
         log.info("Repository: " + dir);
+        
+        casCache = new CasCache(casCacheSize);
+        log.info("CAS cache size: {} bytes", casCacheSize);
+        log.info("CAS storage format: {}", compactCasStorage ? "compact" : "Java serialization");
+        if (compactCasStorage && deltaLimit > 0) {
+            log.info("CAS delta storage: compacting after {} changes", deltaLimit);
+        }
+        
+        compactStorage.setSyncInterval(syncInterval);
+        if (syncInterval > 0) {
+            log.info("CAS storage sync interval: {}ms", syncInterval);
+        }
+        
+        recoverCasFiles();
+        
+        casHistory = new CasHistoryService(backupInterval, backupKeepNumber, backupKeepTime,
+                this::snapshotCas);
+        casHistory.start();
+        
+        casLoader = new CasBatchLoader(casLoadThreads, casLoadMemory);
+        if (casLoadThreads > 0) {
+            log.info("CAS batch loading: {} threads, {} bytes read ahead", casLoadThreads,
+                    casLoadMemory);
+        }
+    }
+
+    @Override
+    public void destroy()
+    {
+        casHistory.stop();
+        casLoader.stop();
+        
+        // Make sure that all changes appended to CAS files are on disk
+        compactStorage.close();
+    }
+
+    /**
+     * Cleans up after an unclean shutdown. This removes temporary files, restores CAS files
+     * from backups left behind by older versions of WebAnno and drops data left behind by
+     * incomplete appends.
+     */
+    private void recoverCasFiles()
+    {
+        File[] projects = new File(dir, PROJECT).listFiles(File::isDirectory);
+        if (projects == null) {
+            return;
+        }
+        
+        int repaired = 0;
+        for (File project : projects) {
+            repaired += removeTempFiles(new File(project.getPath() + TYPE_SYSTEM));
+            
+            File[] documents = new File(project.getPath() + DOCUMENT).listFiles(File::isDirectory);
+            if (documents == null) {
+                continue;
+            }
+            
+            for (File document : documents) {
+                File annotationFolder = new File(document.getPath() + ANNOTATION);
+                repaired += removeTempFiles(annotationFolder);
+                
+                File[] files = annotationFolder.listFiles();
+                if (files == null) {
+                    continue;
+                }
+                
+                for (File file : files) {
+                    try {
+                        if (file.getName().endsWith(".ser.old")) {
+                            repaired += restoreOldCasFile(file);
+                        }
+                        else if (file.getName().endsWith(".ser")
+                                && CompactCasStorage.isCompact(file)
+                                && CompactCasStorage.recover(file)) {
+                            log.warn("Removed incomplete changes from [{}]", file);
+                            repaired++;
+                        }
+                    }
+                    catch (IOException e) {
+                        log.error("Unable to recover [{}]", file, e);
+                    }
+                }
+            }
+        }
+        
+        if (repaired > 0) {
+            log.info("Recovered {} CAS storage files after unclean shutdown", repaired);
+        }
+    }
+    
+    private int removeTempFiles(File aFolder)
+    {
+        File[] tempFiles = aFolder.listFiles(
+            (d, n) -> n.endsWith(CompactCasStorage.TEMP_SUFFIX));
+        if (tempFiles == null) {
+            return 0;
+        }
+        
+        for (File tempFile : tempFiles) {
+            log.warn("Removing incomplete file [{}]", tempFile);
+            FileUtils.deleteQuietly(tempFile);
+        }
+        return tempFiles.length;
+    }
+
+    /**
+     * Older versions of WebAnno moved the CAS file to "<username>.ser.old" before writing the new
+     * version. If such a file is still around, writing the new version may not have completed.
+     */
+    private int restoreOldCasFile(File aOldVersion)
+        throws IOException
+    {
+        String name = aOldVersion.getName();
+        File currentVersion = new File(aOldVersion.getParentFile(),
+                name.substring(0, name.length() - ".old".length()));
+        
+        if (currentVersion.exists() && isReadable(currentVersion)) {
+            log.warn("Removing obsolete backup [{}]", aOldVersion);
+            FileUtils.forceDelete(aOldVersion);
+        }
+        else {
+            log.warn("Restoring [{}] from backup", currentVersion);
+            TypeSystemFingerprints.delete(currentVersion);
+            CompactCasStorage.moveAtomically(aOldVersion, currentVersion);
+        }
+        return 1;
+    }
+    
+    private static boolean isReadable(File aCasFile)
+    {
+        try {
+            if (CompactCasStorage.isCompact(aCasFile)) {
+                return true;
+            }
+            
+            try (ObjectInputStream is = new ObjectInputStream(
+                    new BufferedInputStream(new FileInputStream(aCasFile)))) {
+                return is.readObject() instanceof CASCompleteSerializer;
+            }
+        }
+        catch (IOException | ClassNotFoundException e) {
+            return false;
+        }
     }
 
     @Override
@@ -226,6 +492,7 @@ public class RepositoryServiceDbData
         else {
             entityManager.merge(aAnnotationDocument);
         }
+        progressChanged(aAnnotationDocument.getProject());
         
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aAnnotationDocument.getProject().getId()))) {
@@ -240,25 +507,6 @@ public class RepositoryServiceDbData
         }
     }
 
-    /**
-     * Renames a file.
-     *
-     * @throws IOException
-     *             if the file cannot be renamed.
-     * @return the target file.
-     */
-    private static File renameFile(File aFrom, File aTo)
-        throws IOException
-    {
-        if (!aFrom.renameTo(aTo)) {
-            throw new IOException("Cannot renamed file [" + aFrom + "] to [" + aTo + "]");
-        }
-
-        // We are not sure if File is mutable. This makes sure we get a new file
-        // in any case.
-        return new File(aTo.getPath());
-    }
-
     /**
      * Get the folder where the annotations are stored. Creates the folder if necessary.
      *
@@ -274,6 +522,15 @@ public class RepositoryServiceDbData
         return annotationFolder;
     }
 
+    /**
+     * Get the folder where the type systems used by the compact CAS files of the project are
+     * stored.
+     */
+    private File getTypeSystemFolder(Project aProject)
+    {
+        return new File(dir, PROJECT + aProject.getId() + TYPE_SYSTEM);
+    }
+
     @Override
     public File getDocumentFolder(SourceDocument aDocument)
         throws IOException
@@ -311,6 +568,8 @@ public class RepositoryServiceDbData
     public void createProjectPermission(ProjectPermission aPermission)
     {
         entityManager.persist(aPermission);
+        progressChanged(aPermission.getProject());
+        permissionsChanged(aPermission.getUser());
         
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aPermission.getProject().getId()))) {
@@ -331,6 +590,7 @@ public class RepositoryServiceDbData
         else {
             entityManager.merge(aDocument);
         }
+        progressChanged(aDocument.getProject());
     }
 
     @Override
@@ -497,19 +757,20 @@ public class RepositoryServiceDbData
         throws UIMAException, IOException, ClassNotFoundException
     {
         File annotationFolder = getAnnotationFolder(aDocument);
-        String serializedCasFileName;
+        String casUser;
         // for Correction, it will export the corrected document (of the logged in user)
         // (CORRECTION_USER.ser is the automated result displayed for the user to correct it, not
         // the final result) for automation, it will export either the corrected document
         // (Annotated) or the automated document
         if (aMode.equals(Mode.ANNOTATION) || aMode.equals(Mode.AUTOMATION)
                 || aMode.equals(Mode.CORRECTION)) {
-            serializedCasFileName = aUser + ".ser";
+            casUser = aUser;
         }
         // The merge result will be exported
         else {
-            serializedCasFileName = WebAnnoConst.CURATION_USER + ".ser";
+            casUser = WebAnnoConst.CURATION_USER;
         }
+        String serializedCasFileName = casUser + ".ser";
 
         // Read file
         File serializedCasFile = new File(annotationFolder, serializedCasFileName);
@@ -519,7 +780,13 @@ public class RepositoryServiceDbData
         }
 
         CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
-        readSerializedCas(cas.getJCas(), serializedCasFile);
+        CasLock casLock = casLocks.lockForReading(aDocument, casUser, INITIAL_CAS_PSEUDO_USER);
+        try {
+            readCachedCas(cas.getJCas(), aDocument, casUser, serializedCasFile, false);
+        }
+        finally {
+            casLock.unlock();
+        }
 
         // Update type system the CAS
         upgradeCas(cas, aDocument, aUser);
@@ -698,6 +965,47 @@ public class RepositoryServiceDbData
                 .setParameter("project", aProject).getResultList();
     }
 
+    @Override
+    @Transactional
+    public Map<Long, Set<PermissionLevel>> getProjectPermissionLevels(User aUser)
+    {
+        Map<Long, Set<PermissionLevel>> cached = permissionCache.get(aUser.getUsername());
+        if (cached != null) {
+            return cached;
+        }
+        
+        long generation = permissionGeneration.get();
+        
+        Map<Long, Set<PermissionLevel>> levels = new HashMap<>();
+        List<Object[]> rows = entityManager
+                .createQuery("SELECT project.id, level FROM ProjectPermission WHERE user = :user",
+                        Object[].class)
+                .setParameter("user", aUser.getUsername()).getResultList();
+        for (Object[] row : rows) {
+            levels.computeIfAbsent((Long) row[0], id -> EnumSet.noneOf(PermissionLevel.class))
+                    .add((PermissionLevel) row[1]);
+        }
+        for (Entry<Long, Set<PermissionLevel>> e : levels.entrySet()) {
+            e.setValue(Collections.unmodifiableSet(e.getValue()));
+        }
+        Map<Long, Set<PermissionLevel>> snapshot = Collections.unmodifiableMap(levels);
+        
+        // Do not cache the result if permissions were changed in the meantime
+        if (permissionGeneration.isCurrent(generation)) {
+            permissionCache.put(aUser.getUsername(), snapshot);
+        }
+        
+        return snapshot;
+    }
+    
+    /**
+     * Drop the cached permissions of the given user.
+     */
+    private void permissionsChanged(String aUsername)
+    {
+        permissionGeneration.invalidate(() -> permissionCache.remove(aUsername));
+    }
+
     @Override
     public List<User> listProjectUsersWithPermissions(Project aProject)
     {
@@ -920,28 +1228,84 @@ public class RepositoryServiceDbData
     @Override
     public int numberOfExpectedAnnotationDocuments(Project aProject)
     {
+        return getProjectProgress(aProject).getExpectedCount();
+    }
 
-        // Get all annotators in the project
-        List<String> users = getAllAnnotators(aProject);
-        // Bail out already. HQL doesn't seem to like queries with an empty
-        // parameter right of "in"
-        if (users.isEmpty()) {
-            return 0;
+    @Override
+    @Transactional
+    public ProjectProgress getProjectProgress(Project aProject)
+    {
+        ProjectProgress cached = progressCache.get(aProject.getId());
+        if (cached != null) {
+            return cached;
         }
-
-        int ignored = 0;
-        List<AnnotationDocument> annotationDocuments = entityManager
+        
+        long generation = progressGeneration.get();
+        
+        ProjectProgress progress = computeProjectProgress(aProject);
+        
+        // Do not cache the result if annotation documents were changed in the meantime
+        if (progressGeneration.isCurrent(generation)) {
+            progressCache.put(aProject.getId(), progress);
+        }
+        
+        return progress;
+    }
+    
+    private ProjectProgress computeProjectProgress(Project aProject)
+    {
+        // Annotators which exist in the users database (imported projects might have
+        // permissions for users which do not exist)
+        List<String> annotators = entityManager
                 .createQuery(
-                        "FROM AnnotationDocument WHERE project = :project AND user in (:users)",
-                        AnnotationDocument.class).setParameter("project", aProject)
-                .setParameter("users", users).getResultList();
-        for (AnnotationDocument annotationDocument : annotationDocuments) {
-            if (annotationDocument.getState().equals(AnnotationDocumentState.IGNORE)) {
-                ignored++;
+                        "SELECT DISTINCT p.user FROM ProjectPermission p, User u "
+                                + "WHERE p.project = :project AND p.level = :level "
+                                + "AND p.user = u.username", String.class)
+                .setParameter("project", aProject).setParameter("level", PermissionLevel.USER)
+                .getResultList();
+        
+        int documents = 0;
+        int trainingDocuments = 0;
+        List<Object[]> documentCounts = entityManager
+                .createQuery(
+                        "SELECT trainingDocument, COUNT(*) FROM SourceDocument "
+                                + "WHERE project = :project GROUP BY trainingDocument",
+                        Object[].class)
+                .setParameter("project", aProject).getResultList();
+        for (Object[] row : documentCounts) {
+            if ((Boolean) row[0]) {
+                trainingDocuments += ((Number) row[1]).intValue();
+            }
+            else {
+                documents += ((Number) row[1]).intValue();
             }
         }
-        return listSourceDocuments(aProject).size() * users.size() - ignored;
-
+        
+        ProjectProgress progress = new ProjectProgress(annotators, documents, trainingDocuments);
+        
+        List<Object[]> stateCounts = entityManager
+                .createQuery(
+                        "SELECT a.user, a.state, d.trainingDocument, COUNT(*) "
+                                + "FROM AnnotationDocument a JOIN a.document d "
+                                + "WHERE a.project = :project "
+                                + "GROUP BY a.user, a.state, d.trainingDocument",
+                        Object[].class)
+                .setParameter("project", aProject).getResultList();
+        for (Object[] row : stateCounts) {
+            progress.add((String) row[0], (AnnotationDocumentState) row[1], (Boolean) row[2],
+                    ((Number) row[3]).intValue());
+        }
+        
+        return progress;
+    }
+    
+    /**
+     * Drop the cached progress of the given project.
+     */
+    private void progressChanged(Project aProject)
+    {
+        long projectId = aProject.getId();
+        progressGeneration.invalidate(() -> progressCache.remove(projectId));
     }
 
     @Override
@@ -1053,6 +1417,7 @@ public class RepositoryServiceDbData
 
         for (ProjectPermission permissions : getProjectPermissions(aProject)) {
             entityManager.remove(permissions);
+            permissionsChanged(permissions.getUser());
         }
         
         //Remove Constraints
@@ -1060,6 +1425,10 @@ public class RepositoryServiceDbData
             removeConstraintSet(set);
         }
         
+        typeSystemCache.remove(aProject.getId());
+        constraintsCache.remove(aProject.getId());
+        progressCache.remove(aProject.getId());
+        
         // remove metadata from DB
         Project project = aProject;
         if (!entityManager.contains(project)) {
@@ -1088,6 +1457,62 @@ public class RepositoryServiceDbData
     @Override
     public ParsedConstraints loadConstraints(Project aProject)
             throws IOException, ParseException
+    {
+        CachedConstraints cached = constraintsCache.get(aProject.getId());
+        if (cached != null) {
+            return cached.get();
+        }
+        
+        long generation = constraintsGeneration.get();
+        
+        try {
+            cached = new CachedConstraints(parseConstraints(aProject), null);
+        }
+        catch (ParseException e) {
+            try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                    String.valueOf(aProject.getId()))) {
+                log.error("Unable to parse constraints of project [{}]({}): {}",
+                        aProject.getName(), aProject.getId(), e.getMessage());
+            }
+            cached = new CachedConstraints(null, e.getMessage());
+        }
+        
+        // Do not cache the result if the constraint sets were changed in the meantime
+        if (constraintsGeneration.isCurrent(generation)) {
+            constraintsCache.put(aProject.getId(), cached);
+        }
+        
+        return cached.get();
+    }
+    
+    /**
+     * The parsed constraints of a project or the message of the error which prevented parsing
+     * them. Failures are cached so that broken constraints are not read and parsed again on every
+     * call until they are changed.
+     */
+    private static class CachedConstraints
+    {
+        private final ParsedConstraints constraints;
+        private final String error;
+        
+        public CachedConstraints(ParsedConstraints aConstraints, String aError)
+        {
+            constraints = aConstraints;
+            error = aError;
+        }
+        
+        public ParsedConstraints get()
+            throws ParseException
+        {
+            if (error != null) {
+                throw new ParseException(error);
+            }
+            return constraints;
+        }
+    }
+    
+    private ParsedConstraints parseConstraints(Project aProject)
+            throws IOException, ParseException
     {
         ParsedConstraints merged = null;
 
@@ -1138,6 +1563,12 @@ public class RepositoryServiceDbData
             }
         }
 
+        // ParsedConstraints builds its lookup structures lazily. Those built while merging do
+        // not include the scopes added afterwards, so return a fresh instance.
+        if (merged != null) {
+            merged = new ParsedConstraints(merged.getImports(), merged.getScopes());
+        }
+        
         return merged;
     }
     
@@ -1159,19 +1590,29 @@ public class RepositoryServiceDbData
     public void removeCurationDocumentContent(SourceDocument aSourceDocument, String aUsername)
         throws IOException
     {
-        if (new File(getAnnotationFolder(aSourceDocument), WebAnnoConst.CURATION_USER + ".ser")
-                .exists()) {
-            FileUtils.forceDelete(new File(getAnnotationFolder(aSourceDocument),
-                    WebAnnoConst.CURATION_USER + ".ser"));
+        CasLock casLock = casLocks.lockForWriting(aSourceDocument, WebAnnoConst.CURATION_USER);
+        try {
+            casCache.invalidate(aSourceDocument, WebAnnoConst.CURATION_USER);
+            casHistory.forget(aSourceDocument, WebAnnoConst.CURATION_USER);
+            
+            File casFile = new File(getAnnotationFolder(aSourceDocument),
+                    WebAnnoConst.CURATION_USER + ".ser");
+            if (casFile.exists()) {
+                FileUtils.forceDelete(casFile);
+                TypeSystemFingerprints.delete(casFile);
 
-            try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
-                    String.valueOf(aSourceDocument.getProject().getId()))) {
-                Project project = aSourceDocument.getProject();
-                log.info("Removed curation of source document [{}]({}) from project [{}]({})", 
-                        aSourceDocument.getName(), aSourceDocument.getId(),
-                        project.getName(), project.getId());
+                try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                        String.valueOf(aSourceDocument.getProject().getId()))) {
+                    Project project = aSourceDocument.getProject();
+                    log.info("Removed curation of source document [{}]({}) from project [{}]({})",
+                            aSourceDocument.getName(), aSourceDocument.getId(),
+                            project.getName(), project.getId());
+                }
             }
         }
+        finally {
+            casLock.unlock();
+        }
     }
 
     @Override
@@ -1179,6 +1620,8 @@ public class RepositoryServiceDbData
     public void removeProjectPermission(ProjectPermission aPermission)
     {
         entityManager.remove(aPermission);
+        progressChanged(aPermission.getProject());
+        permissionsChanged(aPermission.getUser());
         
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aPermission.getProject().getId()))) {
@@ -1198,6 +1641,13 @@ public class RepositoryServiceDbData
         }
         
         entityManager.remove(aDocument);
+        casCache.invalidate(aDocument);
+        casHistory.forget(aDocument);
+        progressChanged(aDocument.getProject());
+        if (applicationEventPublisher != null) {
+            applicationEventPublisher
+                    .publishEvent(new SourceDocumentRemovedEvent(this, aDocument));
+        }
 
         String path = dir.getAbsolutePath() + PROJECT + aDocument.getProject().getId() + DOCUMENT
                 + aDocument.getId();
@@ -1218,7 +1668,9 @@ public class RepositoryServiceDbData
     @Transactional
     public void removeAnnotationDocument(AnnotationDocument aAnnotationDocument)
     {
+        casCache.invalidate(aAnnotationDocument.getDocument(), aAnnotationDocument.getUser());
         entityManager.remove(aAnnotationDocument);
+        progressChanged(aAnnotationDocument.getProject());
     }
 
     @Override
@@ -1315,7 +1767,8 @@ public class RepositoryServiceDbData
 
         // Copy the initial conversion of the file into the repository
         if (cas != null) {
-            writeSerializedCas(cas, getCasFile(aDocument, INITIAL_CAS_PSEUDO_USER));
+            writeSerializedCas(cas, aDocument.getProject(),
+                    getCasFile(aDocument, INITIAL_CAS_PSEUDO_USER));
         }
 
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
@@ -1513,7 +1966,16 @@ public class RepositoryServiceDbData
         JCas jcas = importCasFromFile(getSourceDocumentFile(aDocument), aDocument.getProject(),
                 aDocument.getFormat());
         analyzeAndRepair(aDocument, INITIAL_CAS_PSEUDO_USER, jcas.getCas());
-        writeSerializedCas(jcas, getCasFile(aDocument, INITIAL_CAS_PSEUDO_USER));
+        
+        CasLock casLock = casLocks.lockForWriting(aDocument, INITIAL_CAS_PSEUDO_USER);
+        try {
+            casCache.invalidate(aDocument, INITIAL_CAS_PSEUDO_USER);
+            writeSerializedCas(jcas, aDocument.getProject(),
+                    getCasFile(aDocument, INITIAL_CAS_PSEUDO_USER));
+        }
+        finally {
+            casLock.unlock();
+        }
         
         return jcas;
     }
@@ -1524,7 +1986,14 @@ public class RepositoryServiceDbData
     {
         JCas jcas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null).getJCas();
         
-        readSerializedCas(jcas, getCasFile(aDocument, INITIAL_CAS_PSEUDO_USER));
+        CasLock casLock = casLocks.lockForReading(aDocument, INITIAL_CAS_PSEUDO_USER);
+        try {
+            readCachedCas(jcas, aDocument, INITIAL_CAS_PSEUDO_USER,
+                    getCasFile(aDocument, INITIAL_CAS_PSEUDO_USER), true);
+        }
+        finally {
+            casLock.unlock();
+        }
         
         analyzeAndRepair(aDocument, INITIAL_CAS_PSEUDO_USER, jcas.getCas());
         
@@ -1600,6 +2069,31 @@ public class RepositoryServiceDbData
         return jcas;
     }
     
+    @Override
+    public List<JCas> readAnnotationCases(List<AnnotationDocument> aAnnotationDocuments)
+        throws IOException
+    {
+        return casLoader.load(aAnnotationDocuments, this::getCasFileSize,
+                this::readAnnotationCas);
+    }
+    
+    @Override
+    public Iterator<JCas> iterateAnnotationCases(List<AnnotationDocument> aAnnotationDocuments)
+    {
+        return casLoader.iterate(aAnnotationDocuments, this::getCasFileSize,
+                this::readAnnotationCas);
+    }
+    
+    /**
+     * @return the size of the CAS file of the given annotation document or -1 if the CAS has not
+     *         been created yet.
+     */
+    private long getCasFileSize(AnnotationDocument aAnnotationDocument)
+    {
+        File file = getCasFile(aAnnotationDocument.getDocument(), aAnnotationDocument.getUser());
+        return file.exists() ? file.length() : -1;
+    }
+    
     @Override
     @Transactional
     public void writeAnnotationCas(JCas aJcas, SourceDocument aDocument, User aUser)
@@ -1658,8 +2152,10 @@ public class RepositoryServiceDbData
                 aDocument.getProject().getId());
         // DebugUtils.smallStack();
 
+        // Only the changes since the CAS was read are checked here - a full analysis is done on
+        // import and after an upgrade (which invalidates the marker set by readCas).
         try {
-            casDoctor.analyze(aDocument.getProject(), aJcas.getCas());
+            casDoctor.analyzeIncrementally(aDocument.getProject(), aJcas.getCas());
         }
         catch (CasDoctorException e) {
             StringBuilder detailMsg = new StringBuilder();
@@ -1681,156 +2177,69 @@ public class RepositoryServiceDbData
                     + aDocument.getProject().getId() + ")", e);
         }
         
-        synchronized (lock) {
+        CasLock casLock = casLocks.lockForWriting(aDocument, aUserName);
+        try {
+            casCache.invalidate(aDocument, aUserName);
+            
             File annotationFolder = getAnnotationFolder(aDocument);
             FileUtils.forceMkdir(annotationFolder);
 
             final String username = aUserName;
 
             File currentVersion = new File(annotationFolder, username + ".ser");
-            File oldVersion = new File(annotationFolder, username + ".ser.old");
 
-            // Save current version
+            // Set the document ID before determining the changes to be stored
+            DocumentMetaData md;
             try {
-                // Make a backup of the current version of the file before overwriting
-                if (currentVersion.exists()) {
-                    renameFile(currentVersion, oldVersion);
-                }
-
-                // Now write the new version to "<username>.ser" or CURATION_USER.ser
-                DocumentMetaData md;
-                try {
-                    md = DocumentMetaData.get(aJcas);
-                }
-                catch (IllegalArgumentException e) {
-                    md = DocumentMetaData.create(aJcas);
-                }
-                md.setDocumentId(aUserName);
-
-                File targetPath = getAnnotationFolder(aDocument);
-                writeSerializedCas(aJcas, new File(targetPath, aUserName + ".ser"));
-
-                try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
-                        String.valueOf(aDocument.getProject().getId()))) {
-                    Project project = aDocument.getProject();
-                    log.info(
-                            "Updated annotations for user [{}] on document [{}]({}) in project [{}]({})",
-                            aUserName, aDocument.getName(), aDocument.getId(), project.getName(),
-                            project.getId());
-                }                
-
-                // If the saving was successful, we delete the old version
-                if (oldVersion.exists()) {
-                    FileUtils.forceDelete(oldVersion);
-                }
+                md = DocumentMetaData.get(aJcas);
+            }
+            catch (IllegalArgumentException e) {
+                md = DocumentMetaData.create(aJcas);
+            }
+            md.setDocumentId(aUserName);
+
+            // The changes can only be stored once per marker, so later writes of the same CAS
+            // always store the full CAS
+            CasLoadState loadState = loadStates.remove(aJcas.getCasImpl().getBaseCAS());
+            Marker marker = aJcas.getCasImpl().getCurrentMark();
+            if (marker != null && !marker.isValid()) {
+                marker = null;
+            }
+            
+            // Save current version
+            if (canAppendDelta(loadState, marker, aUserName, currentVersion)) {
+                // Only append the changes to the current version. If this fails, the incomplete
+                // data at the end of the file is ignored when the file is read.
+                compactStorage.appendDelta(aJcas.getCas(), marker, currentVersion,
+                        loadState.length);
+            }
+            // The new version replaces the current version atomically. If this fails, the
+            // current version remains intact.
+            else if (canWriteDeltaOnInitialCas(loadState, marker, aDocument, aUserName)) {
+                TypeSystemFingerprints.delete(currentVersion);
+                compactStorage.writeDelta(aJcas.getCas(), marker,
+                        fingerprints.get(aJcas.getTypeSystem()),
+                        getTypeSystemFolder(aDocument.getProject()), INITIAL_CAS_PSEUDO_USER,
+                        loadState.heapSize, currentVersion);
+            }
+            else {
+                writeSerializedCas(aJcas, aDocument.getProject(), currentVersion);
             }
-            catch (IOException e) {
-                // If we could not save the new version, restore the old one.
-                FileUtils.forceDelete(currentVersion);
-                // If this is the first version, there is no old version, so do not restore anything
-                if (oldVersion.exists()) {
-                    renameFile(oldVersion, currentVersion);
-                }
-                // Now abort anyway
-                throw e;
-            }
-
-            // Manage history
-            if (backupInterval > 0) {
-                // Determine the reference point in time based on the current version
-                long now = currentVersion.lastModified();
-
-                // Get all history files for the current user
-                File[] history = annotationFolder.listFiles(new FileFilter()
-                {
-                    private final Matcher matcher = Pattern.compile(
-                            Pattern.quote(username) + "\\.ser\\.[0-9]+\\.bak").matcher("");
-
-                    @Override
-                    public boolean accept(File aFile)
-                    {
-                        // Check if the filename matches the pattern given above.
-                        return matcher.reset(aFile.getName()).matches();
-                    }
-                });
-
-                // Sort the files (oldest one first)
-                Arrays.sort(history, LastModifiedFileComparator.LASTMODIFIED_COMPARATOR);
-
-                // Check if we need to make a new history file
-                boolean historyFileCreated = false;
-                File historyFile = new File(annotationFolder, username + ".ser." + now + ".bak");
-                if (history.length == 0) {
-                    // If there is no history yet but we should keep history, then we create a
-                    // history file in any case.
-                    FileUtils.copyFile(currentVersion, historyFile);
-                    historyFileCreated = true;
-                }
-                else {
-                    // Check if the newest history file is significantly older than the current one
-                    File latestHistory = history[history.length - 1];
-                    if (latestHistory.lastModified() + backupInterval < now) {
-                        FileUtils.copyFile(currentVersion, historyFile);
-                        historyFileCreated = true;
-                    }
-                }
 
-                // Prune history based on number of backup
-                if (historyFileCreated) {
-                    // The new version is not in the history, so we keep that in any case. That
-                    // means we need to keep one less.
-                    int toKeep = Math.max(backupKeepNumber - 1, 0);
-                    if ((backupKeepNumber > 0) && (toKeep < history.length)) {
-                        // Copy the oldest files to a new array
-                        File[] toRemove = new File[history.length - toKeep];
-                        System.arraycopy(history, 0, toRemove, 0, toRemove.length);
-
-                        // Restrict the history to what is left
-                        File[] newHistory = new File[toKeep];
-                        if (toKeep > 0) {
-                            System.arraycopy(history, toRemove.length, newHistory, 0,
-                                    newHistory.length);
-                        }
-                        history = newHistory;
-
-                        // Remove these old files
-                        for (File file : toRemove) {
-                            FileUtils.forceDelete(file);
-                            
-                            try (MDC.MDCCloseable closable = MDC.putCloseable(
-                                    Logging.KEY_PROJECT_ID,
-                                    String.valueOf(aDocument.getProject().getId()))) {
-                                Project project = aDocument.getProject();
-                                log.info(
-                                        "Removed surplus history file [{}] of user [{}] for "
-                                                + "document [{}]({}) in project [{}]({})",
-                                        file.getName(), aUserName, aDocument.getName(),
-                                        aDocument.getId(), project.getName(), project.getId());
-                            }
-                        }
-                    }
+            try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                    String.valueOf(aDocument.getProject().getId()))) {
+                Project project = aDocument.getProject();
+                log.info(
+                        "Updated annotations for user [{}] on document [{}]({}) in project [{}]({})",
+                        aUserName, aDocument.getName(), aDocument.getId(), project.getName(),
+                        project.getId());
+            }                
 
-                    // Prune history based on time
-                    if (backupKeepTime > 0) {
-                        for (File file : history) {
-                            if ((file.lastModified() + backupKeepTime) < now) {
-                                FileUtils.forceDelete(file);
-                                
-                                try (MDC.MDCCloseable closable = MDC.putCloseable(
-                                        Logging.KEY_PROJECT_ID,
-                                        String.valueOf(aDocument.getProject().getId()))) {
-                                    Project project = aDocument.getProject();
-                                    log.info(
-                                            "Removed outdated history file [{}] of user [{}] for "
-                                                    + "document [{}]({}) in project [{}]({})",
-                                            file.getName(), aUserName, aDocument.getName(),
-                                            aDocument.getId(), project.getName(), project.getId());
-                                }
-                            }
-                        }
-                    }
-                }
-            }
+            // The history is managed in the background
+            casHistory.saved(aDocument, aUserName, annotationFolder, System.currentTimeMillis());
+        }
+        finally {
+            casLock.unlock();
         }
     }
 
@@ -1852,7 +2261,8 @@ public class RepositoryServiceDbData
 
         // DebugUtils.smallStack();
 
-        synchronized (lock) {
+        CasLock casLock = casLocks.lockForReading(aDocument, aUsername, INITIAL_CAS_PSEUDO_USER);
+        try {
             File annotationFolder = getAnnotationFolder(aDocument);
 
             String file = aUsername + ".ser";
@@ -1868,9 +2278,16 @@ public class RepositoryServiceDbData
                 }
 
                 CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
-                readSerializedCas(cas.getJCas(), serializedCasFile);
-
-                analyzeAndRepair(aDocument, aUsername, cas);
+                // This also marks the CAS to track the changes made to it, so that only these
+                // need to be checked and stored when the CAS is written again. Repairs must be
+                // done after that, otherwise they would not be stored.
+                readCachedCas(cas.getJCas(), aDocument, aUsername, serializedCasFile, true);
+
+                // The CAS has been checked before it was written, so there is no need to analyze
+                // it again unless it should be repaired.
+                if (casDoctor.isRepairsActive()) {
+                    analyzeAndRepair(aDocument, aUsername, cas);
+                }
 
                 return cas.getJCas();
             }
@@ -1878,6 +2295,9 @@ public class RepositoryServiceDbData
                 throw new DataRetrievalFailureException("Unable to parse annotation", e);
             }
         }
+        finally {
+            casLock.unlock();
+        }
     }
 
     private List<String> getAllAnnotators(Project aProject)
@@ -1972,15 +2392,20 @@ public class RepositoryServiceDbData
     private void upgradeCas(CAS aCas, SourceDocument aSourceDocument, String aUser)
         throws UIMAException, IOException
     {
-        TypeSystemDescription builtInTypes = TypeSystemDescriptionFactory
-                .createTypeSystemDescription();
-        List<TypeSystemDescription> projectTypes = getProjectTypes(aSourceDocument.getProject());
-        projectTypes.add(builtInTypes);
-        TypeSystemDescription allTypes = CasCreationUtils.mergeTypeSystems(projectTypes);
-
+        ProjectTypeSystem projectTypeSystem = getProjectTypeSystem(aSourceDocument.getProject());
+        
+        // If the CAS already uses the current project type system, there is nothing to do
+        if (projectTypeSystem.fingerprint.equals(fingerprints.get(aCas.getTypeSystem()))) {
+            log.debug("CAS of user [{}] for document [{}]({}) is up-to-date - not upgrading",
+                    aUser, aSourceDocument.getName(), aSourceDocument.getId());
+            return;
+        }
+        
+        // The cached version of the CAS uses the old type system and is about to be replaced
+        casCache.invalidate(aSourceDocument, aUser);
+        
         // Prepare template for new CAS
-        CAS newCas = JCasFactory.createJCas(allTypes).getCas();
-        CASCompleteSerializer serializer = Serialization.serializeCASComplete((CASImpl) newCas);
+        CASCompleteSerializer serializer = projectTypeSystem.template;
 
         // Save old type system
         TypeSystem oldTypeSystem = aCas.getTypeSystem();
@@ -1998,6 +2423,8 @@ public class RepositoryServiceDbData
 
         // Make sure JCas is properly initialized too
         aCas.getJCas();
+        
+        fingerprints.put(aCas.getTypeSystem(), projectTypeSystem.fingerprint);
 
         try (MDC.MDCCloseable closable = MDC.putCloseable(
                 Logging.KEY_PROJECT_ID,
@@ -2038,12 +2465,8 @@ public class RepositoryServiceDbData
         }
         
         // Prepare a CAS with the project type system
-        TypeSystemDescription builtInTypes = TypeSystemDescriptionFactory
-                .createTypeSystemDescription();
-        List<TypeSystemDescription> projectTypes = getProjectTypes(aProject);
-        projectTypes.add(builtInTypes);
-        TypeSystemDescription allTypes = CasCreationUtils.mergeTypeSystems(projectTypes);
-        CAS cas = JCasFactory.createJCas(allTypes).getCas();
+        CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        deserializeCASComplete(getProjectTypeSystem(aProject).template, (CASImpl) cas);
 
         // Convert the source document to CAS
         CollectionReader reader = CollectionReaderFactory.createReader(readerClass,
@@ -2225,8 +2648,12 @@ public class RepositoryServiceDbData
             AnnotationDocument annotationDocument = getAnnotationDocument(aDocument, aUser);
             annotationDocument.setSentenceAccessed(aDocument.getSentenceAccessed());
             annotationDocument.setTimestamp(new Timestamp(new Date().getTime()));
+            AnnotationDocumentState oldState = annotationDocument.getState();
             annotationDocument.setState(AnnotationDocumentState.IN_PROGRESS);
             entityManager.merge(annotationDocument);
+            if (!AnnotationDocumentState.IN_PROGRESS.equals(oldState)) {
+                progressChanged(annotationDocument.getProject());
+            }
         }
     }
 
@@ -2248,6 +2675,57 @@ public class RepositoryServiceDbData
         return sb.toString();
     }
 
+    /**
+     * Get an empty CAS using the merged type system of the given project. The merged type system
+     * is cached per project and only rebuilt when the layers or features of the project change.
+     */
+    private ProjectTypeSystem getProjectTypeSystem(Project aProject)
+        throws UIMAException
+    {
+        // Fetch the version before building so that changes made while building cause a rebuild
+        // on the next call
+        long version = annotationService.getSchemaVersion(aProject);
+        
+        ProjectTypeSystem cached = typeSystemCache.get(aProject.getId());
+        if (cached != null && cached.version == version) {
+            return cached;
+        }
+        
+        TypeSystemDescription builtInTypes = TypeSystemDescriptionFactory
+                .createTypeSystemDescription();
+        List<TypeSystemDescription> projectTypes = getProjectTypes(aProject);
+        projectTypes.add(builtInTypes);
+        TypeSystemDescription allTypes = CasCreationUtils.mergeTypeSystems(projectTypes);
+        
+        CAS newCas = JCasFactory.createJCas(allTypes).getCas();
+        CASCompleteSerializer template = Serialization.serializeCASComplete((CASImpl) newCas);
+        String fingerprint = fingerprints.get(newCas.getTypeSystem());
+        
+        ProjectTypeSystem projectTypeSystem = new ProjectTypeSystem(version, template,
+                fingerprint);
+        typeSystemCache.put(aProject.getId(), projectTypeSystem);
+        
+        log.debug("Compiled type system [{}] for project [{}]({}) at schema version [{}]",
+                fingerprint, aProject.getName(), aProject.getId(), version);
+        
+        return projectTypeSystem;
+    }
+    
+    private static class ProjectTypeSystem
+    {
+        private final long version;
+        private final CASCompleteSerializer template;
+        private final String fingerprint;
+        
+        public ProjectTypeSystem(long aVersion, CASCompleteSerializer aTemplate,
+                String aFingerprint)
+        {
+            version = aVersion;
+            template = aTemplate;
+            fingerprint = aFingerprint;
+        }
+    }
+
     private List<TypeSystemDescription> getProjectTypes(Project aProject)
     {
         // Create a new type system from scratch
@@ -2493,35 +2971,331 @@ public class RepositoryServiceDbData
         return map;
     }
 
-    private static void writeSerializedCas(JCas aJCas, File aFile)
+    private void writeSerializedCas(JCas aJCas, Project aProject, File aFile)
         throws IOException
     {
         FileUtils.forceMkdir(aFile.getParentFile());
 
-        try (ObjectOutputStream os = new ObjectOutputStream(new FileOutputStream(aFile))) {
-            CASCompleteSerializer serializer = serializeCASComplete(aJCas.getCasImpl());
-            os.writeObject(serializer);
+        // Remove the fingerprint first - a missing fingerprint is recomputed when needed while
+        // a fingerprint that does not match the CAS file would suppress necessary upgrades
+        TypeSystemFingerprints.delete(aFile);
+        
+        if (compactCasStorage) {
+            // The fingerprint is part of the compact format, so there is no need to store it
+            // separately
+            compactStorage.write(aJCas.getCas(), fingerprints.get(aJCas.getTypeSystem()),
+                    getTypeSystemFolder(aProject), aFile);
+            return;
         }
+        
+        CASCompleteSerializer serializer = serializeCASComplete(aJCas.getCasImpl());
+        CompactCasStorage.writeAtomically(aFile, os -> {
+            ObjectOutputStream oos = new ObjectOutputStream(os);
+            oos.writeObject(serializer);
+            oos.flush();
+        });
+        
+        TypeSystemFingerprints.write(aFile, fingerprints.get(aJCas.getTypeSystem()));
     }
 
-    private static void readSerializedCas(JCas aJCas, File aFile)
+    /**
+     * Reads a CAS file via the CAS cache. Must be called while holding at least the read lock for
+     * the given document and user.
+     * <p>
+     * If compact CAS storage is enabled, CAS files which are still in the Java-serialized format
+     * are converted to the compact format when they are read.
+     * 
+     * @param aTrackChanges
+     *            whether to mark the CAS so that only the changes made to it need to be stored
+     *            when it is written again.
+     */
+    private void readCachedCas(JCas aJCas, SourceDocument aDocument, String aUsername, File aFile,
+            boolean aTrackChanges)
         throws IOException
     {
-        try (ObjectInputStream is = new ObjectInputStream(new FileInputStream(aFile))) {
-            CASCompleteSerializer serializer = (CASCompleteSerializer) is.readObject();
-            deserializeCASComplete(serializer, aJCas.getCasImpl());
-            // Initialize the JCas sub-system which is the most often used API in DKPro Core
-            // components
-            aJCas.getCas().getJCas();
+        long timestamp = aFile.lastModified();
+        // Number of changes stored in the file or -1 if no further changes can be appended
+        int deltas;
+        CachedCas cached = casCache.get(aDocument, aUsername, timestamp);
+        if (cached != null) {
+            loadSerializedCas(aJCas, cached.getSerializer());
+            fingerprints.put(aJCas.getTypeSystem(), cached.getFingerprint());
+            deltas = cached.getDeltas();
+        }
+        else {
+            Project project = aDocument.getProject();
+            CASCompleteSerializer serializer = null;
+            String fingerprint;
+            if (CompactCasStorage.isCompact(aFile)) {
+                CompactCasInfo info = compactStorage.read(aFile, getTypeSystemFolder(project),
+                        aJCas.getCas(), (user, cas) -> readBaseCas(aDocument, user, cas));
+                fingerprint = info.getFingerprint();
+                fingerprints.put(aJCas.getTypeSystem(), fingerprint);
+                // If an incomplete write left data at the end of the file, the next write
+                // replaces the file
+                deltas = info.isAppendable() && info.getLength() == aFile.length()
+                        ? info.getDeltas() : -1;
+            }
+            else {
+                serializer = readCasSerializer(aFile);
+                fingerprint = TypeSystemFingerprints.read(aFile);
+                loadSerializedCas(aJCas, serializer);
+                fingerprints.put(aJCas.getTypeSystem(), fingerprint);
+                deltas = -1;
+                
+                if (compactCasStorage) {
+                    fingerprint = fingerprints.get(aJCas.getTypeSystem());
+                    if (migrateToCompactCas(aJCas, aDocument, aUsername, aFile, fingerprint)) {
+                        deltas = 0;
+                    }
+                }
+            }
+            
+            timestamp = aFile.lastModified();
+            if (casCache.getMaxSize() > 0) {
+                if (serializer == null) {
+                    serializer = serializeCASComplete(aJCas.getCasImpl());
+                }
+                casCache.put(aDocument, aUsername, timestamp, CasCache.estimateSize(serializer),
+                        serializer, fingerprint, deltas);
+            }
+        }
+        
+        if (aTrackChanges) {
+            // There can only be one marker per CAS, but since the CAS has just been loaded, it
+            // cannot have one yet
+            aJCas.getCas().createMarker();
+            loadStates.put(aJCas.getCasImpl().getBaseCAS(), new CasLoadState(aUsername, aFile,
+                    deltas, aJCas.getCasImpl().getHeap().getNextId()));
+        }
+    }
+    
+    /**
+     * Loads the base CAS of a CAS file which only stores the changes relative to the base CAS.
+     * The base CAS is always the initial CAS. The caller must hold the read lock for the initial
+     * CAS, acquired together with the lock for the CAS file.
+     */
+    private void readBaseCas(SourceDocument aDocument, String aBaseUser, CAS aCas)
+        throws IOException
+    {
+        if (!INITIAL_CAS_PSEUDO_USER.equals(aBaseUser)) {
+            throw new IOException("Unsupported base CAS of user [" + aBaseUser + "]");
+        }
+
+        try {
+            readCachedCas(aCas.getJCas(), aDocument, aBaseUser, getCasFile(aDocument, aBaseUser),
+                    false);
         }
         catch (CASException e) {
             throw new IOException(e);
         }
+    }
+    
+    /**
+     * Checks if the changes made to the given CAS can be appended to its CAS file. That is the
+     * case if the CAS was read from that file, the file has not been changed since and it does
+     * not contain too many changes already.
+     */
+    private boolean canAppendDelta(CasLoadState aLoadState, Marker aMarker, String aUsername,
+            File aFile)
+        throws IOException
+    {
+        return compactCasStorage && deltaLimit > 0 && aLoadState != null && aMarker != null
+                && aLoadState.username.equals(aUsername) && aLoadState.deltas >= 0
+                && aLoadState.deltas < deltaLimit && aLoadState.isUnchanged(aFile);
+    }
+    
+    /**
+     * Checks if the changes made to the given CAS can be stored relative to the initial CAS of
+     * the document. That is the case if the CAS was read from the initial CAS file and the file
+     * has not been changed since.
+     */
+    private boolean canWriteDeltaOnInitialCas(CasLoadState aLoadState, Marker aMarker,
+            SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        return compactCasStorage && deltaLimit > 0 && aLoadState != null && aMarker != null
+                && INITIAL_CAS_PSEUDO_USER.equals(aLoadState.username)
+                && !INITIAL_CAS_PSEUDO_USER.equals(aUsername)
+                && aLoadState.isUnchanged(getCasFile(aDocument, INITIAL_CAS_PSEUDO_USER));
+    }
+    
+    /**
+     * The state of a CAS file at the time a CAS was read from it.
+     */
+    private static class CasLoadState
+    {
+        private final String username;
+        private final long length;
+        private final long timestamp;
+        private final Object fileKey;
+        private final int deltas;
+        private final int heapSize;
+        
+        public CasLoadState(String aUsername, File aFile, int aDeltas, int aHeapSize)
+            throws IOException
+        {
+            BasicFileAttributes attributes = Files.readAttributes(aFile.toPath(),
+                    BasicFileAttributes.class);
+            username = aUsername;
+            length = attributes.size();
+            timestamp = attributes.lastModifiedTime().toMillis();
+            fileKey = attributes.fileKey();
+            deltas = aDeltas;
+            heapSize = aHeapSize;
+        }
+        
+        /**
+         * Check if the file is still the one the CAS was read from. Since a full write replaces
+         * the file, the file key (if supported by the file system) changes in that case while
+         * appending changes the length.
+         */
+        public boolean isUnchanged(File aFile)
+            throws IOException
+        {
+            if (!aFile.exists()) {
+                return false;
+            }
+            
+            BasicFileAttributes attributes = Files.readAttributes(aFile.toPath(),
+                    BasicFileAttributes.class);
+            return length == attributes.size()
+                    && timestamp == attributes.lastModifiedTime().toMillis()
+                    && Objects.equals(fileKey, attributes.fileKey());
+        }
+    }
+    
+    /**
+     * Converts a Java-serialized CAS file to the compact format. This is only called while
+     * holding the read lock, so other threads may be reading the file at the same time. This is
+     * safe because the file is replaced atomically.
+     * 
+     * @return whether the file has been converted.
+     */
+    private boolean migrateToCompactCas(JCas aJCas, SourceDocument aDocument, String aUsername,
+            File aFile, String aFingerprint)
+    {
+        Project project = aDocument.getProject();
+        try {
+            long oldSize = aFile.length();
+            compactStorage.write(aJCas.getCas(), aFingerprint, getTypeSystemFolder(project),
+                    aFile);
+            TypeSystemFingerprints.delete(aFile);
+            
+            try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
+                    String.valueOf(project.getId()))) {
+                log.info("Converted CAS of user [{}] for document [{}]({}) in project [{}]({}) "
+                        + "to compact format ({} -> {} bytes)", aUsername, aDocument.getName(),
+                        aDocument.getId(), project.getName(), project.getId(), oldSize,
+                        aFile.length());
+            }
+            
+            return true;
+        }
+        catch (IOException e) {
+            // The legacy file is still intact and can still be used
+            log.warn("Unable to convert CAS of user [{}] for document [{}]({}) to compact format",
+                    aUsername, aDocument.getName(), aDocument.getId(), e);
+            return false;
+        }
+    }
+
+    @Override
+    public void exportSerializedCas(SourceDocument aDocument, String aUser, OutputStream aOs)
+        throws IOException
+    {
+        File casFile = getCasFile(aDocument, aUser);
+        CASCompleteSerializer serializer;
+        CasLock casLock = casLocks.lockForReading(aDocument, aUser, INITIAL_CAS_PSEUDO_USER);
+        try {
+            if (!casFile.exists()) {
+                throw new FileNotFoundException("Annotation document of user [" + aUser
+                        + "] for source document [" + aDocument.getName() + "] ("
+                        + aDocument.getId() + ") not found in project["
+                        + aDocument.getProject().getName() + "] ("
+                        + aDocument.getProject().getId() + ")");
+            }
+            
+            if (CompactCasStorage.isCompact(casFile)) {
+                CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+                compactStorage.read(casFile, getTypeSystemFolder(aDocument.getProject()), cas,
+                    (user, baseCas) -> readBaseCas(aDocument, user, baseCas));
+                serializer = serializeCASComplete((CASImpl) cas);
+            }
+            else {
+                // No need to deserialize the CAS, just pass on the file
+                Files.copy(casFile.toPath(), aOs);
+                return;
+            }
+        }
+        catch (ResourceInitializationException e) {
+            throw new IOException(e);
+        }
+        finally {
+            casLock.unlock();
+        }
+        
+        ObjectOutputStream os = new ObjectOutputStream(aOs);
+        os.writeObject(serializer);
+        os.flush();
+    }
+
+    /**
+     * Copies the current CAS file of the given user to a history file. Compact CAS files are
+     * written in full to the history file so that it does not depend on other CAS files.
+     */
+    private void snapshotCas(SourceDocument aDocument, String aUsername, File aHistoryFile)
+        throws IOException
+    {
+        File casFile = getCasFile(aDocument, aUsername);
+        CasLock casLock = casLocks.lockForReading(aDocument, aUsername, INITIAL_CAS_PSEUDO_USER);
+        try {
+            if (CompactCasStorage.isCompact(casFile)) {
+                File typeSystemFolder = getTypeSystemFolder(aDocument.getProject());
+                CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+                CompactCasInfo info = compactStorage.read(casFile, typeSystemFolder, cas,
+                    (user, baseCas) -> readBaseCas(aDocument, user, baseCas));
+                compactStorage.write(cas, info.getFingerprint(), typeSystemFolder, aHistoryFile);
+            }
+            else {
+                CompactCasStorage.writeAtomically(aHistoryFile,
+                    os -> Files.copy(casFile.toPath(), os));
+            }
+        }
+        catch (ResourceInitializationException e) {
+            throw new IOException(e);
+        }
+        finally {
+            casLock.unlock();
+        }
+    }
+
+    private static CASCompleteSerializer readCasSerializer(File aFile)
+        throws IOException
+    {
+        try (ObjectInputStream is = new ObjectInputStream(
+                new BufferedInputStream(new FileInputStream(aFile)))) {
+            return (CASCompleteSerializer) is.readObject();
+        }
         catch (ClassNotFoundException e) {
             throw new IOException(e);
         }
     }
 
+    private static void loadSerializedCas(JCas aJCas, CASCompleteSerializer aSerializer)
+        throws IOException
+    {
+        try {
+            deserializeCASComplete(aSerializer, aJCas.getCasImpl());
+            // Initialize the JCas sub-system which is the most often used API in DKPro Core
+            // components
+            aJCas.getCas().getJCas();
+        }
+        catch (CASException e) {
+            throw new IOException(e);
+        }
+    }
+
     @Override
     @Transactional
     public List<ConstraintSet> listConstraintSets(Project aProject)
@@ -2537,6 +3311,8 @@ public class RepositoryServiceDbData
     {
         entityManager.persist(aSet);
         
+        constraintsChanged(aSet.getProject());
+        
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aSet.getProject().getId()))) {
             log.info("Created constraints set [{}] in project [{}]({})",
@@ -2550,6 +3326,8 @@ public class RepositoryServiceDbData
     {
         entityManager.remove(entityManager.merge(aSet));
         
+        constraintsChanged(aSet.getProject());
+        
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aSet.getProject().getId()))) {
             log.info("Removed constraints set [{}] in project [{}]({})",
@@ -2585,6 +3363,7 @@ public class RepositoryServiceDbData
         FileUtils.forceMkdir(new File(constraintRulesPath));
         FileUtils.copyInputStreamToFile(aContent, new File(constraintRulesPath, filename));
 
+        constraintsChanged(aSet.getProject());
         
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aSet.getProject().getId()))) {
@@ -2593,6 +3372,15 @@ public class RepositoryServiceDbData
         }
     }
     
+    /**
+     * Drop the cached constraints of the given project.
+     */
+    private void constraintsChanged(Project aProject)
+    {
+        long projectId = aProject.getId();
+        constraintsGeneration.invalidate(() -> constraintsCache.remove(projectId));
+    }
+    
     /**
      * Provides exporting constraints as a file.
      */
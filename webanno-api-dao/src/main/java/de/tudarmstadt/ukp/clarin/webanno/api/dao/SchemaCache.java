@@ -0,0 +1,434 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.Tag;
+import de.tudarmstadt.ukp.clarin.webanno.model.TagSet;
+
+/**
+ * Read-through cache of the layers, features, tag sets and tags of projects. The schema of a
+ * project rarely changes, but it is looked up many times while rendering a single page.
+ * <p>
+ * The cached entities are never handed out. Every caller gets its own detached copies, so
+ * changes which are made in the UI but not saved (or cancelled) do not show up elsewhere and the
+ * entities are never shared between threads.
+ */
+public class SchemaCache
+{
+    private final Map<Long, ProjectSchema> schemas = new ConcurrentHashMap<>();
+    private final Map<Long, List<Tag>> tags = new ConcurrentHashMap<>();
+
+    private final CacheGeneration generation = new CacheGeneration();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Get the schema of the given project.
+     *
+     * @param aProject
+     *            the project.
+     * @param aLoader
+     *            loads the schema if it is not cached.
+     * @return the schema.
+     */
+    public ProjectSchema getSchema(Project aProject, Function<Project, ProjectSchema> aLoader)
+    {
+        ProjectSchema schema = schemas.get(aProject.getId());
+        if (schema != null) {
+            hits.incrementAndGet();
+            return schema;
+        }
+
+        misses.incrementAndGet();
+        long gen = generation.get();
+        schema = aLoader.apply(aProject);
+        if (generation.isCurrent(gen)) {
+            schemas.put(aProject.getId(), schema);
+        }
+        return schema;
+    }
+
+    /**
+     * Get the tags of the given tag set.
+     *
+     * @param aTagSet
+     *            the tag set.
+     * @param aLoader
+     *            loads the tags if they are not cached.
+     * @return copies of the tags.
+     */
+    public List<Tag> getTags(TagSet aTagSet, Function<TagSet, List<Tag>> aLoader)
+    {
+        List<Tag> cached = tags.get(aTagSet.getId());
+        if (cached != null) {
+            hits.incrementAndGet();
+        }
+        else {
+            misses.incrementAndGet();
+            long gen = generation.get();
+            cached = Collections.unmodifiableList(new ArrayList<>(aLoader.apply(aTagSet)));
+            if (generation.isCurrent(gen)) {
+                tags.put(aTagSet.getId(), cached);
+            }
+        }
+
+        Copier copier = new Copier();
+        List<Tag> copies = new ArrayList<>(cached.size());
+        for (Tag tag : cached) {
+            copies.add(copier.copy(tag));
+        }
+        return copies;
+    }
+
+    /**
+     * Look up a layer in the cached schemas.
+     *
+     * @param aId
+     *            the layer ID.
+     * @return a copy of the layer or {@code null} if it is not part of a cached schema.
+     */
+    public AnnotationLayer findLayer(long aId)
+    {
+        for (ProjectSchema schema : schemas.values()) {
+            AnnotationLayer layer = schema.layersById.get(aId);
+            if (layer != null) {
+                hits.incrementAndGet();
+                return new Copier().copy(layer);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Look up a feature in the cached schemas.
+     *
+     * @param aId
+     *            the feature ID.
+     * @return a copy of the feature or {@code null} if it is not part of a cached schema.
+     */
+    public AnnotationFeature findFeature(long aId)
+    {
+        for (ProjectSchema schema : schemas.values()) {
+            AnnotationFeature feature = schema.featuresById.get(aId);
+            if (feature != null) {
+                hits.incrementAndGet();
+                return new Copier().copy(feature);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Drop the cached schema and tags of the given project, again when the current transaction
+     * completes.
+     *
+     * @param aProject
+     *            the project.
+     */
+    public void invalidate(Project aProject)
+    {
+        generation.invalidate(() -> {
+            ProjectSchema old = schemas.remove(aProject.getId());
+            if (old != null) {
+                for (TagSet tagSet : old.tagSets) {
+                    tags.remove(tagSet.getId());
+                }
+            }
+        });
+    }
+
+    /**
+     * Drop the cached tags of the given tag set, again when the current transaction completes.
+     *
+     * @param aTagSet
+     *            the tag set.
+     */
+    public void invalidate(TagSet aTagSet)
+    {
+        generation.invalidate(() -> tags.remove(aTagSet.getId()));
+    }
+
+    public int getProjectCount()
+    {
+        return schemas.size();
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return the fraction of lookups which were answered from the cache.
+     */
+    public double getHitRate()
+    {
+        long h = getHits();
+        long total = h + getMisses();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SchemaCache [projects=" + getProjectCount() + ", tagSets=" + tags.size()
+                + ", hits=" + getHits() + ", misses=" + getMisses() + ", hitRate="
+                + String.format("%.3f", getHitRate()) + "]";
+    }
+
+    /**
+     * Copies cached entities for a caller. An entity referenced by several copies is copied only
+     * once, so the copies reference each other like the cached entities do.
+     */
+    private static final class Copier
+    {
+        private final Map<AnnotationLayer, AnnotationLayer> layers = new IdentityHashMap<>();
+        private final Map<AnnotationFeature, AnnotationFeature> features =
+                new IdentityHashMap<>();
+        private final Map<TagSet, TagSet> tagSets = new IdentityHashMap<>();
+
+        public AnnotationLayer copy(AnnotationLayer aLayer)
+        {
+            if (aLayer == null) {
+                return null;
+            }
+
+            AnnotationLayer copy = layers.get(aLayer);
+            if (copy != null) {
+                return copy;
+            }
+
+            copy = new AnnotationLayer();
+            layers.put(aLayer, copy);
+            copy.setId(aLayer.getId());
+            copy.setName(aLayer.getName());
+            copy.setUiName(aLayer.getUiName());
+            copy.setType(aLayer.getType());
+            copy.setDescription(aLayer.getDescription());
+            copy.setEnabled(aLayer.isEnabled());
+            copy.setBuiltIn(aLayer.isBuiltIn());
+            copy.setReadonly(aLayer.isReadonly());
+            copy.setProject(aLayer.getProject());
+            copy.setLockToTokenOffset(aLayer.isLockToTokenOffset());
+            copy.setAllowStacking(aLayer.isAllowStacking());
+            copy.setCrossSentence(aLayer.isCrossSentence());
+            copy.setMultipleTokens(aLayer.isMultipleTokens());
+            copy.setLinkedListBehavior(aLayer.isLinkedListBehavior());
+            copy.setAttachType(copy(aLayer.getAttachType()));
+            copy.setAttachFeature(copy(aLayer.getAttachFeature()));
+            return copy;
+        }
+
+        public AnnotationFeature copy(AnnotationFeature aFeature)
+        {
+            if (aFeature == null) {
+                return null;
+            }
+
+            AnnotationFeature copy = features.get(aFeature);
+            if (copy != null) {
+                return copy;
+            }
+
+            copy = new AnnotationFeature();
+            features.put(aFeature, copy);
+            copy.setId(aFeature.getId());
+            copy.setName(aFeature.getName());
+            copy.setUiName(aFeature.getUiName());
+            copy.setType(aFeature.getType());
+            copy.setDescription(aFeature.getDescription());
+            copy.setEnabled(aFeature.isEnabled());
+            copy.setVisible(aFeature.isVisible());
+            copy.setRemember(aFeature.isRemember());
+            copy.setHideUnconstraintFeature(aFeature.isHideUnconstraintFeature());
+            copy.setRequired(aFeature.isRequired());
+            copy.setMode(aFeature.getMultiValueMode());
+            copy.setLinkMode(aFeature.getLinkMode());
+            copy.setLinkTypeName(aFeature.getLinkTypeName());
+            copy.setLinkTypeRoleFeatureName(aFeature.getLinkTypeRoleFeatureName());
+            copy.setLinkTypeTargetFeatureName(aFeature.getLinkTypeTargetFeatureName());
+            copy.setProject(aFeature.getProject());
+            copy.setLayer(copy(aFeature.getLayer()));
+            copy.setTagset(copy(aFeature.getTagset()));
+            return copy;
+        }
+
+        public TagSet copy(TagSet aTagSet)
+        {
+            if (aTagSet == null) {
+                return null;
+            }
+
+            TagSet copy = tagSets.get(aTagSet);
+            if (copy != null) {
+                return copy;
+            }
+
+            copy = new TagSet();
+            tagSets.put(aTagSet, copy);
+            copy.setId(aTagSet.getId());
+            copy.setName(aTagSet.getName());
+            copy.setLanguage(aTagSet.getLanguage());
+            copy.setDescription(aTagSet.getDescription());
+            copy.setCreateTag(aTagSet.isCreateTag());
+            copy.setProject(aTagSet.getProject());
+            return copy;
+        }
+
+        public Tag copy(Tag aTag)
+        {
+            Tag copy = new Tag();
+            copy.setId(aTag.getId());
+            copy.setName(aTag.getName());
+            copy.setDescription(aTag.getDescription());
+            copy.setTagSet(copy(aTag.getTagSet()));
+            return copy;
+        }
+
+        public <T> List<T> copyAll(List<T> aEntities, Function<T, T> aCopy)
+        {
+            List<T> copies = new ArrayList<>(aEntities.size());
+            for (T entity : aEntities) {
+                copies.add(aCopy.apply(entity));
+            }
+            return copies;
+        }
+    }
+
+    /**
+     * The layers, features and tag sets of a project with indexes for the lookups done by the
+     * {@link AnnotationServiceImpl}. All methods return copies of the entities.
+     */
+    public static final class ProjectSchema
+    {
+        private final List<AnnotationLayer> layers;
+        private final List<AnnotationFeature> features;
+        private final List<TagSet> tagSets;
+
+        private final Map<Long, AnnotationLayer> layersById = new HashMap<>();
+        private final Map<String, AnnotationLayer> layersByName = new HashMap<>();
+        private final Map<Long, AnnotationFeature> featuresById = new HashMap<>();
+        private final Map<Long, List<AnnotationFeature>> featuresByLayer = new HashMap<>();
+        private final Map<Long, Map<String, AnnotationFeature>> featuresByName = new HashMap<>();
+        private final Map<String, TagSet> tagSetsByName = new HashMap<>();
+
+        /**
+         * @param aLayers
+         *            the layers of the project ordered by UI name.
+         * @param aFeatures
+         *            the features of the project ordered by their UI name.
+         * @param aTagSets
+         *            the tag sets of the project ordered by name.
+         */
+        public ProjectSchema(List<AnnotationLayer> aLayers, List<AnnotationFeature> aFeatures,
+                List<TagSet> aTagSets)
+        {
+            layers = Collections.unmodifiableList(new ArrayList<>(aLayers));
+            features = Collections.unmodifiableList(new ArrayList<>(aFeatures));
+            tagSets = Collections.unmodifiableList(new ArrayList<>(aTagSets));
+
+            for (AnnotationLayer layer : layers) {
+                layersById.put(layer.getId(), layer);
+                layersByName.putIfAbsent(layer.getName(), layer);
+            }
+            for (AnnotationFeature feature : features) {
+                featuresById.put(feature.getId(), feature);
+                if (feature.getLayer() == null) {
+                    continue;
+                }
+                long layerId = feature.getLayer().getId();
+                featuresByLayer.computeIfAbsent(layerId, id -> new ArrayList<>()).add(feature);
+                featuresByName.computeIfAbsent(layerId, id -> new HashMap<>())
+                        .putIfAbsent(feature.getName(), feature);
+            }
+            for (TagSet tagSet : tagSets) {
+                tagSetsByName.putIfAbsent(tagSet.getName(), tagSet);
+            }
+        }
+
+        public List<AnnotationLayer> getLayers()
+        {
+            Copier copier = new Copier();
+            return copier.copyAll(layers, copier::copy);
+        }
+
+        public List<AnnotationFeature> getFeatures()
+        {
+            Copier copier = new Copier();
+            return copier.copyAll(features, copier::copy);
+        }
+
+        public List<TagSet> getTagSets()
+        {
+            Copier copier = new Copier();
+            return copier.copyAll(tagSets, copier::copy);
+        }
+
+        public AnnotationLayer getLayer(String aName)
+        {
+            return new Copier().copy(layersByName.get(aName));
+        }
+
+        /**
+         * @param aLayer
+         *            the layer.
+         * @return the features of the layer ordered by UI name.
+         */
+        public List<AnnotationFeature> getFeatures(AnnotationLayer aLayer)
+        {
+            List<AnnotationFeature> layerFeatures = featuresByLayer.get(aLayer.getId());
+            if (layerFeatures == null) {
+                return new ArrayList<>();
+            }
+            Copier copier = new Copier();
+            return copier.copyAll(layerFeatures, copier::copy);
+        }
+
+        public AnnotationFeature getFeature(String aName, AnnotationLayer aLayer)
+        {
+            Map<String, AnnotationFeature> layerFeatures = featuresByName.get(aLayer.getId());
+            return layerFeatures != null ? new Copier().copy(layerFeatures.get(aName)) : null;
+        }
+
+        public TagSet getTagSet(String aName)
+        {
+            return new Copier().copy(tagSetsByName.get(aName));
+        }
+    }
+}
@@ -18,14 +18,8 @@
 package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
-import javax.persistence.NoResultException;
-
-import org.apache.commons.lang.StringUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 
@@ -33,7 +27,6 @@ import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
 import de.tudarmstadt.ukp.clarin.webanno.model.Authority;
 import de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
-import de.tudarmstadt.ukp.clarin.webanno.model.ProjectPermission;
 import de.tudarmstadt.ukp.clarin.webanno.model.Role;
 import de.tudarmstadt.ukp.clarin.webanno.model.User;
 
@@ -44,8 +37,6 @@ import de.tudarmstadt.ukp.clarin.webanno.model.User;
  */
 public class SecurityUtil
 {
-    private static final Logger LOG = LoggerFactory.getLogger(SecurityUtil.class);
-
     public static Set<String> getRoles(RepositoryService aProjectRepository, User aUser)
     {
         // When looking up roles for the user who is currently logged in, then we look in the
@@ -115,23 +106,7 @@ public class SecurityUtil
     public static boolean isProjectAdmin(Project aProject, RepositoryService aProjectRepository,
             User aUser)
     {
-        boolean projectAdmin = false;
-        try {
-            List<ProjectPermission> permissionLevels = aProjectRepository
-                    .listProjectPermissionLevel(aUser, aProject);
-            for (ProjectPermission permissionLevel : permissionLevels) {
-                if (StringUtils.equalsIgnoreCase(permissionLevel.getLevel().getName(),
-                        PermissionLevel.ADMIN.getName())) {
-                    projectAdmin = true;
-                    break;
-                }
-            }
-        }
-        catch (NoResultException ex) {
-            LOG.info("No permision is given to this user " + ex);
-        }
-
-        return projectAdmin;
+        return hasPermissionLevel(aProject, aProjectRepository, aUser, PermissionLevel.ADMIN);
     }
 
     /**
@@ -145,23 +120,7 @@ public class SecurityUtil
     public static boolean isCurator(Project aProject, RepositoryService aProjectRepository,
             User aUser)
     {
-        boolean curator = false;
-        try {
-            List<ProjectPermission> permissionLevels = aProjectRepository
-                    .listProjectPermissionLevel(aUser, aProject);
-            for (ProjectPermission permissionLevel : permissionLevels) {
-                if (StringUtils.equalsIgnoreCase(permissionLevel.getLevel().getName(),
-                        PermissionLevel.CURATOR.getName())) {
-                    curator = true;
-                    break;
-                }
-            }
-        }
-        catch (NoResultException ex) {
-            LOG.info("No permision is given to this user " + ex);
-        }
-
-        return curator;
+        return hasPermissionLevel(aProject, aProjectRepository, aUser, PermissionLevel.CURATOR);
     }
 
     /**
@@ -175,24 +134,7 @@ public class SecurityUtil
     public static boolean isAnnotator(Project aProject, RepositoryService aProjectRepository,
             User aUser)
     {
-        boolean user = false;
-        try {
-            List<ProjectPermission> permissionLevels = aProjectRepository
-                    .listProjectPermissionLevel(aUser, aProject);
-            for (ProjectPermission permissionLevel : permissionLevels) {
-                if (StringUtils.equalsIgnoreCase(permissionLevel.getLevel().getName(),
-                        PermissionLevel.USER.getName())) {
-                    user = true;
-                    break;
-                }
-            }
-        }
-
-        catch (NoResultException ex) {
-            LOG.info("No permision is given to this user " + ex);
-        }
-
-        return user;
+        return hasPermissionLevel(aProject, aProjectRepository, aUser, PermissionLevel.USER);
     }
     
     /**
@@ -206,23 +148,25 @@ public class SecurityUtil
     public static boolean isAdmin(Project aProject, RepositoryService aProjectRepository,
             User aUser)
     {
-        boolean user = false;
-        try {
-            List<ProjectPermission> permissionLevels = aProjectRepository
-                    .listProjectPermissionLevel(aUser, aProject);
-            for (ProjectPermission permissionLevel : permissionLevels) {
-                if (StringUtils.equalsIgnoreCase(permissionLevel.getLevel().getName(),
-                        PermissionLevel.ADMIN.getName())) {
-                    user = true;
-                    break;
-                }
-            }
-        }
-
-        catch (NoResultException ex) {
-            LOG.info("No permision is given to this user " + ex);
-        }
+        return hasPermissionLevel(aProject, aProjectRepository, aUser, PermissionLevel.ADMIN);
+    }
 
-        return user;
+    /**
+     * Determine if the user has the given permission level in a project. The permission levels
+     * are looked up in the {@link RepositoryService#getProjectPermissionLevels(User) snapshot}
+     * of the user, so checking many projects does not query the database for each of them.
+     *
+     * @param aProject the project.
+     * @param aProjectRepository the repository service.
+     * @param aUser the user.
+     * @param aLevel the permission level.
+     * @return if the user has the permission level.
+     */
+    public static boolean hasPermissionLevel(Project aProject,
+            RepositoryService aProjectRepository, User aUser, PermissionLevel aLevel)
+    {
+        Set<PermissionLevel> levels = aProjectRepository.getProjectPermissionLevels(aUser)
+                .get(aProject.getId());
+        return levels != null && levels.contains(aLevel);
     }
 }
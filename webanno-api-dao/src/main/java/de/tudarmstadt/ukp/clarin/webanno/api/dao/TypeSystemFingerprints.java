@@ -0,0 +1,197 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
+
+/**
+ * Fingerprints of CAS type systems. A fingerprint is a hash over all types and features of a type
+ * system. If the fingerprint of a CAS matches the fingerprint of the project type system, the CAS
+ * does not need to be upgraded.
+ * <p>
+ * The fingerprint of a CAS file is stored next to the file so that it does not need to be
+ * recomputed when the CAS is loaded. Computed fingerprints are remembered per type system
+ * instance. Type systems are immutable, so a fingerprint never becomes stale.
+ */
+public class TypeSystemFingerprints
+{
+    private static final String SUFFIX = ".fingerprint";
+
+    private final Map<TypeSystem, String> fingerprints = Collections
+            .synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Get the fingerprint of the given type system, computing it if necessary.
+     *
+     * @param aTypeSystem
+     *            the type system.
+     * @return the fingerprint.
+     */
+    public String get(TypeSystem aTypeSystem)
+    {
+        String fingerprint = fingerprints.get(aTypeSystem);
+        if (fingerprint == null) {
+            fingerprint = compute(aTypeSystem);
+            fingerprints.put(aTypeSystem, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Remember a known fingerprint for the given type system, e.g. one read from disk.
+     *
+     * @param aTypeSystem
+     *            the type system.
+     * @param aFingerprint
+     *            the fingerprint. If this is {@code null}, nothing is remembered.
+     */
+    public void put(TypeSystem aTypeSystem, String aFingerprint)
+    {
+        if (aFingerprint != null) {
+            fingerprints.put(aTypeSystem, aFingerprint);
+        }
+    }
+
+    /**
+     * Compute the fingerprint of the given type system.
+     *
+     * @param aTypeSystem
+     *            the type system.
+     * @return the fingerprint.
+     */
+    public static String compute(TypeSystem aTypeSystem)
+    {
+        List<Type> types = new ArrayList<>();
+        Iterator<Type> i = aTypeSystem.getTypeIterator();
+        while (i.hasNext()) {
+            types.add(i.next());
+        }
+        types.sort(Comparator.comparing(Type::getName));
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (Type type : types) {
+            sb.setLength(0);
+            Type parent = aTypeSystem.getParent(type);
+            sb.append(type.getName()).append('<')
+                    .append(parent != null ? parent.getName() : "").append('{');
+
+            // Only consider features introduced by this type, inherited features are covered by
+            // the supertype.
+            List<Feature> features = new ArrayList<>();
+            for (Feature feature : type.getFeatures()) {
+                if (feature.getDomain().equals(type)) {
+                    features.add(feature);
+                }
+            }
+            features.sort(Comparator.comparing(Feature::getShortName));
+            for (Feature feature : features) {
+                sb.append(feature.getShortName()).append(':').append(feature.getRange().getName())
+                        .append(feature.isMultipleReferencesAllowed() ? "*" : "").append(';');
+            }
+            sb.append('}');
+
+            digest.update(sb.toString().getBytes(UTF_8));
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Read the fingerprint stored for the given CAS file.
+     *
+     * @param aCasFile
+     *            the CAS file.
+     * @return the fingerprint or {@code null} if no fingerprint has been stored.
+     */
+    public static String read(File aCasFile)
+    {
+        File file = getFingerprintFile(aCasFile);
+        if (!file.exists()) {
+            return null;
+        }
+
+        try {
+            return FileUtils.readFileToString(file, "UTF-8").trim();
+        }
+        catch (IOException e) {
+            // A missing fingerprint only means that the fingerprint needs to be recomputed
+            return null;
+        }
+    }
+
+    /**
+     * Store the fingerprint for the given CAS file.
+     *
+     * @param aCasFile
+     *            the CAS file.
+     * @param aFingerprint
+     *            the fingerprint.
+     * @throws IOException
+     *             if the fingerprint cannot be written.
+     */
+    public static void write(File aCasFile, String aFingerprint)
+        throws IOException
+    {
+        FileUtils.writeStringToFile(getFingerprintFile(aCasFile), aFingerprint, "UTF-8");
+    }
+
+    /**
+     * Remove the fingerprint stored for the given CAS file.
+     *
+     * @param aCasFile
+     *            the CAS file.
+     */
+    public static void delete(File aCasFile)
+    {
+        FileUtils.deleteQuietly(getFingerprintFile(aCasFile));
+    }
+
+    private static File getFingerprintFile(File aCasFile)
+    {
+        return new File(aCasFile.getPath() + SUFFIX);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DataRetrievalFailureException;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+
+public class CasBatchLoaderTest
+{
+    private static final int FILE_SIZE = 1000;
+    
+    private CasBatchLoader loader;
+    private List<AnnotationDocument> documents;
+    private Map<String, JCas> cases;
+    
+    @Before
+    public void setup()
+        throws Exception
+    {
+        documents = new ArrayList<>();
+        cases = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            AnnotationDocument document = new AnnotationDocument();
+            document.setUser("user" + i);
+            documents.add(document);
+            cases.put(document.getUser(), JCasFactory.createJCas());
+        }
+    }
+    
+    @After
+    public void teardown()
+    {
+        if (loader != null) {
+            loader.stop();
+        }
+    }
+    
+    @Test
+    public void testCasesAreReturnedInOrder()
+        throws Exception
+    {
+        loader = new CasBatchLoader(4, Long.MAX_VALUE);
+        
+        List<JCas> result = loader.load(documents, d -> FILE_SIZE,
+                d -> cases.get(d.getUser()));
+        
+        assertEquals(documents.size(), result.size());
+        for (int i = 0; i < documents.size(); i++) {
+            assertSame(cases.get(documents.get(i).getUser()), result.get(i));
+        }
+        assertEquals(documents.size(), loader.getLoaded());
+    }
+    
+    @Test
+    public void testReadAheadIsLimitedByMemoryBudget()
+        throws Exception
+    {
+        // Two CASes fit into the budget
+        loader = new CasBatchLoader(4, 2 * FILE_SIZE * CasBatchLoader.MEMORY_PER_FILE_BYTE);
+        
+        AtomicInteger read = new AtomicInteger();
+        Iterator<JCas> iterator = loader.iterate(documents, d -> FILE_SIZE, d -> {
+            read.incrementAndGet();
+            return cases.get(d.getUser());
+        });
+        
+        int consumed = 0;
+        while (iterator.hasNext()) {
+            iterator.next();
+            consumed++;
+            // Wait for the CASes read ahead
+            Thread.sleep(50);
+            assertTrue("Read " + read.get() + " after consuming " + consumed,
+                    read.get() <= consumed + 2);
+        }
+        assertEquals(documents.size(), read.get());
+    }
+    
+    @Test
+    public void testFailureOnlyAffectsSingleCas()
+        throws Exception
+    {
+        loader = new CasBatchLoader(4, Long.MAX_VALUE);
+        
+        Iterator<JCas> iterator = loader.iterate(documents, d -> FILE_SIZE, d -> {
+            if (d == documents.get(1)) {
+                throw new IOException("broken");
+            }
+            return cases.get(d.getUser());
+        });
+        
+        assertSame(cases.get("user0"), iterator.next());
+        try {
+            iterator.next();
+            fail("Expected exception");
+        }
+        catch (DataRetrievalFailureException e) {
+            assertEquals("broken", e.getCause().getMessage());
+        }
+        assertSame(cases.get("user2"), iterator.next());
+    }
+    
+    @Test
+    public void testCasesWithoutFileAreReadOnCallingThread()
+        throws Exception
+    {
+        loader = new CasBatchLoader(4, Long.MAX_VALUE);
+        
+        Thread caller = Thread.currentThread();
+        List<Thread> threads = new ArrayList<>();
+        List<JCas> result = loader.load(documents, d -> -1, d -> {
+            synchronized (threads) {
+                threads.add(Thread.currentThread());
+            }
+            return cases.get(d.getUser());
+        });
+        
+        assertEquals(documents.size(), result.size());
+        threads.forEach(t -> assertSame(caller, t));
+    }
+}
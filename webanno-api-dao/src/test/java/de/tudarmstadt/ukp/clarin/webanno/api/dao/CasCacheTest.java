@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.apache.uima.cas.impl.CASCompleteSerializer;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class CasCacheTest
+{
+    private SourceDocument document;
+    private SourceDocument otherDocument;
+    
+    @Before
+    public void setup()
+    {
+        Project project = new Project();
+        project.setId(1);
+        project.setName("project");
+        
+        document = document(project, 2);
+        otherDocument = document(project, 3);
+    }
+    
+    @Test
+    public void thatLeastRecentlyUsedEntryIsEvicted()
+    {
+        CasCache cache = new CasCache(100);
+        
+        put(cache, document, "user1", 1000, 40);
+        put(cache, document, "user2", 1000, 40);
+        
+        // Using the first entry makes the second one the least recently used
+        assertNotNull(cache.get(document, "user1", 1000));
+        put(cache, otherDocument, "user1", 1000, 40);
+        
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(80, cache.getSize());
+        assertNotNull(cache.get(document, "user1", 1000));
+        assertNull(cache.get(document, "user2", 1000));
+        assertNotNull(cache.get(otherDocument, "user1", 1000));
+    }
+    
+    @Test
+    public void thatEntryLargerThanCacheIsSkipped()
+    {
+        CasCache cache = new CasCache(100);
+        
+        put(cache, document, "user1", 1000, 40);
+        put(cache, document, "user2", 1000, 101);
+        
+        // The huge CAS is not cached and does not flush the cache either
+        assertEquals(0, cache.getEvictions());
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(40, cache.getSize());
+        assertNull(cache.get(document, "user2", 1000));
+    }
+    
+    @Test
+    public void thatEntryIsOnlyValidForItsTimestamp()
+    {
+        CasCache cache = new CasCache(100);
+        CASCompleteSerializer serializer = new CASCompleteSerializer();
+        cache.put(document, "user", 1000, 40, serializer, null, 0);
+        
+        assertSame(serializer, cache.get(document, "user", 1000).getSerializer());
+        
+        // The file has been changed - the stale entry is dropped
+        assertNull(cache.get(document, "user", 2000));
+        assertNull(cache.get(document, "user", 1000));
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getSize());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+    
+    @Test
+    public void thatDocumentIsInvalidatedForAllUsers()
+    {
+        CasCache cache = new CasCache(100);
+        
+        put(cache, document, "user1", 1000, 20);
+        put(cache, document, "user2", 1000, 20);
+        put(cache, otherDocument, "user1", 1000, 20);
+        cache.invalidate(document);
+        
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(20, cache.getSize());
+        assertNotNull(cache.get(otherDocument, "user1", 1000));
+    }
+    
+    @Test
+    public void thatNothingIsCachedWithoutBudget()
+    {
+        CasCache cache = new CasCache(0);
+        
+        put(cache, document, "user", 1000, 1);
+        
+        assertEquals(0, cache.getEntryCount());
+    }
+    
+    private static void put(CasCache aCache, SourceDocument aDocument, String aUsername,
+            long aTimestamp, long aSize)
+    {
+        aCache.put(aDocument, aUsername, aTimestamp, aSize, new CASCompleteSerializer(), null, 0);
+    }
+    
+    private static SourceDocument document(Project aProject, long aId)
+    {
+        SourceDocument document = new SourceDocument();
+        document.setId(aId);
+        document.setName("document" + aId);
+        document.setProject(aProject);
+        return document;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class CasHistoryServiceTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private SourceDocument document;
+    
+    @Before
+    public void setup()
+    {
+        Project project = new Project();
+        project.setId(1);
+        project.setName("project");
+        
+        document = new SourceDocument();
+        document.setId(2);
+        document.setName("document");
+        document.setProject(project);
+    }
+    
+    @Test
+    public void testSavesWithinIntervalAreCoalesced()
+        throws Exception
+    {
+        CasHistoryService history = new CasHistoryService(100, 0, 0,
+            (doc, user, file) -> FileUtils.writeStringToFile(file, "cas", "UTF-8"));
+        
+        history.saved(document, "user", folder.getRoot(), 1000);
+        history.process(1000);
+        history.saved(document, "user", folder.getRoot(), 1050);
+        history.saved(document, "user", folder.getRoot(), 1080);
+        history.process(1090);
+        
+        assertEquals(1, history.getQueueDepth());
+        
+        // Both saves end up in a single history file once the interval has passed
+        history.process(1101);
+        
+        assertEquals(0, history.getQueueDepth());
+        assertEquals(2, history.getSnapshots());
+        assertEquals(asList("user.ser.1000.bak", "user.ser.1080.bak"), historyFiles());
+    }
+    
+    @Test
+    public void testHistoryIsPruned()
+        throws Exception
+    {
+        // Pre-existing history files are picked up
+        FileUtils.writeStringToFile(new File(folder.getRoot(), "user.ser.10.bak"), "", "UTF-8");
+        FileUtils.writeStringToFile(new File(folder.getRoot(), "other.ser.10.bak"), "", "UTF-8");
+        
+        CasHistoryService history = new CasHistoryService(100, 2, 0,
+            (doc, user, file) -> FileUtils.writeStringToFile(file, "cas", "UTF-8"));
+        
+        for (long time : new long[] { 1000, 2000, 3000 }) {
+            history.saved(document, "user", folder.getRoot(), time);
+            history.process(time);
+        }
+        
+        assertEquals(2, history.getPruned());
+        assertEquals(asList("other.ser.10.bak", "user.ser.2000.bak", "user.ser.3000.bak"),
+                historyFiles());
+    }
+    
+    @Test
+    public void testForgetUserDropsPendingSnapshots()
+        throws Exception
+    {
+        CasHistoryService history = new CasHistoryService(100, 0, 0,
+            (doc, user, file) -> FileUtils.writeStringToFile(file, "cas", "UTF-8"));
+        
+        history.saved(document, "user", folder.getRoot(), 1000);
+        history.saved(document, "other", folder.getRoot(), 1000);
+        history.forget(document, "user");
+        
+        assertEquals(1, history.getQueueDepth());
+        
+        history.process(1000);
+        
+        assertEquals(asList("other.ser.1000.bak"), historyFiles());
+    }
+    
+    private List<String> historyFiles()
+    {
+        List<String> names = new ArrayList<>(Arrays.asList(folder.getRoot().list()));
+        names.sort(null);
+        return names;
+    }
+}
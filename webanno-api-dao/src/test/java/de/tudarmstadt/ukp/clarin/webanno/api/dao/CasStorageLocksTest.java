@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageLocks.CasLock;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class CasStorageLocksTest
+{
+    private static final String BASE_USER = "INITIAL_CAS";
+
+    private ExecutorService executor;
+    private SourceDocument document;
+
+    @Before
+    public void setup()
+    {
+        executor = Executors.newSingleThreadExecutor();
+        document = new SourceDocument();
+        document.setId(1);
+        document.setName("doc");
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void thatPairBlocksWritersOfBothUsers()
+        throws Exception
+    {
+        CasStorageLocks locks = new CasStorageLocks(64);
+
+        CasLock lock = locks.lockForReading(document, "user", BASE_USER);
+        Future<?> userWriter = write(locks, "user");
+        Future<?> baseWriter = write(locks, BASE_USER);
+        assertBlocked(userWriter);
+        lock.unlock();
+
+        userWriter.get(10, TimeUnit.SECONDS);
+        baseWriter.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void thatPairOnSameStripeIsLockedOnce()
+        throws Exception
+    {
+        CasStorageLocks locks = new CasStorageLocks(1);
+
+        CasLock lock = locks.lockForReading(document, "user", BASE_USER);
+        assertEquals(1, locks.getAcquisitions());
+        Future<?> writer = write(locks, BASE_USER);
+        assertBlocked(writer);
+        lock.unlock();
+
+        writer.get(10, TimeUnit.SECONDS);
+    }
+
+    private Future<?> write(CasStorageLocks aLocks, String aUsername)
+    {
+        return executor.submit(() -> aLocks.lockForWriting(document, aUsername).unlock());
+    }
+
+    private static void assertBlocked(Future<?> aFuture)
+        throws Exception
+    {
+        try {
+            aFuture.get(200, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            // Expected
+        }
+        assertFalse(aFuture.isDone());
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Marker;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CompactCasStorage.CompactCasInfo;
+
+public class CompactCasStorageTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void testRoundTripPreservesAddresses()
+        throws Exception
+    {
+        CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        cas.setDocumentText("This is a test .");
+        Type type = cas.getAnnotationType();
+        for (int i = 0; i < 6; i++) {
+            AnnotationFS fs = cas.createAnnotation(type, i, i + 1);
+            cas.addFsToIndexes(fs);
+            // Leave gaps in the addresses of the indexed annotations
+            if (i % 2 == 0) {
+                cas.removeFsFromIndexes(fs);
+            }
+        }
+        
+        String fingerprint = TypeSystemFingerprints.compute(cas.getTypeSystem());
+        File typeSystemFolder = folder.newFolder("typesystem");
+        File casFile = new File(folder.getRoot(), "user.ser");
+        
+        new CompactCasStorage().write(cas, fingerprint, typeSystemFolder, casFile);
+        assertTrue(CompactCasStorage.isCompact(casFile));
+        
+        // Use a new storage instance to ensure the type system is read from disk
+        CAS copy = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        String readFingerprint = new CompactCasStorage().read(casFile, typeSystemFolder, copy, null)
+                .getFingerprint();
+        
+        assertEquals(fingerprint, readFingerprint);
+        assertEquals(cas.getDocumentText(), copy.getDocumentText());
+        assertEquals(addresses(cas), addresses(copy));
+    }
+    
+    @Test
+    public void testAppendDeltas()
+        throws Exception
+    {
+        CompactCasStorage storage = new CompactCasStorage();
+        File typeSystemFolder = folder.newFolder("typesystem");
+        File casFile = new File(folder.getRoot(), "user.ser");
+
+        CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        cas.setDocumentText("This is a test .");
+        AnnotationFS annotation = cas.createAnnotation(cas.getAnnotationType(), 0, 4);
+        cas.addFsToIndexes(annotation);
+        int address = ((CASImpl) cas).ll_getFSRef(annotation);
+        String fingerprint = TypeSystemFingerprints.compute(cas.getTypeSystem());
+        storage.write(cas, fingerprint, typeSystemFolder, casFile);
+        
+        // Two edit sessions, each reading the CAS and storing only the changes
+        for (int i = 0; i < 2; i++) {
+            CAS session = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+            CompactCasInfo info = storage.read(casFile, typeSystemFolder, session, null);
+            assertEquals(i, info.getDeltas());
+            Marker marker = session.createMarker();
+            
+            AnnotationFS first = ((CASImpl) session).ll_getFSForRef(address);
+            session.removeFsFromIndexes(first);
+            first.setIntValue(session.getAnnotationType().getFeatureByBaseName("end"), 7 + i);
+            session.addFsToIndexes(first);
+            session.addFsToIndexes(session.createAnnotation(session.getAnnotationType(), 8, 9));
+            
+            storage.appendDelta(session, marker, casFile, info.getLength());
+            cas = session;
+        }
+        
+        CAS copy = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        CompactCasInfo info = storage.read(casFile, typeSystemFolder, copy, null);
+        
+        assertEquals(2, info.getDeltas());
+        assertEquals(casFile.length(), info.getLength());
+        assertEquals(spans(cas), spans(copy));
+        assertEquals(addresses(cas), addresses(copy));
+    }
+    
+    @Test
+    public void testDeltaOnBaseCas()
+        throws Exception
+    {
+        CompactCasStorage storage = new CompactCasStorage();
+        File typeSystemFolder = folder.newFolder("typesystem");
+        File baseFile = new File(folder.getRoot(), "INITIAL_CAS.ser");
+        File casFile = new File(folder.getRoot(), "user.ser");
+
+        CAS base = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        base.setDocumentText("This is a test .");
+        base.addFsToIndexes(base.createAnnotation(base.getAnnotationType(), 0, 4));
+        String fingerprint = TypeSystemFingerprints.compute(base.getTypeSystem());
+        storage.write(base, fingerprint, typeSystemFolder, baseFile);
+        
+        CompactCasStorage.BaseLoader loader = (user, target) -> storage.read(baseFile,
+                typeSystemFolder, target, null);
+        
+        CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        loader.load("INITIAL_CAS", cas);
+        int heapSize = ((CASImpl) cas).getHeap().getNextId();
+        Marker marker = cas.createMarker();
+        cas.addFsToIndexes(cas.createAnnotation(cas.getAnnotationType(), 5, 7));
+        storage.writeDelta(cas, marker, fingerprint, typeSystemFolder, "INITIAL_CAS", heapSize,
+                casFile);
+        
+        assertTrue(casFile.length() < baseFile.length());
+        
+        CAS copy = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        CompactCasInfo info = storage.read(casFile, typeSystemFolder, copy, loader);
+        
+        assertEquals("INITIAL_CAS", info.getBaseUser());
+        assertEquals(1, info.getDeltas());
+        assertEquals(spans(cas), spans(copy));
+        assertEquals(addresses(cas), addresses(copy));
+    }
+    
+    @Test
+    public void testIncompleteDeltaIsIgnored()
+        throws Exception
+    {
+        CompactCasStorage storage = new CompactCasStorage();
+        File typeSystemFolder = folder.newFolder("typesystem");
+        File casFile = new File(folder.getRoot(), "user.ser");
+
+        CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        cas.setDocumentText("This is a test .");
+        cas.addFsToIndexes(cas.createAnnotation(cas.getAnnotationType(), 0, 4));
+        storage.write(cas, TypeSystemFingerprints.compute(cas.getTypeSystem()),
+                typeSystemFolder, casFile);
+        long length = casFile.length();
+        
+        // Simulate a crash while appending a delta
+        try (FileOutputStream os = new FileOutputStream(casFile, true)) {
+            os.write(new byte[] { 0, 0, 1, 0, 42 });
+        }
+        
+        CAS copy = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        CompactCasInfo info = storage.read(casFile, typeSystemFolder, copy, null);
+        
+        assertEquals(length, info.getLength());
+        assertEquals(0, info.getDeltas());
+        assertEquals(spans(cas), spans(copy));
+    }
+    
+    @Test
+    public void testRecoverRemovesIncompleteDelta()
+        throws Exception
+    {
+        CompactCasStorage storage = new CompactCasStorage();
+        File typeSystemFolder = folder.newFolder("typesystem");
+        File casFile = new File(folder.getRoot(), "user.ser");
+
+        CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        cas.setDocumentText("This is a test .");
+        storage.write(cas, TypeSystemFingerprints.compute(cas.getTypeSystem()),
+                typeSystemFolder, casFile);
+        long length = casFile.length();
+        
+        // No temporary files are left behind by a successful write
+        assertEquals(1, folder.getRoot().listFiles((d, n) -> n.startsWith("user.")).length);
+        
+        try (FileOutputStream os = new FileOutputStream(casFile, true)) {
+            os.write(new byte[] { 0, 0, 1, 0, 42 });
+        }
+        
+        assertTrue(CompactCasStorage.recover(casFile));
+        assertEquals(length, casFile.length());
+        assertFalse(CompactCasStorage.recover(casFile));
+    }
+    
+    @Test
+    public void testJavaSerializedIsNotCompact()
+        throws Exception
+    {
+        CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        cas.setDocumentText("This is a test .");
+        
+        File casFile = new File(folder.getRoot(), "user.ser");
+        try (ObjectOutputStream os = new ObjectOutputStream(new FileOutputStream(casFile))) {
+            os.writeObject(serializeCASComplete((CASImpl) cas));
+        }
+        
+        assertFalse(CompactCasStorage.isCompact(casFile));
+    }
+    
+    private static List<String> spans(CAS aCas)
+    {
+        List<String> spans = new ArrayList<>();
+        for (AnnotationFS fs : CasUtil.select(aCas, aCas.getAnnotationType())) {
+            spans.add(fs.getBegin() + "-" + fs.getEnd());
+        }
+        return spans;
+    }
+    
+    private static List<Integer> addresses(CAS aCas)
+    {
+        List<Integer> addresses = new ArrayList<>();
+        for (AnnotationFS fs : CasUtil.select(aCas, aCas.getAnnotationType())) {
+            addresses.add(((CASImpl) aCas).ll_getFSRef(fs));
+        }
+        return addresses;
+    }
+}
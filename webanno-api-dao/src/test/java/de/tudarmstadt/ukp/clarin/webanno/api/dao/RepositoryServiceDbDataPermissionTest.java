@@ -0,0 +1,214 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static java.util.Collections.singleton;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
+import de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.ProjectPermission;
+import de.tudarmstadt.ukp.clarin.webanno.model.User;
+
+/**
+ * Checks that changing the permissions of a user drops the cached permission levels of the user.
+ */
+public class RepositoryServiceDbDataPermissionTest
+{
+    public @Rule TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<ProjectPermission> permissions = new ArrayList<>();
+    private int levelQueries;
+
+    private Project project;
+    private User user;
+    private RepositoryServiceDbData repository;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        project = new Project();
+        project.setId(1);
+        project.setName("project");
+
+        user = new User();
+        user.setUsername("user");
+
+        repository = new RepositoryServiceDbData();
+        inject("entityManager", createEntityManager());
+        inject("annotationService", createAnnotationService());
+        inject("dir", folder.getRoot());
+    }
+
+    @Test
+    public void thatLevelsAreCached()
+    {
+        Map<Long, Set<PermissionLevel>> levels = repository.getProjectPermissionLevels(user);
+
+        assertSame(levels, repository.getProjectPermissionLevels(user));
+        assertEquals(1, levelQueries);
+    }
+
+    @Test
+    public void thatCreatingPermissionInvalidatesLevels()
+    {
+        assertTrue(repository.getProjectPermissionLevels(user).isEmpty());
+
+        repository.createProjectPermission(permission(PermissionLevel.USER));
+
+        assertEquals(singleton(PermissionLevel.USER),
+                repository.getProjectPermissionLevels(user).get(1L));
+    }
+
+    @Test
+    public void thatRemovingPermissionInvalidatesLevels()
+    {
+        ProjectPermission permission = permission(PermissionLevel.USER);
+        repository.createProjectPermission(permission);
+        assertEquals(1, repository.getProjectPermissionLevels(user).size());
+
+        repository.removeProjectPermission(permission);
+
+        assertTrue(repository.getProjectPermissionLevels(user).isEmpty());
+    }
+
+    @Test
+    public void thatRemovingProjectInvalidatesLevels()
+        throws Exception
+    {
+        repository.createProjectPermission(permission(PermissionLevel.ADMIN));
+        assertEquals(1, repository.getProjectPermissionLevels(user).size());
+
+        repository.removeProject(project);
+
+        assertTrue(repository.getProjectPermissionLevels(user).isEmpty());
+    }
+
+    private ProjectPermission permission(PermissionLevel aLevel)
+    {
+        ProjectPermission permission = new ProjectPermission();
+        permission.setProject(project);
+        permission.setUser(user.getUsername());
+        permission.setLevel(aLevel);
+        return permission;
+    }
+
+    private void inject(String aField, Object aValue)
+        throws Exception
+    {
+        Field field = RepositoryServiceDbData.class.getDeclaredField(aField);
+        field.setAccessible(true);
+        field.set(repository, aValue);
+    }
+
+    /**
+     * Creates an entity manager which keeps the permissions in {@link #permissions} and knows no
+     * other entities.
+     */
+    private EntityManager createEntityManager()
+    {
+        return (EntityManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { EntityManager.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "persist":
+                        if (args[0] instanceof ProjectPermission) {
+                            permissions.add((ProjectPermission) args[0]);
+                        }
+                        return null;
+                    case "remove":
+                        permissions.remove(args[0]);
+                        return null;
+                    case "contains":
+                        return true;
+                    case "createQuery":
+                        return createQuery((String) args[0]);
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private TypedQuery<?> createQuery(String aQuery)
+    {
+        Map<String, Object> parameters = new HashMap<>();
+        return (TypedQuery<?>) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { TypedQuery.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "setParameter":
+                        parameters.put((String) args[0], args[1]);
+                        return proxy;
+                    case "getResultList":
+                        return results(aQuery, parameters);
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private List<Object> results(String aQuery, Map<String, Object> aParameters)
+    {
+        List<Object> results = new ArrayList<>();
+        if (aQuery.startsWith("SELECT project.id, level FROM ProjectPermission")) {
+            levelQueries++;
+            for (ProjectPermission p : permissions) {
+                if (p.getUser().equals(aParameters.get("user"))) {
+                    results.add(new Object[] { p.getProject().getId(), p.getLevel() });
+                }
+            }
+        }
+        else if (aQuery.startsWith("FROM ProjectPermission WHERE project")) {
+            for (ProjectPermission p : permissions) {
+                if (p.getProject() == aParameters.get("project")) {
+                    results.add(p);
+                }
+            }
+        }
+        return results;
+    }
+
+    private AnnotationService createAnnotationService()
+    {
+        return (AnnotationService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { AnnotationService.class }, (proxy, method, args) -> {
+                    if (method.getName().startsWith("list")) {
+                        return new ArrayList<>();
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
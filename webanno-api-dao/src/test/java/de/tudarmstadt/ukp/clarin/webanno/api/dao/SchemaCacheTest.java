@@ -0,0 +1,200 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.SchemaCache.ProjectSchema;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.Tag;
+import de.tudarmstadt.ukp.clarin.webanno.model.TagSet;
+
+public class SchemaCacheTest
+{
+    private SchemaCache cache;
+    private Project project;
+    private AnnotationLayer pos;
+    private AnnotationLayer ner;
+    private AnnotationFeature posValue;
+    private AnnotationFeature nerValue;
+    private AnnotationFeature nerIdentifier;
+    private TagSet tagSet;
+    private AtomicInteger loads;
+    
+    @Before
+    public void setup()
+    {
+        cache = new SchemaCache();
+        loads = new AtomicInteger();
+        
+        project = new Project();
+        project.setId(1);
+        project.setName("project");
+        
+        pos = new AnnotationLayer("pos", "POS", "span", project, true);
+        pos.setId(10);
+        ner = new AnnotationLayer("ner", "Named entity", "span", project, true);
+        ner.setId(11);
+        
+        posValue = feature(20, "PosValue", pos);
+        nerIdentifier = feature(21, "identifier", ner);
+        nerValue = feature(22, "value", ner);
+        
+        tagSet = new TagSet();
+        tagSet.setId(30);
+        tagSet.setName("STTS");
+        tagSet.setProject(project);
+    }
+    
+    @Test
+    public void thatSchemaIsLoadedOnce()
+    {
+        ProjectSchema schema = cache.getSchema(project, this::load);
+        
+        assertSame(schema, cache.getSchema(project, this::load));
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate(), 0.0);
+    }
+    
+    @Test
+    public void thatSchemaIsIndexed()
+    {
+        ProjectSchema schema = cache.getSchema(project, this::load);
+        
+        assertEquals(ner, schema.getLayer("ner"));
+        assertNull(schema.getLayer("chunk"));
+        assertEquals(asList(nerIdentifier, nerValue), schema.getFeatures(ner));
+        assertEquals(asList(posValue), schema.getFeatures(pos));
+        assertEquals(nerValue, schema.getFeature("value", ner));
+        assertNull(schema.getFeature("value", pos));
+        assertEquals(tagSet, schema.getTagSet("STTS"));
+        assertEquals(pos, cache.findLayer(10));
+        assertEquals(nerValue, cache.findFeature(22));
+        assertNull(cache.findFeature(99));
+    }
+    
+    @Test
+    public void thatEntitiesAreCopied()
+    {
+        ProjectSchema schema = cache.getSchema(project, this::load);
+        
+        AnnotationLayer layer = schema.getLayer("ner");
+        assertNotSame(ner, layer);
+        layer.setUiName("Changed");
+        layer.setEnabled(false);
+        assertEquals("Named entity", schema.getLayer("ner").getUiName());
+        assertTrue(cache.findLayer(11).isEnabled());
+        
+        // Copies handed out together reference each other
+        List<AnnotationFeature> features = schema.getFeatures(ner);
+        assertNotSame(nerValue, features.get(1));
+        assertSame(features.get(0).getLayer(), features.get(1).getLayer());
+        features.get(1).getLayer().setUiName("Changed");
+        assertEquals("Named entity", schema.getFeatures(ner).get(1).getLayer().getUiName());
+        
+        schema.getTagSet("STTS").setName("Changed");
+        assertEquals("STTS", schema.getTagSets().get(0).getName());
+    }
+    
+    @Test
+    public void thatInvalidationReloadsSchema()
+    {
+        cache.getSchema(project, this::load);
+        cache.invalidate(project);
+        cache.getSchema(project, this::load);
+        
+        assertEquals(2, loads.get());
+        assertNull(cache.findLayer(99));
+    }
+    
+    @Test
+    public void thatSchemaChangedWhileLoadingIsNotCached()
+    {
+        cache.getSchema(project, p -> {
+            cache.invalidate(project);
+            return load(p);
+        });
+        cache.getSchema(project, this::load);
+        
+        assertEquals(2, loads.get());
+    }
+    
+    @Test
+    public void thatTagsAreCopied()
+    {
+        List<Tag> first = cache.getTags(tagSet, this::loadTags);
+        first.get(0).setReordered(true);
+        List<Tag> second = cache.getTags(tagSet, this::loadTags);
+        
+        assertEquals(1, loads.get());
+        assertEquals(first, second);
+        assertNotSame(first.get(0), second.get(0));
+        assertFalse(second.get(0).getReordered());
+        
+        cache.invalidate(tagSet);
+        cache.getTags(tagSet, this::loadTags);
+        assertEquals(2, loads.get());
+    }
+    
+    private ProjectSchema load(Project aProject)
+    {
+        loads.incrementAndGet();
+        return new ProjectSchema(asList(ner, pos), asList(nerIdentifier, nerValue, posValue),
+                asList(tagSet));
+    }
+    
+    private List<Tag> loadTags(TagSet aTagSet)
+    {
+        loads.incrementAndGet();
+        List<Tag> tags = new ArrayList<>();
+        for (String name : asList("ADJA", "NN")) {
+            Tag tag = new Tag();
+            tag.setName(name);
+            tag.setTagSet(aTagSet);
+            tags.add(tag);
+        }
+        return tags;
+    }
+    
+    private static AnnotationFeature feature(long aId, String aName, AnnotationLayer aLayer)
+    {
+        AnnotationFeature feature = new AnnotationFeature();
+        feature.setId(aId);
+        feature.setName(aName);
+        feature.setLayer(aLayer);
+        feature.setProject(aLayer.getProject());
+        return feature;
+    }
+}
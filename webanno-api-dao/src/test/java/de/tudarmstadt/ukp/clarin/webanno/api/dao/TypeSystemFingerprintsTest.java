@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.apache.uima.UIMAFramework;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.impl.CASCompleteSerializer;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.Serialization;
+import org.apache.uima.resource.metadata.TypeDescription;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Test;
+
+public class TypeSystemFingerprintsTest
+{
+    @Test
+    public void testSameTypeSystemSameFingerprint()
+        throws Exception
+    {
+        CAS cas = CasCreationUtils.createCas(createTypeSystem(false), null, null);
+
+        // Round-trip through the serialized form used by the repository
+        CASCompleteSerializer serializer = Serialization.serializeCASComplete((CASImpl) cas);
+        CAS copy = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+        Serialization.deserializeCASComplete(serializer, (CASImpl) copy);
+
+        assertEquals(TypeSystemFingerprints.compute(cas.getTypeSystem()),
+                TypeSystemFingerprints.compute(copy.getTypeSystem()));
+    }
+
+    @Test
+    public void testAddedFeatureChangesFingerprint()
+        throws Exception
+    {
+        CAS cas1 = CasCreationUtils.createCas(createTypeSystem(false), null, null);
+        CAS cas2 = CasCreationUtils.createCas(createTypeSystem(true), null, null);
+
+        assertNotEquals(TypeSystemFingerprints.compute(cas1.getTypeSystem()),
+                TypeSystemFingerprints.compute(cas2.getTypeSystem()));
+    }
+
+    private TypeSystemDescription createTypeSystem(boolean aWithExtraFeature)
+    {
+        TypeSystemDescription tsd = UIMAFramework.getResourceSpecifierFactory()
+                .createTypeSystemDescription();
+
+        TypeDescription td = tsd.addType("webanno.custom.Span", null, CAS.TYPE_NAME_ANNOTATION);
+        td.addFeature("value", null, CAS.TYPE_NAME_STRING);
+        if (aWithExtraFeature) {
+            td.addFeature("extra", null, CAS.TYPE_NAME_STRING);
+        }
+
+        return tsd;
+    }
+}
@@ -384,4 +384,16 @@ public interface AnnotationService
     TagSet createTagSet(String aDescription, String aLanguage, String aTagSetName, String[] aTags,
             String[] aTagDescription, Project aProject)
                 throws IOException;
+
+    /**
+     * Get a version stamp for the layers and features of the given project. The stamp changes
+     * whenever a layer or feature of the project is created, updated or removed through this
+     * service. It can be used to invalidate data derived from the project schema, e.g. the
+     * project type system.
+     * 
+     * @param aProject
+     *            the project.
+     * @return the version stamp.
+     */
+    long getSchemaVersion(Project aProject);
 }
@@ -20,6 +20,8 @@ package de.tudarmstadt.ukp.clarin.webanno.api;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -281,6 +283,23 @@ public interface DocumentService
      */
     File getCasFile(SourceDocument document, String user);
 
+    /**
+     * Write the serialized CAS of the given user in the portable format used in project exports.
+     * The CAS files in the repository may be stored in a more compact format which can only be
+     * read together with the type systems stored in the project folder.
+     *
+     * @param document
+     *            the source document.
+     * @param user
+     *            the username.
+     * @param os
+     *            the stream to write the serialized CAS to.
+     * @throws IOException
+     *             if the CAS cannot be read or written.
+     */
+    void exportSerializedCas(SourceDocument document, String user, OutputStream os)
+        throws IOException;
+
     /**
      * Get the annotation document.
      *
@@ -327,6 +346,34 @@ public interface DocumentService
     JCas readAnnotationCas(SourceDocument document, User user)
         throws IOException;
 
+    /**
+     * Gets the CASes for the given annotation documents. The CASes are deserialized in parallel.
+     * CASes which do not exist yet are converted from the source documents as in
+     * {@link #readAnnotationCas(AnnotationDocument)}.
+     *
+     * @param annotationDocuments
+     *            the annotation documents.
+     * @return the JCases in the order of the annotation documents.
+     * @throws IOException
+     *             if there was an I/O error.
+     */
+    List<JCas> readAnnotationCases(List<AnnotationDocument> annotationDocuments)
+        throws IOException;
+
+    /**
+     * Gets the CASes for the given annotation documents one after the other. The CASes are
+     * deserialized in parallel in the background, but only as many of them as fit into the
+     * configured memory budget are read ahead. This allows processing many CASes without keeping
+     * all of them in memory. If a CAS cannot be read, the iterator throws a
+     * {@link org.springframework.dao.DataRetrievalFailureException} for it, but the following
+     * CASes can still be retrieved.
+     *
+     * @param annotationDocuments
+     *            the annotation documents.
+     * @return the JCases in the order of the annotation documents.
+     */
+    Iterator<JCas> iterateAnnotationCases(List<AnnotationDocument> annotationDocuments);
+
     boolean existsInitialCas(SourceDocument aDocument)
         throws IOException;
     
@@ -361,6 +408,17 @@ public interface DocumentService
      */
     int numberOfExpectedAnnotationDocuments(Project project);
 
+    /**
+     * Get the annotation progress of the annotators in the project. The summary is computed
+     * using aggregate queries and kept until the state of an annotation document, the source
+     * documents or the permissions of the project change.
+     *
+     * @param project
+     *            the project.
+     * @return the progress summary.
+     */
+    ProjectProgress getProjectProgress(Project project);
+
     /**
      * List all annotation Documents in a project that are already closed. used to compute overall
      * project progress
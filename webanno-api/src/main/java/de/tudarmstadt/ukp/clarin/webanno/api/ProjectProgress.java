@@ -0,0 +1,191 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Summary of the annotation progress in a project: the number of annotation documents per
+ * annotator and state, separately for regular and for training documents. Annotation documents
+ * which do not exist yet are implicitly in the state {@link AnnotationDocumentState#NEW}.
+ */
+public class ProjectProgress
+    implements Serializable
+{
+    private static final long serialVersionUID = -3150366279460546536L;
+
+    private static final int STATES = AnnotationDocumentState.values().length;
+
+    private final List<String> annotators;
+    private final int documents;
+    private final int trainingDocuments;
+
+    /**
+     * Counts per annotator. Index {@code 2 * state.ordinal()} holds the count for regular
+     * documents, the index after it the count for training documents.
+     */
+    private final Map<String, int[]> counts = new HashMap<>();
+
+    /**
+     * @param aAnnotators
+     *            the users with annotator permission in the project.
+     * @param aDocuments
+     *            the number of regular source documents in the project.
+     * @param aTrainingDocuments
+     *            the number of training documents in the project.
+     */
+    public ProjectProgress(Collection<String> aAnnotators, int aDocuments,
+            int aTrainingDocuments)
+    {
+        annotators = Collections
+                .unmodifiableList(new ArrayList<>(new LinkedHashSet<>(aAnnotators)));
+        documents = aDocuments;
+        trainingDocuments = aTrainingDocuments;
+        for (String annotator : annotators) {
+            counts.put(annotator, new int[2 * STATES]);
+        }
+    }
+
+    /**
+     * Adds annotation documents to the summary. Documents of users which are not annotators in
+     * the project are ignored.
+     *
+     * @param aUser
+     *            the annotator.
+     * @param aState
+     *            the state of the annotation documents.
+     * @param aTraining
+     *            whether the annotation documents belong to training documents.
+     * @param aCount
+     *            the number of annotation documents.
+     */
+    public void add(String aUser, AnnotationDocumentState aState, boolean aTraining, int aCount)
+    {
+        int[] userCounts = counts.get(aUser);
+        if (userCounts != null) {
+            userCounts[index(aState, aTraining)] += aCount;
+        }
+    }
+
+    public List<String> getAnnotators()
+    {
+        return annotators;
+    }
+
+    /**
+     * @param aIncludeTraining
+     *            whether to count {@link SourceDocument#isTrainingDocument() training documents}.
+     * @return the number of source documents in the project.
+     */
+    public int getDocumentCount(boolean aIncludeTraining)
+    {
+        return aIncludeTraining ? documents + trainingDocuments : documents;
+    }
+
+    /**
+     * @param aUser
+     *            the annotator.
+     * @param aState
+     *            the state.
+     * @param aIncludeTraining
+     *            whether to count annotation documents of training documents.
+     * @return the number of annotation documents of the given annotator in the given state.
+     */
+    public int getCount(String aUser, AnnotationDocumentState aState, boolean aIncludeTraining)
+    {
+        int[] userCounts = counts.get(aUser);
+        if (userCounts == null) {
+            return 0;
+        }
+
+        int count = userCounts[index(aState, false)];
+        if (aIncludeTraining) {
+            count += userCounts[index(aState, true)];
+        }
+        return count;
+    }
+
+    /**
+     * @param aState
+     *            the state.
+     * @return the number of annotation documents of all annotators in the given state, including
+     *         those of training documents.
+     */
+    public int getCount(AnnotationDocumentState aState)
+    {
+        int count = 0;
+        for (String annotator : annotators) {
+            count += getCount(annotator, aState, true);
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of annotation documents expected in the project, i.e. the number of
+     *         source documents times the number of annotators minus the ignored documents.
+     */
+    public int getExpectedCount()
+    {
+        return getDocumentCount(true) * annotators.size()
+                - getCount(AnnotationDocumentState.IGNORE);
+    }
+
+    /**
+     * @param aUser
+     *            the annotator.
+     * @return the percentage of the regular documents not ignored by the annotator which the
+     *         annotator has finished.
+     */
+    public int getFinishedPercentage(String aUser)
+    {
+        return percentage(getCount(aUser, AnnotationDocumentState.FINISHED, false),
+                getDocumentCount(false) - getCount(aUser, AnnotationDocumentState.IGNORE, false));
+    }
+
+    /**
+     * @return the percentage of the {@link #getExpectedCount() expected annotation documents}
+     *         which have been finished.
+     */
+    public int getFinishedPercentage()
+    {
+        return percentage(getCount(AnnotationDocumentState.FINISHED), getExpectedCount());
+    }
+
+    private static int percentage(int aValue, int aTotal)
+    {
+        if (aTotal <= 0) {
+            return 0;
+        }
+        return (int) Math.round((double) (aValue * 100) / aTotal);
+    }
+
+    private static int index(AnnotationDocumentState aState, boolean aTraining)
+    {
+        return 2 * aState.ordinal() + (aTraining ? 1 : 0);
+    }
+}
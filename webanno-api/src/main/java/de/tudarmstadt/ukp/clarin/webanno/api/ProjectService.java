@@ -22,7 +22,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 import org.springframework.security.access.prepost.PreAuthorize;
 
@@ -93,6 +95,16 @@ public interface ProjectService
      */
     List<ProjectPermission> listProjectPermissionLevel(User user, Project project);
 
+    /**
+     * Get the permission levels a user has in all projects. The snapshot is built using a single
+     * query and kept until a permission of the user is created or removed.
+     *
+     * @param user
+     *            the user.
+     * @return the permission levels by project ID.
+     */
+    Map<Long, Set<PermissionLevel>> getProjectPermissionLevels(User user);
+
     /**
      * List Users those with some {@link PermissionLevel}s in the project
      *
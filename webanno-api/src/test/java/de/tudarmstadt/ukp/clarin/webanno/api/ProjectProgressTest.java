@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api;
+
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.FINISHED;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.IGNORE;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ProjectProgressTest
+{
+    @Test
+    public void thatIgnoredAndTrainingDocumentsAreAccountedFor()
+    {
+        // Four regular and two training documents
+        ProjectProgress progress = new ProjectProgress(asList("a", "b"), 4, 2);
+        progress.add("a", FINISHED, false, 2);
+        progress.add("a", IGNORE, false, 1);
+        progress.add("a", FINISHED, true, 1);
+        progress.add("b", FINISHED, false, 1);
+        progress.add("b", IGNORE, true, 1);
+        // Not an annotator in the project
+        progress.add("c", FINISHED, false, 3);
+
+        // Per annotator, only regular documents count and ignored ones are not expected
+        assertEquals(67, progress.getFinishedPercentage("a"));
+        assertEquals(25, progress.getFinishedPercentage("b"));
+        assertEquals(0, progress.getFinishedPercentage("c"));
+
+        // Six documents for each of the two annotators, minus the two ignored ones
+        assertEquals(10, progress.getExpectedCount());
+        assertEquals(40, progress.getFinishedPercentage());
+    }
+
+    @Test
+    public void thatProjectWithoutExpectedDocumentsIsNotFinished()
+    {
+        ProjectProgress empty = new ProjectProgress(asList("a"), 0, 0);
+        assertEquals(0, empty.getExpectedCount());
+        assertEquals(0, empty.getFinishedPercentage());
+        assertEquals(0, empty.getFinishedPercentage("a"));
+
+        ProjectProgress allIgnored = new ProjectProgress(asList("a"), 1, 0);
+        allIgnored.add("a", IGNORE, false, 1);
+        assertEquals(0, allIgnored.getExpectedCount());
+        assertEquals(0, allIgnored.getFinishedPercentage());
+        assertEquals(0, allIgnored.getFinishedPercentage("a"));
+    }
+}
@@ -24,13 +24,10 @@ import static org.apache.uima.fit.util.CasUtil.getType;
 import static org.apache.uima.fit.util.CasUtil.selectCovered;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,6 +40,7 @@ import org.apache.uima.jcas.JCas;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.ArcAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.coloring.ColoringStrategy;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.Selection;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.TypeUtil;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Argument;
@@ -97,11 +95,13 @@ public class BratArcRenderer
         FeatureStructure dependentFs;
         FeatureStructure governorFs;
 
-        Map<Integer, Set<Integer>> relationLinks = getRelationLinks(aJcas, windowBegin, windowEnd,
-                type, dependentFeature, governorFeature, arcSpanFeature);
-
-        // if this is a governor for more than one dependent, avoid duplicate yield
-        List<Integer> yieldDeps = new ArrayList<>();
+        // The yield is only shown for the selected relation. Until we know whether that relation
+        // is on this layer, we only record the arcs.
+        Selection selection = aBratAnnotatorModel.getSelection();
+        int selectedRelation = selection.isRelationAnno() && selection.getAnnotation().isSet()
+                ? selection.getAnnotation().getId() : -1;
+        int selectedGovernor = -1;
+        RelationLinks relationLinks = new RelationLinks();
 
         for (AnnotationFS fs : selectCovered(aJcas.getCas(), type, windowBegin, windowEnd)) {
             if (typeAdapter.getAttachFeatureName() != null) {
@@ -138,26 +138,31 @@ public class BratArcRenderer
             // Render errors if required features are missing
             renderRequiredFeatureErrors(aFeatures, fs, aResponse);
             
-            if (relationLinks.keySet().contains(getAddr(governorFs))
-                    && !yieldDeps.contains(getAddr(governorFs))) {
-                yieldDeps.add(getAddr(governorFs));
+            relationLinks.add(getAddr(governorFs), getAddr(dependentFs));
+            if (getAddr(fs) == selectedRelation) {
+                selectedGovernor = getAddr(governorFs);
+            }
+        }
 
-                // sort the annotations (begin, end)
-                List<Integer> sortedDepFs = new ArrayList<>(relationLinks.get(getAddr(governorFs)));
-                Collections.sort(sortedDepFs, new Comparator<Integer>()
+        if (selectedGovernor != -1) {
+            // sort the annotations (begin, address)
+            List<AnnotationFS> sortedDepFs = new ArrayList<>();
+            for (int addr : relationLinks.getYield(selectedGovernor)) {
+                sortedDepFs.add(selectByAddr(aJcas, addr));
+            }
+            Collections.sort(sortedDepFs, new Comparator<AnnotationFS>()
+            {
+                @Override
+                public int compare(AnnotationFS arg0, AnnotationFS arg1)
                 {
-                    @Override
-                    public int compare(Integer arg0, Integer arg1)
-                    {
-                        return selectByAddr(aJcas, arg0).getBegin()
-                                - selectByAddr(aJcas, arg1).getBegin();
-                    }
-                });
+                    int result = Integer.compare(arg0.getBegin(), arg1.getBegin());
+                    return result != 0 ? result : Integer.compare(getAddr(arg0), getAddr(arg1));
+                }
+            });
 
-                StringBuffer cm = getYieldMessage(aJcas, sortedDepFs);
-                aResponse.addComment(new Comment(getAddr(governorFs), "Yield of relation", cm
-                        .toString()));
-            }
+            StringBuffer cm = getYieldMessage(sortedDepFs);
+            aResponse.addComment(new Comment(selectedGovernor, "Yield of relation", cm
+                    .toString()));
         }
     }
     
@@ -173,90 +178,124 @@ public class BratArcRenderer
     /**
      * The relations yield message
      */
-    private StringBuffer getYieldMessage(JCas aJCas, List<Integer> sortedDepFs)
+    private StringBuffer getYieldMessage(List<AnnotationFS> sortedDepFs)
     {
         StringBuffer cm = new StringBuffer();
         int end = -1;
-        for (Integer depFs : sortedDepFs) {
+        for (AnnotationFS depFs : sortedDepFs) {
             if (end == -1) {
-                cm.append(selectByAddr(aJCas, depFs).getCoveredText());
-                end = selectByAddr(aJCas, depFs).getEnd();
+                cm.append(depFs.getCoveredText());
             }
             // if no space between token and punct
-            else if (end==selectByAddr(aJCas, depFs).getBegin()){
-                cm.append(selectByAddr(aJCas, depFs).getCoveredText());
-                end = selectByAddr(aJCas, depFs).getEnd();
+            else if (end == depFs.getBegin()) {
+                cm.append(depFs.getCoveredText());
             }
-            else if (end + 1 != selectByAddr(aJCas, depFs).getBegin()) {
-                cm.append(" ... " + selectByAddr(aJCas, depFs).getCoveredText());
-                end = selectByAddr(aJCas, depFs).getEnd();
+            else if (end + 1 != depFs.getBegin()) {
+                cm.append(" ... " + depFs.getCoveredText());
             }
             else {
-                cm.append(" " + selectByAddr(aJCas, depFs).getCoveredText());
-                end = selectByAddr(aJCas, depFs).getEnd();
+                cm.append(" " + depFs.getCoveredText());
             }
-
+            end = depFs.getEnd();
         }
         return cm;
     }
 
     /**
-     * Get relation links to display in relation yield
+     * The governor-dependent links of the relations in the window. Relations are recorded as
+     * pairs of addresses and the adjacency lists are only built once a yield is requested.
      */
-    private Map<Integer, Set<Integer>> getRelationLinks(JCas aJcas, int aWindowBegin,
-            int aWindowEnd, Type type, Feature dependentFeature, Feature governorFeature,
-            Feature arcSpanFeature)
+    static class RelationLinks
     {
-        FeatureStructure dependentFs;
-        FeatureStructure governorFs;
-        Map<Integer, Set<Integer>> relations = new ConcurrentHashMap<>();
+        private int[] governors = new int[64];
+        private int[] dependents = new int[64];
+        private int size;
 
-        for (AnnotationFS fs : selectCovered(aJcas.getCas(), type, aWindowBegin, aWindowEnd)) {
-            if (typeAdapter.getAttachFeatureName() != null) {
-                dependentFs = fs.getFeatureValue(dependentFeature).getFeatureValue(arcSpanFeature);
-                governorFs = fs.getFeatureValue(governorFeature).getFeatureValue(arcSpanFeature);
-            }
-            else {
-                dependentFs = fs.getFeatureValue(dependentFeature);
-                governorFs = fs.getFeatureValue(governorFeature);
-            }
-            if (dependentFs == null || governorFs == null) {
-                log.warn("Relation [" + typeAdapter.getLayer().getName() + "] with id ["
-                        + getAddr(fs) + "] has loose ends - cannot render.");
-                continue;
-            }
-            Set<Integer> links = relations.get(getAddr(governorFs));
-            if (links == null) {
-                links = new ConcurrentSkipListSet<>();
+        public void add(int aGovernor, int aDependent)
+        {
+            if (size == governors.length) {
+                governors = Arrays.copyOf(governors, size * 2);
+                dependents = Arrays.copyOf(dependents, size * 2);
             }
+            governors[size] = aGovernor;
+            dependents[size] = aDependent;
+            size++;
+        }
 
-            links.add(getAddr(dependentFs));
-            relations.put(getAddr(governorFs), links);
+        public int size()
+        {
+            return size;
         }
 
-        // Update other subsequent links
-        for (int i = 0; i < relations.keySet().size(); i++) {
-            for (Integer fs : relations.keySet()) {
-                updateLinks(relations, fs);
+        /**
+         * Get the yield of the given governor, i.e. the governor itself and all annotations that
+         * can be reached from it following the relations. Every annotation is visited only once,
+         * so the yield is computed in time linear to the number of relations, also if sub-trees
+         * are shared or the relations contain cycles.
+         *
+         * @param aGovernor
+         *            the address of the governor.
+         * @return the addresses of the annotations in the yield, sorted by address.
+         */
+        public int[] getYield(int aGovernor)
+        {
+            // Map the addresses to a dense range of node indexes
+            int[] nodes = new int[size * 2 + 1];
+            System.arraycopy(governors, 0, nodes, 0, size);
+            System.arraycopy(dependents, 0, nodes, size, size);
+            nodes[size * 2] = aGovernor;
+            Arrays.sort(nodes);
+            int nodeCount = 0;
+            for (int i = 0; i < nodes.length; i++) {
+                if (nodeCount == 0 || nodes[nodeCount - 1] != nodes[i]) {
+                    nodes[nodeCount++] = nodes[i];
+                }
             }
-        }
-        // to start displaying the text from the governor, include it
-        for (Integer fs : relations.keySet()) {
-            relations.get(fs).add(fs);
-        }
-        return relations;
-    }
 
-    private void updateLinks(Map<Integer, Set<Integer>> aRelLinks, Integer aGov)
-    {
-        for (Integer dep : aRelLinks.get(aGov)) {
-            if (aRelLinks.containsKey(dep) && !aRelLinks.get(aGov).containsAll(aRelLinks.get(dep))) {
-                aRelLinks.get(aGov).addAll(aRelLinks.get(dep));
-                updateLinks(aRelLinks, dep);
+            // Adjacency lists: the dependents of node n are targets[offsets[n]..offsets[n+1]-1]
+            int[] offsets = new int[nodeCount + 1];
+            int[] sources = new int[size];
+            for (int i = 0; i < size; i++) {
+                sources[i] = Arrays.binarySearch(nodes, 0, nodeCount, governors[i]);
+                offsets[sources[i] + 1]++;
             }
-            else {
-                continue;
+            for (int n = 0; n < nodeCount; n++) {
+                offsets[n + 1] += offsets[n];
+            }
+            int[] targets = new int[size];
+            int[] fill = Arrays.copyOf(offsets, nodeCount);
+            for (int i = 0; i < size; i++) {
+                targets[fill[sources[i]]++] = Arrays.binarySearch(nodes, 0, nodeCount,
+                        dependents[i]);
+            }
+
+            // Depth-first search from the governor
+            boolean[] visited = new boolean[nodeCount];
+            int[] stack = new int[nodeCount];
+            int stackSize = 0;
+            int root = Arrays.binarySearch(nodes, 0, nodeCount, aGovernor);
+            visited[root] = true;
+            stack[stackSize++] = root;
+            int yieldSize = 0;
+            while (stackSize > 0) {
+                int node = stack[--stackSize];
+                yieldSize++;
+                for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+                    if (!visited[targets[e]]) {
+                        visited[targets[e]] = true;
+                        stack[stackSize++] = targets[e];
+                    }
+                }
+            }
+
+            int[] yield = new int[yieldSize];
+            int i = 0;
+            for (int n = 0; n < nodeCount; n++) {
+                if (visited[n]) {
+                    yield[i++] = nodes[n];
+                }
             }
+            return yield;
         }
     }
 }
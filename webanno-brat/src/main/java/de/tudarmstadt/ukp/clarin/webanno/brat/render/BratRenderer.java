@@ -18,17 +18,13 @@
 package de.tudarmstadt.ukp.clarin.webanno.brat.render;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CHAIN_TYPE;
-import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.TypeUtil.getAdapter;
 import static org.apache.uima.fit.util.JCasUtil.selectCovered;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
@@ -39,7 +35,6 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.ArcAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.ChainAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.SpanAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
-import de.tudarmstadt.ukp.clarin.webanno.api.annotation.coloring.ColoringStrategy;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.TypeUtil;
 import de.tudarmstadt.ukp.clarin.webanno.brat.adapter.BratArcRenderer;
@@ -87,7 +82,7 @@ public class BratRenderer
         renderTokenAndSentence(aJCas, aResponse, aState);
 
         // Render visible (custom) layers
-        Map<String[], Queue<String>> colorQueues = new HashMap<>();
+        List<AnnotationLayer> layers = new ArrayList<>();
         for (AnnotationLayer layer : aState.getAnnotationLayers()) {
             if (layer.getName().equals(Token.class.getName())
                     || layer.getName().equals(Sentence.class.getName())
@@ -98,23 +93,11 @@ public class BratRenderer
                     || !layer.isEnabled()) { /* Hide layer if not enabled */
                 continue;
             }
-
-            ColoringStrategy coloringStrategy = ColoringStrategy.getBestStrategy(
-                    aAnnotationService, layer, aState.getPreferences(), colorQueues);
-
-            List<AnnotationFeature> features = aAnnotationService.listAnnotationFeature(layer);
-            List<AnnotationFeature> invisibleFeatures = new ArrayList<AnnotationFeature>();
-            for (AnnotationFeature feature : features) {
-                if (!feature.isVisible()) {
-                    invisibleFeatures.add(feature);
-                }
-            }
-            features.removeAll(invisibleFeatures);
-            
-            TypeAdapter adapter = getAdapter(aAnnotationService, layer);
-            TypeRenderer renderer = getRenderer(adapter);
-            renderer.render(aJCas, features, aResponse, aState, coloringStrategy);
+            layers.add(layer);
         }
+
+        RenderPlan.get(aAnnotationService, layers, aState.getPreferences()).render(aJCas,
+                aResponse, aState);
     }
 
     public static void renderTokenAndSentence(JCas aJcas, GetDocumentResponse aResponse,
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.brat.render;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.TypeUtil.getAdapter;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+
+import javax.persistence.NoResultException;
+
+import org.apache.uima.jcas.JCas;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.coloring.ColoringStrategy;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotationPreference;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
+import de.tudarmstadt.ukp.clarin.webanno.brat.adapter.TypeRenderer;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+/**
+ * The layers to render together with their visible features, type adapters, renderers and
+ * coloring strategies. Setting these up requires several lookups per layer, so a plan is compiled
+ * once per project schema version, list of layers and coloring preference and then shared by all
+ * renders using the same settings. Rendering a document then only traverses the CAS.
+ * <p>
+ * The schema version is only meaningful for the annotation service that issued it, so the plans
+ * are also keyed by the service instance. Several application contexts in the same JVM thus never
+ * share plans.
+ * <p>
+ * The plan does not hold UIMA types or features because these belong to the type system of a
+ * particular CAS. The renderers resolve them once per render.
+ */
+public final class RenderPlan
+{
+    private static final int MAX_PLANS = 256;
+
+    private static final Map<Key, RenderPlan> PLANS = new LinkedHashMap<Key, RenderPlan>(16,
+            0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Entry<Key, RenderPlan> aEldest)
+        {
+            return size() > MAX_PLANS;
+        }
+    };
+
+    private final List<LayerPlan> layers;
+
+    private RenderPlan(List<LayerPlan> aLayers)
+    {
+        layers = Collections.unmodifiableList(aLayers);
+    }
+
+    /**
+     * Get the render plan for the given layers.
+     *
+     * @param aAnnotationService
+     *            the annotation service.
+     * @param aLayers
+     *            the layers to render in the order in which they should be rendered.
+     * @param aPreferences
+     *            the preferences of the user.
+     * @return the render plan.
+     */
+    public static RenderPlan get(AnnotationService aAnnotationService,
+            List<AnnotationLayer> aLayers, AnnotationPreference aPreferences)
+    {
+        if (aLayers.isEmpty()) {
+            return new RenderPlan(new ArrayList<>());
+        }
+
+        Project project = aLayers.get(0).getProject();
+        if (project == null || project.getId() == 0) {
+            return compile(aAnnotationService, aLayers, aPreferences);
+        }
+
+        Key key = new Key(aAnnotationService, project.getId(),
+                aAnnotationService.getSchemaVersion(project), aLayers,
+                aPreferences.isStaticColor());
+        synchronized (PLANS) {
+            RenderPlan plan = PLANS.get(key);
+            if (plan != null) {
+                return plan;
+            }
+        }
+
+        RenderPlan plan = compile(aAnnotationService, aLayers, aPreferences);
+        synchronized (PLANS) {
+            PLANS.put(key, plan);
+        }
+        return plan;
+    }
+
+    private static RenderPlan compile(AnnotationService aAnnotationService,
+            List<AnnotationLayer> aLayers, AnnotationPreference aPreferences)
+    {
+        List<LayerPlan> layers = new ArrayList<>();
+        Map<String[], Queue<String>> colorQueues = new HashMap<>();
+        for (AnnotationLayer layer : aLayers) {
+            // The layers held by the annotator state may be older than the current schema
+            layer = getCurrentLayer(aAnnotationService, layer);
+
+            ColoringStrategy coloringStrategy = ColoringStrategy.getBestStrategy(
+                    aAnnotationService, layer, aPreferences, colorQueues);
+
+            List<AnnotationFeature> features = new ArrayList<>();
+            for (AnnotationFeature feature : aAnnotationService.listAnnotationFeature(layer)) {
+                if (feature.isVisible()) {
+                    features.add(feature);
+                }
+            }
+
+            TypeAdapter adapter = getAdapter(aAnnotationService, layer);
+            layers.add(new LayerPlan(layer, features, adapter, BratRenderer.getRenderer(adapter),
+                    coloringStrategy));
+        }
+        return new RenderPlan(layers);
+    }
+
+    private static AnnotationLayer getCurrentLayer(AnnotationService aAnnotationService,
+            AnnotationLayer aLayer)
+    {
+        if (aLayer.getId() == 0) {
+            return aLayer;
+        }
+
+        try {
+            AnnotationLayer layer = aAnnotationService.getLayer(aLayer.getId());
+            return layer != null ? layer : aLayer;
+        }
+        catch (NoResultException e) {
+            return aLayer;
+        }
+    }
+
+    public List<LayerPlan> getLayers()
+    {
+        return layers;
+    }
+
+    /**
+     * Render the annotations of all layers in the plan using the coloring strategies of the plan.
+     *
+     * @param aJCas
+     *            the JCas.
+     * @param aResponse
+     *            the response.
+     * @param aState
+     *            the annotator state.
+     */
+    public void render(JCas aJCas, GetDocumentResponse aResponse, AnnotatorState aState)
+    {
+        for (LayerPlan layer : layers) {
+            layer.getRenderer().render(aJCas, layer.getFeatures(), aResponse, aState,
+                    layer.getColoringStrategy());
+        }
+    }
+
+    /**
+     * Render the annotations of all layers in the plan using the given coloring strategy.
+     *
+     * @param aJCas
+     *            the JCas.
+     * @param aResponse
+     *            the response.
+     * @param aState
+     *            the annotator state.
+     * @param aColoringStrategy
+     *            the coloring strategy used for all layers.
+     */
+    public void render(JCas aJCas, GetDocumentResponse aResponse, AnnotatorState aState,
+            ColoringStrategy aColoringStrategy)
+    {
+        for (LayerPlan layer : layers) {
+            layer.getRenderer().render(aJCas, layer.getFeatures(), aResponse, aState,
+                    aColoringStrategy);
+        }
+    }
+
+    /**
+     * The precompiled settings for rendering a single layer.
+     */
+    public static final class LayerPlan
+    {
+        private final AnnotationLayer layer;
+        private final List<AnnotationFeature> features;
+        private final TypeAdapter adapter;
+        private final TypeRenderer renderer;
+        private final ColoringStrategy coloringStrategy;
+
+        private LayerPlan(AnnotationLayer aLayer, List<AnnotationFeature> aFeatures,
+                TypeAdapter aAdapter, TypeRenderer aRenderer, ColoringStrategy aColoringStrategy)
+        {
+            layer = aLayer;
+            features = Collections.unmodifiableList(aFeatures);
+            adapter = aAdapter;
+            renderer = aRenderer;
+            coloringStrategy = aColoringStrategy;
+        }
+
+        public AnnotationLayer getLayer()
+        {
+            return layer;
+        }
+
+        /**
+         * @return the visible features of the layer.
+         */
+        public List<AnnotationFeature> getFeatures()
+        {
+            return features;
+        }
+
+        public TypeAdapter getAdapter()
+        {
+            return adapter;
+        }
+
+        public TypeRenderer getRenderer()
+        {
+            return renderer;
+        }
+
+        public ColoringStrategy getColoringStrategy()
+        {
+            return coloringStrategy;
+        }
+    }
+
+    private static final class Key
+    {
+        // Weak so that the cache does not keep the service of a closed application context alive
+        private final WeakReference<AnnotationService> service;
+        private final int serviceHash;
+        private final long projectId;
+        private final long schemaVersion;
+        private final long[] layerIds;
+        private final boolean staticColor;
+
+        public Key(AnnotationService aService, long aProjectId, long aSchemaVersion,
+                List<AnnotationLayer> aLayers, boolean aStaticColor)
+        {
+            service = new WeakReference<>(aService);
+            serviceHash = System.identityHashCode(aService);
+            projectId = aProjectId;
+            schemaVersion = aSchemaVersion;
+            layerIds = new long[aLayers.size()];
+            for (int i = 0; i < layerIds.length; i++) {
+                layerIds[i] = aLayers.get(i).getId();
+            }
+            staticColor = aStaticColor;
+        }
+
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (!(aOther instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) aOther;
+            AnnotationService otherService = other.service.get();
+            return otherService != null && otherService == service.get()
+                    && projectId == other.projectId && schemaVersion == other.schemaVersion
+                    && staticColor == other.staticColor
+                    && Arrays.equals(layerIds, other.layerIds);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = serviceHash;
+            result = 31 * result + Long.hashCode(projectId);
+            result = 31 * result + Long.hashCode(schemaVersion);
+            result = 31 * result + Arrays.hashCode(layerIds);
+            result = 31 * result + (staticColor ? 1 : 0);
+            return result;
+        }
+    }
+}
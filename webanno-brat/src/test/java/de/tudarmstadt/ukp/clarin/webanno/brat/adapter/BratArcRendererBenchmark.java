@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.brat.adapter;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.adapter.BratArcRendererTest.createDependencyChain;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.adapter.BratArcRendererTest.createRenderer;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.adapter.BratArcRendererTest.createState;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.adapter.BratArcRendererTest.render;
+
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.VID;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
+
+/**
+ * Renders windows with growing numbers of dependency relations. The time per render is printed -
+ * it should grow roughly linearly with the number of relations, also if a relation is selected and
+ * its yield has to be computed.
+ * <p>
+ * Not part of the regular test run - use {@code mvn test -Pbenchmark}.
+ */
+public class BratArcRendererBenchmark
+{
+    private static final int ITERATIONS = 20;
+
+    @Test
+    public void benchmark1000Relations()
+        throws Exception
+    {
+        run(1_000);
+    }
+
+    @Test
+    public void benchmark5000Relations()
+        throws Exception
+    {
+        run(5_000);
+    }
+
+    private void run(int aRelations)
+        throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        Dependency root = createDependencyChain(jcas, aRelations + 1);
+
+        BratArcRenderer renderer = createRenderer();
+        AnnotatorState state = createState(jcas);
+
+        // Nothing selected - no yield
+        long unselected = time(renderer, jcas, state);
+
+        // Root relation selected - the yield covers the whole chain
+        state.getSelection().setRelationAnno(true);
+        state.getSelection().setAnnotation(new VID(getAddr(root)));
+        long selected = time(renderer, jcas, state);
+
+        System.out.printf("%d relations: %.2f ms per render, %.2f ms with selected relation%n",
+                aRelations, unselected / 1_000_000.0 / ITERATIONS,
+                selected / 1_000_000.0 / ITERATIONS);
+    }
+
+    private long time(BratArcRenderer aRenderer, JCas aJCas, AnnotatorState aState)
+    {
+        // Warm up
+        render(aRenderer, aJCas, aState);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            render(aRenderer, aJCas, aState);
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.brat.adapter;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getAddr;
+import static org.apache.uima.fit.util.JCasUtil.selectSingle;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.ArcAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.coloring.ColoringStrategy;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorStateImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.VID;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
+
+public class BratArcRendererTest
+{
+    @Test
+    public void testYield()
+    {
+        BratArcRenderer.RelationLinks links = new BratArcRenderer.RelationLinks();
+        links.add(1, 2);
+        links.add(2, 3);
+        links.add(1, 4);
+        links.add(4, 3);
+        links.add(3, 1);
+        links.add(5, 6);
+
+        assertArrayEquals(new int[] { 1, 2, 3, 4 }, links.getYield(1));
+        assertArrayEquals(new int[] { 1, 2, 3, 4 }, links.getYield(3));
+        assertArrayEquals(new int[] { 5, 6 }, links.getYield(5));
+        assertArrayEquals(new int[] { 7 }, links.getYield(7));
+    }
+
+    @Test
+    public void testYieldOnlyForSelectedRelation()
+        throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        Dependency root = createDependencyChain(jcas, 11);
+
+        BratArcRenderer renderer = createRenderer();
+        AnnotatorState state = createState(jcas);
+
+        // Nothing selected - no yield
+        GetDocumentResponse response = render(renderer, jcas, state);
+        assertEquals(10, response.getRelations().size());
+        assertEquals(0, response.getComments().size());
+
+        // Root relation selected - the yield covers the whole chain
+        state.getSelection().setRelationAnno(true);
+        state.getSelection().setAnnotation(new VID(getAddr(root)));
+        response = render(renderer, jcas, state);
+        assertEquals(10, response.getRelations().size());
+        assertEquals(1, response.getComments().size());
+        assertEquals(jcas.getDocumentText(), response.getComments().get(0).getComment());
+    }
+
+    static BratArcRenderer createRenderer()
+    {
+        AnnotationLayer layer = new AnnotationLayer(Dependency.class.getName(), "Dependency",
+                WebAnnoConst.RELATION_TYPE, null, true);
+        ArcAdapter adapter = new ArcAdapter(layer, 1, Dependency.class.getName(), "Dependent",
+                "Governor", "pos", Token.class.getName(), new ArrayList<AnnotationFeature>());
+        return new BratArcRenderer(adapter);
+    }
+
+    static AnnotatorState createState(JCas aJCas)
+    {
+        AnnotatorState state = new AnnotatorStateImpl(Mode.ANNOTATION);
+        state.setFirstVisibleSentence(selectSingle(aJCas, Sentence.class));
+        return state;
+    }
+
+    static GetDocumentResponse render(BratArcRenderer aRenderer, JCas aJCas,
+            AnnotatorState aState)
+    {
+        GetDocumentResponse response = new GetDocumentResponse();
+        aRenderer.render(aJCas, new ArrayList<AnnotationFeature>(), response, aState,
+                ColoringStrategy.staticColor("#000000"));
+        return response;
+    }
+
+    /**
+     * Creates a single sentence in which every token governs the following one, so that the yield
+     * of the first relation is the whole sentence.
+     *
+     * @return the relation governed by the first token.
+     */
+    static Dependency createDependencyChain(JCas aJCas, int aTokens)
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < aTokens; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append("t").append(i);
+        }
+        aJCas.setDocumentText(text.toString());
+        new Sentence(aJCas, 0, text.length()).addToIndexes();
+
+        List<Token> tokens = new ArrayList<>();
+        int begin = 0;
+        for (int i = 0; i < aTokens; i++) {
+            int end = begin + ("t" + i).length();
+            Token token = new Token(aJCas, begin, end);
+            POS pos = new POS(aJCas, begin, end);
+            pos.addToIndexes();
+            token.setPos(pos);
+            token.addToIndexes();
+            tokens.add(token);
+            begin = end + 1;
+        }
+
+        Dependency root = null;
+        for (int i = 1; i < aTokens; i++) {
+            Token dependent = tokens.get(i);
+            Dependency dep = new Dependency(aJCas, dependent.getBegin(), dependent.getEnd());
+            dep.setGovernor(tokens.get(i - 1));
+            dep.setDependent(dependent);
+            dep.addToIndexes();
+            if (root == null) {
+                root = dep;
+            }
+        }
+        return root;
+    }
+}
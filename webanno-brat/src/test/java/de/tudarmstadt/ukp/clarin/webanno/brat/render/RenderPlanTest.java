@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.brat.render;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
+import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotationPreference;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+
+public class RenderPlanTest
+{
+    @Test
+    public void thatPlansAreNotSharedBetweenServices()
+    {
+        Project project = new Project();
+        project.setId(1);
+        AnnotationLayer layer = new AnnotationLayer(NamedEntity.class.getName(), "Named entity",
+                WebAnnoConst.SPAN_TYPE, project, false);
+        layer.setId(1);
+        List<AnnotationLayer> layers = asList(layer);
+        AnnotationPreference preferences = new AnnotationPreference();
+
+        // Both services report the same schema version for the project
+        AnnotationService service1 = createService(layer);
+        AnnotationService service2 = createService(layer);
+
+        RenderPlan plan1 = RenderPlan.get(service1, layers, preferences);
+
+        assertSame(plan1, RenderPlan.get(service1, layers, preferences));
+        assertNotSame(plan1, RenderPlan.get(service2, layers, preferences));
+    }
+
+    private static AnnotationService createService(AnnotationLayer aLayer)
+    {
+        return (AnnotationService) Proxy.newProxyInstance(
+                RenderPlanTest.class.getClassLoader(),
+                new Class<?>[] { AnnotationService.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getSchemaVersion":
+                        return 1L;
+                    case "getLayer":
+                        return aLayer;
+                    case "listAnnotationFeature":
+                        return Collections.emptyList();
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -18,6 +18,7 @@
 package de.tudarmstadt.ukp.clarin.webanno.constraints.evaluator;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -37,7 +38,6 @@ import de.tudarmstadt.ukp.clarin.webanno.constraints.model.Condition;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.model.ParsedConstraints;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.model.Restriction;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.model.Rule;
-import de.tudarmstadt.ukp.clarin.webanno.constraints.model.Scope;
 
 /**
  * Class for getting list of PossibleValues after evaluating context and applicable rules.
@@ -49,8 +49,6 @@ public class ValuesGenerator
 {
     private final Logger log = LoggerFactory.getLogger(getClass());
     Map<String, String> imports = null;
-    private Scope scope;
-    private String shortTypeName;
 
     @Override
     public List<PossibleValue> generatePossibleValues(FeatureStructure aContext, String aFeature,
@@ -59,30 +57,20 @@ public class ValuesGenerator
     {
         imports = parsedConstraints.getImports();
         List<PossibleValue> possibleValues = new ArrayList<PossibleValue>();
-        //If there are no rules for the FS, don't execute further
-        //Enabling the second option might take too much time for rules to execute.
-//        if(!areThereRulesFor(aContext, parsedConstraints)){
-//        if(!isThisAffectedByConstraintRules(aContext, aFeature, parsedConstraints)){
-        if(!parsedConstraints.areThereRules(aContext.getType().getName(), aFeature)) {
+        
+        // Only look at the rules which restrict the target feature. If there are no such rules
+        // for the FS, don't execute further.
+        List<Rule> rules = parsedConstraints.getRules(aContext.getType().getName(), aFeature);
+        if (rules.isEmpty()) {
             return possibleValues;
         }
-       
-//        String shortTypeName = parsedConstraints.getShortName(aContext.getType().getName());
-//        if (shortTypeName == null) {
-//            //If no relevant rules are there for a particular type, just return empty list
-//            log.error("No import for [" + aContext.getType().getName()
-//                    + "] - Imports are: [" + parsedConstraints.getImports() + "]");
-//            return possibleValues;
-////            throw new IllegalStateException("No import for [" + aContext.getType().getName()
-////                    + "] - Imports are: [" + parsedConstraints.getImports() + "]");
-//        }
-        shortTypeName = parsedConstraints.getShortName(aContext.getType().getName());
-        scope = parsedConstraints.getScopeByName(shortTypeName);
-
+        
+        // Many rules usually test the same paths, so each path is resolved only once
+        Map<String, ArrayList<String>> resolvedPaths = new HashMap<>();
       
-        for (Rule rule : scope.getRules()) {
+        for (Rule rule : rules) {
             // Check if conditions apply
-            if (!ruleTriggers(aContext, rule)) {
+            if (!ruleTriggers(aContext, rule, resolvedPaths)) {
                 continue;
             }
 
@@ -98,12 +86,13 @@ public class ValuesGenerator
         return possibleValues;
     }
 
-    private boolean ruleTriggers(FeatureStructure aContext, Rule aRule)
+    private boolean ruleTriggers(FeatureStructure aContext, Rule aRule,
+            Map<String, ArrayList<String>> aResolvedPaths)
         throws UIMAException
     {
         boolean doAllConditionsMatch = false;
         for (Condition condition : aRule.getConditions()) {
-            if (conditionMatches(aContext, condition)) {
+            if (conditionMatches(aContext, condition, aResolvedPaths)) {
                 doAllConditionsMatch = true;
             }
             else {
@@ -115,10 +104,15 @@ public class ValuesGenerator
 
     }
 
-    private boolean conditionMatches(FeatureStructure aContext, Condition aCondition)
+    private boolean conditionMatches(FeatureStructure aContext, Condition aCondition,
+            Map<String, ArrayList<String>> aResolvedPaths)
         throws UIMAException
     {
-        ArrayList<String> value = getValue(aContext, aCondition.getPath());
+        ArrayList<String> value = aResolvedPaths.get(aCondition.getPath());
+        if (value == null) {
+            value = getValue(aContext, aCondition.getPath());
+            aResolvedPaths.put(aCondition.getPath(), value);
+        }
         if (log.isTraceEnabled()) {
             log.trace("comparing [" + aCondition.getValue() + "] to [" + value + "]");
         }
@@ -18,6 +18,8 @@
 package de.tudarmstadt.ukp.clarin.webanno.constraints.model;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -40,9 +42,15 @@ public class ParsedConstraints
     private static final long serialVersionUID = -2401965871743170805L;
     private final Map<String, String> imports;
     private final List<Scope> scopes;
-    private Map<String, Scope> scopeMap = null;
+    // Instances are shared between threads, so the lazily built lookup structures must be
+    // published safely.
+    private volatile Map<String, Scope> scopeMap = null;
     //Contains possible scenarios for which rules are available.
-    private Set<FSFPair> rulesSet = null;
+    private volatile Set<FSFPair> rulesSet = null;
+    // Rules by scope and the feature they restrict
+    private volatile Map<FSFPair, List<Rule>> rulesIndex = null;
+    // Short names by long name
+    private volatile Map<String, String> shortNames = null;
 
     /**
      * @param imports
@@ -80,12 +88,16 @@ public class ParsedConstraints
 
     public String getShortName(String aLongName)
     {
-        for (Entry<String, String> e : imports.entrySet()) {
-            if (e.getValue().equals(aLongName)) {
-                return e.getKey();
+        Map<String, String> map = shortNames;
+        if (map == null) {
+            map = new HashMap<>();
+            for (Entry<String, String> e : imports.entrySet()) {
+                // If a type is imported multiple times, the first import wins
+                map.putIfAbsent(e.getValue(), e.getKey());
             }
+            shortNames = map;
         }
-        return null;
+        return map.get(aLongName);
     }
 
     public List<Scope> getScopes()
@@ -93,22 +105,30 @@ public class ParsedConstraints
         return scopes;
     }
 
+    /**
+     * Get the scope with the given name. If there are several scopes with the same name, only the
+     * last one is returned. Use {@link #getRules(String, String)} to get the rules of all of them.
+     */
     public Scope getScopeByName(String scopeName)
     {
 
-        if (scopeMap == null) { // initialize map if not set already
-            scopeMap = new HashMap<String, Scope>();
+        Map<String, Scope> map = scopeMap;
+        if (map == null) { // initialize map if not set already
+            map = new HashMap<String, Scope>();
             for (Scope scope : scopes) {
-                scopeMap.put(scope.getScopeName(), scope);
+                map.put(scope.getScopeName(), scope);
             }
+            scopeMap = map;
         }
-        return scopeMap.get(scopeName);
+        return map.get(scopeName);
     }
     
     //Checks if rules exists or not
     public boolean areThereRules(String featureStructure, String feature){
-        if(rulesSet==null){
-            buildRulesSet();
+        Set<FSFPair> rules = rulesSet;
+        if(rules==null){
+            rules = buildRulesSet();
+            rulesSet = rules;
         }
         
         if(getShortName(featureStructure)==null){
@@ -118,18 +138,67 @@ public class ParsedConstraints
             return false;
         }
         FSFPair _tempFsfPair = new FSFPair(getShortName(featureStructure), feature);
-        if(rulesSet.contains(_tempFsfPair)){
+        if(rules.contains(_tempFsfPair)){
             //If it has rules satisfying with proper input FS and affecting feature
             return true;
         }
         return false;
     }
+    /**
+     * Get the rules of the given type which have a restriction on the given feature. If several
+     * scopes have the same name (e.g. because a type is used in several blocks), the rules of all
+     * of them are returned. This differs from {@link #getScopeByName(String)}, which returns only
+     * one of these scopes.
+     * 
+     * @param aTypeName
+     *            the fully qualified type name.
+     * @param aFeature
+     *            the restricted feature.
+     * @return the rules in the order in which they were declared. The list is empty if there are
+     *         no such rules.
+     */
+    public List<Rule> getRules(String aTypeName, String aFeature)
+    {
+        String shortName = getShortName(aTypeName);
+        if (shortName == null) {
+            return Collections.emptyList();
+        }
+        
+        Map<FSFPair, List<Rule>> index = rulesIndex;
+        if (index == null) {
+            index = buildRulesIndex();
+            rulesIndex = index;
+        }
+        
+        List<Rule> rules = index.get(new FSFPair(shortName, aFeature));
+        return rules != null ? rules : Collections.emptyList();
+    }
+
+    private Map<FSFPair, List<Rule>> buildRulesIndex()
+    {
+        Map<FSFPair, List<Rule>> index = new HashMap<>();
+        for (Scope scope : scopes) {
+            for (Rule rule : scope.getRules()) {
+                Set<String> paths = new HashSet<>();
+                for (Restriction restriction : rule.getRestrictions()) {
+                    // Add each rule only once per feature even if it restricts it repeatedly
+                    if (paths.add(restriction.getPath())) {
+                        index.computeIfAbsent(
+                                new FSFPair(scope.getScopeName(), restriction.getPath()),
+                                k -> new ArrayList<>()).add(rule);
+                    }
+                }
+            }
+        }
+        return index;
+    }
+
 /**
  * Fill Set with values of different conditions for which rules are available.
  */
-    private void buildRulesSet()
+    private Set<FSFPair> buildRulesSet()
     {
-        rulesSet = new HashSet<>();
+        Set<FSFPair> rulesSet = new HashSet<>();
         FSFPair _temp;
         for (Scope scope : scopes) {
             for (Rule rule : scope.getRules()) {
@@ -141,7 +210,7 @@ public class ParsedConstraints
                 }
             }
         }
-        
+        return rulesSet;
     }
 
 }
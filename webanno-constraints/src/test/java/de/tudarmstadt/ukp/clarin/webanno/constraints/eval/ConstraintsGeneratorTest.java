@@ -23,8 +23,10 @@ import static org.junit.Assert.assertEquals;
 
 import java.io.FileInputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
@@ -44,7 +46,11 @@ import de.tudarmstadt.ukp.clarin.webanno.constraints.evaluator.PossibleValue;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.evaluator.ValuesGenerator;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.grammar.ConstraintsGrammar;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.grammar.syntaxtree.Parse;
+import de.tudarmstadt.ukp.clarin.webanno.constraints.model.Condition;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.model.ParsedConstraints;
+import de.tudarmstadt.ukp.clarin.webanno.constraints.model.Restriction;
+import de.tudarmstadt.ukp.clarin.webanno.constraints.model.Rule;
+import de.tudarmstadt.ukp.clarin.webanno.constraints.model.Scope;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.visitor.ParserVisitor;
 import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
 import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
@@ -174,6 +180,80 @@ public class ConstraintsGeneratorTest
         assertEquals(0, possibleValues.size());
     }
 
+    @Test
+    public void testRulesOfSameScopeAreCombined()
+        throws Exception
+    {
+        ConstraintsGrammar parser = new ConstraintsGrammar(new FileInputStream(
+                "src/test/resources/rules/sameScope.rules"));
+        Parse p = parser.Parse();
+
+        ParsedConstraints constraints = p.accept(new ParserVisitor());
+
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("is");
+
+        Lemma lemma = new Lemma(jcas, 0, 2);
+        lemma.addToIndexes();
+
+        Evaluator constraintsEvaluator = new ValuesGenerator();
+
+        List<PossibleValue> possibleValues = constraintsEvaluator.generatePossibleValues(lemma,
+                "value", constraints);
+
+        // The rules of both "Lemma" scopes apply, in the order in which they were declared
+        List<PossibleValue> expectedOutput = new LinkedList<PossibleValue>();
+        expectedOutput.add(new PossibleValue("be", true));
+        expectedOutput.add(new PossibleValue("is", false));
+
+        assertEquals(expectedOutput, possibleValues);
+    }
+
+    @Test
+    public void testOnlyRulesRestrictingTheFeatureApply()
+        throws Exception
+    {
+        ParsedConstraints constraints = createLemmaConstraints(1_000, 10);
+
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("is");
+
+        Lemma lemma = new Lemma(jcas, 0, 2);
+        lemma.setValue("be");
+        lemma.addToIndexes();
+
+        Evaluator constraintsEvaluator = new ValuesGenerator();
+
+        List<PossibleValue> possibleValues = constraintsEvaluator.generatePossibleValues(lemma,
+                "value", constraints);
+
+        assertEquals(asList(new PossibleValue("be", true)), possibleValues);
+    }
+
+    /**
+     * Create a rule set with the given number of rules on the Lemma type. Only the given number of
+     * them restrict the {@code value} feature and only one of these triggers for the lemma "be".
+     */
+    static ParsedConstraints createLemmaConstraints(int aRules, int aMatchingRules)
+    {
+        Map<String, String> imports = new LinkedHashMap<>();
+        imports.put("Lemma", Lemma.class.getName());
+
+        List<Rule> rules = new ArrayList<>();
+        for (int i = 0; i < aRules; i++) {
+            String feature = i < aMatchingRules ? "value" : "other" + i;
+            String condition = i == 0 ? "be" : "word" + i;
+            String restriction = i == 0 ? "be" : "lemma" + i;
+            rules.add(new Rule(asList(new Condition("value", condition)),
+                    asList(new Restriction(feature, restriction, true))));
+        }
+
+        List<Scope> scopes = new ArrayList<>();
+        scopes.add(new Scope("Lemma", rules));
+
+        return new ParsedConstraints(imports, scopes);
+    }
+
     private JCas makeJCasOneSentence() throws UIMAException
     {
         TypeSystemDescription global = TypeSystemDescriptionFactory.createTypeSystemDescription();
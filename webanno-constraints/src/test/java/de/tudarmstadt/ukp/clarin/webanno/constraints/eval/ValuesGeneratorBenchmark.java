@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.constraints.eval;
+
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.constraints.evaluator.Evaluator;
+import de.tudarmstadt.ukp.clarin.webanno.constraints.evaluator.ValuesGenerator;
+import de.tudarmstadt.ukp.clarin.webanno.constraints.model.ParsedConstraints;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Lemma;
+
+/**
+ * Evaluates rule sets of different sizes in which only a few rules restrict the target feature.
+ * The time per evaluation is printed - it should not grow with the total number of rules.
+ * <p>
+ * Not part of the regular test run - use {@code mvn test -Pbenchmark}.
+ */
+public class ValuesGeneratorBenchmark
+{
+    private static final int MATCHING_RULES = 10;
+    private static final int ITERATIONS = 10_000;
+
+    @Test
+    public void benchmark10Rules()
+        throws Exception
+    {
+        run(10);
+    }
+
+    @Test
+    public void benchmark1000Rules()
+        throws Exception
+    {
+        run(1_000);
+    }
+
+    @Test
+    public void benchmark10000Rules()
+        throws Exception
+    {
+        run(10_000);
+    }
+
+    private void run(int aRules)
+        throws Exception
+    {
+        ParsedConstraints constraints = ConstraintsGeneratorTest.createLemmaConstraints(aRules,
+                MATCHING_RULES);
+
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("is");
+
+        Lemma lemma = new Lemma(jcas, 0, 2);
+        lemma.setValue("be");
+        lemma.addToIndexes();
+
+        Evaluator evaluator = new ValuesGenerator();
+
+        // Warm up
+        for (int i = 0; i < ITERATIONS; i++) {
+            evaluator.generatePossibleValues(lemma, "value", constraints);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            evaluator.generatePossibleValues(lemma, "value", constraints);
+        }
+        long duration = System.nanoTime() - start;
+
+        System.out.printf("%d rules: %.2f us per evaluation%n", aRules,
+                duration / 1000.0 / ITERATIONS);
+    }
+}
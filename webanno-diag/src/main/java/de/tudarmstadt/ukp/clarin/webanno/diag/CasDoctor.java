@@ -19,7 +19,12 @@ package de.tudarmstadt.ukp.clarin.webanno.diag;
 
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang.StringUtils;
@@ -27,6 +32,9 @@ import org.apache.commons.lang.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Marker;
+import org.apache.uima.cas.impl.CASImpl;
 import org.reflections.Reflections;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.InitializingBean;
@@ -35,6 +43,7 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 
 import de.tudarmstadt.ukp.clarin.webanno.diag.checks.Check;
+import de.tudarmstadt.ukp.clarin.webanno.diag.checks.IncrementalCheck;
 import de.tudarmstadt.ukp.clarin.webanno.diag.repairs.Repair;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.support.SettingsUtil;
@@ -61,6 +70,17 @@ public class CasDoctor
     @Value(value = "${debug.casDoctor.forceReleaseBehavior}")
     private boolean disableAutoScan = false;
 
+    /**
+     * Every n-th incremental analysis is turned into a full analysis. If this is zero or negative,
+     * incremental analyses are never promoted.
+     */
+    @Value(value = "${debug.casDoctor.fullAnalysisInterval}")
+    private int fullAnalysisInterval = 0;
+    
+    private final AtomicLong incrementalAnalyses = new AtomicLong();
+    
+    private final Map<String, CheckStatistics> statistics = new ConcurrentHashMap<>();
+
     public CasDoctor()
     {
         // Bean operation
@@ -188,20 +208,80 @@ public class CasDoctor
     public boolean analyze(Project aProject, CAS aCas, List<LogMessage> aMessages,
             boolean aFatalChecks)
         throws CasDoctorException
+    {
+        return analyze(aProject, aCas, null, aMessages, aFatalChecks);
+    }
+
+    /**
+     * Analyze only the feature structures which were created or modified since the CAS was
+     * marked using {@link CAS#createMarker()}. Only checks implementing {@link IncrementalCheck}
+     * are run. A full analysis is performed instead if the CAS has not been marked, if the marker
+     * has been invalidated (e.g. because the CAS was upgraded) or if the analysis is selected by
+     * the {@code debug.casDoctor.fullAnalysisInterval} sampling.
+     * <p>
+     * A full analysis is also performed if feature structures were removed from the indexes since
+     * the CAS was marked. Unchanged feature structures may still refer to them, e.g. a relation
+     * whose governor was deleted, and these cannot be determined without scanning the whole CAS.
+     */
+    public boolean analyzeIncrementally(Project aProject, CAS aCas)
+        throws CasDoctorException
+    {
+        List<LogMessage> messages = new ArrayList<>();
+        boolean result = analyzeIncrementally(aProject, aCas, messages, isFatalChecks());
+        if (log.isDebugEnabled()) {
+            messages.forEach(s -> log.debug("{}", s));
+        }
+        return result;
+    }
+
+    public boolean analyzeIncrementally(Project aProject, CAS aCas, List<LogMessage> aMessages,
+            boolean aFatalChecks)
+        throws CasDoctorException
+    {
+        Marker marker = ((CASImpl) aCas.getLowLevelCAS()).getCurrentMark();
+        
+        boolean sampled = fullAnalysisInterval > 0
+                && incrementalAnalyses.incrementAndGet() % fullAnalysisInterval == 0;
+        
+        if (marker == null || !marker.isValid() || sampled
+                || CasDoctorUtils.hasDeletedFSs(aCas)) {
+            return analyze(aProject, aCas, null, aMessages, aFatalChecks);
+        }
+        
+        return analyze(aProject, aCas, CasDoctorUtils.collectChanged(aCas, marker), aMessages,
+                aFatalChecks);
+    }
+
+    private boolean analyze(Project aProject, CAS aCas, Collection<FeatureStructure> aChanged,
+            List<LogMessage> aMessages, boolean aFatalChecks)
+        throws CasDoctorException
     {
         long tStart = System.currentTimeMillis();
         
         boolean ok = true;
         for (Class<? extends Check> checkClass : checkClasses) {
+            // In incremental mode, only run checks which can limit themselves to the changes
+            if (aChanged != null && !IncrementalCheck.class.isAssignableFrom(checkClass)) {
+                continue;
+            }
+            
             try {
                 long tStartTask = System.currentTimeMillis();
                 Check check = checkClass.newInstance();
                 if (context != null) {
                     context.getAutowireCapableBeanFactory().autowireBean(check);
                 }
-                ok &= check.check(aProject, aCas, aMessages);
-                log.debug("CasDoctor analysis [" + checkClass.getSimpleName() + "] completed in "
-                        + (System.currentTimeMillis() - tStartTask) + "ms");
+                if (aChanged != null) {
+                    ok &= ((IncrementalCheck) check).check(aProject, aCas, aChanged, aMessages);
+                }
+                else {
+                    ok &= check.check(aProject, aCas, aMessages);
+                }
+                long duration = System.currentTimeMillis() - tStartTask;
+                statistics.computeIfAbsent(checkClass.getSimpleName(), k -> new CheckStatistics())
+                        .record(aChanged != null, duration);
+                log.debug("CasDoctor " + (aChanged != null ? "incremental " : "") + "analysis ["
+                        + checkClass.getSimpleName() + "] completed in " + duration + "ms");
             }
             catch (InstantiationException | IllegalAccessException e) {
                 aMessages.add(new LogMessage(this, LogLevel.ERROR, "Cannot instantiate [%s]: %s",
@@ -218,11 +298,37 @@ public class CasDoctor
             throw new CasDoctorException(aMessages);
         }
 
-        log.debug("CasDoctor completed all analyses in " + (System.currentTimeMillis() - tStart) + "ms");
+        if (aChanged != null) {
+            log.debug("CasDoctor completed all incremental analyses of " + aChanged.size()
+                    + " changed feature structures in " + (System.currentTimeMillis() - tStart)
+                    + "ms");
+        }
+        else {
+            log.debug("CasDoctor completed all analyses in "
+                    + (System.currentTimeMillis() - tStart) + "ms");
+        }
 
         return ok;
     }
 
+    /**
+     * @return the accumulated run times of the checks by their simple class name.
+     */
+    public Map<String, CheckStatistics> getCheckStatistics()
+    {
+        return Collections.unmodifiableMap(statistics);
+    }
+
+    public void setFullAnalysisInterval(int aFullAnalysisInterval)
+    {
+        fullAnalysisInterval = aFullAnalysisInterval;
+    }
+
+    public int getFullAnalysisInterval()
+    {
+        return fullAnalysisInterval;
+    }
+
     public void setActiveChecks(String aActiveChecks)
     {
         activeChecks = aActiveChecks;
@@ -284,6 +390,73 @@ public class CasDoctor
         }
     }
 
+    /**
+     * Run times of a check, separately for full and incremental analyses.
+     */
+    public static class CheckStatistics
+    {
+        private long fullRuns;
+        private long fullTime;
+        private long incrementalRuns;
+        private long incrementalTime;
+        private long maxTime;
+
+        private synchronized void record(boolean aIncremental, long aDuration)
+        {
+            if (aIncremental) {
+                incrementalRuns++;
+                incrementalTime += aDuration;
+            }
+            else {
+                fullRuns++;
+                fullTime += aDuration;
+            }
+            maxTime = Math.max(maxTime, aDuration);
+        }
+
+        public synchronized long getFullRuns()
+        {
+            return fullRuns;
+        }
+
+        /**
+         * @return the accumulated time in milliseconds spent in full analyses.
+         */
+        public synchronized long getFullTime()
+        {
+            return fullTime;
+        }
+
+        public synchronized long getIncrementalRuns()
+        {
+            return incrementalRuns;
+        }
+
+        /**
+         * @return the accumulated time in milliseconds spent in incremental analyses.
+         */
+        public synchronized long getIncrementalTime()
+        {
+            return incrementalTime;
+        }
+
+        /**
+         * @return the longest time in milliseconds a single run took.
+         */
+        public synchronized long getMaxTime()
+        {
+            return maxTime;
+        }
+
+        @Override
+        public synchronized String toString()
+        {
+            return "CheckStatistics [fullRuns=" + fullRuns + ", fullTimeMs=" + fullTime
+                    + ", incrementalRuns=" + incrementalRuns + ", incrementalTimeMs="
+                    + incrementalTime + ", maxTimeMs=" + maxTime + "]";
+        }
+    }
+
     public static enum LogLevel
     {
         INFO, ERROR
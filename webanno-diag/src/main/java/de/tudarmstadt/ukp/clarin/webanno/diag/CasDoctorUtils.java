@@ -17,6 +17,12 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.diag;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -26,11 +32,43 @@ import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.FSIterator;
 import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Marker;
 import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.impl.FSIndexRepositoryImpl;
 import org.apache.uima.cas.impl.LowLevelCAS;
 
 public class CasDoctorUtils
 {
+    /**
+     * Collect the indexed feature structures which were created or modified since the given
+     * marker was created. Feature structures which were removed from the indexes are not
+     * included - see {@link #hasDeletedFSs(CAS)}.
+     * <p>
+     * Non-indexed feature structures are not included either. A change to one of them is only
+     * picked up if the indexed feature structure owning it was modified as well, e.g. when a
+     * new link array is set on an annotation.
+     */
+    public static List<FeatureStructure> collectChanged(CAS aCas, Marker aMarker)
+    {
+        List<FeatureStructure> changed = new ArrayList<>();
+        FSIterator<FeatureStructure> i = aCas.getIndexRepository().getAllIndexedFS(
+                aCas.getTypeSystem().getTopType());
+        i.forEachRemaining(fs -> {
+            if (aMarker.isNew(fs) || aMarker.isModified(fs)) {
+                changed.add(fs);
+            }
+        });
+        return changed;
+    }
+    
+    /**
+     * Check whether feature structures were removed from the indexes since the CAS was marked.
+     */
+    public static boolean hasDeletedFSs(CAS aCas)
+    {
+        return ((FSIndexRepositoryImpl) aCas.getIndexRepository()).getDeletedFSs().length > 0;
+    }
+    
     public static Set<FeatureStructure> collectIndexed(CAS aCas)
     {
         LowLevelCAS llcas = aCas.getLowLevelCAS();
@@ -140,4 +178,59 @@ public class CasDoctorUtils
         // All that is left are non-index annotations
         return allReachableFS;
     }
+
+    /**
+     * Like {@link #getNonIndexedFSesWithOwner(CAS)} but only considers the feature structures
+     * reachable from the given roots. The traversal does not descend into other indexed
+     * annotations, so the cost depends on the number of roots rather than on the size of the CAS.
+     */
+    public static Map<FeatureStructure, FeatureStructure> getNonIndexedFSesWithOwner(CAS aCas,
+            Collection<FeatureStructure> aRoots)
+    {
+        TypeSystem ts = aCas.getTypeSystem();
+        LowLevelCAS llcas = aCas.getLowLevelCAS();
+        FSIndexRepositoryImpl indexes = (FSIndexRepositoryImpl) aCas.getIndexRepository();
+        
+        Map<FeatureStructure, FeatureStructure> nonIndexed = new TreeMap<>(
+                (fs1, fs2) -> llcas.ll_getFSRef(fs1) - llcas.ll_getFSRef(fs2));
+        Set<Integer> visited = new HashSet<>();
+        Deque<FeatureStructure> queue = new ArrayDeque<>();
+        
+        for (FeatureStructure root : aRoots) {
+            int rootRef = llcas.ll_getFSRef(root);
+            queue.add(root);
+            while (!queue.isEmpty()) {
+                FeatureStructure fs = queue.poll();
+                int ref = llcas.ll_getFSRef(fs);
+                boolean isAnnotation = ts.subsumes(aCas.getAnnotationType(), fs.getType());
+                
+                // Annotations are always in a sorted index when they are indexed. Indexed
+                // annotations other than the root are not traversed - if they have changed,
+                // they are roots themselves.
+                if (ref != rootRef && isAnnotation && indexes.isInSetOrSortedIndexInThisView(ref)) {
+                    continue;
+                }
+                
+                if (!visited.add(ref)) {
+                    continue;
+                }
+                
+                if (ref != rootRef && isAnnotation) {
+                    nonIndexed.put(fs, root);
+                }
+                
+                for (Feature f : fs.getType().getFeatures()) {
+                    if (!f.getRange().isPrimitive()
+                            && !CAS.FEATURE_BASE_NAME_SOFA.equals(f.getShortName())) {
+                        FeatureStructure target = fs.getFeatureValue(f);
+                        if (target != null) {
+                            queue.add(target);
+                        }
+                    }
+                }
+            }
+        }
+        
+        return nonIndexed;
+    }
 }
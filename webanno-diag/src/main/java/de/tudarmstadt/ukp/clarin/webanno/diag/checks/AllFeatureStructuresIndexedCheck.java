@@ -19,6 +19,7 @@ package de.tudarmstadt.ukp.clarin.webanno.diag.checks;
 
 import static de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorUtils.getNonIndexedFSesWithOwner;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -31,18 +32,29 @@ import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor.LogMessage;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 
 public class AllFeatureStructuresIndexedCheck
-    implements Check
+    implements IncrementalCheck
 {
     @Override
     public boolean check(Project aProject, CAS aCas, List<LogMessage> aMessages)
     {
-        Map<FeatureStructure, FeatureStructure> nonIndexed = getNonIndexedFSesWithOwner(aCas);
+        return report(getNonIndexedFSesWithOwner(aCas), aMessages);
+    }
+
+    @Override
+    public boolean check(Project aProject, CAS aCas, Collection<FeatureStructure> aChanged,
+            List<LogMessage> aMessages)
+    {
+        return report(getNonIndexedFSesWithOwner(aCas, aChanged), aMessages);
+    }
 
-        if (!nonIndexed.isEmpty()) {
+    private boolean report(Map<FeatureStructure, FeatureStructure> aNonIndexed,
+            List<LogMessage> aMessages)
+    {
+        if (!aNonIndexed.isEmpty()) {
             aMessages.add(new LogMessage(this, LogLevel.ERROR, "Unindexed feature structure: %d",
-                    nonIndexed.size()));
+                    aNonIndexed.size()));
 
-            for (Entry<FeatureStructure, FeatureStructure> e : nonIndexed.entrySet()) {
+            for (Entry<FeatureStructure, FeatureStructure> e : aNonIndexed.entrySet()) {
                 aMessages.add(new LogMessage(this, LogLevel.ERROR,
                         "Non-indexed feature structure [%s] reachable through [%s]", e.getKey(),
                         e.getValue()));
@@ -52,6 +64,6 @@ public class AllFeatureStructuresIndexedCheck
         // aMessages.add(String.format("[%s] OK", getClass().getSimpleName()));
         // }
 
-        return nonIndexed.isEmpty();
+        return aNonIndexed.isEmpty();
     }
 }
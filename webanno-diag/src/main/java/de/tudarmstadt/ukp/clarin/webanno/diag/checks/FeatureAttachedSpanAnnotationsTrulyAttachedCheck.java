@@ -21,12 +21,17 @@ import static org.apache.uima.fit.util.FSUtil.*;
 import static org.apache.uima.fit.util.CasUtil.getType;
 import static org.apache.uima.fit.util.CasUtil.select;
 import static org.apache.uima.fit.util.CasUtil.selectCovered;
+import static org.apache.uima.fit.util.CasUtil.selectCovering;
+
+import java.util.Collection;
 import java.util.List;
 
 import javax.annotation.Resource;
 
 import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
 import org.apache.uima.cas.text.AnnotationFS;
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
@@ -36,7 +41,7 @@ import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 
 public class FeatureAttachedSpanAnnotationsTrulyAttachedCheck
-    implements Check
+    implements IncrementalCheck
 {
     @Resource(name = "annotationService")
     private AnnotationService annotationService;
@@ -65,14 +70,48 @@ public class FeatureAttachedSpanAnnotationsTrulyAttachedCheck
             }
 
             for (AnnotationFS anno : select(aCas, layerType)) {
-                for (AnnotationFS attach : selectCovered(attachType, anno)) {
-                    AnnotationFS candidate = getFeature(attach, layer.getAttachFeature().getName(), AnnotationFS.class);
-                    if (candidate != anno) {
-                        aMessages.add(new LogMessage(this, LogLevel.ERROR,
-                                "Annotation should be attached to [" + layer.getAttachFeature().getName()
-                                + "] but is not.\nAnnotation: [" + anno 
-                                + "]\nAttach annotation:[" + attach + "]"));
-                        ok = false;
+                ok &= checkAttached(layer, attachType, anno, aMessages);
+            }
+        }
+        
+        return ok;
+    }
+
+    @Override
+    public boolean check(Project aProject, CAS aCas, Collection<FeatureStructure> aChanged,
+            List<LogMessage> aMessages)
+    {
+        TypeSystem ts = aCas.getTypeSystem();
+        
+        boolean ok = true;
+        for (AnnotationLayer layer : annotationService.listAnnotationLayer(aProject)) {
+            if (!(WebAnnoConst.SPAN_TYPE.equals(layer.getType()) && layer.getAttachFeature() != null)) {
+                continue;
+            }
+
+            Type layerType;
+            Type attachType;
+
+            try {
+                layerType = getType(aCas, layer.getName());
+                attachType = getType(aCas, layer.getAttachType().getName());
+            }
+            catch (IllegalArgumentException e) {
+                // Types not (yet) in the CAS - see above
+                continue;
+            }
+
+            for (FeatureStructure fs : aChanged) {
+                // A changed layer annotation must be attached to all the annotations it covers
+                if (ts.subsumes(layerType, fs.getType())) {
+                    ok &= checkAttached(layer, attachType, (AnnotationFS) fs, aMessages);
+                }
+                
+                // A changed attach annotation must still point to the layer annotations covering
+                // it
+                if (ts.subsumes(attachType, fs.getType())) {
+                    for (AnnotationFS anno : selectCovering(layerType, (AnnotationFS) fs)) {
+                        ok &= checkAttached(layer, attachType, anno, aMessages);
                     }
                 }
             }
@@ -80,4 +119,21 @@ public class FeatureAttachedSpanAnnotationsTrulyAttachedCheck
         
         return ok;
     }
+    
+    private boolean checkAttached(AnnotationLayer aLayer, Type aAttachType, AnnotationFS aAnno,
+            List<LogMessage> aMessages)
+    {
+        boolean ok = true;
+        for (AnnotationFS attach : selectCovered(aAttachType, aAnno)) {
+            AnnotationFS candidate = getFeature(attach, aLayer.getAttachFeature().getName(), AnnotationFS.class);
+            if (candidate != aAnno) {
+                aMessages.add(new LogMessage(this, LogLevel.ERROR,
+                        "Annotation should be attached to [" + aLayer.getAttachFeature().getName()
+                        + "] but is not.\nAnnotation: [" + aAnno 
+                        + "]\nAttach annotation:[" + attach + "]"));
+                ok = false;
+            }
+        }
+        return ok;
+    }
 }
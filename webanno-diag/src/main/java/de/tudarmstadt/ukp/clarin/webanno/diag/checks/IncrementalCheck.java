@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.diag.checks;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FeatureStructure;
+
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor.LogMessage;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+/**
+ * A check which can restrict itself to the feature structures that were created or modified since
+ * the CAS was loaded. Such checks are run when a CAS is saved interactively. Checks which do not
+ * implement this interface only run during a full analysis.
+ */
+public interface IncrementalCheck
+    extends Check
+{
+    /**
+     * Check only the given feature structures and whatever is necessary to validate them.
+     *
+     * @param aProject
+     *            the project (may be {@code null} in tests).
+     * @param aCas
+     *            the CAS.
+     * @param aChanged
+     *            the indexed feature structures which were created or modified.
+     * @param aMessages
+     *            the messages sink.
+     * @return whether the check was successful.
+     */
+    boolean check(Project aProject, CAS aCas, Collection<FeatureStructure> aChanged,
+            List<LogMessage> aMessages);
+}
@@ -22,6 +22,7 @@ import static org.apache.uima.fit.util.CasUtil.select;
 import static org.apache.uima.fit.util.CasUtil.selectFS;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import javax.annotation.Resource;
@@ -29,6 +30,7 @@ import javax.annotation.Resource;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.fit.util.FSUtil;
 
@@ -40,13 +42,24 @@ import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 
 public class LinksReachableThroughChainsCheck
-    implements Check
+    implements IncrementalCheck
 {
     @Resource(name = "annotationService")
     private AnnotationService annotationService;
 
     @Override
     public boolean check(Project aProject, CAS aCas, List<LogMessage> aMessages)
+    {
+        return check(aProject, aCas, null, aMessages);
+    }
+
+    /**
+     * Chains can only be validated as a whole. Thus, all chains of a layer are checked if any
+     * chain or link of that layer was changed.
+     */
+    @Override
+    public boolean check(Project aProject, CAS aCas, Collection<FeatureStructure> aChanged,
+            List<LogMessage> aMessages)
     {
         boolean ok = true;
         for (AnnotationLayer layer : annotationService.listAnnotationLayer(aProject)) {
@@ -68,6 +81,11 @@ public class LinksReachableThroughChainsCheck
                 continue;
             }
             
+            if (aChanged != null && !containsType(aCas.getTypeSystem(), aChanged, chainType,
+                    linkType)) {
+                continue;
+            }
+            
             List<FeatureStructure> chains = new ArrayList<>(selectFS(aCas, chainType));
             List<AnnotationFS> links = new ArrayList<>(select(aCas, linkType));
 
@@ -94,4 +112,17 @@ public class LinksReachableThroughChainsCheck
         
         return ok;
     }
+
+    private static boolean containsType(TypeSystem aTypeSystem,
+            Collection<FeatureStructure> aFSes, Type... aTypes)
+    {
+        for (FeatureStructure fs : aFSes) {
+            for (Type type : aTypes) {
+                if (aTypeSystem.subsumes(type, fs.getType())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
 }
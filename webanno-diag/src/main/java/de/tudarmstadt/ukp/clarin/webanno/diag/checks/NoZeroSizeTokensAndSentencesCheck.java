@@ -17,14 +17,20 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.diag.checks;
 
+import static org.apache.uima.fit.util.CasUtil.getType;
 import static org.apache.uima.fit.util.JCasUtil.select;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.CASException;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.text.AnnotationFS;
 
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor.LogLevel;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor.LogMessage;
@@ -33,7 +39,7 @@ import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
 
 public class NoZeroSizeTokensAndSentencesCheck
-    implements Check
+    implements IncrementalCheck
 {
     private Logger log = LoggerFactory.getLogger(getClass());
    
@@ -68,4 +74,35 @@ public class NoZeroSizeTokensAndSentencesCheck
             return false;
         }
     }
+
+    @Override
+    public boolean check(Project aProject, CAS aCas, Collection<FeatureStructure> aChanged,
+            List<LogMessage> aMessages)
+    {
+        Type tokenType = getType(aCas, Token.class);
+        Type sentenceType = getType(aCas, Sentence.class);
+        TypeSystem ts = aCas.getTypeSystem();
+
+        boolean ok = true;
+        for (FeatureStructure fs : aChanged) {
+            String kind;
+            if (ts.subsumes(tokenType, fs.getType())) {
+                kind = "Token";
+            }
+            else if (ts.subsumes(sentenceType, fs.getType())) {
+                kind = "Sentence";
+            }
+            else {
+                continue;
+            }
+
+            AnnotationFS anno = (AnnotationFS) fs;
+            if (anno.getBegin() >= anno.getEnd()) {
+                aMessages.add(new LogMessage(this, LogLevel.ERROR, "%s with illegal span: %s",
+                        kind, anno));
+                ok = false;
+            }
+        }
+        return ok;
+    }
 }
@@ -17,6 +17,8 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.diag.checks;
 
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -25,7 +27,9 @@ import java.util.List;
 
 import org.apache.uima.UIMAFramework;
 import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Marker;
 import org.apache.uima.cas.Type;
+import org.apache.uima.cas.impl.CASImpl;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.resource.metadata.TypeDescription;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
@@ -35,6 +39,7 @@ import org.junit.Test;
 
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor.LogMessage;
+import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorUtils;
 import de.tudarmstadt.ukp.clarin.webanno.diag.checks.AllFeatureStructuresIndexedCheck;
 import de.tudarmstadt.ukp.dkpro.core.testing.DkproTestContext;
 
@@ -117,6 +122,166 @@ public class AllAnnotationsIndexedCheckTest
         assertTrue(result);
     }
 
+    @Test
+    public void testIncrementalFail()
+        throws Exception
+    {
+        TypeSystemDescription tsd = UIMAFramework.getResourceSpecifierFactory()
+                .createTypeSystemDescription();
+        
+        String refTypeName = "RefType";
+        
+        TypeDescription refTypeDesc = tsd.addType(refTypeName, null, CAS.TYPE_NAME_ANNOTATION);
+        refTypeDesc.addFeature("ref", null, CAS.TYPE_NAME_ANNOTATION);
+        
+        CAS cas = CasCreationUtils.createCas(tsd, null, null);
+        
+        Type refType = cas.getTypeSystem().getType(refTypeName);
+        
+        // An indexed annotation that exists before the CAS is marked
+        AnnotationFS anno1 = cas.createAnnotation(refType, 0, 1);
+        cas.addFsToIndexes(anno1);
+        
+        cas.createMarker();
+        
+        // A modification that makes a non-indexed annotation reachable
+        AnnotationFS anno2 = cas.createAnnotation(cas.getAnnotationType(), 0, 1);
+        anno1.setFeatureValue(refType.getFeatureByBaseName("ref"), anno2);
+        
+        List<LogMessage> messages = new ArrayList<>();
+        CasDoctor cd = new CasDoctor(AllFeatureStructuresIndexedCheck.class);
+        // A project is not required for this check
+        boolean result = cd.analyzeIncrementally(null, cas, messages, false);
+        
+        messages.forEach(s -> System.out.println(s));
+        
+        assertFalse(result);
+        assertEquals(1, cd.getCheckStatistics().get("AllFeatureStructuresIndexedCheck")
+                .getIncrementalRuns());
+    }
+
+    @Test
+    public void testIncrementalIgnoresUnchanged()
+        throws Exception
+    {
+        TypeSystemDescription tsd = UIMAFramework.getResourceSpecifierFactory()
+                .createTypeSystemDescription();
+        
+        String refTypeName = "RefType";
+        
+        TypeDescription refTypeDesc = tsd.addType(refTypeName, null, CAS.TYPE_NAME_ANNOTATION);
+        refTypeDesc.addFeature("ref", null, CAS.TYPE_NAME_ANNOTATION);
+        
+        CAS cas = CasCreationUtils.createCas(tsd, null, null);
+        
+        Type refType = cas.getTypeSystem().getType(refTypeName);
+        
+        // A broken annotation that exists before the CAS is marked
+        AnnotationFS anno1 = cas.createAnnotation(cas.getAnnotationType(), 0, 1);
+        AnnotationFS anno2 = cas.createAnnotation(refType, 0, 1);
+        anno2.setFeatureValue(refType.getFeatureByBaseName("ref"), anno1);
+        cas.addFsToIndexes(anno2);
+        
+        cas.createMarker();
+        
+        // A new indexed annotation
+        AnnotationFS anno3 = cas.createAnnotation(cas.getAnnotationType(), 0, 1);
+        cas.addFsToIndexes(anno3);
+        
+        List<LogMessage> messages = new ArrayList<>();
+        CasDoctor cd = new CasDoctor(AllFeatureStructuresIndexedCheck.class);
+        
+        // The incremental analysis only looks at the change
+        assertTrue(cd.analyzeIncrementally(null, cas, messages, false));
+        
+        // The full analysis finds the old problem
+        assertFalse(cd.analyze(null, cas, messages, false));
+        
+        // Every analysis is a full analysis
+        cd.setFullAnalysisInterval(1);
+        assertFalse(cd.analyzeIncrementally(null, cas, messages, false));
+    }
+
+    @Test
+    public void testIncrementalIgnoresDeleted()
+        throws Exception
+    {
+        TypeSystemDescription tsd = UIMAFramework.getResourceSpecifierFactory()
+                .createTypeSystemDescription();
+        
+        String refTypeName = "RefType";
+        
+        TypeDescription refTypeDesc = tsd.addType(refTypeName, null, CAS.TYPE_NAME_ANNOTATION);
+        refTypeDesc.addFeature("ref", null, CAS.TYPE_NAME_ANNOTATION);
+        
+        CAS cas = CasCreationUtils.createCas(tsd, null, null);
+        
+        Type refType = cas.getTypeSystem().getType(refTypeName);
+        
+        // An indexed annotation that exists before the CAS is marked
+        AnnotationFS anno1 = cas.createAnnotation(refType, 0, 1);
+        cas.addFsToIndexes(anno1);
+        
+        cas.createMarker();
+        
+        // A modified annotation which is then deleted is not a change to be checked
+        AnnotationFS anno2 = cas.createAnnotation(cas.getAnnotationType(), 0, 1);
+        anno1.setFeatureValue(refType.getFeatureByBaseName("ref"), anno2);
+        cas.removeFsFromIndexes(anno1);
+        
+        // A new indexed annotation
+        AnnotationFS anno3 = cas.createAnnotation(cas.getAnnotationType(), 0, 1);
+        cas.addFsToIndexes(anno3);
+        
+        Marker marker = ((CASImpl) cas.getLowLevelCAS()).getCurrentMark();
+        assertEquals(asList(anno3), CasDoctorUtils.collectChanged(cas, marker));
+        
+        List<LogMessage> messages = new ArrayList<>();
+        CasDoctor cd = new CasDoctor(AllFeatureStructuresIndexedCheck.class);
+        assertTrue(cd.analyzeIncrementally(null, cas, messages, false));
+    }
+
+    @Test
+    public void testIncrementalFailOnDeletedGovernor()
+        throws Exception
+    {
+        TypeSystemDescription tsd = UIMAFramework.getResourceSpecifierFactory()
+                .createTypeSystemDescription();
+        
+        String relationTypeName = "Relation";
+        
+        TypeDescription relationTypeDesc = tsd.addType(relationTypeName, null,
+                CAS.TYPE_NAME_ANNOTATION);
+        relationTypeDesc.addFeature("Governor", null, CAS.TYPE_NAME_ANNOTATION);
+        relationTypeDesc.addFeature("Dependent", null, CAS.TYPE_NAME_ANNOTATION);
+        
+        CAS cas = CasCreationUtils.createCas(tsd, null, null);
+        
+        Type relationType = cas.getTypeSystem().getType(relationTypeName);
+        
+        // A relation between two spans that exists before the CAS is marked
+        AnnotationFS governor = cas.createAnnotation(cas.getAnnotationType(), 0, 1);
+        cas.addFsToIndexes(governor);
+        AnnotationFS dependent = cas.createAnnotation(cas.getAnnotationType(), 2, 3);
+        cas.addFsToIndexes(dependent);
+        AnnotationFS relation = cas.createAnnotation(relationType, 2, 3);
+        relation.setFeatureValue(relationType.getFeatureByBaseName("Governor"), governor);
+        relation.setFeatureValue(relationType.getFeatureByBaseName("Dependent"), dependent);
+        cas.addFsToIndexes(relation);
+        
+        cas.createMarker();
+        
+        // Deleting the governor leaves the unchanged relation with a dangling reference
+        cas.removeFsFromIndexes(governor);
+        
+        List<LogMessage> messages = new ArrayList<>();
+        CasDoctor cd = new CasDoctor(AllFeatureStructuresIndexedCheck.class);
+        
+        assertFalse(cd.analyzeIncrementally(null, cas, messages, false));
+        assertEquals(1, cd.getCheckStatistics().get("AllFeatureStructuresIndexedCheck")
+                .getFullRuns());
+    }
+
     @Rule
     public DkproTestContext testContext = new DkproTestContext();
 }
@@ -510,8 +510,9 @@ public class AnnotationPage
             // (Re)initialize brat model after potential creating / upgrading CAS
             state.clearAllSelections();
 
-            // Load constraints
-            state.setConstraints(repository.loadConstraints(state.getProject()));
+            // Load constraints - this reports errors in the rules when the document is opened. The
+            // parsed constraints are cached by the repository and shared by all users of the project.
+            repository.loadConstraints(state.getProject());
 
             // Load user preferences
             PreferencesUtil.loadPreferences(username, repository, annotationService, state,
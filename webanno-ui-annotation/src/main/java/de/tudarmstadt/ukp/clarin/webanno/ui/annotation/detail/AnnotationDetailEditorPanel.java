@@ -109,6 +109,8 @@ import de.tudarmstadt.ukp.clarin.webanno.constraints.evaluator.Evaluator;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.evaluator.PossibleValue;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.evaluator.RulesIndicator;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.evaluator.ValuesGenerator;
+import de.tudarmstadt.ukp.clarin.webanno.constraints.grammar.ParseException;
+import de.tudarmstadt.ukp.clarin.webanno.constraints.model.ParsedConstraints;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
@@ -946,8 +948,7 @@ public class AnnotationDetailEditorPanel
                     protected void onUpdate(AjaxRequestTarget aTarget)
                     {
                         try {
-                            AnnotatorState state = AnnotationFeatureForm.this.getModelObject();
-                            if (state.getConstraints() != null) {
+                            if (getConstraints() != null) {
                                 // Make sure we update the feature editor panel because due to
                                 // constraints the contents may have to be re-rendered
                                 aTarget.add(AnnotationFeatureForm.this);
@@ -1875,7 +1876,7 @@ public class AnnotationDetailEditorPanel
                 state.getFeatureStates().add(featureState);
                 
                 // verification to check whether constraints exist for this project or NOT
-                if (state.getConstraints() != null && state.getSelection().getAnnotation().isSet()) {
+                if (getConstraints() != null && state.getSelection().getAnnotation().isSet()) {
                     // indicator.setRulesExist(true);
                     populateTagsBasedOnRules(aJCas, featureState);
                 }
@@ -1957,6 +1958,26 @@ public class AnnotationDetailEditorPanel
         return (AnnotatorState) getDefaultModelObject();
     }
 
+    /**
+     * Get the constraints of the current project. The parsed constraints are cached by the
+     * repository, so this is cheap. This also applies to constraints which cannot be parsed - the
+     * repository logs the error once when parsing them.
+     */
+    private ParsedConstraints getConstraints()
+    {
+        try {
+            return repository.loadConstraints(getModelObject().getProject());
+        }
+        catch (ParseException e) {
+            LOG.debug("Unable to load constraints: " + e.getMessage());
+            return null;
+        }
+        catch (IOException e) {
+            LOG.error("Unable to load constraints: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
     /**
      * Clear the values from the feature editors.
      */
@@ -2003,13 +2024,14 @@ public class AnnotationDetailEditorPanel
             FeatureStructure featureStructure = selectByAddr(aJCas, state.getSelection()
                     .getAnnotation().getId());
 
+            ParsedConstraints constraints = getConstraints();
             Evaluator evaluator = new ValuesGenerator();
             //Only show indicator if this feature can be affected by Constraint rules!
             aModel.indicator.setAffected(evaluator.isThisAffectedByConstraintRules(
-                    featureStructure, restrictionFeaturePath, state.getConstraints()));
+                    featureStructure, restrictionFeaturePath, constraints));
             
             possibleValues = evaluator.generatePossibleValues(
-                    featureStructure, restrictionFeaturePath, state.getConstraints());
+                    featureStructure, restrictionFeaturePath, constraints);
 
             LOG.debug("Possible values for [" + featureStructure.getType().getName() + "] ["
                     + restrictionFeaturePath + "]: " + possibleValues);
@@ -363,7 +363,7 @@ public class AutomationPage
                 try {
                     SuggestionBuilder builder = new SuggestionBuilder(repository,
                             annotationService, userRepository);
-                    curationContainer = builder.buildCurationContainer(state);
+                    curationContainer = builder.buildCurationContainer(state, curationContainer);
                     setCurationSegmentBeginEnd(getEditorCas());
                     curationContainer.setBratAnnotatorModel(state);
 
@@ -607,7 +607,7 @@ public class AutomationPage
         
         SuggestionBuilder builder = new SuggestionBuilder(repository, annotationService,
                 userRepository);
-        curationContainer = builder.buildCurationContainer(state);
+        curationContainer = builder.buildCurationContainer(state, curationContainer);
         setCurationSegmentBeginEnd(editorCas);
         curationContainer.setBratAnnotatorModel(state);
         update(aTarget);
@@ -731,8 +731,9 @@ public class AutomationPage
             // (Re)initialize brat model after potential creating / upgrading CAS
             state.clearAllSelections();
 
-            // Load constraints
-            state.setConstraints(repository.loadConstraints(state.getProject()));
+            // Load constraints - this reports errors in the rules when the document is opened. The
+            // parsed constraints are cached by the repository and shared by all users of the project.
+            repository.loadConstraints(state.getProject());
 
             // Load user preferences
             PreferencesUtil.loadPreferences(username, repository, annotationService, state,
@@ -789,7 +790,7 @@ public class AutomationPage
             AnnotatorState state = getModelObject();
             SuggestionBuilder builder = new SuggestionBuilder(repository, annotationService,
                     userRepository);
-            curationContainer = builder.buildCurationContainer(state);
+            curationContainer = builder.buildCurationContainer(state, curationContainer);
             setCurationSegmentBeginEnd(aEditorCas);
             curationContainer.setBratAnnotatorModel(state);
             update(aTarget);
@@ -39,6 +39,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
@@ -80,6 +81,7 @@ import de.tudarmstadt.ukp.clarin.webanno.model.AutomationStatus;
 import de.tudarmstadt.ukp.clarin.webanno.model.MiraTemplate;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransition;
 import de.tudarmstadt.ukp.clarin.webanno.model.User;
 import de.tudarmstadt.ukp.clarin.webanno.ui.automation.service.AutomationService;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
@@ -403,6 +405,23 @@ public class AutomationUtil
         }
     }
 
+    /**
+     * Read the CASes of the given user for the given training documents one after the other, like
+     * {@link RepositoryService#readAnnotationCas(SourceDocument, User)} would. The CASes are
+     * read ahead in the background, but only as many as fit into the configured memory budget.
+     */
+    private static Iterator<JCas> readTrainingCases(RepositoryService aRepository,
+            List<SourceDocument> aDocuments, User aUser)
+    {
+        List<AnnotationDocument> annotationDocuments = new ArrayList<>();
+        for (SourceDocument document : aDocuments) {
+            document.setState(SourceDocumentStateTransition
+                    .transition(SourceDocumentStateTransition.NEW_TO_ANNOTATION_IN_PROGRESS));
+            annotationDocuments.add(aRepository.createOrGetAnnotationDocument(document, aUser));
+        }
+        return aRepository.iterateAnnotationCases(annotationDocuments);
+    }
+
     // generates training document that will be used to predict the training document
     // to add extra features, for example add POS tag as a feature for NE classifier
     public static void addOtherFeatureTrainDocument(MiraTemplate aTemplate,
@@ -435,18 +454,23 @@ public class AutomationUtil
             BufferedWriter trainOut = new BufferedWriter(new FileWriter(trainFile));
             AutomationTypeAdapter adapter = (AutomationTypeAdapter) TypeUtil.getAdapter(
                     aAnnotationService, feature.getLayer());
+            List<SourceDocument> trainingDocuments = new ArrayList<>();
             for (SourceDocument sourceDocument : aRepository.listSourceDocuments(feature
                     .getProject())) {
                 if ((sourceDocument.isTrainingDocument() && sourceDocument.getFeature() != null && sourceDocument
                         .getFeature().equals(feature))) {
-                    JCas jCas = aRepository.readAnnotationCas(sourceDocument, user);
-                    for (Sentence sentence : select(jCas, Sentence.class)) {
-                        trainOut.append(getMiraLine(sentence, feature, adapter).toString() + "\n");
-                    }
-                    sourceDocument.setProcessed(false);
-                    status.setTrainDocs(status.getTrainDocs() - 1);
+                    trainingDocuments.add(sourceDocument);
                 }
-
+            }
+            
+            Iterator<JCas> cases = readTrainingCases(aRepository, trainingDocuments, user);
+            for (SourceDocument sourceDocument : trainingDocuments) {
+                JCas jCas = cases.next();
+                for (Sentence sentence : select(jCas, Sentence.class)) {
+                    trainOut.append(getMiraLine(sentence, feature, adapter).toString() + "\n");
+                }
+                sourceDocument.setProcessed(false);
+                status.setTrainDocs(status.getTrainDocs() - 1);
             }
             trainOut.close();
         }
@@ -469,24 +493,28 @@ public class AutomationUtil
         if (aSourceDocument == null) {// this is training - all sources documents will be converted
                                       // to a single
             // training file
+            List<SourceDocument> trainingDocuments = new ArrayList<>();
             for (SourceDocument sourceDocument : aRepository.listSourceDocuments(aFeature
                     .getProject())) {
-
                 if ((sourceDocument.isTrainingDocument())) {
-                    JCas jCas = aRepository.readAnnotationCas(sourceDocument, user);
-                    for (Sentence sentence : select(jCas, Sentence.class)) {
+                    trainingDocuments.add(sourceDocument);
+                }
+            }
 
-                        if (aFeature.getLayer().isMultipleTokens()) {
-                            annotations.addAll((List<String>) ((SpanAdapter) adapter)
-                                    .getMultipleAnnotation(sentence, aFeature).values());
-                        }
-                        else {
-                            annotations.addAll(adapter.getAnnotation(sentence, aFeature));
-                        }
+            Iterator<JCas> cases = readTrainingCases(aRepository, trainingDocuments, user);
+            while (cases.hasNext()) {
+                JCas jCas = cases.next();
+                for (Sentence sentence : select(jCas, Sentence.class)) {
 
+                    if (aFeature.getLayer().isMultipleTokens()) {
+                        annotations.addAll((List<String>) ((SpanAdapter) adapter)
+                                .getMultipleAnnotation(sentence, aFeature).values());
+                    }
+                    else {
+                        annotations.addAll(adapter.getAnnotation(sentence, aFeature));
                     }
-                }
 
+                }
             }
             aPredictions.add(annotations);
         }
@@ -360,7 +360,7 @@ public class CorrectionPage
                     // info(bratAnnotatorModel.getMessage());
                     SuggestionBuilder builder = new SuggestionBuilder(repository,
                             annotationService, userRepository);
-                    curationContainer = builder.buildCurationContainer(state);
+                    curationContainer = builder.buildCurationContainer(state, curationContainer);
                     setCurationSegmentBeginEnd(editorCas);
                     curationContainer.setBratAnnotatorModel(state);
 
@@ -537,7 +537,7 @@ public class CorrectionPage
         
         SuggestionBuilder builder = new SuggestionBuilder(repository, annotationService,
                 userRepository);
-        curationContainer = builder.buildCurationContainer(state);
+        curationContainer = builder.buildCurationContainer(state, curationContainer);
         setCurationSegmentBeginEnd(editorCas);
         curationContainer.setBratAnnotatorModel(state);
         update(aTarget);
@@ -678,8 +678,9 @@ public class CorrectionPage
             // (Re)initialize brat model after potential creating / upgrading CAS
             state.clearAllSelections();
 
-            // Load constraints
-            state.setConstraints(repository.loadConstraints(state.getProject()));
+            // Load constraints - this reports errors in the rules when the document is opened. The
+            // parsed constraints are cached by the repository and shared by all users of the project.
+            repository.loadConstraints(state.getProject());
 
             // Load user preferences
             PreferencesUtil.loadPreferences(username, repository, annotationService, state,
@@ -736,7 +737,7 @@ public class CorrectionPage
             AnnotatorState state = getModelObject();
             SuggestionBuilder builder = new SuggestionBuilder(repository, annotationService,
                     userRepository);
-            curationContainer = builder.buildCurationContainer(state);
+            curationContainer = builder.buildCurationContainer(state, curationContainer);
             setCurationSegmentBeginEnd(aEditorCas);
             curationContainer.setBratAnnotatorModel(state);
             update(aTarget);
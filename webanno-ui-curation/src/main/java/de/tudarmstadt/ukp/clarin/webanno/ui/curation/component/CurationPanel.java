@@ -27,6 +27,7 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.slf4j.Logger;
@@ -62,7 +63,6 @@ import de.tudarmstadt.ukp.clarin.webanno.ui.annotation.detail.AnnotationDetailEd
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.CurationContainer;
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.CurationUserSegmentForAnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.SourceListView;
-import de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model.SuggestionBuilder;
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.AnnotationSelection;
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.CuratorUtil;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
@@ -271,11 +271,13 @@ public class CurationPanel
                 int lSN = bModel.getLastVisibleSentenceNumber();
     
                 List<String> crossSentAnnos = new ArrayList<>();
-                if (SuggestionBuilder.crossSentenceLists != null) {
-                    for (int sn : SuggestionBuilder.crossSentenceLists.keySet()) {
+                Map<Integer, Set<Integer>> crossSentenceLists = getModelObject()
+                        .getCrossSentenceLists();
+                if (crossSentenceLists != null) {
+                    for (int sn : crossSentenceLists.keySet()) {
                         if (sn >= fSN && sn <= lSN) {
                             List<Integer> cr = new ArrayList<>();
-                            for (int c : SuggestionBuilder.crossSentenceLists.get(sn)) {
+                            for (int c : crossSentenceLists.get(sn)) {
                                 if (c < fSN || c > lSN) {
                                     cr.add(c);
                                 }
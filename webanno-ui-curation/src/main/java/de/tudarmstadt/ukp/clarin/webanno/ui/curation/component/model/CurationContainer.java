@@ -23,6 +23,7 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
@@ -42,6 +43,12 @@ public class CurationContainer
 
     private AnnotatorState bratAnnotatorModel;
 
+    /**
+     * The numbers of the sentences linked to each sentence by annotations crossing sentence
+     * boundaries.
+     */
+    private Map<Integer, Set<Integer>> crossSentenceLists = new HashMap<>();
+
     public List<SourceListView> getCurationViews()
     {
         LinkedList<Integer> viewsBegin = new LinkedList<Integer>(curationViewByBegin.keySet());
@@ -81,4 +88,14 @@ public class CurationContainer
         this.bratAnnotatorModel = bratAnnotatorModel;
     }
 
+    public Map<Integer, Set<Integer>> getCrossSentenceLists()
+    {
+        return crossSentenceLists;
+    }
+
+    public void setCrossSentenceLists(Map<Integer, Set<Integer>> aCrossSentenceLists)
+    {
+        crossSentenceLists = aCrossSentenceLists;
+    }
+
 }
@@ -44,6 +44,8 @@ public class SourceListView
     private SentenceState sentenceState;
     private Integer sentenceNumber;
     private boolean isCurrentSentence;
+    // SHA-256 signature of the annotations in the segment the sentence state was calculated from
+    private String diffSignature;
 
     private Map<String, Integer> sentenceAddress = new LinkedHashMap<String, Integer>();
 
@@ -132,5 +134,15 @@ public class SourceListView
         this.isCurrentSentence = isCurrentSentence;
     }
 
+    public String getDiffSignature()
+    {
+        return diffSignature;
+    }
+
+    public void setDiffSignature(String diffSignature)
+    {
+        this.diffSignature = diffSignature;
+    }
+
 
 }
@@ -24,6 +24,7 @@ import static org.apache.uima.fit.util.JCasUtil.selectCovered;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -58,6 +59,7 @@ import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.CasDiff2.Configurat
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.CasDiff2.DiffResult;
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.CasDiff2.LinkCompareBehavior;
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.MergeCas;
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.SegmentedDiff;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
 
@@ -79,7 +81,6 @@ public class SuggestionBuilder
 
     int diffRangeBegin, diffRangeEnd;
     boolean firstload = true;
-    public static Map<Integer, Set<Integer>> crossSentenceLists;
     //
     Map<Integer, Integer> segmentBeginEnd = new HashMap<Integer, Integer>();
 
@@ -93,6 +94,24 @@ public class SuggestionBuilder
 
     public CurationContainer buildCurationContainer(AnnotatorState aBModel)
         throws UIMAException, ClassNotFoundException, IOException, AnnotationException
+    {
+        return buildCurationContainer(aBModel, null);
+    }
+
+    /**
+     * Build the curation container. The states of the segments in the given previous container
+     * are re-used for all segments in which no annotation has changed since, so that only
+     * segments touched by an edit need to be compared again.
+     *
+     * @param aBModel
+     *            the annotator state.
+     * @param aPrevious
+     *            the previously built container for the same document or {@code null}.
+     * @return the curation container.
+     */
+    public CurationContainer buildCurationContainer(AnnotatorState aBModel,
+            CurationContainer aPrevious)
+        throws UIMAException, ClassNotFoundException, IOException, AnnotationException
     {
         CurationContainer curationContainer = new CurationContainer();
         // initialize Variables
@@ -149,47 +168,49 @@ public class SuggestionBuilder
 
         // for cross-sentences annotation, update the end of the segment
         if (firstload) {
-            updateCrossSentAnnoList(segmentBeginEnd, jCases, entryTypes);
+            curationContainer.setCrossSentenceLists(
+                    updateCrossSentAnnoList(segmentBeginEnd, jCases, entryTypes));
             firstload = false;
         }
 
-        for (Integer begin : segmentBeginEnd.keySet()) {
-            Integer end = segmentBeginEnd.get(begin);
+        // Select the annotations only once for all segments and compare each segment on its own
+        List<String> entryTypeNames = new ArrayList<>();
+        for (Type t : entryTypes) {
+            entryTypeNames.add(t.getName());
+        }
+        int[] begins = segmentBeginEnd.keySet().stream().mapToInt(Integer::intValue).sorted()
+                .toArray();
+        int[] ends = new int[begins.length];
+        for (int i = 0; i < begins.length; i++) {
+            ends[i] = segmentBeginEnd.get(begins[i]);
+        }
+        SegmentedDiff segmentedDiff = new SegmentedDiff(entryTypeNames,
+                CasDiff2.getAdapters(annotationService, aBModel.getProject()),
+                LinkCompareBehavior.LINK_ROLE_AS_LABEL, jCases, begins, ends);
+
+        for (int i = 0; i < begins.length; i++) {
+            Integer begin = begins[i];
+            Integer end = ends[i];
 
-            DiffResult diff = CasDiff2.doDiffSingle(annotationService, aBModel.getProject(),
-                    entryTypes, LinkCompareBehavior.LINK_ROLE_AS_LABEL, jCases, begin, end);
             SourceListView curationSegment = new SourceListView();
             curationSegment.setBegin(begin);
-			curationSegment.setEnd(end);
-			if (diff.hasDifferences() || !diff.getIncompleteConfigurationSets().isEmpty()) {
-				// Is this confSet a diff due to stacked annotations (with same configuration)?
-				boolean stackedDiff = false;
-
-				stackedDiffSet: for (ConfigurationSet d : diff.getDifferingConfigurationSets().values()) {
-					for (Configuration c : d.getConfigurations()) {
-						if (c.getCasGroupIds().size() != d.getCasGroupIds().size()) {
-							stackedDiff = true;
-							break stackedDiffSet;
-						}
-					}
-				}
-
-				if (stackedDiff) {
-					curationSegment.setSentenceState(SentenceState.DISAGREE);
-				}
-
-				else if (!diff.getIncompleteConfigurationSets().isEmpty()) {
-					curationSegment.setSentenceState(SentenceState.DISAGREE);
-				} else {
-					curationSegment.setSentenceState(SentenceState.AGREE);
-				}
-			} else {
-				curationSegment.setSentenceState(SentenceState.AGREE);
-			}
-			curationSegment.setSentenceNumber(segmentNumber.get(begin));
-
-			for (String username : segmentAdress.keySet()) {
-				curationSegment.getSentenceAddress().put(username,
+            curationSegment.setEnd(end);
+            curationSegment.setDiffSignature(segmentedDiff.getSignature(i));
+
+            SourceListView previousSegment = aPrevious != null
+                    ? aPrevious.getCurationViewByBegin().get(begin) : null;
+            if (previousSegment != null && end.equals(previousSegment.getEnd())
+                    && curationSegment.getDiffSignature()
+                            .equals(previousSegment.getDiffSignature())) {
+                curationSegment.setSentenceState(previousSegment.getSentenceState());
+            }
+            else {
+                curationSegment.setSentenceState(getSentenceState(segmentedDiff.getDiff(i)));
+            }
+            curationSegment.setSentenceNumber(segmentNumber.get(begin));
+
+            for (String username : segmentAdress.keySet()) {
+                curationSegment.getSentenceAddress().put(username,
                         segmentAdress.get(username).get(begin));
             }
             curationContainer.getCurationViewByBegin().put(begin, curationSegment);
@@ -197,48 +218,126 @@ public class SuggestionBuilder
         return curationContainer;
     }
 
-    private void updateCrossSentAnnoList(Map<Integer, Integer> segmentBeginEnd,
-            Map<String, JCas> jCases, List<Type> entryTypes)
+    private static SentenceState getSentenceState(DiffResult diff)
     {
-        crossSentenceLists = new HashMap<>();
-        for (Integer begin : segmentBeginEnd.keySet()) {
-            int thisSent = -1;
-            Set<Integer> crossSents = new HashSet<>();
-            for (Type t : entryTypes) {
-                for (JCas c : jCases.values()) {
-                    if (thisSent == -1) {
-                        thisSent = WebAnnoCasUtil.getSentenceNumber(c, begin);
+        if (diff.hasDifferences() || !diff.getIncompleteConfigurationSets().isEmpty()) {
+            // Is this confSet a diff due to stacked annotations (with same configuration)?
+            for (ConfigurationSet d : diff.getDifferingConfigurationSets().values()) {
+                for (Configuration c : d.getConfigurations()) {
+                    if (c.getCasGroupIds().size() != d.getCasGroupIds().size()) {
+                        return SentenceState.DISAGREE;
                     }
-                    // update cross-sentence annotation lists
-                    for (AnnotationFS fs : selectCovered(c.getCas(), t, this.diffRangeBegin, diffRangeEnd)) {
-                        // CASE 1. annotation begins here
-                        if (fs.getBegin() >= begin && fs.getBegin() <= segmentBeginEnd.get(begin)) {
-                            if (fs.getEnd() > segmentBeginEnd.get(begin) || fs.getEnd() < begin) {
-                                Sentence s = WebAnnoCasUtil.getSentenceByAnnoEnd(c, fs.getEnd());
-                                int thatSent = WebAnnoCasUtil.getSentenceNumber(c, s.getBegin());
-                                crossSents.add(thatSent);
-                            }
+                }
+            }
+
+            if (!diff.getIncompleteConfigurationSets().isEmpty()) {
+                return SentenceState.DISAGREE;
+            }
+        }
+        return SentenceState.AGREE;
+    }
+
+    /**
+     * Extends the end of each segment to the end of the last sentence reached by an annotation
+     * starting in the segment and determines the sentences linked to each sentence by annotations
+     * crossing the sentence boundaries. The annotations of each CAS and type are only selected
+     * once and then processed in a single sweep sorted by their begin offsets.
+     *
+     * @return the numbers of the sentences linked to each sentence by cross-sentence annotations.
+     */
+    Map<Integer, Set<Integer>> updateCrossSentAnnoList(
+            Map<Integer, Integer> segmentBeginEnd, Map<String, JCas> jCases,
+            List<Type> entryTypes)
+    {
+        Map<Integer, Set<Integer>> crossSentenceLists = new HashMap<>();
+        
+        int[] begins = segmentBeginEnd.keySet().stream().mapToInt(Integer::intValue).sorted()
+                .toArray();
+        int[] ends = new int[begins.length];
+        List<Set<Integer>> crossSents = new ArrayList<>();
+        for (int i = 0; i < begins.length; i++) {
+            ends[i] = segmentBeginEnd.get(begins[i]);
+            crossSents.add(new HashSet<>());
+        }
+        
+        // Begin of each annotation in the upper and the end of the last sentence it reaches in
+        // the lower 32 bits, so sorting orders the annotations by their begin
+        long[] reaches = new long[16];
+        int count = 0;
+        for (JCas c : jCases.values()) {
+            for (Type t : entryTypes) {
+                for (AnnotationFS fs : selectCovered(c.getCas(), t, diffRangeBegin, diffRangeEnd)) {
+                    Sentence endSentence = null;
+                    
+                    // CASE 1. Annotation begins in a segment and ends after it
+                    int beginSegment = lastSegmentAt(begins, ends, fs.getBegin());
+                    for (int i = beginSegment; i >= 0 && ends[i] >= fs.getBegin(); i--) {
+                        if (fs.getEnd() > ends[i]) {
+                            endSentence = WebAnnoCasUtil.getSentenceByAnnoEnd(c, fs.getEnd());
+                            crossSents.get(i).add(
+                                    WebAnnoCasUtil.getSentenceNumber(c, endSentence.getBegin()));
                         }
-                        // CASE 2. Annotation ends here
-                        else if (fs.getEnd() >= begin && fs.getEnd() <= segmentBeginEnd.get(begin)) {
-                            if (fs.getBegin() > segmentBeginEnd.get(begin) || fs.getBegin() < begin) {
-                                int thatSent = WebAnnoCasUtil.getSentenceNumber(c, fs.getBegin());
-                                crossSents.add(thatSent);
-                            }
+                    }
+                    
+                    // CASE 2. Annotation ends in a segment and begins before it
+                    int endSegment = lastSegmentAt(begins, ends, fs.getEnd());
+                    for (int i = endSegment; i >= 0 && ends[i] >= fs.getEnd(); i--) {
+                        if (fs.getBegin() < begins[i]) {
+                            crossSents.get(i)
+                                    .add(WebAnnoCasUtil.getSentenceNumber(c, fs.getBegin()));
                         }
                     }
-
-                    for (AnnotationFS fs : selectCovered(c.getCas(), t, begin, diffRangeEnd)) {
-                        if (fs.getBegin() <= segmentBeginEnd.get(begin)
-                                && fs.getEnd() > segmentBeginEnd.get(begin)) {
-                            Sentence s = WebAnnoCasUtil.getSentenceByAnnoEnd(c, fs.getEnd());
-                            segmentBeginEnd.put(begin, s.getEnd());
+                    
+                    // Annotations starting between segments may extend a segment that has
+                    // already been extended beyond them
+                    if (endSentence == null && fs.getEnd() > 0 && (beginSegment < 0
+                            || ends[beginSegment] < fs.getBegin())) {
+                        endSentence = WebAnnoCasUtil.getSentenceByAnnoEnd(c, fs.getEnd());
+                    }
+                    
+                    if (endSentence != null) {
+                        if (count == reaches.length) {
+                            reaches = Arrays.copyOf(reaches, count * 2);
                         }
+                        reaches[count++] = ((long) fs.getBegin() << 32) | endSentence.getEnd();
                     }
                 }
             }
-            crossSentenceLists.put(thisSent, crossSents);
         }
+        Arrays.sort(reaches, 0, count);
+        
+        int thisSent = -1;
+        JCas firstCas = jCases.isEmpty() ? null : jCases.values().iterator().next();
+        int next = 0;
+        for (int i = 0; i < begins.length; i++) {
+            if (firstCas != null) {
+                thisSent = WebAnnoCasUtil.getSentenceNumber(firstCas, begins[i]);
+            }
+            crossSentenceLists.put(thisSent, crossSents.get(i));
+            
+            // Annotations starting within the (extended) segment extend it up to the end of the
+            // sentence in which they end
+            while (next < count && (int) (reaches[next] >>> 32) < begins[i]) {
+                next++;
+            }
+            int end = ends[i];
+            for (int j = next; j < count && (int) (reaches[j] >>> 32) <= end; j++) {
+                end = Math.max(end, (int) reaches[j]);
+            }
+            segmentBeginEnd.put(begins[i], end);
+        }
+        
+        return crossSentenceLists;
+    }
+    
+    /**
+     * @return the index of the last segment beginning at or before the given offset or -1 if
+     *         there is no such segment.
+     */
+    private static int lastSegmentAt(int[] aBegins, int[] aEnds, int aOffset)
+    {
+        int i = Arrays.binarySearch(aBegins, aOffset);
+        return i >= 0 ? i : -i - 2;
     }
 
     public Map<String, JCas> listJcasesforCorrection(AnnotationDocument randomAnnotationDocument,
@@ -263,10 +362,8 @@ public class SuggestionBuilder
             AnnotationDocument randomAnnotationDocument, Mode aMode)
         throws UIMAException, ClassNotFoundException, IOException
     {
-        Map<String, JCas> jCases = new HashMap<String, JCas>();
+        List<AnnotationDocument> finishedDocuments = new ArrayList<>();
         for (AnnotationDocument annotationDocument : annotationDocuments) {
-            String username = annotationDocument.getUser();
-
             if (!annotationDocument.getState().equals(AnnotationDocumentState.FINISHED)) {
                 continue;
             }
@@ -275,12 +372,18 @@ public class SuggestionBuilder
                 randomAnnotationDocument = annotationDocument;
             }
 
-            // Upgrading should be an explicit action during the opening of a document at the end
-            // of the open dialog - it must not happen during editing because the CAS addresses
-            // are used as IDs in the UI
-            // repository.upgradeCasAndSave(annotationDocument.getDocument(), aMode, username);
-            JCas jCas = repository.readAnnotationCas(annotationDocument);
-            jCases.put(username, jCas);
+            finishedDocuments.add(annotationDocument);
+        }
+
+        // Upgrading should be an explicit action during the opening of a document at the end
+        // of the open dialog - it must not happen during editing because the CAS addresses
+        // are used as IDs in the UI
+        // repository.upgradeCasAndSave(annotationDocument.getDocument(), aMode, username);
+        List<JCas> cases = repository.readAnnotationCases(finishedDocuments);
+
+        Map<String, JCas> jCases = new HashMap<String, JCas>();
+        for (int i = 0; i < finishedDocuments.size(); i++) {
+            jCases.put(finishedDocuments.get(i).getUser(), cases.get(i));
         }
         return jCases;
     }
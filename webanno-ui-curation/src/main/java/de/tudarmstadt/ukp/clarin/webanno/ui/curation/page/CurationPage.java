@@ -656,8 +656,9 @@ public class CurationPage
             updateSentenceNumber(mergeJCas, state.getFirstVisibleSentenceAddress());
     
             
-            // Load constraints
-            state.setConstraints(repository.loadConstraints(state.getProject()));
+            // Load constraints - this reports errors in the rules when the document is opened. The
+            // parsed constraints are cached by the repository and shared by all users of the project.
+            repository.loadConstraints(state.getProject());
     
             aTarget.add(getOrCreatePositionInfoLabel());
             aTarget.add(documentNamePanel);
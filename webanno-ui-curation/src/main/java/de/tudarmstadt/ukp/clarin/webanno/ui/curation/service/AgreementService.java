@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.curation.service;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.AgreementUtils.AgreementResult;
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.AgreementUtils.ConcreteAgreementMeasure;
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.AgreementUtils.PairwiseAgreementListener;
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.CasDiff2.LinkCompareBehavior;
+
+/**
+ * Calculates inter-annotator agreement on the finished annotation documents of a project. The
+ * diff of each document is calculated only once and then re-used until one of the CASes involved
+ * changes.
+ */
+public interface AgreementService
+{
+    /**
+     * Calculate the pairwise agreement between all annotators of the project on the given
+     * feature.
+     *
+     * @param aFeature
+     *            the feature to calculate the agreement on.
+     * @param aMeasure
+     *            the agreement measure.
+     * @param aExcludeIncomplete
+     *            whether to exclude positions which have not been annotated by both annotators.
+     * @param aLinkCompareBehavior
+     *            how link features are compared.
+     * @return the agreement results.
+     */
+    PairwiseAnnotationResult getPairwiseAgreement(AnnotationFeature aFeature,
+            ConcreteAgreementMeasure aMeasure, boolean aExcludeIncomplete,
+            LinkCompareBehavior aLinkCompareBehavior);
+
+    /**
+     * Calculate the pairwise agreement between all annotators of the project on the given
+     * feature, reporting each pair as soon as it has been calculated. This allows showing partial
+     * results while the remaining pairs are still being calculated.
+     *
+     * @param aFeature
+     *            the feature to calculate the agreement on.
+     * @param aMeasure
+     *            the agreement measure.
+     * @param aExcludeIncomplete
+     *            whether to exclude positions which have not been annotated by both annotators.
+     * @param aLinkCompareBehavior
+     *            how link features are compared.
+     * @param aListener
+     *            notified whenever a pair has been calculated. It may be called from different
+     *            threads.
+     * @return the agreement results.
+     */
+    PairwiseAnnotationResult getPairwiseAgreement(AnnotationFeature aFeature,
+            ConcreteAgreementMeasure aMeasure, boolean aExcludeIncomplete,
+            LinkCompareBehavior aLinkCompareBehavior, PairwiseAgreementListener aListener);
+
+    /**
+     * Build the agreement study over all annotators of the project on the given feature, e.g.
+     * for exporting it.
+     *
+     * @param aFeature
+     *            the feature to build the study for.
+     * @param aExcludeIncomplete
+     *            whether to exclude positions which have not been annotated by all annotators.
+     * @param aLinkCompareBehavior
+     *            how link features are compared.
+     * @return the agreement study.
+     */
+    AgreementResult getStudy(AnnotationFeature aFeature, boolean aExcludeIncomplete,
+            LinkCompareBehavior aLinkCompareBehavior);
+}
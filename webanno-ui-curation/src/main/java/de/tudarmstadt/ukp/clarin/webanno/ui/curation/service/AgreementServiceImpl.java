@@ -0,0 +1,432 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.curation.service;
+
+import static java.util.Arrays.asList;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import org.apache.uima.jcas.JCas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
+import de.tudarmstadt.ukp.clarin.webanno.api.SourceDocumentRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.User;
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.AgreementUtils.AgreementResult;
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.AgreementUtils.ConcreteAgreementMeasure;
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.AgreementUtils.PairwiseAgreementListener;
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.CasDiff2.DiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.CasDiff2.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.CasDiff2.LinkCompareBehavior;
+import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
+
+/**
+ * Agreement service which keeps a {@link CompactDiff} per document and layer. A compact diff is
+ * re-used as long as the finished CAS files it was calculated from (size, last-modified time and
+ * file key) and the annotation schema of the project do not change. Only the CASes of documents
+ * which changed are loaded, and only one document at a time, so the CASes of the whole project
+ * never need to be in memory at the same time. The least recently used diffs are dropped when
+ * the cache is full, and the diffs of a document are dropped when the document is removed.
+ */
+public class AgreementServiceImpl
+    implements AgreementService, ApplicationListener<SourceDocumentRemovedEvent>
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    /**
+     * Maximum number of cached diffs (one per document, layer and link compare behavior).
+     */
+    private static final int MAX_ENTRIES = 10000;
+
+    @Resource(name = "documentRepository")
+    private RepositoryService repository;
+
+    @Resource(name = "annotationService")
+    private AnnotationService annotationService;
+
+    private final Map<Key, CachedDiff> diffs = Collections
+            .synchronizedMap(new LinkedHashMap<Key, CachedDiff>(16, 0.75f, true)
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, CachedDiff> aEldest)
+                {
+                    return size() > MAX_ENTRIES;
+                }
+            });
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Pool in which the pairwise agreement is calculated. It is bounded so that agreement
+     * calculations cannot occupy all cores of the server.
+     */
+    private final ForkJoinPool pool = new ForkJoinPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+
+    @PreDestroy
+    public void destroy()
+    {
+        pool.shutdownNow();
+    }
+
+    @Override
+    public void onApplicationEvent(SourceDocumentRemovedEvent aEvent)
+    {
+        long documentId = aEvent.getDocument().getId();
+        diffs.keySet().removeIf(k -> k.documentId == documentId);
+    }
+
+    @Override
+    public PairwiseAnnotationResult getPairwiseAgreement(AnnotationFeature aFeature,
+            ConcreteAgreementMeasure aMeasure, boolean aExcludeIncomplete,
+            LinkCompareBehavior aLinkCompareBehavior)
+    {
+        return getPairwiseAgreement(aFeature, aMeasure, aExcludeIncomplete,
+                aLinkCompareBehavior, null);
+    }
+
+    @Override
+    public PairwiseAnnotationResult getPairwiseAgreement(AnnotationFeature aFeature,
+            ConcreteAgreementMeasure aMeasure, boolean aExcludeIncomplete,
+            LinkCompareBehavior aLinkCompareBehavior, PairwiseAgreementListener aListener)
+    {
+        List<User> users = listAnnotators(aFeature.getProject());
+        List<CompactDiff> documentDiffs = getDiffs(aFeature.getLayer(), users,
+                aLinkCompareBehavior);
+
+        List<String> usernames = new ArrayList<>();
+        users.forEach(u -> usernames.add(u.getUsername()));
+
+        return AgreementUtils.getPairwiseAgreement(aMeasure, aExcludeIncomplete, documentDiffs,
+                usernames, aFeature.getLayer().getName(), aFeature.getName(), pool, aListener);
+    }
+
+    @Override
+    public AgreementResult getStudy(AnnotationFeature aFeature, boolean aExcludeIncomplete,
+            LinkCompareBehavior aLinkCompareBehavior)
+    {
+        List<User> users = listAnnotators(aFeature.getProject());
+        List<CompactDiff> documentDiffs = getDiffs(aFeature.getLayer(), users,
+                aLinkCompareBehavior);
+
+        List<String> usernames = new ArrayList<>();
+        users.forEach(u -> usernames.add(u.getUsername()));
+
+        return AgreementUtils.makeStudy(documentDiffs, usernames, aFeature.getLayer().getName(),
+                aFeature.getName(), aExcludeIncomplete);
+    }
+
+    private List<User> listAnnotators(Project aProject)
+    {
+        return repository.listProjectUsersWithPermissions(aProject, PermissionLevel.USER);
+    }
+
+    /**
+     * Get the compact diffs of all documents in the project, recalculating only those for which
+     * one of the finished CASes has changed.
+     */
+    private List<CompactDiff> getDiffs(AnnotationLayer aLayer, List<User> aUsers,
+            LinkCompareBehavior aLinkCompareBehavior)
+    {
+        Project project = aLayer.getProject();
+        long schemaVersion = annotationService.getSchemaVersion(project);
+
+        // Training documents are not being annotated
+        List<SourceDocument> documents = new ArrayList<>();
+        for (SourceDocument doc : repository.listSourceDocuments(project)) {
+            if (!doc.isTrainingDocument()) {
+                documents.add(doc);
+            }
+        }
+
+        // Forget about documents which have been removed from the project
+        Set<Long> documentIds = new HashSet<>();
+        documents.forEach(d -> documentIds.add(d.getId()));
+        diffs.keySet().removeIf(k -> k.projectId == project.getId()
+                && !documentIds.contains(k.documentId));
+
+        // Determine which users have finished which documents
+        Set<String> finished = new HashSet<>();
+        for (AnnotationDocument annDoc : repository.listFinishedAnnotationDocuments(project)) {
+            finished.add(annDoc.getDocument().getId() + "/" + annDoc.getUser());
+        }
+
+        List<CompactDiff> result = new ArrayList<>();
+        for (SourceDocument doc : documents) {
+            Map<String, CasFileState> casStates = new LinkedHashMap<>();
+            for (User user : aUsers) {
+                String username = user.getUsername();
+                if (finished.contains(doc.getId() + "/" + username)) {
+                    casStates.put(username,
+                            CasFileState.of(repository.getCasFile(doc, username)));
+                }
+                else {
+                    casStates.put(username, CasFileState.NOT_FINISHED);
+                }
+            }
+
+            Key key = new Key(project.getId(), doc.getId(), aLayer.getName(),
+                    aLinkCompareBehavior);
+            CachedDiff cached = diffs.get(key);
+            if (cached != null && cached.schemaVersion == schemaVersion
+                    && cached.casStates.equals(casStates)) {
+                hits.incrementAndGet();
+                result.add(cached.diff);
+                continue;
+            }
+
+            misses.incrementAndGet();
+            CompactDiff diff = calculateDiff(doc, aLayer, aUsers, casStates,
+                    aLinkCompareBehavior);
+            diffs.put(key, new CachedDiff(schemaVersion, casStates, diff));
+            result.add(diff);
+        }
+
+        log.debug("{}", this);
+
+        return result;
+    }
+
+    /**
+     * Calculate the compact diff for a single document.
+     */
+    private CompactDiff calculateDiff(SourceDocument aDocument, AnnotationLayer aLayer,
+            List<User> aUsers, Map<String, CasFileState> aCasStates,
+            LinkCompareBehavior aLinkCompareBehavior)
+    {
+        // Look up the finished annotation documents first, so their CASes can be read at once
+        Map<String, AnnotationDocument> annotationDocuments = new LinkedHashMap<>();
+        for (User user : aUsers) {
+            if (aCasStates.get(user.getUsername()) != CasFileState.NOT_FINISHED) {
+                try {
+                    annotationDocuments.put(user.getUsername(),
+                            repository.getAnnotationDocument(aDocument, user));
+                }
+                catch (Exception e) {
+                    log.error("Unable to load annotations of user [{}] on document [{}]({})",
+                            user.getUsername(), aDocument.getName(), aDocument.getId(), e);
+                    aCasStates.put(user.getUsername(), CasFileState.NOT_FINISHED);
+                }
+            }
+        }
+        Iterator<JCas> cases = repository
+                .iterateAnnotationCases(new ArrayList<>(annotationDocuments.values()));
+        
+        Map<String, List<JCas>> casMap = new LinkedHashMap<>();
+        for (User user : aUsers) {
+            JCas jCas = null;
+
+            // Load the CAS if there is a finished one.
+            AnnotationDocument annotationDocument = annotationDocuments.get(user.getUsername());
+            if (annotationDocument != null) {
+                try {
+                    jCas = cases.next();
+                    repository.upgradeCas(jCas.getCas(), annotationDocument);
+                    // REC: I think there is no need to write the CASes here. We would not
+                    // want to interfere with currently active annotator users
+
+                    // Set the CAS name in the DocumentMetaData so that we can pick it
+                    // up in the Diff position for the purpose of debugging / transparency.
+                    DocumentMetaData documentMetadata = DocumentMetaData.get(jCas);
+                    documentMetadata.setDocumentId(aDocument.getName());
+                    documentMetadata.setCollectionId(aDocument.getProject().getName());
+                }
+                catch (Exception e) {
+                    log.error("Unable to load annotations of user [{}] on document [{}]({})",
+                            user.getUsername(), aDocument.getName(), aDocument.getId(), e);
+                    // Treat the CAS as not finished. Since the recorded state then differs
+                    // from the actual one, the diff is calculated again on the next request.
+                    aCasStates.put(user.getUsername(), CasFileState.NOT_FINISHED);
+                    jCas = null;
+                }
+            }
+
+            // A user who did not finish the document contributes a null CAS
+            casMap.put(user.getUsername(), asList(jCas));
+        }
+
+        List<DiffAdapter> adapters = CasDiff2.getAdapters(annotationService,
+                aDocument.getProject());
+        DiffResult diff = CasDiff2.doDiff(asList(aLayer.getName()), adapters,
+                aLinkCompareBehavior, casMap);
+
+        List<String> features = new ArrayList<>();
+        for (AnnotationFeature feature : annotationService.listAnnotationFeature(aLayer)) {
+            features.add(feature.getName());
+        }
+
+        return AgreementUtils.makeCompactDiff(diff, aLayer.getName(), features, casMap);
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    public int getEntryCount()
+    {
+        return diffs.size();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AgreementServiceImpl [entries=" + getEntryCount() + ", hits=" + getHits()
+                + ", misses=" + getMisses() + "]";
+    }
+
+    private static final class Key
+    {
+        private final long projectId;
+        private final long documentId;
+        private final String layer;
+        private final LinkCompareBehavior linkCompareBehavior;
+
+        public Key(long aProjectId, long aDocumentId, String aLayer,
+                LinkCompareBehavior aLinkCompareBehavior)
+        {
+            projectId = aProjectId;
+            documentId = aDocumentId;
+            layer = aLayer;
+            linkCompareBehavior = aLinkCompareBehavior;
+        }
+
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (!(aOther instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) aOther;
+            return projectId == other.projectId && documentId == other.documentId
+                    && layer.equals(other.layer)
+                    && linkCompareBehavior == other.linkCompareBehavior;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(projectId, documentId, layer, linkCompareBehavior);
+        }
+    }
+
+    private static final class CachedDiff
+    {
+        private final long schemaVersion;
+        private final Map<String, CasFileState> casStates;
+        private final CompactDiff diff;
+
+        public CachedDiff(long aSchemaVersion, Map<String, CasFileState> aCasStates,
+                CompactDiff aDiff)
+        {
+            schemaVersion = aSchemaVersion;
+            casStates = aCasStates;
+            diff = aDiff;
+        }
+    }
+
+    /**
+     * The state of a finished CAS file. The last-modified time alone is not sufficient because
+     * its resolution may be as coarse as one second. A full write replaces the file, so the file
+     * key (if supported by the file system) changes in that case, while appending a delta changes
+     * the size.
+     */
+    private static final class CasFileState
+    {
+        /**
+         * State recorded for users who have not finished a document.
+         */
+        private static final CasFileState NOT_FINISHED = new CasFileState(-1, -1, null);
+
+        private final long length;
+        private final long timestamp;
+        private final Object fileKey;
+
+        private CasFileState(long aLength, long aTimestamp, Object aFileKey)
+        {
+            length = aLength;
+            timestamp = aTimestamp;
+            fileKey = aFileKey;
+        }
+
+        public static CasFileState of(File aFile)
+        {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(aFile.toPath(),
+                        BasicFileAttributes.class);
+                return new CasFileState(attributes.size(),
+                        attributes.lastModifiedTime().toMillis(), attributes.fileKey());
+            }
+            catch (IOException e) {
+                // The file does not exist (yet) - compare like an empty file
+                return new CasFileState(0, 0, null);
+            }
+        }
+
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (!(aOther instanceof CasFileState)) {
+                return false;
+            }
+            CasFileState other = (CasFileState) aOther;
+            return length == other.length && timestamp == other.timestamp
+                    && Objects.equals(fileKey, other.fileKey);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(length, timestamp, fileKey);
+        }
+    }
+}
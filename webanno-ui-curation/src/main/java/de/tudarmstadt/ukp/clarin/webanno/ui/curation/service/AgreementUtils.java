@@ -30,17 +30,24 @@ import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.lang.ObjectUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.uima.cas.ArrayFS;
+import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
 import org.apache.uima.cas.TypeSystem;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.fit.util.CasUtil;
@@ -65,6 +72,12 @@ import de.tudarmstadt.ukp.dkpro.statistics.agreement.distance.NominalDistanceFun
 
 public class AgreementUtils
 {
+    /**
+     * Label of a relation whose source or target is stacked. Such relations cannot be used for
+     * agreement calculation.
+     */
+    static final Object STACKED = new Object();
+    
     public static enum AgreementReportExportFormat {
         CSV(".csv"),
         DEBUG(".txt");
@@ -143,6 +156,94 @@ public class AgreementUtils
         return result;
     }
 
+    /**
+     * Calculate the pairwise agreement between the given users on a set of compact diffs, e.g.
+     * one per document. No CASes are required for this.
+     */
+    public static PairwiseAnnotationResult getPairwiseAgreement(
+            ConcreteAgreementMeasure aMeasure, boolean aExcludeIncomplete,
+            List<CompactDiff> aDiffs, List<String> aUsers, String aType, String aFeature)
+    {
+        return getPairwiseAgreement(aMeasure, aExcludeIncomplete, aDiffs, aUsers, aType,
+                aFeature, null, null);
+    }
+
+    /**
+     * Calculate the pairwise agreement between the given users on a set of compact diffs, e.g.
+     * one per document. The agreement is symmetric, so each pair of users is calculated only
+     * once. Since compact diffs do not access the CASes, the pairs can be calculated in parallel.
+     * 
+     * @param aPool
+     *            the pool to calculate the pairs in or {@code null} to calculate them one after
+     *            another in the calling thread.
+     * @param aListener
+     *            a listener notified whenever the agreement for a pair has been calculated (may
+     *            be {@code null}). When using a pool, the listener is called from the worker
+     *            threads.
+     */
+    public static PairwiseAnnotationResult getPairwiseAgreement(
+            ConcreteAgreementMeasure aMeasure, boolean aExcludeIncomplete,
+            List<CompactDiff> aDiffs, List<String> aUsers, String aType, String aFeature,
+            ForkJoinPool aPool, PairwiseAgreementListener aListener)
+    {
+        // Triangle matrix - the agreement of (m, n) is the same as the one of (n, m)
+        List<String[]> pairs = new ArrayList<>();
+        for (int m = 0; m < aUsers.size(); m++) {
+            for (int n = 0; n < m; n++) {
+                pairs.add(new String[] { aUsers.get(m), aUsers.get(n) });
+            }
+        }
+        
+        PairwiseAnnotationResult result = new PairwiseAnnotationResult();
+        AtomicInteger done = new AtomicInteger();
+        Consumer<String[]> calculatePair = pair -> {
+            AgreementResult res = makeStudy(aDiffs, asList(pair), aType, aFeature,
+                    aExcludeIncomplete);
+            calculateAgreement(aMeasure, res);
+            result.add(pair[0], pair[1], res);
+            if (aListener != null) {
+                aListener.pairCalculated(pair[0], pair[1], res, done.incrementAndGet(),
+                        pairs.size());
+            }
+        };
+        
+        if (aPool == null) {
+            pairs.forEach(calculatePair);
+        }
+        else {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (String[] pair : pairs) {
+                tasks.add(aPool.submit(() -> calculatePair.accept(pair)));
+            }
+            // Rethrows any exception raised while calculating a pair
+            tasks.forEach(ForkJoinTask::join);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Notified as the pairwise agreement calculation progresses.
+     */
+    @FunctionalInterface
+    public interface PairwiseAgreementListener
+    {
+        /**
+         * @param aUser1
+         *            the first user of the pair.
+         * @param aUser2
+         *            the second user of the pair.
+         * @param aResult
+         *            the agreement between the two users.
+         * @param aDone
+         *            the number of pairs calculated so far.
+         * @param aTotal
+         *            the total number of pairs.
+         */
+        void pairCalculated(String aUser1, String aUser2, AgreementResult aResult, int aDone,
+                int aTotal);
+    }
+
     public static AgreementResult getCohenKappaAgreement(DiffResult aDiff, String aType,
             String aFeature, Map<String, List<JCas>> aCasMap)
     {
@@ -160,21 +261,26 @@ public class AgreementUtils
         
         AgreementResult agreementResult = AgreementUtils.makeStudy(aDiff, aType, aFeature,
                 aExcludeIncomplete, aCasMap);
+        calculateAgreement(aMeasure, agreementResult);
+        return agreementResult;
+    }
+    
+    private static void calculateAgreement(ConcreteAgreementMeasure aMeasure,
+            AgreementResult aAgreementResult)
+    {
         try {
-            IAgreementMeasure agreement = aMeasure.make(agreementResult.study);
+            IAgreementMeasure agreement = aMeasure.make(aAgreementResult.study);
             
-            if (agreementResult.study.getItemCount() > 0) {
-                agreementResult.setAgreement(agreement.calculateAgreement());
+            if (aAgreementResult.study.getItemCount() > 0) {
+                aAgreementResult.setAgreement(agreement.calculateAgreement());
             }
             else {
-                agreementResult.setAgreement(Double.NaN);
+                aAgreementResult.setAgreement(Double.NaN);
             }
-            return agreementResult;
-            
         }
         catch (RuntimeException e) {
             // FIXME
-            AgreementUtils.dumpAgreementStudy(System.out, agreementResult);
+            AgreementUtils.dumpAgreementStudy(System.out, aAgreementResult);
             throw e;
         }
     }
@@ -186,6 +292,87 @@ public class AgreementUtils
                 aCasMap);
     }
     
+    /**
+     * Build the agreement study for the given users from a set of compact diffs, e.g. one per
+     * document. The configuration sets of all diffs are added to the study in the given order.
+     */
+    public static AgreementResult makeStudy(List<CompactDiff> aDiffs, Collection<String> aUsers,
+            String aType, String aFeature, boolean aExcludeIncomplete)
+    {
+        StudyBuilder builder = new StudyBuilder(aUsers, aType, aFeature, aExcludeIncomplete,
+                true);
+        
+        for (CompactDiff diff : aDiffs) {
+            Boolean isPrimitiveFeature = diff.isPrimitiveFeature(aFeature);
+            if (isPrimitiveFeature == null) {
+                // The feature was unknown when the diff was compacted, e.g. because there was no
+                // CAS - all positions are irrelevant
+                builder.addIrrelevant(diff.getDiff());
+            }
+            else {
+                builder.add(diff.getDiff(), isPrimitiveFeature,
+                    (cfgSet, cfg, user) -> diff.getLabel(aFeature, cfgSet, user));
+            }
+        }
+        
+        return builder.build(aDiffs.size() == 1 ? aDiffs.get(0).getDiff() : null);
+    }
+    
+    /**
+     * Extract the labels of the given features from the CASes such that agreement can later be
+     * calculated on the diff without the CASes. Afterwards, the diff is detached from its CASes
+     * (cf. {@link DiffResult#detach()}).
+     */
+    public static CompactDiff makeCompactDiff(DiffResult aDiff, String aType,
+            Collection<String> aFeatures, Map<String, List<JCas>> aCasMap)
+    {
+        Map<String, Boolean> primitiveFeatures = new HashMap<>();
+        Map<String, Map<ConfigurationSet, Map<String, Object>>> labels = new HashMap<>();
+        
+        JCas someCas = findSomeCas(aCasMap);
+        Type type = someCas != null ? someCas.getTypeSystem().getType(aType) : null;
+        if (type != null) {
+            for (String feature : aFeatures) {
+                Feature f = type.getFeatureByBaseName(feature);
+                if (f == null) {
+                    continue;
+                }
+                
+                boolean isPrimitiveFeature = f.getRange().isPrimitive();
+                primitiveFeatures.put(feature, isPrimitiveFeature);
+                
+                Map<ConfigurationSet, Map<String, Object>> featureLabels = new HashMap<>();
+                for (ConfigurationSet cfgSet : aDiff.getConfigurationSets()) {
+                    Position p = cfgSet.getPosition();
+                    
+                    // Only primitive features on primary positions and link features on their
+                    // own sub-positions are relevant, cf. StudyBuilder.add()
+                    if (!p.getType().equals(aType)
+                            || (isPrimitiveFeature && p.getFeature() != null)
+                            || (!isPrimitiveFeature && !feature.equals(p.getFeature()))) {
+                        continue;
+                    }
+                    
+                    Map<String, Object> setLabels = new HashMap<>();
+                    for (String user : cfgSet.getCasGroupIds()) {
+                        List<Configuration> cfgs = cfgSet.getConfigurations(user);
+                        // Stacked annotations are not used for agreement anyway
+                        if (cfgs.size() == 1) {
+                            setLabels.put(user, getLabel(aDiff, cfgs.get(0), user, feature,
+                                    isPrimitiveFeature, aCasMap));
+                        }
+                    }
+                    featureLabels.put(cfgSet, setLabels);
+                }
+                labels.put(feature, featureLabels);
+            }
+        }
+        
+        aDiff.detach();
+        
+        return new CompactDiff(aDiff, primitiveFeatures, labels);
+    }
+    
     private static JCas findSomeCas(Map<String, List<JCas>> aCasMap)
     {
         for (List<JCas> l : aCasMap.values()) {
@@ -205,16 +392,8 @@ public class AgreementUtils
             String aType, String aFeature, boolean aExcludeIncomplete, boolean aNullLabelsAsEmpty,
             Map<String, List<JCas>> aCasMap)
     {
-        List<String> users = new ArrayList<>(aUsers);
-        Collections.sort(users);
-        
-        List<ConfigurationSet> completeSets = new ArrayList<>();
-        List<ConfigurationSet> setsWithDifferences = new ArrayList<>();
-        List<ConfigurationSet> incompleteSetsByPosition = new ArrayList<>();
-        List<ConfigurationSet> incompleteSetsByLabel = new ArrayList<>();
-        List<ConfigurationSet> pluralitySets = new ArrayList<>();
-        List<ConfigurationSet> irrelevantSets = new ArrayList<>();
-        CodingAnnotationStudy study = new CodingAnnotationStudy(users.size());
+        StudyBuilder builder = new StudyBuilder(aUsers, aType, aFeature, aExcludeIncomplete,
+                aNullLabelsAsEmpty);
         
         // Check if the feature we are looking at is a primitive feature or a link feature
         // We do this by looking it up in the first available CAS. Mind that at this point all
@@ -223,11 +402,8 @@ public class AgreementUtils
         if (someCas == null) {
             // Well... there is NOTHING here!
             // All positions are irrelevant
-            aDiff.getPositions().forEach(p -> irrelevantSets.add(aDiff.getConfigurtionSet(p)));
-            
-            return new AgreementResult(aType, aFeature, aDiff, study, users, completeSets,
-                    irrelevantSets, setsWithDifferences, incompleteSetsByPosition,
-                    incompleteSetsByLabel, pluralitySets, aExcludeIncomplete);
+            builder.addIrrelevant(aDiff);
+            return builder.build(aDiff);
         }
         TypeSystem ts = someCas.getTypeSystem();
         
@@ -235,11 +411,8 @@ public class AgreementUtils
         // We should just do the right thing here which is: do nothing
         if (ts.getType(aType) == null) {
             // All positions are irrelevant
-            aDiff.getPositions().forEach(p -> irrelevantSets.add(aDiff.getConfigurtionSet(p)));
-            
-            return new AgreementResult(aType, aFeature, aDiff, study, users, completeSets,
-                    irrelevantSets, setsWithDifferences, incompleteSetsByPosition,
-                    incompleteSetsByLabel, pluralitySets, aExcludeIncomplete);
+            builder.addIrrelevant(aDiff);
+            return builder.build(aDiff);
         }
         
         // Check that the feature really exists instead of just getting a NPE later
@@ -251,179 +424,255 @@ public class AgreementUtils
         boolean isPrimitiveFeature = ts.getType(aType).getFeatureByBaseName(aFeature).getRange()
                 .isPrimitive();
         
-        nextPosition: for (Position p : aDiff.getPositions()) {
-            ConfigurationSet cfgSet = aDiff.getConfigurtionSet(p);
-
-            // Only calculate agreement for the given layer
-            if (!cfgSet.getPosition().getType().equals(aType)) {
-                // We don't even consider these as irrelevant, they are just filtered out
-                continue;
-            }
+        builder.add(aDiff, isPrimitiveFeature, (cfgSet, cfg, user) -> getLabel(aDiff, cfg, user,
+                aFeature, isPrimitiveFeature, aCasMap));
+        
+        return builder.build(aDiff);
+    }
+    
+    /**
+     * Get the label of the given user at the given configuration from the CAS.
+     * 
+     * @return the label or {@link #STACKED} if the source or target of a relation are stacked.
+     */
+    private static Object getLabel(DiffResult aDiff, Configuration aCfg, String aUser,
+            String aFeature, boolean aIsPrimitiveFeature, Map<String, List<JCas>> aCasMap)
+    {
+        boolean isSubPosition = aCfg.getPosition().getFeature() != null;
+        
+        // Check if source and/or targets of a relation are stacked
+        if (aCfg.getPosition() instanceof ArcPosition) {
+            ArcPosition pos = (ArcPosition) aCfg.getPosition();
+            FeatureStructure arc = aCfg.getFs(aUser, pos.getCasId(), aCasMap);
 
-            // If the feature on a position is set, then it is a subposition
-            boolean isSubPosition = p.getFeature() != null;
+            ArcDiffAdapter adapter = (ArcDiffAdapter) aDiff.getDiffAdapter(pos.getType());
 
-            // Check if this position is irrelevant:
-            // - if we are looking for a primitive type and encounter a subposition
-            // - if we are looking for a non-primitive type and encounter a primary position
-            // this is an inverted XOR!
-            if (!(isPrimitiveFeature ^ isSubPosition)) {
-                irrelevantSets.add(cfgSet);
-                continue;
+            // Check if the source of the relation is stacked
+            AnnotationFS source = FSUtil.getFeature(arc, adapter.getSourceFeature(),
+                    AnnotationFS.class);
+            List<AnnotationFS> sourceCandidates = CasUtil.selectAt(arc.getCAS(),
+                    source.getType(), source.getBegin(), source.getEnd());
+            if (sourceCandidates.size() > 1) {
+                return STACKED;
             }
             
-            // Check if subposition is for the feature we are looking for or for a different 
-            // feature
-            if (isSubPosition && !aFeature.equals(cfgSet.getPosition().getFeature())) {
-                irrelevantSets.add(cfgSet);
-                continue nextPosition;
+            // Check if the target of the relation is stacked
+            AnnotationFS target = FSUtil.getFeature(arc, adapter.getTargetFeature(),
+                    AnnotationFS.class);
+            List<AnnotationFS> targetCandidates = CasUtil.selectAt(arc.getCAS(),
+                    target.getType(), target.getBegin(), target.getEnd());
+            if (targetCandidates.size() > 1) {
+                return STACKED;
             }
+        }
+        
+        // Only calculate agreement for the given feature
+        FeatureStructure fs = aCfg.getFs(aUser, aCfg.getPosition().getCasId(), aCasMap);
+
+        // BEGIN PARANOIA
+        assert fs.getType().getFeatureByBaseName(aFeature).getRange()
+                .isPrimitive() == aIsPrimitiveFeature;
+        // primitive implies not subposition - if this is primitive and subposition, we
+        // should never have gotten here in the first place.
+        assert !aIsPrimitiveFeature || !isSubPosition; 
+        // END PARANOIA
+        
+        if (aIsPrimitiveFeature && !isSubPosition) {
+            // Primitive feature / primary position
+            return getFeature(fs, aFeature);
+        }
+        else if (!aIsPrimitiveFeature && isSubPosition) {
+            // Link feature / sub-position
+            ArrayFS links = (ArrayFS) fs.getFeatureValue(fs.getType().getFeatureByBaseName(
+                    aFeature));
+            FeatureStructure link = links.get(aCfg.getAID(aUser).index);
             
-            // If non of the current users has made any annotation at this position, then skip it
-            if (users.stream().filter(u -> cfgSet.getCasGroupIds().contains(u)).count() == 0) {
-                irrelevantSets.add(cfgSet);
-                continue nextPosition;
+            switch (aCfg.getPosition().getLinkCompareBehavior()) {
+            case LINK_TARGET_AS_LABEL:
+                // FIXME The target feature name should be obtained from the feature definition!
+                AnnotationFS target = (AnnotationFS) link.getFeatureValue(link.getType()
+                        .getFeatureByBaseName("target"));
+                
+                return target.getBegin() + "-" + target.getEnd() + " ["
+                        + target.getCoveredText() + "]";
+            case LINK_ROLE_AS_LABEL:
+                // FIXME The role feature name should be obtained from the feature definition!
+                return link.getStringValue(link.getType().getFeatureByBaseName("role"));
+            default:
+                throw new IllegalStateException("Unknown link target comparison mode ["
+                        + aCfg.getPosition().getLinkCompareBehavior() + "]");
             }
+        }
+        else {
+            throw new IllegalStateException("Should never get here: primitive: "
+                    + fs.getType().getFeatureByBaseName(aFeature).getRange()
+                            .isPrimitive() + "; subpos: " + isSubPosition);
+        }
+    }
+    
+    /**
+     * Source for the labels which the users assigned at a configuration set.
+     */
+    @FunctionalInterface
+    private interface LabelSource
+    {
+        Object getLabel(ConfigurationSet aCfgSet, Configuration aCfg, String aUser);
+    }
+    
+    /**
+     * Collects the configuration sets of one or more diffs into an agreement study.
+     */
+    private static class StudyBuilder
+    {
+        private final List<String> users;
+        private final String type;
+        private final String feature;
+        private final boolean excludeIncomplete;
+        private final boolean nullLabelsAsEmpty;
+        
+        private final List<ConfigurationSet> completeSets = new ArrayList<>();
+        private final List<ConfigurationSet> setsWithDifferences = new ArrayList<>();
+        private final List<ConfigurationSet> incompleteSetsByPosition = new ArrayList<>();
+        private final List<ConfigurationSet> incompleteSetsByLabel = new ArrayList<>();
+        private final List<ConfigurationSet> pluralitySets = new ArrayList<>();
+        private final List<ConfigurationSet> irrelevantSets = new ArrayList<>();
+        private final CodingAnnotationStudy study;
+        private int totalSetCount = 0;
+        
+        public StudyBuilder(Collection<String> aUsers, String aType, String aFeature,
+                boolean aExcludeIncomplete, boolean aNullLabelsAsEmpty)
+        {
+            users = new ArrayList<>(aUsers);
+            Collections.sort(users);
+            type = aType;
+            feature = aFeature;
+            excludeIncomplete = aExcludeIncomplete;
+            nullLabelsAsEmpty = aNullLabelsAsEmpty;
+            study = new CodingAnnotationStudy(users.size());
+        }
+        
+        public void addIrrelevant(DiffResult aDiff)
+        {
+            aDiff.getPositions().forEach(p -> irrelevantSets.add(aDiff.getConfigurtionSet(p)));
+            totalSetCount += aDiff.getPositions().size();
+        }
+        
+        public void add(DiffResult aDiff, boolean aIsPrimitiveFeature, LabelSource aLabels)
+        {
+            totalSetCount += aDiff.getPositions().size();
             
-            Object[] values = new Object[users.size()];
-            int i = 0;
-            for (String user : users) {
-                // Set has to include all users, otherwise we cannot calculate the agreement for
-                // this configuration set.
-                if (!cfgSet.getCasGroupIds().contains(user)) {
-                    incompleteSetsByPosition.add(cfgSet);
-                    if (aExcludeIncomplete) {
-                        // Record as incomplete
-                        continue nextPosition;
-                    }
-                    else {
-                        // Record as missing value
-                        values[i] = null;
-                        i++;
-                        continue;
-                    }
+            nextPosition: for (Position p : aDiff.getPositions()) {
+                ConfigurationSet cfgSet = aDiff.getConfigurtionSet(p);
+    
+                // Only calculate agreement for the given layer
+                if (!cfgSet.getPosition().getType().equals(type)) {
+                    // We don't even consider these as irrelevant, they are just filtered out
+                    continue;
+                }
+    
+                // If the feature on a position is set, then it is a subposition
+                boolean isSubPosition = p.getFeature() != null;
+    
+                // Check if this position is irrelevant:
+                // - if we are looking for a primitive type and encounter a subposition
+                // - if we are looking for a non-primitive type and encounter a primary position
+                // this is an inverted XOR!
+                if (!(aIsPrimitiveFeature ^ isSubPosition)) {
+                    irrelevantSets.add(cfgSet);
+                    continue;
                 }
                 
-                // Make sure a single user didn't do multiple alternative annotations at a single
-                // position. So there is currently no support for calculating agreement on stacking
-                // annotations.
-                List<Configuration> cfgs = cfgSet.getConfigurations(user);
-                if (cfgs.size() > 1) {
-                    pluralitySets.add(cfgSet);
+                // Check if subposition is for the feature we are looking for or for a different 
+                // feature
+                if (isSubPosition && !feature.equals(cfgSet.getPosition().getFeature())) {
+                    irrelevantSets.add(cfgSet);
                     continue nextPosition;
                 }
                 
-                Configuration cfg = cfgs.get(0);
+                // If non of the current users has made any annotation at this position, then
+                // skip it
+                if (users.stream().filter(u -> cfgSet.getCasGroupIds().contains(u))
+                        .count() == 0) {
+                    irrelevantSets.add(cfgSet);
+                    continue nextPosition;
+                }
                 
-                // Check if source and/or targets of a relation are stacked
-                if (cfg.getPosition() instanceof ArcPosition) {
-                    ArcPosition pos = (ArcPosition) cfg.getPosition();
-                    FeatureStructure arc = cfg.getFs(user, pos.getCasId(), aCasMap);
-
-                    ArcDiffAdapter adapter = (ArcDiffAdapter) aDiff.getDiffAdapter(pos.getType());
-
-                    // Check if the source of the relation is stacked
-                    AnnotationFS source = FSUtil.getFeature(arc, adapter.getSourceFeature(),
-                            AnnotationFS.class);
-                    List<AnnotationFS> sourceCandidates = CasUtil.selectAt(arc.getCAS(),
-                            source.getType(), source.getBegin(), source.getEnd());
-                    if (sourceCandidates.size() > 1) {
+                Object[] values = new Object[users.size()];
+                int i = 0;
+                for (String user : users) {
+                    // Set has to include all users, otherwise we cannot calculate the agreement
+                    // for this configuration set.
+                    if (!cfgSet.getCasGroupIds().contains(user)) {
+                        incompleteSetsByPosition.add(cfgSet);
+                        if (excludeIncomplete) {
+                            // Record as incomplete
+                            continue nextPosition;
+                        }
+                        else {
+                            // Record as missing value
+                            values[i] = null;
+                            i++;
+                            continue;
+                        }
+                    }
+                    
+                    // Make sure a single user didn't do multiple alternative annotations at a
+                    // single position. So there is currently no support for calculating
+                    // agreement on stacking annotations.
+                    List<Configuration> cfgs = cfgSet.getConfigurations(user);
+                    if (cfgs.size() > 1) {
                         pluralitySets.add(cfgSet);
                         continue nextPosition;
                     }
                     
-                    // Check if the target of the relation is stacked
-                    AnnotationFS target = FSUtil.getFeature(arc, adapter.getTargetFeature(),
-                            AnnotationFS.class);
-                    List<AnnotationFS> targetCandidates = CasUtil.selectAt(arc.getCAS(),
-                            target.getType(), target.getBegin(), target.getEnd());
-                    if (targetCandidates.size() > 1) {
+                    Object label = aLabels.getLabel(cfgSet, cfgs.get(0), user);
+                    
+                    // Source and/or target of a relation are stacked
+                    if (label == STACKED) {
                         pluralitySets.add(cfgSet);
                         continue nextPosition;
                     }
-                }
-                
-                // Only calculate agreement for the given feature
-                FeatureStructure fs = cfg.getFs(user, cfg.getPosition().getCasId(), aCasMap);
-
-                // BEGIN PARANOIA
-                assert fs.getType().getFeatureByBaseName(aFeature).getRange()
-                        .isPrimitive() == isPrimitiveFeature;
-                // primitive implies not subposition - if this is primitive and subposition, we
-                // should never have gotten here in the first place.
-                assert !isPrimitiveFeature || !isSubPosition; 
-                // END PARANOIA
-                
-                if (isPrimitiveFeature && !isSubPosition) {
-                    // Primitive feature / primary position
-                    values[i] = getFeature(fs, aFeature);
-                }
-                else if (!isPrimitiveFeature && isSubPosition) {
-                    // Link feature / sub-position
-                    ArrayFS links = (ArrayFS) fs.getFeatureValue(fs.getType().getFeatureByBaseName(
-                            aFeature));
-                    FeatureStructure link = links.get(cfg.getAID(user).index);
                     
-                    switch (cfg.getPosition().getLinkCompareBehavior()) {
-                    case LINK_TARGET_AS_LABEL:
-                        // FIXME The target feature name should be obtained from the feature definition!
-                        AnnotationFS target = (AnnotationFS) link.getFeatureValue(link.getType()
-                                .getFeatureByBaseName("target"));
-                        
-                        values[i] = target.getBegin() + "-" + target.getEnd() + " ["
-                                + target.getCoveredText() + "]";
-                        break;
-                    case LINK_ROLE_AS_LABEL:
-                        // FIXME The role feature name should be obtained from the feature definition!
-                        String role = link.getStringValue(link.getType().getFeatureByBaseName(
-                                "role"));
-                        
-                        values[i] = role;
-                        break;
-                    default:
-                        throw new IllegalStateException("Unknown link target comparison mode ["
-                                + cfg.getPosition().getLinkCompareBehavior() + "]");
+                    values[i] = label;
+    
+                    // Consider empty/null feature values to be the same and do not exclude them
+                    // from agreement calculation. The empty label is still a valid label.
+                    if (nullLabelsAsEmpty && values[i] == null) {
+                        values[i] = "";
+                    }
+                    
+                    // "null" cannot be used in agreement calculations. We treat these as
+                    // incomplete
+                    if (values[i] == null) {
+                        incompleteSetsByLabel.add(cfgSet);
+                        if (excludeIncomplete) {
+                            continue nextPosition;
+                        }
                     }
+    
+                    i++;
                 }
-                else {
-                    throw new IllegalStateException("Should never get here: primitive: "
-                            + fs.getType().getFeatureByBaseName(aFeature).getRange()
-                                    .isPrimitive() + "; subpos: " + isSubPosition);
-                }
-
-                // Consider empty/null feature values to be the same and do not exclude them from
-                // agreement calculation. The empty label is still a valid label.
-                if (aNullLabelsAsEmpty && values[i] == null) {
-                    values[i] = "";
+    
+                if (ObjectUtils.notEqual(values[0], values[1])) {
+                    setsWithDifferences.add(cfgSet);
                 }
                 
-                // "null" cannot be used in agreement calculations. We treat these as incomplete
-                if (values[i] == null) {
-                    incompleteSetsByLabel.add(cfgSet);
-                    if (aExcludeIncomplete) {
-                        continue nextPosition;
-                    }
-                }
-
-                i++;
-            }
-
-            if (ObjectUtils.notEqual(values[0], values[1])) {
-                setsWithDifferences.add(cfgSet);
+                // If the position feature is set (subposition), then it must match the feature we
+                // are calculating agreement over
+                assert !(cfgSet.getPosition().getFeature() != null)
+                        || cfgSet.getPosition().getFeature().equals(feature);
+                
+                completeSets.add(cfgSet);
+                study.addItemAsArray(values);
             }
-            
-            // If the position feature is set (subposition), then it must match the feature we
-            // are calculating agreement over
-            assert !(cfgSet.getPosition().getFeature() != null)
-                    || cfgSet.getPosition().getFeature().equals(aFeature);
-            
-            completeSets.add(cfgSet);
-            study.addItemAsArray(values);
         }
         
-        return new AgreementResult(aType, aFeature, aDiff, study, users, completeSets,
-                irrelevantSets, setsWithDifferences, incompleteSetsByPosition,
-                incompleteSetsByLabel, pluralitySets, aExcludeIncomplete);
+        public AgreementResult build(DiffResult aDiff)
+        {
+            return new AgreementResult(type, feature, aDiff, totalSetCount, study, users,
+                    completeSets, irrelevantSets, setsWithDifferences, incompleteSetsByPosition,
+                    incompleteSetsByLabel, pluralitySets, excludeIncomplete);
+        }
     }
     
     public static void toCSV(CSVPrinter aOut, AgreementResult aAgreement) throws IOException
@@ -584,6 +833,7 @@ public class AgreementUtils
         private final String type;
         private final String feature;
         private final DiffResult diff;
+        private final int totalSetCount;
         private final ICodingAnnotationStudy study;
         private final List<ConfigurationSet> setsWithDifferences;
         private final List<ConfigurationSet> completeSets;
@@ -600,6 +850,7 @@ public class AgreementUtils
             type = aType;
             feature = aFeature;
             diff = null;
+            totalSetCount = 0;
             study = null;
             setsWithDifferences = null;
             completeSets = null;
@@ -619,10 +870,33 @@ public class AgreementUtils
                 List<ConfigurationSet> aIncompleteByLabel,
                 List<ConfigurationSet> aPluralitySets,
                 boolean aExcludeIncomplete)
+        {
+            this(aType, aFeature, aDiff, aDiff.getPositions().size(), aStudy, aCasGroupIds,
+                    aComplete, aIrrelevantSets, aSetsWithDifferences, aIncompleteByPosition,
+                    aIncompleteByLabel, aPluralitySets, aExcludeIncomplete);
+        }
+
+        /**
+         * @param aDiff
+         *            the diff the study was built from or {@code null} if it was built from
+         *            multiple diffs.
+         * @param aTotalSetCount
+         *            the number of configuration sets in the diff(s).
+         */
+        public AgreementResult(String aType, String aFeature, DiffResult aDiff,
+                int aTotalSetCount, ICodingAnnotationStudy aStudy, List<String> aCasGroupIds,
+                List<ConfigurationSet> aComplete,
+                List<ConfigurationSet> aIrrelevantSets,
+                List<ConfigurationSet> aSetsWithDifferences,
+                List<ConfigurationSet> aIncompleteByPosition,
+                List<ConfigurationSet> aIncompleteByLabel,
+                List<ConfigurationSet> aPluralitySets,
+                boolean aExcludeIncomplete)
         {
             type = aType;
             feature = aFeature;
             diff = aDiff;
+            totalSetCount = aTotalSetCount;
             study = aStudy;
             setsWithDifferences = aSetsWithDifferences;
             completeSets = Collections.unmodifiableList(new ArrayList<>(aComplete));
@@ -725,12 +999,12 @@ public class AgreementUtils
 
         public int getTotalSetCount()
         {
-            return diff.getPositions().size();
+            return totalSetCount;
         }
         
         public int getRelevantSetCount()
         {
-            return diff.getPositions().size() - irrelevantSets.size();
+            return totalSetCount - irrelevantSets.size();
         }
         
         public double getAgreement()
@@ -743,6 +1017,10 @@ public class AgreementUtils
             return study;
         }
         
+        /**
+         * @return the diff the study was built from or {@code null} if it was built from
+         *         multiple diffs.
+         */
         public DiffResult getDiff()
         {
             return diff;
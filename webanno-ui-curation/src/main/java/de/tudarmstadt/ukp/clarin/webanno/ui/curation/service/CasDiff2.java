@@ -28,7 +28,10 @@ import static org.apache.uima.fit.util.CasUtil.select;
 import static org.apache.uima.fit.util.CasUtil.selectCovered;
 
 import java.io.PrintStream;
+import java.lang.ref.WeakReference;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -40,7 +43,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.function.BiFunction;
 
 import org.apache.commons.lang.ObjectUtils;
 import org.apache.commons.lang.StringUtils;
@@ -76,9 +79,9 @@ public class CasDiff2
     
     private Map<String, List<CAS>> cases = new LinkedHashMap<>();
     
-    private final Map<Position, ConfigurationSet> configSets = new TreeMap<>();
+    private Map<Position, ConfigurationSet> configSets = new HashMap<>();
 
-    private final Map<String, String[]> sortedFeaturesCache = new HashMap<>();
+    private final Map<String, String[]> labelFeaturesCache = new HashMap<>();
 
     private int begin;
     
@@ -247,6 +250,46 @@ public class CasDiff2
         return new DiffResult(diff);
     }
     
+    /**
+     * Calculate the differences between CASes on annotations which have already been selected from
+     * the CASes, e.g. by {@link SegmentedDiff}.
+     * 
+     * @param aEntryTypes
+     *            the types for which differences are to be calculated.
+     * @param aAdapters
+     *            a set of diff adapters telling how the diff algorithm should handle different
+     *            features
+     * @param aLinkCompareBehavior
+     *            the link comparison mode.
+     * @param aCasMap
+     *            a set of CASes, each associated with an ID
+     * @param aBegin
+     *            begin of the span for which differences should be calculated.
+     * @param aEnd
+     *            end of the span for which differences should be calculated.
+     * @param aAnnotations
+     *            provides the annotations of a given type in the CAS with the given ID.
+     * @return a diff result.
+     */
+    static DiffResult doDiff(List<String> aEntryTypes,
+            Collection<? extends DiffAdapter> aAdapters, LinkCompareBehavior aLinkCompareBehavior,
+            Map<String, JCas> aCasMap, int aBegin, int aEnd,
+            BiFunction<String, String, Collection<AnnotationFS>> aAnnotations)
+    {
+        CasDiff2 diff = new CasDiff2(aBegin, aEnd, aAdapters, aLinkCompareBehavior);
+        
+        for (Entry<String, JCas> e : aCasMap.entrySet()) {
+            JCas jcas = e.getValue();
+            for (String type : aEntryTypes) {
+                // null elements in the map can occur if a user has never worked on a CAS
+                diff.addAnnotations(e.getKey(), 0, jcas != null ? jcas.getCas() : null, type,
+                        jcas != null ? aAnnotations.apply(e.getKey(), type) : null);
+            }
+        }
+        
+        return new DiffResult(diff);
+    }
+    
     /**
      * Sanity check - all CASes should have the same text.
      */
@@ -303,6 +346,27 @@ public class CasDiff2
      *            the type on which to calculate the diff.
      */
     private void addCas(String aCasGroupId, int aCasId, CAS aCas, String aType)
+    {
+        Collection<AnnotationFS> annotations = null;
+        if (aCas != null) {
+            if (begin == -1 && end == -1) {
+                annotations = select(aCas, getType(aCas, aType));
+            }
+            else {
+                annotations = selectCovered(aCas, getType(aCas, aType), begin, end);
+            }
+        }
+        
+        addAnnotations(aCasGroupId, aCasId, aCas, aType, annotations);
+    }
+    
+    /**
+     * Add the given annotations of a CAS to the diff.
+     * 
+     * @see #addCas(String, int, CAS, String)
+     */
+    private void addAnnotations(String aCasGroupId, int aCasId, CAS aCas, String aType,
+            Collection<AnnotationFS> aAnnotations)
     {
         // Remember that we have already seen this CAS.
         List<CAS> casList = cases.get(aCasGroupId);
@@ -348,14 +412,7 @@ public class CasDiff2
             }
         }
         
-        Collection<AnnotationFS> annotations;
-        if (begin == -1 && end == -1) {
-            annotations = select(aCas, getType(aCas, aType));
-        }
-        else {
-            annotations = selectCovered(aCas, getType(aCas, aType), begin, end);
-        }
-        
+        Collection<AnnotationFS> annotations = aAnnotations;
         if (annotations.isEmpty()) {
             log.debug("CAS group [" + aCasGroupId + "] CAS [" + aCasId
                     + "] contains no annotations of type [" + aType + "]");
@@ -369,32 +426,14 @@ public class CasDiff2
         int posBefore = configSets.keySet().size();
         log.debug("Positions before: [" + posBefore + "]");
 
+        DiffAdapter adapter = getAdapter(aType);
         for (AnnotationFS fs : annotations) {
-            List<Position> positions = new ArrayList<>();
-            
             // Get/create configuration set at the current position
-            positions.add(getAdapter(aType).getPosition(aCasId, fs));
+            addConfiguration(aCasGroupId, adapter.getPosition(aCasId, fs), fs);
             
             // Generate secondary positions for multi-link features
-            positions.addAll(getAdapter(aType).generateSubPositions(aCasId, fs, linkCompareBehavior));
-
-            for (Position pos : positions) {
-                ConfigurationSet configSet = configSets.get(pos);
-                if (configSet == null) {
-                    configSet = new ConfigurationSet(pos);
-                    configSets.put(pos, configSet);
-                }
-                
-    //          REC: appears to be left-over debug code that can be removed...  
-    //            if (pos.getClass() != configSet.position.getClass()) {
-    //                pos.compareTo(configSet.position);
-    //            }
-                
-                assert pos.getClass() == configSet.position.getClass() : "Position type mismatch ["
-                        + pos.getClass() + "] vs [" + configSet.position.getClass() + "]";
-    
-                // Merge FS into current set
-                configSet.addConfiguration(aCasGroupId, fs);
+            for (Position pos : adapter.generateSubPositions(aCasId, fs, linkCompareBehavior)) {
+                addConfiguration(aCasGroupId, pos, fs);
             }
         }
 
@@ -406,6 +445,21 @@ public class CasDiff2
 //        entryTypes.add(aType);
     }
     
+    private void addConfiguration(String aCasGroupId, Position aPosition, AnnotationFS aFS)
+    {
+        ConfigurationSet configSet = configSets.get(aPosition);
+        if (configSet == null) {
+            configSet = new ConfigurationSet(aPosition);
+            configSets.put(aPosition, configSet);
+        }
+        
+        assert aPosition.getClass() == configSet.position.getClass() : "Position type mismatch ["
+                + aPosition.getClass() + "] vs [" + configSet.position.getClass() + "]";
+
+        // Merge FS into current set
+        configSet.addConfiguration(aCasGroupId, aFS);
+    }
+    
     public static enum LinkCompareBehavior
     {
         /**
@@ -482,10 +536,22 @@ public class CasDiff2
         
         private final String collectionId;
         private final String documentId;
+        
+        // Texts not given explicitly are only extracted from the document text when needed
+        private final String documentText;
 
         public Position_ImplBase(String aCollectionId, String aDocumentId, int aCasId,
                 String aType, String aFeature, String aRole, int aLinkTargetBegin,
                 int aLinkTargetEnd, String aLinkTargetText, LinkCompareBehavior aBehavior)
+        {
+            this(aCollectionId, aDocumentId, aCasId, aType, aFeature, aRole, aLinkTargetBegin,
+                    aLinkTargetEnd, aLinkTargetText, aBehavior, null);
+        }
+        
+        Position_ImplBase(String aCollectionId, String aDocumentId, int aCasId,
+                String aType, String aFeature, String aRole, int aLinkTargetBegin,
+                int aLinkTargetEnd, String aLinkTargetText, LinkCompareBehavior aBehavior,
+                String aDocumentText)
         {
             type = aType;
             casId = aCasId;
@@ -500,6 +566,16 @@ public class CasDiff2
 
             collectionId = aCollectionId;
             documentId = aDocumentId;
+            documentText = aDocumentText;
+        }
+        
+        protected String getText(String aText, int aBegin, int aEnd)
+        {
+            if (aText != null || documentText == null || aBegin < 0) {
+                return aText;
+            }
+            
+            return documentText.substring(aBegin, aEnd);
         }
 
         @Override
@@ -540,7 +616,7 @@ public class CasDiff2
         
         public String getLinkTargetText()
         {
-            return linkTargetText;
+            return getText(linkTargetText, linkTargetBegin, linkTargetEnd);
         }
         
         @Override
@@ -567,14 +643,19 @@ public class CasDiff2
                 return casId - aOther.getCasId();
             }
             
-            int typeCmp = type.compareTo(aOther.getType());
-            if (typeCmp != 0) {
-                return typeCmp;
+            // Type and feature names are usually the very same string instances
+            if (type != aOther.getType()) {
+                int typeCmp = type.compareTo(aOther.getType());
+                if (typeCmp != 0) {
+                    return typeCmp;
+                }
             }
 
-            int featureCmp = ObjectUtils.compare(feature, aOther.getFeature());
-            if (featureCmp != 0) {
-                return featureCmp;
+            if (feature != aOther.getFeature()) {
+                int featureCmp = ObjectUtils.compare(feature, aOther.getFeature());
+                if (featureCmp != 0) {
+                    return featureCmp;
+                }
             }
 
             int linkCmpCmp = ObjectUtils.compare(linkCompareBehavior, aOther.getLinkCompareBehavior());
@@ -610,6 +691,47 @@ public class CasDiff2
             }
         }
         
+        /**
+         * Positions are equal if they {@link #compareTo compare} as equal.
+         */
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (this == aOther) {
+                return true;
+            }
+            
+            if (aOther == null || getClass() != aOther.getClass()) {
+                return false;
+            }
+            
+            return compareTo((Position) aOther) == 0;
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            int hash = casId;
+            hash = 31 * hash + type.hashCode();
+            hash = 31 * hash + (feature != null ? feature.hashCode() : 0);
+            if (linkCompareBehavior != null) {
+                hash = 31 * hash + linkCompareBehavior.ordinal();
+                switch (linkCompareBehavior) {
+                case LINK_TARGET_AS_LABEL:
+                    hash = 31 * hash + (role != null ? role.hashCode() : 0);
+                    break;
+                case LINK_ROLE_AS_LABEL:
+                    hash = 31 * hash + linkTargetBegin;
+                    hash = 31 * hash + linkTargetEnd;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown link target comparison mode ["
+                            + linkCompareBehavior + "]");
+                }
+            }
+            return hash;
+        }
+        
         protected void toStringFragment(StringBuilder builder)
         {
             builder.append("cas=");
@@ -641,7 +763,7 @@ public class CasDiff2
                     builder.append(", linkTarget=(");
                     builder.append(getLinkTargetBegin()).append('-').append(getLinkTargetEnd());
                     builder.append(')');
-                    builder.append('[').append(linkTargetText).append(']');
+                    builder.append('[').append(getLinkTargetText()).append(']');
                     break;
                 default:
                     builder.append(", BAD LINK BEHAVIOR");
@@ -662,9 +784,18 @@ public class CasDiff2
         public SpanPosition(String aCollectionId, String aDocumentId, int aCasId, String aType,
                 int aBegin, int aEnd, String aText, String aFeature, String aRole, int aLinkTargetBegin,
                 int aLinkTargetEnd, String aLinkTargetText, LinkCompareBehavior aLinkCompareBehavior)
+        {
+            this(aCollectionId, aDocumentId, aCasId, aType, aBegin, aEnd, aText, aFeature, aRole,
+                    aLinkTargetBegin, aLinkTargetEnd, aLinkTargetText, aLinkCompareBehavior, null);
+        }
+        
+        SpanPosition(String aCollectionId, String aDocumentId, int aCasId, String aType,
+                int aBegin, int aEnd, String aText, String aFeature, String aRole,
+                int aLinkTargetBegin, int aLinkTargetEnd, String aLinkTargetText,
+                LinkCompareBehavior aLinkCompareBehavior, String aDocumentText)
         {
             super(aCollectionId, aDocumentId, aCasId, aType, aFeature, aRole, aLinkTargetBegin,
-                    aLinkTargetEnd, aLinkTargetText, aLinkCompareBehavior);
+                    aLinkTargetEnd, aLinkTargetText, aLinkCompareBehavior, aDocumentText);
             begin = aBegin;
             end = aEnd;
             text = aText;
@@ -686,6 +817,14 @@ public class CasDiff2
             return end;
         }
 
+        /**
+         * @return the covered text.
+         */
+        public String getText()
+        {
+            return getText(text, begin, end);
+        }
+
         @Override
         public int compareTo(Position aOther)
         {
@@ -707,6 +846,12 @@ public class CasDiff2
             }
         }
 
+        @Override
+        public int hashCode()
+        {
+            return (super.hashCode() * 31 + begin) * 31 + end;
+        }
+
         @Override
         public String toString()
         {
@@ -714,7 +859,7 @@ public class CasDiff2
             builder.append("Span [");
             toStringFragment(builder);
             builder.append(", span=(").append(begin).append('-').append(end).append(')');
-            builder.append('[').append(text).append(']');
+            builder.append('[').append(getText()).append(']');
             builder.append(']');
             return builder.toString();
         }
@@ -723,7 +868,8 @@ public class CasDiff2
         public String toMinimalString()
         {
             StringBuilder builder = new StringBuilder();
-            builder.append(begin).append('-').append(end).append(" [").append(text).append(']');
+            builder.append(begin).append('-').append(end).append(" [").append(getText())
+                    .append(']');
             LinkCompareBehavior linkCompareBehavior = getLinkCompareBehavior();
             if (linkCompareBehavior != null) {
                 switch (linkCompareBehavior) {
@@ -761,9 +907,20 @@ public class CasDiff2
                 int aTargetEnd, String aTargetText, String aFeature, String aRole,
                 int aLinkTargetBegin, int aLinkTargetEnd, String aLinkTargetText,
                 LinkCompareBehavior aLinkCompareBehavior)
+        {
+            this(aCollectionId, aDocumentId, aCasId, aType, aSourceBegin, aSourceEnd, aSourceText,
+                    aTargetBegin, aTargetEnd, aTargetText, aFeature, aRole, aLinkTargetBegin,
+                    aLinkTargetEnd, aLinkTargetText, aLinkCompareBehavior, null);
+        }
+        
+        ArcPosition(String aCollectionId, String aDocumentId, int aCasId, String aType,
+                int aSourceBegin, int aSourceEnd, String aSourceText, int aTargetBegin,
+                int aTargetEnd, String aTargetText, String aFeature, String aRole,
+                int aLinkTargetBegin, int aLinkTargetEnd, String aLinkTargetText,
+                LinkCompareBehavior aLinkCompareBehavior, String aDocumentText)
         {
             super(aCollectionId, aDocumentId, aCasId, aType, aFeature, aRole, aLinkTargetBegin,
-                    aLinkTargetEnd, aLinkTargetText, aLinkCompareBehavior);
+                    aLinkTargetEnd, aLinkTargetText, aLinkCompareBehavior, aDocumentText);
             sourceBegin = aSourceBegin;
             sourceEnd = aSourceEnd;
             sourceText = aSourceText;
@@ -804,6 +961,22 @@ public class CasDiff2
             return targetEnd;
         }
 
+        /**
+         * @return the text covered by the source.
+         */
+        public String getSourceText()
+        {
+            return getText(sourceText, sourceBegin, sourceEnd);
+        }
+
+        /**
+         * @return the text covered by the target.
+         */
+        public String getTargetText()
+        {
+            return getText(targetText, targetBegin, targetEnd);
+        }
+
         @Override
         public int compareTo(Position aOther)
         {
@@ -831,6 +1004,17 @@ public class CasDiff2
             }
         }
 
+        @Override
+        public int hashCode()
+        {
+            int hash = super.hashCode();
+            hash = 31 * hash + sourceBegin;
+            hash = 31 * hash + sourceEnd;
+            hash = 31 * hash + targetBegin;
+            hash = 31 * hash + targetEnd;
+            return hash;
+        }
+
         @Override
         public String toString()
         {
@@ -838,9 +1022,9 @@ public class CasDiff2
             builder.append("Arc [");
             toStringFragment(builder);
             builder.append(", source=(").append(sourceBegin).append('-').append(sourceEnd).append(')');
-            builder.append('[').append(sourceText).append(']');
+            builder.append('[').append(getSourceText()).append(']');
             builder.append(", target=(").append(targetBegin).append('-').append(targetEnd).append(')');
-            builder.append('[').append(targetText).append(']');
+            builder.append('[').append(getTargetText()).append(']');
             builder.append("]");
             return builder.toString();
         }
@@ -850,9 +1034,9 @@ public class CasDiff2
         {
             StringBuilder builder = new StringBuilder();
             builder.append("(").append(sourceBegin).append('-').append(sourceEnd).append(')');
-            builder.append('[').append(sourceText).append(']');
+            builder.append('[').append(getSourceText()).append(']');
             builder.append(" -> (").append(targetBegin).append('-').append(targetEnd).append(')');
-            builder.append(" [").append(targetText).append(']');
+            builder.append(" [").append(getTargetText()).append(']');
             return builder.toString();
         }
     }
@@ -878,11 +1062,14 @@ public class CasDiff2
             }
             
             if (position.getFeature() == null) {
-                // Check if this configuration is already present
+                // Check if this configuration is already present - only configurations with the
+                // same fingerprint need to be compared in full
+                long fingerprint = fingerprintFS(aFS);
                 Configuration configuration = null;
                 for (Configuration cfg : configurations) {
                     // Handle main positions
-                    if (equalsFS(cfg.getRepresentative(), aFS)) {
+                    if (cfg.fingerprint == fingerprint
+                            && equalsFS(cfg.getRepresentative(), aFS)) {
                         configuration = cfg;
                         break;
                     }
@@ -891,6 +1078,7 @@ public class CasDiff2
                 // Not found, add new one
                 if (configuration == null) {
                     configuration = new Configuration(position);
+                    configuration.fingerprint = fingerprint;
                     configurations.add(configuration);
                 }
                 
@@ -908,6 +1096,7 @@ public class CasDiff2
                     
                     // Check if this configuration is already present
                     Configuration configuration = null;
+                    long fingerprint;
                     switch (position.getLinkCompareBehavior()) {
                     case LINK_TARGET_AS_LABEL: {
                         String role = link.getStringValue(link.getType().getFeatureByBaseName(decl.roleFeature));
@@ -917,8 +1106,13 @@ public class CasDiff2
                         
                         AnnotationFS target = (AnnotationFS) link.getFeatureValue(link.getType()
                                 .getFeatureByBaseName(decl.targetFeature));
+                        fingerprint = fingerprintAnnotationFS(target);
                         
                         cfgLoop: for (Configuration cfg : configurations) {
+                            if (cfg.fingerprint != fingerprint) {
+                                continue;
+                            }
+                            
                             FeatureStructure repFS = cfg.getRepresentative();
                             AID repAID = cfg.getRepresentativeAID();
                             FeatureStructure repLink = ((ArrayFS) repFS.getFeatureValue(repFS.getType()
@@ -944,8 +1138,13 @@ public class CasDiff2
                         
                         String role = link.getStringValue(link.getType().getFeatureByBaseName(
                                 decl.roleFeature));
+                        fingerprint = role != null ? role.hashCode() : 0;
                         
                         cfgLoop: for (Configuration cfg : configurations) {
+                            if (cfg.fingerprint != fingerprint) {
+                                continue;
+                            }
+                            
                             FeatureStructure repFS = cfg.getRepresentative();
                             AID repAID = cfg.getRepresentativeAID();
                             FeatureStructure repLink = ((ArrayFS) repFS.getFeatureValue(repFS.getType()
@@ -969,6 +1168,7 @@ public class CasDiff2
                     // Not found, add new one
                     if (configuration == null) {
                         configuration = new Configuration(position);
+                        configuration.fingerprint = fingerprint;
                         configurations.add(configuration);
                     }
                     
@@ -987,7 +1187,7 @@ public class CasDiff2
         {
             int i = 0;
             for (Configuration cfg : configurations) {
-                i += cfg.getAddressByCasId().size();
+                i += cfg.size;
             }
             return i;
         }
@@ -1017,7 +1217,7 @@ public class CasDiff2
         {
             List<Configuration> configurationsForUser = new ArrayList<>();
             for (Configuration cfg : configurations) {
-                if (cfg.fsAddresses.keySet().contains(aCasGroupId)) {
+                if (cfg.indexOf(aCasGroupId) >= 0) {
                     configurationsForUser.add(cfg);
                 }
             }
@@ -1031,6 +1231,11 @@ public class CasDiff2
         {
             return position;
         }
+        
+        private CasDiff2 getDiff()
+        {
+            return CasDiff2.this;
+        }
     }
     
     /**
@@ -1072,19 +1277,6 @@ public class CasDiff2
 
         assert type1.getNumberOfFeatures() == type2.getNumberOfFeatures();
 
-        // Sort features by name to be independent over implementation details that may change the
-        // order of the features as returned from Type.getFeatures().
-        String[] cachedSortedFeatures = sortedFeaturesCache.get(type1.getName());
-        if (cachedSortedFeatures == null) {
-            cachedSortedFeatures = new String[type1.getNumberOfFeatures()];
-            int i = 0;
-            for (Feature f : aFS1.getType().getFeatures()) {
-                cachedSortedFeatures[i] = f.getShortName();
-                i++;
-            }
-            sortedFeaturesCache.put(type1.getName(), cachedSortedFeatures);
-        }
-        
         DiffAdapter adapter = typeAdapters.get(type1.getName());
 
         if (adapter == null) {
@@ -1092,21 +1284,7 @@ public class CasDiff2
             return true;
         }
 
-        // Only consider label features. In particular these must not include position features
-        // such as begin, end, etc.
-        List<String> sortedFeatures = new ArrayList<>(asList(cachedSortedFeatures));
-        Set<String> labelFeatures = adapter.getLabelFeatures();
-        sortedFeatures.removeIf(f -> !labelFeatures.contains(f));
-
-        if (!recurseIntoLinkFeatures ) {
-            // #1795 Chili REC: We can/should change CasDiff2 such that it does not recurse into
-            // link features (or rather into any features that are covered by their own
-            // sub-positions). So when when comparing two spans that differ only in their slots
-            // (sub-positions) the main position could still exhibit agreement.
-            sortedFeatures.removeIf(f -> adapter.getLinkFeature(f) != null);
-        }
-        
-        for (String feature : sortedFeatures) {
+        for (String feature : getLabelFeatures(type1, adapter)) {
             Feature f1 = type1.getFeatureByBaseName(feature);
             Feature f2 = type2.getFeatureByBaseName(feature);
             
@@ -1205,6 +1383,113 @@ public class CasDiff2
         return pos1.compareTo(pos2) == 0;
     }
     
+    /**
+     * Get the names of the features compared by {@link #equalsFS}.
+     */
+    private String[] getLabelFeatures(Type aType, DiffAdapter aAdapter)
+    {
+        String[] labelFeatures = labelFeaturesCache.get(aType.getName());
+        if (labelFeatures == null) {
+            List<String> features = new ArrayList<>();
+            for (Feature f : aType.getFeatures()) {
+                features.add(f.getShortName());
+            }
+
+            // Only consider label features. In particular these must not include position
+            // features such as begin, end, etc.
+            features.removeIf(f -> !aAdapter.getLabelFeatures().contains(f));
+
+            if (!recurseIntoLinkFeatures) {
+                // #1795 Chili REC: We can/should change CasDiff2 such that it does not recurse
+                // into link features (or rather into any features that are covered by their own
+                // sub-positions). So when when comparing two spans that differ only in their
+                // slots (sub-positions) the main position could still exhibit agreement.
+                features.removeIf(f -> aAdapter.getLinkFeature(f) != null);
+            }
+            
+            labelFeatures = features.toArray(new String[features.size()]);
+            labelFeaturesCache.put(aType.getName(), labelFeatures);
+        }
+        return labelFeatures;
+    }
+    
+    /**
+     * Calculate a fingerprint over the primitive features compared by {@link #equalsFS}. Feature
+     * structures which are equal have the same fingerprint, so only feature structures with the
+     * same fingerprint need to be compared in full.
+     * 
+     * @param aFS
+     *            a feature structure.
+     * @return the fingerprint.
+     */
+    private long fingerprintFS(FeatureStructure aFS)
+    {
+        Type type = aFS.getType();
+        long hash = type.getName().hashCode();
+        
+        DiffAdapter adapter = typeAdapters.get(type.getName());
+        if (adapter == null) {
+            // All feature structures of the type are considered equal
+            return hash;
+        }
+        
+        for (String feature : getLabelFeatures(type, adapter)) {
+            Feature f = type.getFeatureByBaseName(feature);
+            
+            switch (f.getRange().getName()) {
+            case CAS.TYPE_NAME_BOOLEAN:
+                hash = 31 * hash + (aFS.getBooleanValue(f) ? 1 : 2);
+                break;
+            case CAS.TYPE_NAME_BYTE:
+                hash = 31 * hash + aFS.getByteValue(f);
+                break;
+            case CAS.TYPE_NAME_DOUBLE: {
+                // 0.0 and -0.0 are equal
+                double value = aFS.getDoubleValue(f);
+                hash = 31 * hash + (value == 0.0 ? 0 : Double.hashCode(value));
+                break;
+            }
+            case CAS.TYPE_NAME_FLOAT: {
+                float value = aFS.getFloatValue(f);
+                hash = 31 * hash + (value == 0.0f ? 0 : Float.hashCode(value));
+                break;
+            }
+            case CAS.TYPE_NAME_INTEGER:
+                hash = 31 * hash + aFS.getIntValue(f);
+                break;
+            case CAS.TYPE_NAME_LONG:
+                hash = 31 * hash + aFS.getLongValue(f);
+                break;
+            case CAS.TYPE_NAME_SHORT:
+                hash = 31 * hash + aFS.getShortValue(f);
+                break;
+            case CAS.TYPE_NAME_STRING: {
+                String value = aFS.getStringValue(f);
+                hash = 31 * hash + (value != null ? value.hashCode() : 0);
+                break;
+            }
+            default:
+                // Feature structure values are only considered in the full comparison
+                break;
+            }
+        }
+        
+        return hash;
+    }
+    
+    /**
+     * Calculate a fingerprint over the position of an annotation, consistent with
+     * {@link #equalsAnnotationFS}.
+     */
+    private long fingerprintAnnotationFS(AnnotationFS aFS)
+    {
+        if (aFS == null) {
+            return 0;
+        }
+        
+        return getAdapter(aFS.getType().getName()).getPosition(0, aFS).hashCode();
+    }
+    
     /**
      * A single configuration seen at a particular position. The configuration may have been
      * observed in multiple CASes. 
@@ -1212,11 +1497,20 @@ public class CasDiff2
     public class Configuration
     {
         private final Position position;
-        private final Map<String, AID> fsAddresses = new TreeMap<>();
+        
+        // The IDs of the CAS groups the configuration has been seen in, sorted by name, with the
+        // addresses of the feature structures and - for link sub-positions - the link slots.
+        private String[] casGroupIds = new String[1];
+        private int[] addrs = new int[1];
+        private int[] slots;
+        private int size;
+        
+        // Fingerprint of the representative, see fingerprintFS
+        private long fingerprint;
 
         public Set<String> getCasGroupIds()
         {
-            return fsAddresses.keySet();
+            return new CasGroupIdSet();
         } 
         
         public Configuration(Position aPosition)
@@ -1230,39 +1524,80 @@ public class CasDiff2
         }
 
         private void add(String aCasGroupId, FeatureStructure aFS) {
-            fsAddresses.put(aCasGroupId, new AID(getAddr(aFS)));            
+            add(aCasGroupId, getAddr(aFS), -1);
         }
 
         private void add(String aCasGroupId, FeatureStructure aFS, String aFeature, int aSlot) {
-            fsAddresses.put(aCasGroupId, new AID(getAddr(aFS), aFeature, aSlot));            
+            assert StringUtils.equals(aFeature, position.getFeature());
+            add(aCasGroupId, getAddr(aFS), aSlot);
         }
-
-        private FeatureStructure getRepresentative()
+        
+        private void add(String aCasGroupId, int aAddr, int aSlot)
         {
-            Entry<String, AID> e = fsAddresses.entrySet().iterator().next();
-            return selectByAddr(cases.get(e.getKey()).get(position.getCasId()), e.getValue().addr);
+            int i = indexOf(aCasGroupId);
+            if (i < 0) {
+                i = -i - 1;
+                if (size == casGroupIds.length) {
+                    casGroupIds = Arrays.copyOf(casGroupIds, size * 2);
+                    addrs = Arrays.copyOf(addrs, size * 2);
+                    if (slots != null) {
+                        slots = Arrays.copyOf(slots, size * 2);
+                    }
+                }
+                System.arraycopy(casGroupIds, i, casGroupIds, i + 1, size - i);
+                System.arraycopy(addrs, i, addrs, i + 1, size - i);
+                if (slots != null) {
+                    System.arraycopy(slots, i, slots, i + 1, size - i);
+                }
+                casGroupIds[i] = aCasGroupId;
+                size++;
+            }
+            
+            addrs[i] = aAddr;
+            if (aSlot != -1 && slots == null) {
+                slots = new int[casGroupIds.length];
+                Arrays.fill(slots, -1);
+            }
+            if (slots != null) {
+                slots[i] = aSlot;
+            }
+        }
+        
+        private int indexOf(String aCasGroupId)
+        {
+            return Arrays.binarySearch(casGroupIds, 0, size, aCasGroupId);
+        }
+        
+        private AID getAID(int aIndex)
+        {
+            if (slots == null || slots[aIndex] == -1) {
+                return new AID(addrs[aIndex]);
+            }
+            else {
+                return new AID(addrs[aIndex], position.getFeature(), slots[aIndex]);
+            }
         }
 
-        private AID getRepresentativeAID()
+        private FeatureStructure getRepresentative()
         {
-            Entry<String, AID> e = fsAddresses.entrySet().iterator().next();
-            return e.getValue();
+            return selectByAddr(cases.get(casGroupIds[0]).get(position.getCasId()), addrs[0]);
         }
 
-        private Map<String, AID> getAddressByCasId()
+        private AID getRepresentativeAID()
         {
-            return fsAddresses;
+            return getAID(0);
         }
 
         public AID getAID(String aCasGroupId)
         {
-            return fsAddresses.get(aCasGroupId);
+            int i = indexOf(aCasGroupId);
+            return i >= 0 ? getAID(i) : null;
         }
 
         public <T extends FeatureStructure> T getFs(String aCasGroupId, int aCasId,
                 Class<T> aClass, Map<String, List<JCas>> aCasMap)
         {
-            AID aid = fsAddresses.get(aCasGroupId);
+            AID aid = getAID(aCasGroupId);
             if (aid == null) {
                 return null;
             }
@@ -1301,18 +1636,46 @@ public class CasDiff2
         {
             StringBuilder sb = new StringBuilder();
             sb.append('[');
-            for (Entry<String, AID> e : fsAddresses.entrySet()) {
+            for (int i = 0; i < size; i++) {
                 if (sb.length() > 1) {
                     sb.append(", ");
                 }
-                sb.append(e.getKey());
+                sb.append(casGroupIds[i]);
                 sb.append(':');
-                sb.append(e.getValue());
+                sb.append(getAID(i));
             }
             sb.append("] -> ");
-            sb.append(getRepresentative());
+            // The CASes are no longer available if the diff result has been detached from them
+            if (cases != null) {
+                sb.append(getRepresentative());
+            }
             return sb.toString();
         }
+        
+        /**
+         * Read-only view on the CAS group IDs of the configuration.
+         */
+        private class CasGroupIdSet
+            extends AbstractSet<String>
+        {
+            @Override
+            public boolean contains(Object aObject)
+            {
+                return aObject instanceof String && indexOf((String) aObject) >= 0;
+            }
+            
+            @Override
+            public Iterator<String> iterator()
+            {
+                return Arrays.asList(casGroupIds).subList(0, size).iterator();
+            }
+
+            @Override
+            public int size()
+            {
+                return size;
+            }
+        }
     }
     
     /**
@@ -1325,15 +1688,40 @@ public class CasDiff2
         private final Map<ConfigurationSet, Boolean> completenessCache = new HashMap<>();
         private final boolean cachedHasDifferences;
         private final Map<String, DiffAdapter> typeDiffAdapters;
+        private final CasDiff2 source;
         
         private DiffResult(CasDiff2 aDiff)
         {
-            data = Collections.unmodifiableMap(aDiff.configSets);
+            source = aDiff;
+            
+            // Positions are only sorted once all of them are known
+            Position[] positions = aDiff.configSets.keySet()
+                    .toArray(new Position[aDiff.configSets.size()]);
+            Arrays.sort(positions);
+            Map<Position, ConfigurationSet> sortedConfigSets = new LinkedHashMap<>(
+                    positions.length * 4 / 3 + 1);
+            for (Position position : positions) {
+                sortedConfigSets.put(position, aDiff.configSets.get(position));
+            }
+            aDiff.configSets = sortedConfigSets;
+            
+            data = Collections.unmodifiableMap(sortedConfigSets);
             casGroupIds = new LinkedHashSet<>(aDiff.cases.keySet());
             cachedHasDifferences = !getDifferingConfigurationSets().isEmpty();
             typeDiffAdapters = aDiff.typeAdapters;
         }
         
+        /**
+         * Release the CASes the diff has been calculated on. The positions and configurations of
+         * the result remain accessible, but feature structures can then only be resolved via an
+         * explicit CAS map, e.g. {@link Configuration#getFs(String, int, Map)}. This allows
+         * keeping a diff result around without also keeping the CASes in memory.
+         */
+        public void detach()
+        {
+            source.cases = null;
+        }
+        
         public DiffAdapter getDiffAdapter(String aType)
         {
             return typeDiffAdapters.get(aType);
@@ -1374,7 +1762,7 @@ public class CasDiff2
          */
         public boolean isAgreement(ConfigurationSet aConfigurationSet)
         {
-            if (!data.containsValue(aConfigurationSet)) {
+            if (aConfigurationSet.getDiff() != source) {
                 throw new IllegalArgumentException("Configuration set does not belong to this diff");
             }
 
@@ -1410,7 +1798,7 @@ public class CasDiff2
          */
         public boolean isComplete(ConfigurationSet aConfigurationSet)
         {
-            if (!data.containsValue(aConfigurationSet)) {
+            if (aConfigurationSet.getDiff() != source) {
                 throw new IllegalArgumentException("Configuration set does not belong to this diff");
             }
 
@@ -1422,7 +1810,7 @@ public class CasDiff2
             if (complete == null) {
                 HashSet<String> unseenGroupCasIDs = new HashSet<>(casGroupIds);
                 for (Configuration cfg : aConfigurationSet.configurations) {
-                    unseenGroupCasIDs.removeAll(cfg.fsAddresses.keySet());
+                    unseenGroupCasIDs.removeAll(cfg.getCasGroupIds());
                 }
                 complete = unseenGroupCasIDs.isEmpty();
                 completenessCache.put(aConfigurationSet, complete);
@@ -1523,6 +1911,35 @@ public class CasDiff2
         }
     }
     
+    /**
+     * The collection and document ID of a CAS.
+     */
+    protected static class DocumentIds
+    {
+        private final WeakReference<CAS> cas;
+        private final String collectionId;
+        private final String documentId;
+        
+        private DocumentIds(CAS aCas)
+        {
+            cas = new WeakReference<>(aCas);
+            
+            String collId = null;
+            String docId = null;
+            try {
+                DocumentMetaData dmd = DocumentMetaData.get(aCas);
+                collId = dmd.getCollectionId();
+                docId = dmd.getDocumentId();
+            }
+            catch (IllegalArgumentException e) {
+                // We use this information only for debugging - so we can ignore if the information
+                // is missing.
+            }
+            collectionId = collId;
+            documentId = docId;
+        }
+    }
+    
     public static class LinkFeatureDecl {
         public final String name;
         public final String roleFeature;
@@ -1579,6 +1996,9 @@ public class CasDiff2
         
         private final List<LinkFeatureDecl> linkFeatures = new ArrayList<>();
         
+        // The document IDs of the CAS positions were last generated for
+        private volatile DocumentIds lastDocumentIds;
+        
         public DiffAdapter_ImplBase(String aType, Set<String> aLabelFeatures)
         {
             type = aType;
@@ -1619,10 +2039,29 @@ public class CasDiff2
             return getPosition(aCasId, aFS, null, null, -1, -1, null);
         }
         
+        /**
+         * Get the collection and document ID of the given CAS. As positions are usually
+         * generated for many annotations of the same CAS in a row, the IDs of the last CAS are
+         * remembered.
+         */
+        protected DocumentIds getDocumentIds(CAS aCas)
+        {
+            DocumentIds ids = lastDocumentIds;
+            if (ids == null || ids.cas.get() != aCas) {
+                ids = new DocumentIds(aCas);
+                lastDocumentIds = ids;
+            }
+            return ids;
+        }
+        
         @Override
         public List<? extends Position> generateSubPositions(int aCasId, AnnotationFS aFs,
                 LinkCompareBehavior aLinkCompareBehavior)
         {
+            if (linkFeatures.isEmpty()) {
+                return Collections.emptyList();
+            }
+            
             List<Position> subPositions = new ArrayList<>();
             
             for (LinkFeatureDecl decl : linkFeatures) {
@@ -1675,27 +2114,12 @@ public class CasDiff2
         {
             AnnotationFS annoFS = (AnnotationFS) aFS;
             
-            String collectionId = null;
-            String documentId = null;
-            try {
-                DocumentMetaData dmd = DocumentMetaData.get(aFS.getCAS());
-                collectionId = dmd.getCollectionId();
-                documentId = dmd.getDocumentId();
-            }
-            catch (IllegalArgumentException e) {
-                // We use this information only for debugging - so we can ignore if the information
-                // is missing.
-            }
-            
-            String linkTargetText = null;
-            if (aLinkTargetBegin != -1 && aFS.getCAS().getDocumentText() != null) {
-                linkTargetText = aFS.getCAS().getDocumentText()
-                        .substring(aLinkTargetBegin, aLinkTargetEnd);
-            }
+            DocumentIds ids = getDocumentIds(aFS.getCAS());
             
-            return new SpanPosition(collectionId, documentId, aCasId, getType(), annoFS.getBegin(),
-                    annoFS.getEnd(), annoFS.getCoveredText(), aFeature, aRole, aLinkTargetBegin,
-                    aLinkTargetEnd, linkTargetText, aLinkCompareBehavior);
+            // The covered texts are only extracted from the document text when needed
+            return new SpanPosition(ids.collectionId, ids.documentId, aCasId, getType(),
+                    annoFS.getBegin(), annoFS.getEnd(), null, aFeature, aRole, aLinkTargetBegin,
+                    aLinkTargetEnd, null, aLinkCompareBehavior, aFS.getCAS().getDocumentText());
         }
     }
 
@@ -1749,33 +2173,18 @@ public class CasDiff2
             AnnotationFS targetFS = (AnnotationFS) aFS.getFeatureValue(type
                     .getFeatureByBaseName(targetFeature));
             
-            String collectionId = null;
-            String documentId = null;
-            try {
-                DocumentMetaData dmd = DocumentMetaData.get(aFS.getCAS());
-                collectionId = dmd.getCollectionId();
-                documentId = dmd.getDocumentId();
-            }
-            catch (IllegalArgumentException e) {
-                // We use this information only for debugging - so we can ignore if the information
-                // is missing.
-            }
-            
-            String linkTargetText = null;
-            if (aLinkTargetBegin != -1 && aFS.getCAS().getDocumentText() != null) {
-                linkTargetText = aFS.getCAS().getDocumentText()
-                        .substring(aLinkTargetBegin, aLinkTargetEnd);
-            }
+            DocumentIds ids = getDocumentIds(aFS.getCAS());
             
-            return new ArcPosition(collectionId, documentId, aCasId, getType(), 
+            // The covered texts are only extracted from the document text when needed
+            return new ArcPosition(ids.collectionId, ids.documentId, aCasId, getType(), 
                     sourceFS != null ? sourceFS.getBegin() : -1,
                     sourceFS != null ? sourceFS.getEnd() : -1,
-                    sourceFS != null ? sourceFS.getCoveredText() : null,
+                    null,
                     targetFS != null ? targetFS.getBegin() : -1,
                     targetFS != null ? targetFS.getEnd() : -1,
-                    targetFS != null ? targetFS.getCoveredText() : null,
-                    aFeature, aRole, aLinkTargetBegin, aLinkTargetEnd, linkTargetText,
-                    aLinkCompareBehavior);
+                    null,
+                    aFeature, aRole, aLinkTargetBegin, aLinkTargetEnd, null,
+                    aLinkCompareBehavior, aFS.getCAS().getDocumentText());
         }
     }
 
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.curation.service;
+
+import java.util.Map;
+
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.CasDiff2.ConfigurationSet;
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.CasDiff2.DiffResult;
+
+/**
+ * A diff result together with the labels the users assigned at its configuration sets. Unlike a
+ * plain {@link DiffResult}, a compact diff does not require the CASes to calculate agreement and
+ * does not keep them in memory. Use {@link AgreementUtils#makeCompactDiff} to create one.
+ */
+public class CompactDiff
+{
+    private final DiffResult diff;
+    private final Map<String, Boolean> primitiveFeatures;
+    private final Map<String, Map<ConfigurationSet, Map<String, Object>>> labels;
+
+    CompactDiff(DiffResult aDiff, Map<String, Boolean> aPrimitiveFeatures,
+            Map<String, Map<ConfigurationSet, Map<String, Object>>> aLabels)
+    {
+        diff = aDiff;
+        primitiveFeatures = aPrimitiveFeatures;
+        labels = aLabels;
+    }
+
+    /**
+     * @return the diff result. It is detached from the CASes it has been calculated on.
+     */
+    public DiffResult getDiff()
+    {
+        return diff;
+    }
+
+    /**
+     * @param aFeature
+     *            the feature name.
+     * @return whether the feature is primitive or {@code null} if no labels have been extracted
+     *         for the feature.
+     */
+    public Boolean isPrimitiveFeature(String aFeature)
+    {
+        return primitiveFeatures.get(aFeature);
+    }
+
+    /**
+     * @return the label of the given feature assigned by the given user at the given configuration
+     *         set.
+     */
+    Object getLabel(String aFeature, ConfigurationSet aCfgSet, String aUser)
+    {
+        Map<ConfigurationSet, Map<String, Object>> featureLabels = labels.get(aFeature);
+        if (featureLabels == null) {
+            return null;
+        }
+
+        Map<String, Object> setLabels = featureLabels.get(aCfgSet);
+        if (setLabels == null) {
+            return null;
+        }
+
+        return setLabels.get(aUser);
+    }
+}
@@ -17,8 +17,6 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.ui.curation.service;
 
-import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.TypeUtil.getAdapter;
-
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.ArrayList;
@@ -46,18 +44,16 @@ import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
 import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
-import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.coloring.ColoringStrategy;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.exception.AnnotationException;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
-import de.tudarmstadt.ukp.clarin.webanno.brat.adapter.TypeRenderer;
 import de.tudarmstadt.ukp.clarin.webanno.brat.annotation.BratAnnotator;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetCollectionInformationResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.render.BratRenderer;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.RenderPlan;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
-import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
 import de.tudarmstadt.ukp.clarin.webanno.model.ScriptDirection;
@@ -110,18 +106,37 @@ public class CuratorUtil
             Map<String, Map<Integer, AnnotationSelection>> annotationSelectionByUsernameAndAddress)
         throws UIMAException, ClassNotFoundException, IOException
     {
+        readCases(aJCases, aAnnotationDocuments, aRepository,
+                annotationSelectionByUsernameAndAddress);
+    }
+
+    /**
+     * Read the CASes of all finished annotation documents and of the curation user at once and
+     * reset the annotation selections of their users.
+     */
+    private static void readCases(Map<String, JCas> aJCases,
+            List<AnnotationDocument> aAnnotationDocuments, RepositoryService aRepository,
+            Map<String, Map<Integer, AnnotationSelection>> aAnnotationSelectionByUsernameAndAddress)
+        throws IOException
+    {
+        List<AnnotationDocument> documents = new ArrayList<>();
         for (AnnotationDocument annotationDocument : aAnnotationDocuments) {
             String username = annotationDocument.getUser();
             if (annotationDocument.getState().equals(AnnotationDocumentState.FINISHED)
                     || username.equals(CURATION_USER)) {
-                JCas jCas = aRepository.readAnnotationCas(annotationDocument);
-                aJCases.put(username, jCas);
-
-                // cleanup annotationSelections
-                annotationSelectionByUsernameAndAddress.put(username,
-                        new HashMap<Integer, AnnotationSelection>());
+                documents.add(annotationDocument);
             }
         }
+
+        List<JCas> cases = aRepository.readAnnotationCases(documents);
+        for (int i = 0; i < documents.size(); i++) {
+            String username = documents.get(i).getUser();
+            aJCases.put(username, cases.get(i));
+
+            // cleanup annotationSelections
+            aAnnotationSelectionByUsernameAndAddress.put(username,
+                    new HashMap<Integer, AnnotationSelection>());
+        }
     }
 
     public static void populateCurationSentences(
@@ -203,27 +218,19 @@ public class CuratorUtil
         BratRenderer.renderTokenAndSentence(aJcas, response, aBratAnnotatorModel);
 
         // Render visible (custom) layers
+        List<AnnotationLayer> layers = new ArrayList<>();
         for (AnnotationLayer layer : aBratAnnotatorModel.getAnnotationLayers()) {
             if (layer.getName().equals(Token.class.getName())
                     || layer.getName().equals(Sentence.class.getName())
                     || WebAnnoConst.CHAIN_TYPE.equals(layer.getType())) {
                 continue;
             }
-
-            List<AnnotationFeature> features = aAnnotationService.listAnnotationFeature(layer);
-            List<AnnotationFeature> invisibleFeatures = new ArrayList<AnnotationFeature>();
-            for (AnnotationFeature feature : features) {
-                if (!feature.isVisible()) {
-                    invisibleFeatures.add(feature);
-                }
-            }
-            features.removeAll(invisibleFeatures);
-            TypeAdapter adapter = getAdapter(aAnnotationService, layer);
-            TypeRenderer renderer = BratRenderer.getRenderer(adapter);
-            renderer.render(aJcas, features, response, aBratAnnotatorModel,
-                    aCurationColoringStrategy);
+            layers.add(layer);
         }
 
+        RenderPlan.get(aAnnotationService, layers, aBratAnnotatorModel.getPreferences())
+                .render(aJcas, response, aBratAnnotatorModel, aCurationColoringStrategy);
+
         return JSONUtil.toInterpretableJsonString(response);
     }
 
@@ -463,18 +470,8 @@ public class CuratorUtil
             // Now we get all the other CASes from the repository
             List<AnnotationDocument> annotationDocuments = aRepository
                     .listAnnotationDocuments(sourceDocument);
-            for (AnnotationDocument annotationDocument : annotationDocuments) {
-                String username = annotationDocument.getUser();
-                if (annotationDocument.getState().equals(AnnotationDocumentState.FINISHED)
-                        || username.equals(CuratorUtil.CURATION_USER)) {
-                    JCas jCas = aRepository.readAnnotationCas(annotationDocument);
-                    jCases.put(username, jCas);
-
-                    // cleanup annotationSelections
-                    aAnnotationSelectionByUsernameAndAddress.put(username,
-                            new HashMap<Integer, AnnotationSelection>());
-                }
-            }
+            readCases(jCases, annotationDocuments, aRepository,
+                    aAnnotationSelectionByUsernameAndAddress);
         }
         return annotatorCas;
     }
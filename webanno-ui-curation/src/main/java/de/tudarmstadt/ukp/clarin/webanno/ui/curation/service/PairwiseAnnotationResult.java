@@ -33,17 +33,18 @@ public class PairwiseAnnotationResult
     private Set<String> raters = new TreeSet<String>();
     private Map<String, AgreementResult> results = new HashMap<>();
     
-    public Set<String> getRaters()
+    public synchronized Set<String> getRaters()
     {
-        return raters;
+        // Return a copy - results may still be added while the caller iterates over the raters
+        return new TreeSet<>(raters);
     }
 
-    public AgreementResult getStudy(String aKey1, String aKey2)
+    public synchronized AgreementResult getStudy(String aKey1, String aKey2)
     {
         return results.get(makeKey(aKey1, aKey2));
     }
 
-    public void add(String aKey1, String aKey2, AgreementResult aRes)
+    public synchronized void add(String aKey1, String aKey2, AgreementResult aRes)
     {
         raters.add(aKey1);
         raters.add(aKey2);
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.curation.service;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.uima.fit.util.CasUtil.getType;
+import static org.apache.uima.fit.util.CasUtil.select;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.uima.cas.ArrayFS;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.jcas.JCas;
+
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.CasDiff2.DiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.CasDiff2.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.CasDiff2.LinkCompareBehavior;
+
+/**
+ * Differences between CASes partitioned into segments, e.g. the sentences shown on the curation
+ * page. The annotations of each CAS and type are selected only once for all segments. The diff of
+ * a segment then only looks at the annotations covered by the segment, exactly like a diff
+ * scoped to the segment via {@link CasDiff2#doDiffSingle}.
+ * <p>
+ * Each segment also has a signature over the annotations it covers. If the signature of a segment
+ * has not changed, a previously calculated diff of the segment can be reused.
+ */
+public class SegmentedDiff
+{
+    private final List<String> entryTypes;
+    private final Collection<? extends DiffAdapter> adapters;
+    private final LinkCompareBehavior linkCompareBehavior;
+    private final Map<String, JCas> casMap;
+    private final int[] begins;
+    private final int[] ends;
+
+    /**
+     * The annotations by CAS group ID and type, in the order of the annotation index.
+     */
+    private final Map<String, Map<String, AnnotationFS[]>> annotations = new HashMap<>();
+
+    /**
+     * @param aEntryTypes
+     *            the types for which differences are to be calculated.
+     * @param aAdapters
+     *            a set of diff adapters telling how the diff algorithm should handle different
+     *            features
+     * @param aLinkCompareBehavior
+     *            the link comparison mode.
+     * @param aCasMap
+     *            a set of CASes, each associated with an ID
+     * @param aBegins
+     *            the begin offsets of the segments.
+     * @param aEnds
+     *            the end offsets of the segments.
+     */
+    public SegmentedDiff(List<String> aEntryTypes, Collection<? extends DiffAdapter> aAdapters,
+            LinkCompareBehavior aLinkCompareBehavior, Map<String, JCas> aCasMap, int[] aBegins,
+            int[] aEnds)
+    {
+        entryTypes = aEntryTypes;
+        adapters = aAdapters;
+        linkCompareBehavior = aLinkCompareBehavior;
+        casMap = aCasMap;
+        begins = aBegins;
+        ends = aEnds;
+
+        for (Entry<String, JCas> e : aCasMap.entrySet()) {
+            if (e.getValue() == null) {
+                continue;
+            }
+
+            CAS cas = e.getValue().getCas();
+            Map<String, AnnotationFS[]> byType = new HashMap<>();
+            for (String type : aEntryTypes) {
+                byType.put(type, select(cas, getType(cas, type)).toArray(new AnnotationFS[0]));
+            }
+            annotations.put(e.getKey(), byType);
+        }
+    }
+
+    /**
+     * @return the number of segments.
+     */
+    public int size()
+    {
+        return begins.length;
+    }
+
+    /**
+     * Calculate the differences in the given segment.
+     *
+     * @param aSegment
+     *            the index of the segment.
+     * @return the diff result.
+     */
+    public DiffResult getDiff(int aSegment)
+    {
+        return CasDiff2.doDiff(entryTypes, adapters, linkCompareBehavior, casMap,
+                begins[aSegment], ends[aSegment],
+            (casGroupId, type) -> covered(casGroupId, type, aSegment));
+    }
+
+    /**
+     * Calculate a signature over the annotations covered by the given segment. It covers the
+     * offsets and the feature values of the annotations, including the offsets of annotations
+     * they point to. These values are spelled out with length prefixes, so that different
+     * annotations never produce the same sequence of characters, and this sequence is hashed with
+     * SHA-256. Thus, the signature stays small however many annotations the segment covers and
+     * two signatures are only equal if the annotations are equal, barring a SHA-256 collision.
+     *
+     * @param aSegment
+     *            the index of the segment.
+     * @return the signature as a hex string.
+     */
+    public String getSignature(int aSegment)
+    {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(begins[aSegment]).append(',').append(ends[aSegment]).append(',');
+        for (String type : entryTypes) {
+            append(sb, type);
+        }
+        for (String casGroupId : casMap.keySet()) {
+            append(sb, casGroupId);
+            for (String type : entryTypes) {
+                for (AnnotationFS fs : covered(casGroupId, type, aSegment)) {
+                    append(sb, fs, true);
+                    // Only buffer one annotation at a time
+                    digest.update(sb.toString().getBytes(UTF_8));
+                    sb.setLength(0);
+                }
+            }
+        }
+        digest.update(sb.toString().getBytes(UTF_8));
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private List<AnnotationFS> covered(String aCasGroupId, String aType, int aSegment)
+    {
+        Map<String, AnnotationFS[]> byType = annotations.get(aCasGroupId);
+        if (byType == null) {
+            return Collections.emptyList();
+        }
+
+        AnnotationFS[] all = byType.get(aType);
+        int begin = begins[aSegment];
+        int end = ends[aSegment];
+
+        // The annotations are sorted by their begin offsets
+        int low = 0;
+        int high = all.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (all[mid].getBegin() < begin) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+
+        List<AnnotationFS> covered = new ArrayList<>();
+        for (int i = low; i < all.length && all[i].getBegin() <= end; i++) {
+            if (all[i].getEnd() <= end) {
+                covered.add(all[i]);
+            }
+        }
+        return covered;
+    }
+
+    /**
+     * Append the feature values of the given feature structure. Feature structures it points to
+     * are only considered with their offsets and primitive feature values.
+     */
+    private static void append(StringBuilder aSignature, FeatureStructure aFS, boolean aDeep)
+    {
+        if (aFS == null) {
+            aSignature.append('~');
+            return;
+        }
+
+        aSignature.append('(');
+        append(aSignature, aFS.getType().getName());
+        if (aFS instanceof AnnotationFS) {
+            aSignature.append(((AnnotationFS) aFS).getBegin()).append(',');
+            aSignature.append(((AnnotationFS) aFS).getEnd()).append(',');
+        }
+
+        if (aFS instanceof ArrayFS) {
+            FeatureStructure[] elements = ((ArrayFS) aFS).toArray();
+            aSignature.append(elements.length).append(',');
+            if (aDeep) {
+                for (FeatureStructure element : elements) {
+                    append(aSignature, element, true);
+                }
+            }
+        }
+        else {
+            for (Feature feature : aFS.getType().getFeatures()) {
+                if (CAS.FEATURE_FULL_NAME_SOFA.equals(feature.getName())) {
+                    continue;
+                }
+
+                if (feature.getRange().isPrimitive()) {
+                    append(aSignature, aFS.getFeatureValueAsString(feature));
+                }
+                else if (aDeep) {
+                    FeatureStructure value = aFS.getFeatureValue(feature);
+                    // Follow arrays (e.g. slot links) one level further than other references
+                    append(aSignature, value, value instanceof ArrayFS);
+                }
+            }
+        }
+        aSignature.append(')');
+    }
+
+    /**
+     * Append the given string prefixed with its length, so that the boundaries between values
+     * remain unambiguous whatever characters the values contain.
+     */
+    private static void append(StringBuilder aSignature, String aValue)
+    {
+        if (aValue == null) {
+            aSignature.append('~');
+        }
+        else {
+            aSignature.append(aValue.length()).append(':').append(aValue);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SegmentedDiff [segments=" + begins.length + ", types=" + entryTypes
+                + ", cases=" + casMap.keySet() + ", begins=" + Arrays.toString(begins) + "]";
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.model;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.uima.cas.Type;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+public class SuggestionBuilderTest
+{
+    @Test
+    public void testCrossSentenceAnnotations()
+        throws Exception
+    {
+        // Four sentences: [0-5] [6-11] [12-17] [18-23]
+        JCas user1 = createJCas();
+        new POS(user1, 2, 8).addToIndexes();
+        
+        // Starts in the second sentence which is only part of the first segment because of the
+        // annotation of the first user
+        JCas user2 = createJCas();
+        new POS(user2, 9, 14).addToIndexes();
+        
+        Map<String, JCas> jCases = new LinkedHashMap<>();
+        jCases.put("user1", user1);
+        jCases.put("user2", user2);
+        
+        Map<Integer, Integer> segments = new HashMap<>();
+        for (Sentence s : user1.getAnnotationIndex(Sentence.class)) {
+            segments.put(s.getBegin(), s.getEnd());
+        }
+        
+        SuggestionBuilder builder = new SuggestionBuilder(null, null, null);
+        builder.diffRangeBegin = 0;
+        builder.diffRangeEnd = 23;
+        Type type = user1.getTypeSystem().getType(POS.class.getName());
+        Map<Integer, Set<Integer>> crossSentenceLists = builder.updateCrossSentAnnoList(segments,
+                jCases, asList(type));
+        
+        assertEquals(set(2), crossSentenceLists.get(1));
+        assertEquals(set(1, 3), crossSentenceLists.get(2));
+        assertEquals(set(2), crossSentenceLists.get(3));
+        assertEquals(set(), crossSentenceLists.get(4));
+        
+        assertEquals(17, (int) segments.get(0));
+        assertEquals(17, (int) segments.get(6));
+        assertEquals(17, (int) segments.get(12));
+        assertEquals(23, (int) segments.get(18));
+    }
+    
+    private static Set<Integer> set(Integer... aValues)
+    {
+        return new HashSet<>(asList(aValues));
+    }
+    
+    private static JCas createJCas()
+        throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("A b . C d . E f . G h .");
+        for (int begin = 0; begin < 23; begin += 6) {
+            new Sentence(jcas, begin, begin + 5).addToIndexes();
+        }
+        return jcas;
+    }
+}
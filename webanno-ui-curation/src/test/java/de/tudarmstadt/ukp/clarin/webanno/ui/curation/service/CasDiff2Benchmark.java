@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.curation.service;
+
+import static de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.CasDiff2Test.createPosJCas;
+import static de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.CasDiff2Test.createStackedPosJCas;
+import static java.util.Arrays.asList;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.uima.jcas.JCas;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.CasDiff2.LinkCompareBehavior;
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.CasDiff2.SpanDiffAdapter;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+
+/**
+ * Calculates the differences between the documents of several annotators. The time and the memory
+ * allocated per diff are printed - both should grow linearly with the number of annotations.
+ * <p>
+ * Not part of the regular test run - use {@code mvn test -Pbenchmark}.
+ */
+public class CasDiff2Benchmark
+{
+    private static final int ANNOTATORS = 12;
+    private static final int ITERATIONS = 5;
+
+    @Test
+    public void benchmark1000Annotations()
+        throws Exception
+    {
+        Map<String, List<JCas>> casByUser = new LinkedHashMap<>();
+        for (int i = 0; i < ANNOTATORS; i++) {
+            casByUser.put("user" + i, asList(createPosJCas(1_000, i)));
+        }
+        run(ANNOTATORS + " annotators x 1000 annotations", casByUser);
+    }
+
+    @Test
+    public void benchmark10000Annotations()
+        throws Exception
+    {
+        Map<String, List<JCas>> casByUser = new LinkedHashMap<>();
+        for (int i = 0; i < ANNOTATORS; i++) {
+            casByUser.put("user" + i, asList(createPosJCas(10_000, i)));
+        }
+        run(ANNOTATORS + " annotators x 10000 annotations", casByUser);
+    }
+
+    @Test
+    public void benchmark2000StackedAnnotations()
+        throws Exception
+    {
+        Map<String, List<JCas>> casByUser = new LinkedHashMap<>();
+        for (int i = 0; i < 2; i++) {
+            casByUser.put("user" + i, asList(createStackedPosJCas(2_000)));
+        }
+        run("2 annotators x 2000 stacked annotations", casByUser);
+    }
+
+    private void run(String aLabel, Map<String, List<JCas>> aCasByUser)
+    {
+        List<String> entryTypes = asList(POS.class.getName());
+        List<SpanDiffAdapter> adapters = asList(SpanDiffAdapter.POS);
+
+        // Warm up
+        CasDiff2.doDiff(entryTypes, adapters, LinkCompareBehavior.LINK_TARGET_AS_LABEL,
+                aCasByUser).getDifferingConfigurationSets();
+
+        com.sun.management.ThreadMXBean threads = 
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            CasDiff2.doDiff(entryTypes, adapters, LinkCompareBehavior.LINK_TARGET_AS_LABEL,
+                    aCasByUser).getDifferingConfigurationSets();
+        }
+        long duration = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        System.out.printf("%s: %.2f ms, %.2f MB per diff%n", aLabel,
+                duration / 1_000_000.0 / ITERATIONS, allocated / 1024.0 / 1024.0 / ITERATIONS);
+    }
+}
@@ -22,9 +22,12 @@ import static org.apache.uima.fit.util.JCasUtil.select;
 import static org.junit.Assert.assertEquals;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.Type;
@@ -436,6 +439,131 @@ public class CasDiff2Test
         assertEquals("", item3.getUnit(1).getCategory());
     }
 
+    @Test
+    public void compactDiffTest()
+        throws Exception
+    {
+        JCas user1doc1 = JCasFactory.createJCas();
+        user1doc1.setDocumentText("test");
+        new POS(user1doc1, 0, 1).addToIndexes();
+        POS p1 = new POS(user1doc1, 3, 4);
+        p1.setPosValue("A");
+        p1.addToIndexes();
+
+        JCas user2doc1 = JCasFactory.createJCas();
+        user2doc1.setDocumentText("test");
+        new POS(user2doc1, 0, 1).addToIndexes();
+        POS p2 = new POS(user2doc1, 3, 4);
+        p2.setPosValue("B");
+        p2.addToIndexes();
+
+        JCas user1doc2 = JCasFactory.createJCas();
+        user1doc2.setDocumentText("test");
+        POS p3 = new POS(user1doc2, 1, 2);
+        p3.setPosValue("C");
+        p3.addToIndexes();
+
+        JCas user2doc2 = JCasFactory.createJCas();
+        user2doc2.setDocumentText("test");
+        POS p4 = new POS(user2doc2, 1, 2);
+        p4.setPosValue("C");
+        p4.addToIndexes();
+        new POS(user2doc2, 2, 3).addToIndexes();
+        
+        List<String> entryTypes = asList(POS.class.getName());
+        List<SpanDiffAdapter> diffAdapters = asList(SpanDiffAdapter.POS);
+
+        // Agreement calculated on the CASes of both documents at once
+        Map<String, List<JCas>> casByUser = new LinkedHashMap<>();
+        casByUser.put("user1", asList(user1doc1, user1doc2));
+        casByUser.put("user2", asList(user2doc1, user2doc2));
+        DiffResult result = CasDiff2.doDiff(entryTypes, diffAdapters,
+                LinkCompareBehavior.LINK_TARGET_AS_LABEL, casByUser);
+        AgreementResult expected = AgreementUtils.getAgreement(
+                ConcreteAgreementMeasure.KRIPPENDORFF_ALPHA_NOMINAL_AGREEMENT, false, result,
+                entryTypes.get(0), "PosValue", casByUser);
+
+        // Agreement calculated on one compact diff per document
+        List<CompactDiff> diffs = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            Map<String, List<JCas>> docCasByUser = new LinkedHashMap<>();
+            docCasByUser.put("user1", asList(casByUser.get("user1").get(i)));
+            docCasByUser.put("user2", asList(casByUser.get("user2").get(i)));
+            DiffResult docResult = CasDiff2.doDiff(entryTypes, diffAdapters,
+                    LinkCompareBehavior.LINK_TARGET_AS_LABEL, docCasByUser);
+            diffs.add(AgreementUtils.makeCompactDiff(docResult, entryTypes.get(0),
+                    asList("PosValue"), docCasByUser));
+        }
+        PairwiseAnnotationResult pairwise = AgreementUtils.getPairwiseAgreement(
+                ConcreteAgreementMeasure.KRIPPENDORFF_ALPHA_NOMINAL_AGREEMENT, false, diffs,
+                asList("user1", "user2"), entryTypes.get(0), "PosValue");
+        AgreementResult actual = pairwise.getStudy("user1", "user2");
+
+        assertEquals(expected.getTotalSetCount(), actual.getTotalSetCount());
+        assertEquals(expected.getRelevantSetCount(), actual.getRelevantSetCount());
+        assertEquals(expected.getIncompleteSetsByPosition().size(),
+                actual.getIncompleteSetsByPosition().size());
+        assertEquals(expected.getSetsWithDifferences().size(),
+                actual.getSetsWithDifferences().size());
+        assertEquals(expected.getStudy().getItemCount(), actual.getStudy().getItemCount());
+        assertEquals(expected.getAgreement(), actual.getAgreement(), 0.000001d);
+    }
+
+    @Test
+    public void parallelPairwiseAgreementTest()
+        throws Exception
+    {
+        List<String> users = asList("user1", "user2", "user3", "user4");
+        Map<String, List<JCas>> casByUser = new LinkedHashMap<>();
+        for (int u = 0; u < users.size(); u++) {
+            JCas jcas = JCasFactory.createJCas();
+            jcas.setDocumentText("test");
+            for (int i = 0; i < 4; i++) {
+                POS pos = new POS(jcas, i, i + 1);
+                // Each user deviates on a different token
+                pos.setPosValue(i == u ? "X" : "A");
+                pos.addToIndexes();
+            }
+            casByUser.put(users.get(u), asList(jcas));
+        }
+        
+        List<String> entryTypes = asList(POS.class.getName());
+        DiffResult result = CasDiff2.doDiff(entryTypes, asList(SpanDiffAdapter.POS),
+                LinkCompareBehavior.LINK_TARGET_AS_LABEL, casByUser);
+        List<CompactDiff> diffs = asList(AgreementUtils.makeCompactDiff(result,
+                entryTypes.get(0), asList("PosValue"), casByUser));
+        
+        PairwiseAnnotationResult sequential = AgreementUtils.getPairwiseAgreement(
+                ConcreteAgreementMeasure.COHEN_KAPPA_AGREEMENT, true, diffs, users,
+                entryTypes.get(0), "PosValue");
+        
+        List<Integer> progress = Collections.synchronizedList(new ArrayList<>());
+        ForkJoinPool pool = new ForkJoinPool(2);
+        PairwiseAnnotationResult parallel;
+        try {
+            parallel = AgreementUtils.getPairwiseAgreement(
+                    ConcreteAgreementMeasure.COHEN_KAPPA_AGREEMENT, true, diffs, users,
+                    entryTypes.get(0), "PosValue", pool,
+                    (u1, u2, res, done, total) -> progress.add(done));
+        }
+        finally {
+            pool.shutdown();
+        }
+        
+        // Each pair is calculated exactly once
+        assertEquals(6, progress.size());
+        assertEquals(new HashSet<>(asList(1, 2, 3, 4, 5, 6)), new HashSet<>(progress));
+        
+        for (String u1 : users) {
+            for (String u2 : users) {
+                if (!u1.equals(u2)) {
+                    assertEquals(sequential.getStudy(u1, u2).getAgreement(),
+                            parallel.getStudy(u1, u2).getAgreement(), 0.000001d);
+                }
+            }
+        }
+    }
+
     @Test
     public void someDifferencesTest()
         throws Exception
@@ -914,6 +1042,87 @@ public class CasDiff2Test
 //        assertEquals(0.0, agreement.getAgreement(), 0.00001d);
     }
     
+    @Test
+    public void manyAnnotationsTest()
+        throws Exception
+    {
+        Map<String, List<JCas>> casByUser = new LinkedHashMap<>();
+        for (int i = 0; i < 3; i++) {
+            casByUser.put("user" + i, asList(createPosJCas(100, i)));
+        }
+
+        List<String> entryTypes = asList(POS.class.getName());
+        List<SpanDiffAdapter> diffAdapters = asList(SpanDiffAdapter.POS);
+
+        DiffResult result = CasDiff2.doDiff(entryTypes, diffAdapters,
+                LinkCompareBehavior.LINK_TARGET_AS_LABEL, casByUser);
+
+        assertEquals(100, result.size());
+        assertEquals(10, result.getDifferingConfigurationSets().size());
+        assertEquals(0, result.getIncompleteConfigurationSets().size());
+    }
+
+    @Test
+    public void stackedAnnotationsTest()
+        throws Exception
+    {
+        Map<String, List<JCas>> casByUser = new LinkedHashMap<>();
+        for (int i = 0; i < 2; i++) {
+            casByUser.put("user" + i, asList(createStackedPosJCas(20)));
+        }
+
+        List<String> entryTypes = asList(POS.class.getName());
+        List<SpanDiffAdapter> diffAdapters = asList(SpanDiffAdapter.POS);
+
+        DiffResult result = CasDiff2.doDiff(entryTypes, diffAdapters,
+                LinkCompareBehavior.LINK_TARGET_AS_LABEL, casByUser);
+
+        assertEquals(1, result.size());
+        assertEquals(20, result.getConfigurationSets().iterator().next().getConfigurations()
+                .size());
+    }
+
+    /**
+     * Create a document with the given number of POS annotations. Every tenth annotation is
+     * labeled differently by each annotator.
+     */
+    static JCas createPosJCas(int aAnnotations, int aAnnotator)
+        throws Exception
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < aAnnotations; i++) {
+            text.append("word ");
+        }
+
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText(text.toString());
+        List<POS> annotations = new ArrayList<>();
+        for (int i = 0; i < aAnnotations; i++) {
+            POS pos = new POS(jcas, i * 5, i * 5 + 4);
+            pos.setPosValue(i % 10 == 0 ? "TAG" + aAnnotator : "NN");
+            annotations.add(pos);
+        }
+        annotations.forEach(POS::addToIndexes);
+        return jcas;
+    }
+
+    /**
+     * Create a document with the given number of differently labeled POS annotations all at the
+     * same position.
+     */
+    static JCas createStackedPosJCas(int aAnnotations)
+        throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("word");
+        for (int n = 0; n < aAnnotations; n++) {
+            POS pos = new POS(jcas, 0, 4);
+            pos.setPosValue("TAG" + n);
+            pos.addToIndexes();
+        }
+        return jcas;
+    }
+
     @Rule
     public DkproTestContext testContext = new DkproTestContext();
 }
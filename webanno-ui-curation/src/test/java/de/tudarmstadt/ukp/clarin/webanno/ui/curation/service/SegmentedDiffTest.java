@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.curation.service;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.CasDiff2.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.CasDiff2.LinkCompareBehavior;
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.CasDiff2.SpanDiffAdapter;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+
+public class SegmentedDiffTest
+{
+    private static final String TEXT = "John lives here . Mary lives there .";
+    private static final int[] BEGINS = { 0, 17 };
+    private static final int[] ENDS = { 16, 36 };
+
+    @Test
+    public void thatSegmentDiffEqualsScopedDiff()
+        throws Exception
+    {
+        JCas user1 = createCas("PER", "PER");
+        JCas user2 = createCas("PER", "LOC");
+
+        Map<String, JCas> casByUser = new LinkedHashMap<>();
+        casByUser.put("user1", user1);
+        casByUser.put("user2", user2);
+
+        List<String> entryTypes = asList(NamedEntity.class.getName());
+        List<SpanDiffAdapter> adapters = asList(
+                new SpanDiffAdapter(NamedEntity.class.getName(), "value"));
+
+        SegmentedDiff diff = new SegmentedDiff(entryTypes, adapters,
+                LinkCompareBehavior.LINK_TARGET_AS_LABEL, casByUser, BEGINS, ENDS);
+
+        assertEquals(2, diff.size());
+        for (int i = 0; i < diff.size(); i++) {
+            Map<String, List<JCas>> casMap = new LinkedHashMap<>();
+            casMap.put("user1", asList(user1));
+            casMap.put("user2", asList(user2));
+            DiffResult expected = CasDiff2.doDiff(entryTypes, adapters, casMap, BEGINS[i],
+                    ENDS[i], LinkCompareBehavior.LINK_TARGET_AS_LABEL);
+            DiffResult actual = diff.getDiff(i);
+
+            assertEquals(expected.size(), actual.size());
+            assertEquals(expected.getDifferingConfigurationSets().size(),
+                    actual.getDifferingConfigurationSets().size());
+            assertEquals(expected.getIncompleteConfigurationSets().size(),
+                    actual.getIncompleteConfigurationSets().size());
+        }
+        
+        assertEquals(0, diff.getDiff(0).getDifferingConfigurationSets().size());
+        assertEquals(1, diff.getDiff(1).getDifferingConfigurationSets().size());
+    }
+
+    @Test
+    public void thatSignatureOnlyChangesInEditedSegment()
+        throws Exception
+    {
+        Map<String, JCas> before = new LinkedHashMap<>();
+        before.put("user1", createCas("PER", "PER"));
+        before.put("user2", createCas("PER", "PER"));
+
+        Map<String, JCas> after = new LinkedHashMap<>();
+        after.put("user1", createCas("PER", "PER"));
+        after.put("user2", createCas("PER", "LOC"));
+
+        List<String> entryTypes = asList(NamedEntity.class.getName());
+        List<SpanDiffAdapter> adapters = asList(
+                new SpanDiffAdapter(NamedEntity.class.getName(), "value"));
+
+        SegmentedDiff diffBefore = new SegmentedDiff(entryTypes, adapters,
+                LinkCompareBehavior.LINK_TARGET_AS_LABEL, before, BEGINS, ENDS);
+        SegmentedDiff diffAfter = new SegmentedDiff(entryTypes, adapters,
+                LinkCompareBehavior.LINK_TARGET_AS_LABEL, after, BEGINS, ENDS);
+
+        assertEquals(diffBefore.getSignature(0), diffAfter.getSignature(0));
+        assertNotEquals(diffBefore.getSignature(1), diffAfter.getSignature(1));
+    }
+
+    @Test
+    public void thatSignatureDistinguishesValuesWithSameHashCode()
+        throws Exception
+    {
+        // "Aa" and "BB" have the same String.hashCode()
+        Map<String, JCas> before = new LinkedHashMap<>();
+        before.put("user1", createCas("Aa", "PER"));
+
+        Map<String, JCas> after = new LinkedHashMap<>();
+        after.put("user1", createCas("BB", "PER"));
+
+        List<String> entryTypes = asList(NamedEntity.class.getName());
+        List<SpanDiffAdapter> adapters = asList(
+                new SpanDiffAdapter(NamedEntity.class.getName(), "value"));
+
+        SegmentedDiff diffBefore = new SegmentedDiff(entryTypes, adapters,
+                LinkCompareBehavior.LINK_TARGET_AS_LABEL, before, BEGINS, ENDS);
+        SegmentedDiff diffAfter = new SegmentedDiff(entryTypes, adapters,
+                LinkCompareBehavior.LINK_TARGET_AS_LABEL, after, BEGINS, ENDS);
+
+        assertNotEquals(diffBefore.getSignature(0), diffAfter.getSignature(0));
+        assertEquals(diffBefore.getSignature(1), diffAfter.getSignature(1));
+    }
+
+    private static JCas createCas(String aValue1, String aValue2)
+        throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText(TEXT);
+
+        NamedEntity ne1 = new NamedEntity(jcas, 0, 4);
+        ne1.setValue(aValue1);
+        ne1.addToIndexes();
+
+        NamedEntity ne2 = new NamedEntity(jcas, 17, 21);
+        ne2.setValue(aValue2);
+        ne2.addToIndexes();
+
+        return jcas;
+    }
+}
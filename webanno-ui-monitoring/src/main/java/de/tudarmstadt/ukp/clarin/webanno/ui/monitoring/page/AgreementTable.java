@@ -134,6 +134,13 @@ public class AgreementTable
                         else if (aRowItem.getIndex() != 0 && aCellItem.getIndex() == 0) {
                             cell.add(new Label("label", Model.of(aRowItem.getModelObject())));
                         }
+                        // Pair not calculated yet (the table may show a partial result)
+                        else if (aCellItem.getIndex() != aRowItem.getIndex()
+                                && AgreementTable.this.getModelObject().getStudy(
+                                        aRowItem.getModelObject(),
+                                        aCellItem.getModelObject()) == null) {
+                            cell.add(new Label("label", Model.of("...")));
+                        }
                         // Upper diagonal
                         else if (aCellItem.getIndex() > aRowItem.getIndex()) {
                             AgreementResult result = AgreementTable.this.getModelObject().getStudy(
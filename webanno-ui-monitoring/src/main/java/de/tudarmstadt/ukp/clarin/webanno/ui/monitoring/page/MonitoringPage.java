@@ -40,14 +40,17 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.uima.UIMAException;
-import org.apache.uima.jcas.JCas;
+import org.apache.wicket.Application;
 import org.apache.wicket.AttributeModifier;
 import org.apache.wicket.Component;
+import org.apache.wicket.ThreadContext;
+import org.apache.wicket.ajax.AbstractAjaxTimerBehavior;
 import org.apache.wicket.ajax.AjaxEventBehavior;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.ajax.form.OnChangeAjaxBehavior;
@@ -83,6 +86,7 @@ import org.apache.wicket.spring.injection.annot.SpringBean;
 import org.apache.wicket.util.resource.AbstractResourceStream;
 import org.apache.wicket.util.resource.IResourceStream;
 import org.apache.wicket.util.resource.ResourceStreamNotFoundException;
+import org.apache.wicket.util.time.Duration;
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.axis.NumberAxis;
@@ -99,6 +103,7 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.wicketstuff.annotation.mount.MountPath;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectProgress;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
 import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
@@ -120,20 +125,17 @@ import de.tudarmstadt.ukp.clarin.webanno.support.AJAXDownload;
 import de.tudarmstadt.ukp.clarin.webanno.support.EntityModel;
 import de.tudarmstadt.ukp.clarin.webanno.ui.automation.service.AutomationService;
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.component.CurationPanel;
+import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.AgreementService;
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.AgreementUtils;
-import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.CasDiff2;
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.PairwiseAnnotationResult;
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.AgreementUtils.AgreementReportExportFormat;
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.AgreementUtils.AgreementResult;
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.AgreementUtils.ConcreteAgreementMeasure;
-import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.CasDiff2.DiffAdapter;
-import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.CasDiff2.DiffResult;
 import de.tudarmstadt.ukp.clarin.webanno.ui.curation.service.CasDiff2.LinkCompareBehavior;
 import de.tudarmstadt.ukp.clarin.webanno.ui.monitoring.support.ChartImageResource;
 import de.tudarmstadt.ukp.clarin.webanno.ui.monitoring.support.EmbeddableImage;
 import de.tudarmstadt.ukp.clarin.webanno.ui.monitoring.support.TableDataProvider;
 import de.tudarmstadt.ukp.clarin.webanno.webapp.core.app.ApplicationPageBase;
-import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
 
 /**
@@ -177,6 +179,9 @@ public class MonitoringPage
 
     @SpringBean(name = "userRepository")
     private UserDao userRepository;
+
+    @SpringBean(name = "agreementService")
+    private AgreementService agreementService;
     
     private final ProjectSelectionForm projectSelectionForm;
     private final MonitoringDetailForm monitoringDetailForm;
@@ -382,9 +387,7 @@ public class MonitoringPage
                     projectSelectionModel.totalDocuments = sourceDocuments.size();
                     ProjectSelectionForm.this.setVisible(true);
 
-                    // Clear the cached CASes. When we switch to another project, we'll have to
-                    // reload them.
-                    updateAgreementTable(RequestCycle.get().find(AjaxRequestTarget.class), true);
+                    updateAgreementTable(RequestCycle.get().find(AjaxRequestTarget.class));
 
                     // Annotator's Progress
                     if (projectSelectionModel.project != null) {
@@ -511,21 +514,10 @@ public class MonitoringPage
     {
         Map<String, Integer> annotatorsProgress = new HashMap<String, Integer>();
         if (aProject != null) {
-            for (User user : repository.listProjectUsersWithPermissions(aProject, PermissionLevel.USER)) {
-                for (SourceDocument document : repository.listSourceDocuments(aProject)) {
-                    if (repository.isAnnotationFinished(document, user)) {
-                        if (annotatorsProgress.get(user.getUsername()) == null) {
-                            annotatorsProgress.put(user.getUsername(), 1);
-                        }
-                        else {
-                            int previousValue = annotatorsProgress.get(user.getUsername());
-                            annotatorsProgress.put(user.getUsername(), previousValue + 1);
-                        }
-                    }
-                }
-                if (annotatorsProgress.get(user.getUsername()) == null) {
-                    annotatorsProgress.put(user.getUsername(), 0);
-                }
+            ProjectProgress progress = repository.getProjectProgress(aProject);
+            for (String annotator : progress.getAnnotators()) {
+                annotatorsProgress.put(annotator,
+                        progress.getCount(annotator, AnnotationDocumentState.FINISHED, true));
             }
         }
         return annotatorsProgress;
@@ -535,33 +527,9 @@ public class MonitoringPage
     {
         Map<String, Integer> annotatorsProgress = new HashMap<String, Integer>();
         if (aProject != null) {
-            for (User user : repository.listProjectUsersWithPermissions(aProject, PermissionLevel.USER)) {
-                int finished = 0;
-                int ignored = 0;
-                int totalDocs = 0;
-                List<SourceDocument> documents = repository.listSourceDocuments(aProject);
-                List<SourceDocument> trainingDoc = new ArrayList<SourceDocument>();
-                for (SourceDocument sdc : documents) {
-                    if (sdc.isTrainingDocument()) {
-                        trainingDoc.add(sdc);
-                    }
-                }
-                documents.removeAll(trainingDoc);
-                for (SourceDocument document : documents) {
-                    totalDocs++;
-                    if (repository.isAnnotationFinished(document, user)) {
-                        finished++;
-                    }
-                    else if (repository.existsAnnotationDocument(document, user)) {
-                        AnnotationDocument annotationDocument = repository.getAnnotationDocument(
-                                document, user);
-                        if (annotationDocument.getState().equals(AnnotationDocumentState.IGNORE)) {
-                            ignored++;
-                        }
-                    }
-                }
-                annotatorsProgress.put(user.getUsername(),
-                        (int) Math.round((double) (finished * 100) / (totalDocs - ignored)));
+            ProjectProgress progress = repository.getProjectProgress(aProject);
+            for (String annotator : progress.getAnnotators()) {
+                annotatorsProgress.put(annotator, progress.getFinishedPercentage(annotator));
             }
         }
         return annotatorsProgress;
@@ -575,10 +543,8 @@ public class MonitoringPage
         for (Project project : repository.listProjects()) {
             if (SecurityUtil.isCurator(project, repository, user)
                     || SecurityUtil.isProjectAdmin(project, repository, user)) {
-                int annoFinished = repository.listFinishedAnnotationDocuments(project).size();
-                int allAnno = repository.numberOfExpectedAnnotationDocuments(project);
-                int progress = (int) Math.round((double) (annoFinished * 100) / (allAnno));
-                overallProjectProgress.put(project.getName(), progress);
+                overallProjectProgress.put(project.getName(),
+                        repository.getProjectProgress(project).getFinishedPercentage());
             }
         }
         return overallProjectProgress;
@@ -627,6 +593,10 @@ public class MonitoringPage
 
         private CheckBox excludeIncomplete;
         
+        private Label agreementProgress;
+        
+        private transient AgreementCalculation agreementCalculation;
+        
         public AgreementForm(String id)
         {
             super(id, new CompoundPropertyModel<AgreementFormModel>(new AgreementFormModel()));
@@ -751,22 +721,65 @@ public class MonitoringPage
                         return null;
                     }
                     
-                    Map<String, List<JCas>> casMap = getJCases();
+                    // The calculation is not serialized with the page, so restart it if the page
+                    // has been restored from the page store.
+                    if (agreementCalculation == null) {
+                        startAgreementCalculation();
+                    }
                     
-                    Project project = projectSelectionForm.getModelObject().project;
-                    List<DiffAdapter> adapters = CasDiff2.getAdapters(annotationService,
-                            project);
+                    // May be a partial result - the timer below refreshes the table until all
+                    // pairs have been calculated.
+                    return agreementCalculation.result;
+                }
+            }));
+            
+            agreementTable2.add(new AbstractAjaxTimerBehavior(Duration.ONE_SECOND)
+            {
+                private static final long serialVersionUID = 1L;
 
-                    AgreementFormModel pref = AgreementForm.this.getModelObject();
+                @Override
+                protected boolean shouldTrigger()
+                {
+                    return agreementCalculation != null && agreementCalculation.isRunning();
+                }
+                
+                @Override
+                protected void onTimer(AjaxRequestTarget aTarget)
+                {
+                    if (agreementCalculation.error != null) {
+                        error("Error calculating agreement: " + agreementCalculation.error);
+                        aTarget.add(getFeedbackPanel());
+                    }
+                    aTarget.add(agreementTable2, agreementProgress);
+                }
+            });
+            
+            add(agreementProgress = new Label("agreementProgress",
+                    new AbstractReadOnlyModel<String>()
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public String getObject()
+                {
+                    if (agreementCalculation == null) {
+                        return "";
+                    }
+                    return String.format("Calculating agreement... %d/%d pairs",
+                            agreementCalculation.done.get(), agreementCalculation.total);
+                }
+            }) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void onConfigure()
+                {
+                    super.onConfigure();
                     
-                    DiffResult diff = CasDiff2.doDiff(asList(feature.getLayer().getName()),
-                            adapters, pref.linkCompareBehavior, casMap);
-                    return AgreementUtils.getPairwiseAgreement(
-                            AgreementForm.this.getModelObject().measure,
-                            pref.excludeIncomplete, diff, feature.getLayer().getName(),
-                            feature.getName(), casMap);
+                    setVisible(agreementCalculation != null && agreementCalculation.isRunning());
                 }
-            }));
+            });
+            agreementProgress.setOutputMarkupPlaceholderTag(true);
             
             exportAll = new AjaxButton("exportAll") {
                 private static final long serialVersionUID = 3908727116180563330L;
@@ -794,20 +807,11 @@ public class MonitoringPage
                                         return null;
                                     }
                                     
-                                    Map<String, List<JCas>> casMap = getJCases();
-                                    
-                                    Project project = projectSelectionForm.getModelObject().project;
-                                    List<DiffAdapter> adapters = CasDiff2.getAdapters(annotationService,
-                                            project);
-
                                     AgreementFormModel pref = AgreementForm.this.getModelObject();
                                     
-                                    DiffResult diff = CasDiff2.doDiff(asList(feature.getLayer().getName()),
-                                            adapters, pref.linkCompareBehavior, casMap);
-
-                                    AgreementResult agreementResult = AgreementUtils.makeStudy(diff,
-                                            feature.getLayer().getName(), feature.getName(),
-                                            pref.excludeIncomplete, casMap);
+                                    AgreementResult agreementResult = agreementService.getStudy(
+                                            feature, pref.excludeIncomplete,
+                                            pref.linkCompareBehavior);
                                     try {
                                         return AgreementUtils.generateCsvReport(agreementResult);
                                     }
@@ -858,6 +862,28 @@ public class MonitoringPage
             setVisible(model != null && model.project != null);
         }
 
+        /**
+         * Starts calculating the agreement for the current settings in the background. A
+         * calculation which is still running for previous settings is abandoned - it continues
+         * to run to completion, but its results are no longer shown.
+         */
+        private void startAgreementCalculation()
+        {
+            AnnotationFeature feature = featureList.getModelObject();
+            if (feature == null) {
+                agreementCalculation = null;
+                return;
+            }
+            
+            AgreementFormModel pref = getModelObject();
+            agreementCalculation = new AgreementCalculation(agreementService, feature,
+                    pref.measure, pref.excludeIncomplete, pref.linkCompareBehavior);
+            Thread thread = new Thread(agreementCalculation,
+                    "agreement-" + feature.getProject().getId());
+            thread.setDaemon(true);
+            thread.start();
+        }
+        
         private void addUpdateAgreementTableBehavior(Component aComponent)
         {
             aComponent.add(new OnChangeAjaxBehavior()
@@ -871,7 +897,7 @@ public class MonitoringPage
                     // add the feedback panel to the cycle, so let's do it here.
                     aTarget.add(getFeedbackPanel());
                     
-                    updateAgreementTable(aTarget, false);
+                    updateAgreementTable(aTarget);
 //                    // Adding this as well because when choosing a different measure, it may affect
 //                    // the ability to exclude incomplete configurations.
 //                    aTarget.add(excludeIncomplete);
@@ -887,6 +913,70 @@ public class MonitoringPage
         }
     }
     
+    /**
+     * Calculates the pairwise agreement in a background thread, collecting the result of each
+     * pair as soon as it is available so that the agreement table can be shown progressively.
+     */
+    private static class AgreementCalculation
+        implements Runnable
+    {
+        private final Application application;
+        private final AgreementService agreementService;
+        private final AnnotationFeature feature;
+        private final ConcreteAgreementMeasure measure;
+        private final boolean excludeIncomplete;
+        private final LinkCompareBehavior linkCompareBehavior;
+        
+        private final PairwiseAnnotationResult result = new PairwiseAnnotationResult();
+        private final AtomicInteger done = new AtomicInteger();
+        private volatile int total;
+        private volatile boolean finished;
+        private volatile String error;
+        
+        public AgreementCalculation(AgreementService aAgreementService,
+                AnnotationFeature aFeature, ConcreteAgreementMeasure aMeasure,
+                boolean aExcludeIncomplete, LinkCompareBehavior aLinkCompareBehavior)
+        {
+            application = Application.get();
+            agreementService = aAgreementService;
+            feature = aFeature;
+            measure = aMeasure;
+            excludeIncomplete = aExcludeIncomplete;
+            linkCompareBehavior = aLinkCompareBehavior;
+        }
+        
+        public boolean isRunning()
+        {
+            return !finished;
+        }
+        
+        @Override
+        public void run()
+        {
+            // The Spring bean proxies injected by Wicket need the application to locate their
+            // target.
+            ThreadContext.setApplication(application);
+            try {
+                agreementService.getPairwiseAgreement(feature, measure, excludeIncomplete,
+                        linkCompareBehavior, (aUser1, aUser2, aResult, aDone, aTotal) -> {
+                            result.add(aUser1, aUser2, aResult);
+                            total = aTotal;
+                            // Pairs are calculated concurrently, so the counts may arrive out
+                            // of order.
+                            done.accumulateAndGet(aDone, Math::max);
+                        });
+            }
+            catch (Throwable e) {
+                LOG.error("Error calculating agreement", e);
+                error = ExceptionUtils.getRootCauseMessage(e);
+            }
+            finally {
+                finished = true;
+                ThreadContext.detach();
+            }
+        }
+    }
+    
     static public class AgreementFormModel
         implements Serializable
     {
@@ -1146,92 +1236,13 @@ public class MonitoringPage
 
     }
 
-    // The CASes cannot be serialized, so we make them transient here. However, it does not matter
-    // as we do not access the field directly but via getJCases() which will re-load them if
-    // necessary, e.g. if the transient field is empty after a session is restored from a 
-    // persisted state.
-    private transient Map<String, List<JCas>> cachedCASes;
-
-    /**
-     * Get the finished CASes used to compute agreement.
-     */
-    private Map<String, List<JCas>> getJCases()
-    {
-        // Avoid reloading the CASes when switching features. 
-        if (cachedCASes != null) {
-            return cachedCASes;
-        }
-        
-        Project project = projectSelectionForm.getModelObject().project;
-        
-        List<User> users = repository
-                .listProjectUsersWithPermissions(project, PermissionLevel.USER);
-        
-        List<SourceDocument> sourceDocuments = repository.listSourceDocuments(project);
-        
-        // Filter training documents out from the source documents. Training documents are not
-        // being annotated
-        // FIXME actually, listSourceDocuments() shouldn return training documents in the first 
-        // place. Cf. https://github.com/webanno/webanno/issues/23
-        List<SourceDocument> trainingDoc = new ArrayList<SourceDocument>();
-        for (SourceDocument sdc : sourceDocuments) {
-            if (sdc.isTrainingDocument()) {
-                trainingDoc.add(sdc);
-            }
-        }
-        sourceDocuments.removeAll(trainingDoc);
-        
-        cachedCASes = new LinkedHashMap<>();
-        for (User user : users) {
-            List<JCas> cases = new ArrayList<>();
-            
-            for (SourceDocument document : sourceDocuments) {
-                JCas jCas = null;
-                
-                // Load the CAS if there is a finished one.
-                if (repository.existsAnnotationDocument(document, user)) {
-                    AnnotationDocument annotationDocument = repository.getAnnotationDocument(
-                            document, user);
-                    if (annotationDocument.getState().equals(AnnotationDocumentState.FINISHED)) {
-                        try {
-                            jCas = repository.readAnnotationCas(annotationDocument);
-                            repository.upgradeCas(jCas.getCas(), annotationDocument);
-                            // REC: I think there is no need to write the CASes here. We would not
-                            // want to interfere with currently active annotator users
-                            
-                            // Set the CAS name in the DocumentMetaData so that we can pick it
-                            // up in the Diff position for the purpose of debugging / transparency.
-                            DocumentMetaData documentMetadata = DocumentMetaData.get(jCas);
-                            documentMetadata.setDocumentId(annotationDocument.getDocument().getName());
-                            documentMetadata.setCollectionId(annotationDocument.getProject().getName());
-                        }
-                        catch (Exception e) {
-                            LOG.error("Unable to load data", e);
-                            error("Unable to load data: " + ExceptionUtils.getRootCauseMessage(e));
-                        }
-                    }
-                }
-                
-                // The next line can enter null values into the list if a user didn't work on this
-                // source document yet.
-                cases.add(jCas);
-            }
-
-            cachedCASes.put(user.getUsername(), cases);
-        }
-        
-        return cachedCASes;
-    }
-
-    private void updateAgreementTable(AjaxRequestTarget aTarget, boolean aClearCache)
+    private void updateAgreementTable(AjaxRequestTarget aTarget)
     {
         try {
-            if (aClearCache) {
-                cachedCASes = null;
-            }
+            agreementForm.startAgreementCalculation();
             agreementForm.agreementTable2.getDefaultModel().detach();
             if (aTarget != null) {
-                aTarget.add(agreementForm.agreementTable2);
+                aTarget.add(agreementForm.agreementTable2, agreementForm.agreementProgress);
             }
         }
         catch (Throwable e) {
@@ -1395,7 +1406,7 @@ public class MonitoringPage
                             LOG.info(e.getMessage(), e);
                         }
 
-                        updateAgreementTable(aTarget, true);
+                        updateAgreementTable(aTarget);
                         
                         aTarget.add(aCellItem);
                         updateStats(aTarget, projectSelectionForm.getModelObject());
@@ -1497,7 +1508,7 @@ public class MonitoringPage
                             repository.createAnnotationDocument(annotationDocument);
                         }
                         
-                        updateAgreementTable(aTarget, true);
+                        updateAgreementTable(aTarget);
                         
                         aTarget.add(aCellItem);
                         updateStats(aTarget, projectSelectionForm.getModelObject());
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.project;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Queue;
+import java.util.function.IntConsumer;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.apache.uima.UIMAException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
+import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.tsv.WebannoTsv3Writer;
+
+/**
+ * Writes the annotation and curation documents of a project to a project export.
+ */
+class DocumentExporter
+{
+    private static final Logger LOG = LoggerFactory.getLogger(DocumentExporter.class);
+
+    public static final String FORMAT_AUTO = "AUTO";
+
+    private static final String CURATION_AS_SERIALISED_CAS = "/"
+            + ImportUtil.CURATION_AS_SERIALISED_CAS + "/";
+    private static final String CURATION_FOLDER = "/curation/";
+    private static final String ANNOTATION_CAS_FOLDER = "/"
+            + ImportUtil.ANNOTATION_AS_SERIALISED_CAS + "/";
+    private static final String ANNOTATION_ORIGINAL_FOLDER = "/annotation/";
+
+    private static final String CURATION_USER = "CURATION_USER";
+    private static final String CORRECTION_USER = "CORRECTION_USER";
+
+    private final RepositoryService repository;
+    private final UserDao userRepository;
+    private final Queue<String> messages;
+    private final IntConsumer progress;
+
+    /**
+     * @param aRepository
+     *            the repository service.
+     * @param aUserRepository
+     *            the user service.
+     * @param aMessages
+     *            receives the messages to be shown to the user.
+     * @param aProgress
+     *            receives the progress of the export in percent.
+     */
+    public DocumentExporter(RepositoryService aRepository, UserDao aUserRepository,
+            Queue<String> aMessages, IntConsumer aProgress)
+    {
+        repository = aRepository;
+        userRepository = aUserRepository;
+        messages = aMessages;
+        progress = aProgress;
+    }
+
+    /**
+     * Write the curation and annotation documents to the ZIP file being exported.
+     * <p>
+     * In automation and correction projects, the document of the correction user is exported to
+     * the curation folder under the same name as the curated document. The curated document takes
+     * precedence, so it is written first and the document of the correction user is skipped by
+     * the {@link ExportZip}.
+     *
+     * @param aProject
+     *            the project.
+     * @param aFormat
+     *            the export format or {@link #FORMAT_AUTO}.
+     * @param aZip
+     *            the ZIP file the documents are written to.
+     * @param aInitProgress
+     *            the progress before the documents are written. Writing the documents takes
+     *            80% of the export.
+     */
+    public void exportDocuments(Project aProject, String aFormat, ExportZip aZip,
+            int aInitProgress)
+        throws IOException, UIMAException, ClassNotFoundException, ProjectExportException
+    {
+        exportCuratedDocuments(aProject, aFormat, aZip, aInitProgress);
+        exportAnnotationDocuments(aProject, aFormat, aZip, aInitProgress + 10);
+    }
+
+    /**
+     * Write, if exists, curation documents to the ZIP file being exported
+     *
+     * @param aProject
+     *            the project.
+     * @param aFormat
+     *            the export format or {@link #FORMAT_AUTO}.
+     * @param aZip
+     *            The ZIP file the curated documents are written to
+     * @param aInitProgress
+     *            the progress before the documents are written.
+     */
+    public void exportCuratedDocuments(Project aProject, String aFormat, ExportZip aZip,
+            int aInitProgress)
+        throws IOException, ClassNotFoundException, ProjectExportException
+    {
+        // Get all the source documents from the project
+        List<SourceDocument> documents = repository.listSourceDocuments(aProject);
+
+        // Determine which format to use for export.
+        Class<?> writer;
+        if (FORMAT_AUTO.equals(aFormat)) {
+            writer = WebannoTsv3Writer.class;
+        }
+        else {
+            writer = repository.getWritableFormats().get(
+                    repository.getWritableFormatId(aFormat));
+            if (writer == null) {
+                writer = WebannoTsv3Writer.class;
+            }
+        }
+        
+        int i = 1;
+        for (SourceDocument sourceDocument : documents) {
+            String curationCasDir = CURATION_AS_SERIALISED_CAS + sourceDocument.getName();
+            String curationDir = CURATION_FOLDER + sourceDocument.getName();
+
+            // If the curation document is finished
+            if (SourceDocumentState.CURATION_FINISHED.equals(sourceDocument.getState())) {
+                File curationCasFile = repository.getCasFile(sourceDocument, CURATION_USER);
+                if (curationCasFile.exists()) {
+                    // Copy CAS - this is used when importing the project again
+                    aZip.addEntry(curationCasDir, curationCasFile.getName(),
+                        os -> repository.exportSerializedCas(sourceDocument, CURATION_USER, os));
+                    
+                    // Copy secondary export format for convenience - not used during import
+                    try {
+                        File curationFile = repository.exportAnnotationDocument(sourceDocument,
+                                CURATION_USER, writer, CURATION_USER, Mode.CURATION);
+                        aZip.addFile(curationDir, curationFile);
+                        FileUtils.forceDelete(curationFile);
+                    }
+                    catch (Exception e) {
+                        LOG.error("Unable to export curated document [{}]",
+                                sourceDocument.getName(), e);
+                        messages.add("Unexpected error while exporting project: "
+                                + ExceptionUtils.getRootCauseMessage(e));
+                        throw new ProjectExportException(
+                                "Aborting due to unrecoverable error while exporting!");
+                    }
+                }
+            }
+            
+            progress.accept(aInitProgress + (int) Math.ceil(((double) i) / documents.size()
+                    * 10.0));
+            i++;
+        }
+    }
+
+    /**
+     * Write annotation document as Serialized CAS from the file system of this project to the
+     * ZIP file
+     */
+    private void exportAnnotationDocuments(Project aProject, String aFormat, ExportZip aZip,
+            int aInitProgress)
+        throws IOException, UIMAException, ClassNotFoundException
+    {
+        List<SourceDocument> documents = repository.listSourceDocuments(aProject);
+        int i = 1;
+        for (SourceDocument sourceDocument : documents) {
+            // Determine which format to use for export
+            String formatId;
+            if (FORMAT_AUTO.equals(aFormat)) {
+                formatId = sourceDocument.getFormat();
+            }
+            else {
+                formatId = repository.getWritableFormatId(aFormat);
+            }
+            Class<?> writer = repository.getWritableFormats().get(formatId);
+            if (writer == null) {
+                String msg = "[" + sourceDocument.getName()
+                        + "] No writer found for format [" + formatId
+                        + "] - exporting as WebAnno TSV instead.";
+                // Avoid repeating the same message over for different users
+                if (!messages.contains(msg)) {
+                    messages.add(msg);
+                }
+                writer = WebannoTsv3Writer.class;
+            }
+
+            // Export annotations from regular users
+            List<AnnotationDocument> annotationDocuments = repository
+                    .listAnnotationDocuments(sourceDocument);
+            int j = 0;
+            for (AnnotationDocument annotationDocument : annotationDocuments) {
+                // copy annotation document only for ACTIVE users and the state of the 
+                // annotation document is not NEW/IGNORE
+                if (userRepository.get(annotationDocument.getUser()) != null
+                        && !annotationDocument.getState().equals(AnnotationDocumentState.NEW)
+                        && !annotationDocument.getState()
+                                .equals(AnnotationDocumentState.IGNORE)) {
+                    String annotationDocumentAsSerialisedCasDir = ANNOTATION_CAS_FOLDER
+                            + sourceDocument.getName();
+                    String annotationDocumentDir = ANNOTATION_ORIGINAL_FOLDER
+                            + sourceDocument.getName();
+
+                    File annotationFileAsSerialisedCas = repository.getCasFile(
+                            sourceDocument, annotationDocument.getUser());
+
+                    File annotationFile = null;
+                    if (annotationFileAsSerialisedCas.exists() && writer != null) {
+                        annotationFile = repository.exportAnnotationDocument(sourceDocument,
+                                annotationDocument.getUser(), writer,
+                                annotationDocument.getUser(), Mode.ANNOTATION, false);
+                    }
+                    if (annotationFileAsSerialisedCas.exists()) {
+                        aZip.addEntry(annotationDocumentAsSerialisedCasDir,
+                                annotationFileAsSerialisedCas.getName(),
+                            os -> repository.exportSerializedCas(sourceDocument,
+                                    annotationDocument.getUser(), os));
+                        if (writer != null) {
+                            aZip.addFile(annotationDocumentDir, annotationFile);
+                            FileUtils.forceDelete(annotationFile);
+                        }
+                    }
+                }
+                
+                // Report progress per annotation document, not only per source document
+                j++;
+                progress.accept(aInitProgress + (int) Math.ceil(
+                        (i - 1 + ((double) j) / annotationDocuments.size())
+                                / documents.size() * 70.0));
+            }
+            
+            // BEGIN FIXME #1224 CURATION_USER and CORRECTION_USER files should be exported in annotation_ser
+            // If this project is a correction project, add the auto-annotated  CAS to same 
+            // folder as CURATION_FOLDER
+            if (aProject.getMode().equals(Mode.AUTOMATION)
+                    || aProject.getMode().equals(Mode.CORRECTION)) {
+                File correctionCasFile = repository.getCasFile(sourceDocument,
+                        CORRECTION_USER);
+                if (correctionCasFile.exists()) {
+                    // Copy CAS - this is used when importing the project again
+                    aZip.addEntry(CURATION_AS_SERIALISED_CAS + sourceDocument.getName(),
+                            correctionCasFile.getName(),
+                        os -> repository.exportSerializedCas(sourceDocument, CORRECTION_USER,
+                                os));
+                    
+                    // Copy secondary export format for convenience - not used during import.
+                    // If the document has been curated, the curated document has already been
+                    // written under the same name and this one is skipped.
+                    File correctionFile = repository.exportAnnotationDocument(sourceDocument,
+                            CORRECTION_USER, writer, CORRECTION_USER, Mode.CORRECTION);
+                    aZip.addFile(CURATION_FOLDER + sourceDocument.getName(), correctionFile);
+                    FileUtils.forceDelete(correctionFile);
+                }
+            }
+            // END FIXME #1224 CURATION_USER and CORRECTION_USER files should be exported in annotation_ser
+            
+            progress.accept(aInitProgress + (int) Math.ceil(((double) i) / documents.size()
+                    * 70.0));
+            i++;
+        }
+    }
+}
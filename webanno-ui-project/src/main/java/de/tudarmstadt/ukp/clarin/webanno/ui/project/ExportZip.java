@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.project;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the entries of a project export directly into a ZIP file. Each entry is reported to
+ * the log as it is written. An entry which has already been written cannot be replaced, so if an
+ * entry is written twice, the second one is skipped. Callers writing several files under the same
+ * name must write the one to be kept first.
+ */
+class ExportZip
+    implements Closeable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ExportZip.class);
+
+    private final ZipOutputStream zip;
+    private final Set<String> entries = new HashSet<>();
+    
+    public ExportZip(File aFile)
+        throws IOException
+    {
+        zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(aFile)));
+    }
+    
+    /**
+     * Add a file to the given folder within the ZIP file.
+     */
+    public void addFile(String aFolder, File aFile)
+        throws IOException
+    {
+        if (!aFile.exists()) {
+            throw new FileNotFoundException("File [" + aFile + "] does not exist");
+        }
+        
+        if (!startEntry(path(aFolder, aFile.getName()))) {
+            return;
+        }
+        
+        try (InputStream is = new FileInputStream(aFile)) {
+            IOUtils.copyLarge(is, zip);
+        }
+        zip.closeEntry();
+    }
+    
+    /**
+     * Add all files of a directory recursively to the given folder within the ZIP file.
+     */
+    public void addDirectory(String aFolder, File aDirectory)
+        throws IOException
+    {
+        for (File file : aDirectory.listFiles()) {
+            if (file.isDirectory()) {
+                addDirectory(path(aFolder, file.getName()), file);
+            }
+            else {
+                addFile(aFolder, file);
+            }
+        }
+    }
+    
+    /**
+     * Add an entry with the given content to the ZIP file.
+     */
+    public void addEntry(String aName, byte[] aContent)
+        throws IOException
+    {
+        addEntry("", aName, os -> os.write(aContent));
+    }
+    
+    /**
+     * Add an entry to the given folder within the ZIP file. The content is written by the
+     * given writer which must not close the stream.
+     */
+    public void addEntry(String aFolder, String aName, EntryWriter aWriter)
+        throws IOException
+    {
+        if (!startEntry(path(aFolder, aName))) {
+            return;
+        }
+        
+        aWriter.write(zip);
+        zip.closeEntry();
+    }
+    
+    private boolean startEntry(String aName)
+        throws IOException
+    {
+        if (!entries.add(aName)) {
+            LOG.warn("Skipping duplicate entry [{}] in project export", aName);
+            return false;
+        }
+        
+        LOG.debug("Exporting [{}]", aName);
+        zip.putNextEntry(new ZipEntry(aName));
+        return true;
+    }
+    
+    private static String path(String aFolder, String aName)
+    {
+        // Entry names must be relative and must not contain duplicate slashes
+        String folder = StringUtils.strip(aFolder, "/");
+        return folder.isEmpty() ? aName : folder + "/" + aName;
+    }
+    
+    @Override
+    public void close()
+        throws IOException
+    {
+        zip.close();
+    }
+    
+    @FunctionalInterface
+    public interface EntryWriter
+    {
+        void write(OutputStream aOs)
+            throws IOException;
+    }
+}
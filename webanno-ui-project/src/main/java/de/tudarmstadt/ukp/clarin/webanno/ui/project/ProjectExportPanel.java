@@ -32,6 +32,7 @@ import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.ZipException;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -64,13 +65,10 @@ import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
 import de.tudarmstadt.ukp.clarin.webanno.api.Logging;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
 import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
-import de.tudarmstadt.ukp.clarin.webanno.api.dao.ZipUtils;
-import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.ConstraintSet;
 import de.tudarmstadt.ukp.clarin.webanno.model.MiraTemplate;
-import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.Tag;
@@ -81,7 +79,6 @@ import de.tudarmstadt.ukp.clarin.webanno.model.export.ProjectPermission;
 import de.tudarmstadt.ukp.clarin.webanno.model.export.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.support.AJAXDownload;
 import de.tudarmstadt.ukp.clarin.webanno.support.JSONUtil;
-import de.tudarmstadt.ukp.clarin.webanno.tsv.WebannoTsv3Writer;
 import de.tudarmstadt.ukp.clarin.webanno.ui.automation.service.AutomationService;
 
 /**
@@ -93,23 +90,15 @@ public class ProjectExportPanel extends Panel {
 
     private static final Logger LOG = LoggerFactory.getLogger(ProjectPage.class);
     
-    private static final String FORMAT_AUTO = "AUTO";
+    private static final String FORMAT_AUTO = DocumentExporter.FORMAT_AUTO;
 
 	private static final String META_INF = "/" + ImportUtil.META_INF;
 	public static final String EXPORTED_PROJECT = ImportUtil.EXPORTED_PROJECT;
 	private static final String SOURCE_FOLDER = "/"+ImportUtil.SOURCE;
-	private static final String CURATION_AS_SERIALISED_CAS = "/"+ImportUtil.CURATION_AS_SERIALISED_CAS+"/";
-	private static final String CURATION_FOLDER = "/curation/";
 	private static final String LOG_FOLDER = "/" + ImportUtil.LOG_DIR;
 	private static final String GUIDELINES_FOLDER = "/"+ImportUtil.GUIDELINE;
-	private static final String ANNOTATION_CAS_FOLDER = "/"+ImportUtil.ANNOTATION_AS_SERIALISED_CAS+"/";
-	private static final String ANNOTATION_ORIGINAL_FOLDER = "/annotation/";
    private static final String CONSTRAINTS = "/constraints/";
 
-
-	private static final String CURATION_USER = "CURATION_USER";
-	private static final String CORRECTION_USER = "CORRECTION_USER";
-
 	@SpringBean(name = "annotationService")
 	private AnnotationService annotationService;
 
@@ -159,71 +148,6 @@ public class ProjectExportPanel extends Panel {
 		return curationDocumentExist;
 	}
 	
-    /**
-     * Copy, if exists, curation documents to a folder that will be exported as Zip file
-     *
-     * @param aProject
-     *            The {@link Project}
-     * @param aCurationDocumentExist
-     *            Check if Curation document exists
-     * @param aCopyDir
-     *            The folder where curated documents are copied to be exported as Zip File
-     */
-    private void exportCuratedDocuments(ProjectExportModel aModel, File aCopyDir)
-        throws FileNotFoundException, UIMAException, IOException, ClassNotFoundException, ProjectExportException
-    {
-        // Get all the source documents from the project
-        List<de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument> documents = repository
-                .listSourceDocuments(aModel.project);
-
-        // Determine which format to use for export.
-        Class<?> writer;
-        if (FORMAT_AUTO.equals(aModel.format)) {
-            writer = WebannoTsv3Writer.class;
-        }
-        else {
-            writer = repository.getWritableFormats().get(
-                    repository.getWritableFormatId(aModel.format));
-            if (writer == null) {
-                writer = WebannoTsv3Writer.class;
-            }
-        }
-        
-        int initProgress = progress-1;
-        int i = 1;
-        for (de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument : documents) {
-            File curationCasDir = new File(aCopyDir + CURATION_AS_SERIALISED_CAS
-                    + sourceDocument.getName());
-            FileUtils.forceMkdir(curationCasDir);
-
-            File curationDir = new File(aCopyDir + CURATION_FOLDER + sourceDocument.getName());
-            FileUtils.forceMkdir(curationDir);
-
-            // If the curation document is finished
-            if (SourceDocumentState.CURATION_FINISHED.equals(sourceDocument.getState())) {
-                File curationCasFile = repository.getCasFile(sourceDocument, CURATION_USER);
-                if (curationCasFile.exists()) {
-                    // Copy CAS - this is used when importing the project again
-                    FileUtils.copyFileToDirectory(curationCasFile, curationCasDir);
-                    
-                    // Copy secondary export format for convenience - not used during import
-                    try {
-						File curationFile = repository.exportAnnotationDocument(sourceDocument,
-						        CURATION_USER, writer, CURATION_USER, Mode.CURATION);
-						FileUtils.copyFileToDirectory(curationFile, curationDir);
-						FileUtils.forceDelete(curationFile);
-					} catch (Exception e) {
-						error("Unexpected error while exporting project: " + ExceptionUtils.getRootCauseMessage(e) );
-						throw new ProjectExportException("Aborting due to unrecoverable error while exporting!");
-					}
-                }
-            }
-            
-            progress = initProgress+ (int) Math.ceil(((double) i)/documents.size()*10.0);
-            i++;
-        }
-    }
-    
     public class ProjectExportForm
         extends Form<ProjectExportModel>
     {
@@ -264,41 +188,34 @@ public class ProjectExportPanel extends Panel {
                 @Override
                 protected File load() {
                     File exportFile = null;
-                    File exportTempDir = null;
                     try {
-                        exportTempDir = File.createTempFile("webanno", "export");
-                        exportTempDir.delete();
-                        exportTempDir.mkdirs();
-
                         boolean curationDocumentExist = existsCurationDocument(ProjectExportForm.this
                                 .getModelObject().project);
 
                         if (!curationDocumentExist) {
                             error("No curation document created yet for this document");
                         } else {
-                            exportCuratedDocuments(ProjectExportForm.this.getModelObject(),
-                                    exportTempDir);
-                            ZipUtils.zipFolder(exportTempDir, new File(
-                                    exportTempDir.getAbsolutePath() + ".zip"));
-                            exportFile = new File(exportTempDir.getAbsolutePath()
-                                    + ".zip");
-
+                            exportFile = File.createTempFile("webanno", "export.zip");
+                            try (ExportZip zip = new ExportZip(exportFile)) {
+                                ProjectExportModel model = ProjectExportForm.this
+                                        .getModelObject();
+                                new DocumentExporter(repository, userRepository,
+                                        new ConcurrentLinkedQueue<>(), p -> progress = p)
+                                                .exportCuratedDocuments(model.project,
+                                                        model.format, zip, progress);
+                            }
                         }
                     } catch (CASRuntimeException e) {
                     	cancelOperationOnError();
                         error(e.getMessage());
+                        FileUtils.deleteQuietly(exportFile);
+                        exportFile = null;
                     } 
                     catch (Exception e){
                     	error(e.getMessage());
                     	cancelOperationOnError();
-                    	
-                    }
-                    finally {
-                        try {
-                            FileUtils.forceDelete(exportTempDir);
-                        } catch (IOException e) {
-                            error("Unable to delete temp file");
-                        }
+                        FileUtils.deleteQuietly(exportFile);
+                        exportFile = null;
                     }
 
                     return exportFile;
@@ -540,58 +457,47 @@ public class ProjectExportPanel extends Panel {
             throws IOException, UIMAException, ClassNotFoundException, ZippingException,
             InterruptedException, ProjectExportException
         {
-            File exportTempDir = null;
-            // all metadata and project settings data from the database as JSON file
-            File projectSettings = null;
-            projectSettings = File.createTempFile(EXPORTED_PROJECT, ".json");
-            // Directory to store source documents and annotation documents
-            exportTempDir = File.createTempFile("webanno-project", "export");
-            exportTempDir.delete();
-            exportTempDir.mkdirs();
-
-            File projectZipFile = new File(exportTempDir.getAbsolutePath() + ".zip");
             if (aModel.project.getId() == 0) {
                 throw new ProjectExportException(
                         "Project not yet created. Please save project details first!");
             }
 
-            exportProjectSettings(aModel.project, projectSettings, exportTempDir);
-            progress = 9;
-            exportSourceDocuments(aModel.project, exportTempDir);
-            exportAnnotationDocuments(aModel, exportTempDir);
-            exportProjectLog(aModel.project, exportTempDir);
-            exportGuideLine(aModel.project, exportTempDir);
-            exportProjectMetaInf(aModel.project, exportTempDir);
-            exportProjectConstraints(aModel.project, exportTempDir);
-            progress = 90;
-            try {
-				exportCuratedDocuments(aModel, exportTempDir);
-			} catch (ProjectExportException e) {
-				//cancel export operation here
-			    error(e.getMessage());
-				if (thread != null) {
-                    progress = 100;
-                    thread.interrupt();
-                }
-			}
-            try {
-                ZipUtils.zipFolder(exportTempDir, projectZipFile);
+            // All entries are written straight into the ZIP file instead of first copying them
+            // to a temporary folder and zipping that folder afterwards.
+            File projectZipFile = File.createTempFile("webanno-project", "export.zip");
+            boolean success = false;
+            try (ExportZip zip = new ExportZip(projectZipFile)) {
+                exportProjectSettings(aModel.project, zip);
+                progress = 9;
+                exportSourceDocuments(aModel.project, zip);
+                // The curated documents are written before the annotation documents, see
+                // DocumentExporter.exportDocuments()
+                new DocumentExporter(repository, userRepository, messages, p -> progress = p)
+                        .exportDocuments(aModel.project, aModel.format, zip, progress);
+                exportProjectLog(aModel.project, zip);
+                exportGuideLine(aModel.project, zip);
+                exportProjectMetaInf(aModel.project, zip);
+                exportProjectConstraints(aModel.project, zip);
+                success = true;
             }
-            catch (Exception e) {
+            catch (ZipException e) {
                 throw new ZippingException("Unable to Zip the file");
             }
             finally {
-                FileUtils.forceDelete(projectSettings);
-                System.gc();
-                FileUtils.forceDelete(exportTempDir);
+                if (!success) {
+                    FileUtils.deleteQuietly(projectZipFile);
+                }
             }
             progress = 100;
 
+            LOG.info("Exported project [{}]({}) ({} bytes)", aModel.project.getName(),
+                    aModel.project.getId(), projectZipFile.length());
+
             return projectZipFile;
         }
 
-        private void exportProjectSettings(Project aProject, File aProjectSettings,
-                File aExportTempDir)
+        private void exportProjectSettings(Project aProject, ExportZip aZip)
+            throws IOException
         {
             de.tudarmstadt.ukp.clarin.webanno.model.export.Project exProjekt = new de.tudarmstadt.ukp.clarin.webanno.model.export.Project();
             exProjekt.setDescription(aProject.getDescription());
@@ -727,23 +633,16 @@ public class ProjectExportPanel extends Panel {
 
             exProjekt.setMiraTemplates(exTemplates);
 
-            try {
-                JSONUtil.generatePrettyJson(exProjekt, aProjectSettings);
-                FileUtils.copyFileToDirectory(aProjectSettings, aExportTempDir);
-            }
-            catch (IOException e) {
-                error("File Path not found or No permision to save the file!");
-            }
+            aZip.addEntry(EXPORTED_PROJECT + ".json",
+                    JSONUtil.toPrettyJsonString(exProjekt).getBytes("UTF-8"));
         }
 
         /**
-         * Copy source documents from the file system of this project to the export folder
+         * Write source documents from the file system of this project to the ZIP file
          */
-        private void exportSourceDocuments(Project aProject, File aCopyDir)
+        private void exportSourceDocuments(Project aProject, ExportZip aZip)
             throws IOException, ProjectExportException
         {
-            File sourceDocumentDir = new File(aCopyDir + SOURCE_FOLDER);
-            FileUtils.forceMkdir(sourceDocumentDir);
             // Get all the source documents from the project
             List<de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument> documents = repository
                     .listSourceDocuments(aProject);
@@ -751,8 +650,7 @@ public class ProjectExportPanel extends Panel {
             int i = 1;
             for (de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument : documents) {
                 try {
-					FileUtils.copyFileToDirectory(repository.getSourceDocumentFile(sourceDocument),
-					        sourceDocumentDir);
+					aZip.addFile(SOURCE_FOLDER, repository.getSourceDocumentFile(sourceDocument));
 					progress = (int) Math.ceil(((double) i) / documents.size() * 10.0);
 					i++;
 				} catch (FileNotFoundException e) {
@@ -771,170 +669,54 @@ public class ProjectExportPanel extends Panel {
         }
 
         /**
-         * Copy annotation document as Serialized CAS from the file system of this project to the
-         * export folder
-         *
-         * @throws ClassNotFoundException
-         * @throws UIMAException
+         * Write Project logs from the file system of this project to the ZIP file
          */
-        private void exportAnnotationDocuments(ProjectExportModel aModel, File aCopyDir)
-            throws IOException, UIMAException, ClassNotFoundException
-        {
-            List<de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument> documents = repository
-                    .listSourceDocuments(aModel.project);
-            int i = 1;
-            int initProgress = progress;
-            for (de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument : documents) {
-                // Determine which format to use for export
-                String formatId;
-                if (FORMAT_AUTO.equals(aModel.format)) {
-                    formatId = sourceDocument.getFormat();
-                }
-                else {
-                    formatId = repository.getWritableFormatId(aModel.format);
-                }
-                Class<?> writer = repository.getWritableFormats().get(formatId);
-                if (writer == null) {
-                    String msg = "[" + sourceDocument.getName()
-                            + "] No writer found for format [" + formatId
-                            + "] - exporting as WebAnno TSV instead.";
-                    // Avoid repeating the same message over for different users
-                    if (!messages.contains(msg)) {
-                        messages.add(msg);
-                    }
-                    writer = WebannoTsv3Writer.class;
-                }
-
-                // Export annotations from regular users
-                for (de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument annotationDocument : repository
-                        .listAnnotationDocuments(sourceDocument)) {
-                    // copy annotation document only for ACTIVE users and the state of the 
-                    // annotation document is not NEW/IGNORE
-                    if (userRepository.get(annotationDocument.getUser()) != null
-                            && !annotationDocument.getState().equals(AnnotationDocumentState.NEW)
-                            && !annotationDocument.getState()
-                                    .equals(AnnotationDocumentState.IGNORE)) {
-                        File annotationDocumentAsSerialisedCasDir = new File(
-                                aCopyDir.getAbsolutePath() + ANNOTATION_CAS_FOLDER
-                                        + sourceDocument.getName());
-                        File annotationDocumentDir = new File(aCopyDir.getAbsolutePath()
-                                + ANNOTATION_ORIGINAL_FOLDER + sourceDocument.getName());
-
-                        FileUtils.forceMkdir(annotationDocumentAsSerialisedCasDir);
-                        FileUtils.forceMkdir(annotationDocumentDir);
-
-                        File annotationFileAsSerialisedCas = repository.getCasFile(
-                                sourceDocument, annotationDocument.getUser());
-
-                        File annotationFile = null;
-                        if (annotationFileAsSerialisedCas.exists() && writer != null) {
-                            annotationFile = repository.exportAnnotationDocument(sourceDocument,
-                                    annotationDocument.getUser(), writer,
-                                    annotationDocument.getUser(), Mode.ANNOTATION, false);
-                        }
-                        if (annotationFileAsSerialisedCas.exists()) {
-                            FileUtils.copyFileToDirectory(annotationFileAsSerialisedCas,
-                                    annotationDocumentAsSerialisedCasDir);
-                            if (writer != null) {
-                                FileUtils
-                                        .copyFileToDirectory(annotationFile, annotationDocumentDir);
-                                FileUtils.forceDelete(annotationFile);
-                            }
-                        }
-                    }
-                }
-                
-                // BEGIN FIXME #1224 CURATION_USER and CORRECTION_USER files should be exported in annotation_ser
-                // If this project is a correction project, add the auto-annotated  CAS to same 
-                // folder as CURATION_FOLDER
-                if (aModel.project.getMode().equals(Mode.AUTOMATION)
-                        || aModel.project.getMode().equals(Mode.CORRECTION)) {
-                    File correctionCasFile = repository.getCasFile(sourceDocument,
-                            CORRECTION_USER);
-                    if (correctionCasFile.exists()) {
-                        // Copy CAS - this is used when importing the project again
-                        File curationCasDir = new File(aCopyDir + CURATION_AS_SERIALISED_CAS
-                                + sourceDocument.getName());
-                        FileUtils.forceMkdir(curationCasDir);
-                        FileUtils.copyFileToDirectory(correctionCasFile, curationCasDir);
-                        
-                        // Copy secondary export format for convenience - not used during import
-                        File curationDir = new File(aCopyDir + CURATION_FOLDER + sourceDocument.getName());
-                        FileUtils.forceMkdir(curationDir);
-                        File correctionFile = repository.exportAnnotationDocument(sourceDocument,
-                                CORRECTION_USER, writer, CORRECTION_USER, Mode.CORRECTION);
-                        FileUtils.copyFileToDirectory(correctionFile, curationDir);
-                        FileUtils.forceDelete(correctionFile);
-                    }
-                }
-                // END FIXME #1224 CURATION_USER and CORRECTION_USER files should be exported in annotation_ser
-                
-                progress = initProgress + (int) Math.ceil(((double) i) / documents.size() * 80.0);
-                i++;
-            }
-        }
-
-        /**
-         * Copy Project logs from the file system of this project to the export folder
-         */
-        private void exportProjectLog(Project aProject, File aCopyDir)
+        private void exportProjectLog(Project aProject, ExportZip aZip)
             throws IOException
         {
-            File logDir = new File(aCopyDir + LOG_FOLDER);
-            FileUtils.forceMkdir(logDir);
             if (repository.getProjectLogFile(aProject).exists()) {
-                FileUtils.copyFileToDirectory(repository.getProjectLogFile(aProject), logDir);
+                aZip.addFile(LOG_FOLDER, repository.getProjectLogFile(aProject));
             }
         }
 
         /**
-         * Copy Project guidelines from the file system of this project to the export folder
+         * Write Project guidelines from the file system of this project to the ZIP file
          */
-        private void exportGuideLine(Project aProject, File aCopyDir)
+        private void exportGuideLine(Project aProject, ExportZip aZip)
             throws IOException
         {
-            File guidelineDir = new File(aCopyDir + GUIDELINES_FOLDER);
-            FileUtils.forceMkdir(guidelineDir);
             File annotationGuidlines = repository.getGuidelinesFile(aProject);
             if (annotationGuidlines.exists()) {
                 for (File annotationGuideline : annotationGuidlines.listFiles()) {
-                    FileUtils.copyFileToDirectory(annotationGuideline, guidelineDir);
+                    aZip.addFile(GUIDELINES_FOLDER, annotationGuideline);
                 }
             }
         }
 
         /**
-         * Copy Project guidelines from the file system of this project to the export folder
+         * Write Project META-INF from the file system of this project to the ZIP file
          */
-        private void exportProjectMetaInf(Project aProject, File aCopyDir)
+        private void exportProjectMetaInf(Project aProject, ExportZip aZip)
             throws IOException
         {
-            File metaInfDir = new File(aCopyDir + META_INF);
-            FileUtils.forceMkdir(metaInfDir);
             File metaInf = repository.getMetaInfFolder(aProject);
             if (metaInf.exists()) {
-                FileUtils.copyDirectory(metaInf, metaInfDir);
+                aZip.addDirectory(META_INF, metaInf);
             }
         }
         
         /**
-         * Copy Project Constraints from file system of this project to export folder
+         * Write Project Constraints from file system of this project to the ZIP file
          */
-        private void exportProjectConstraints(Project project, File exportTempDir)
+        private void exportProjectConstraints(Project project, ExportZip aZip)
             throws IOException
         {
-            File constraintsDir = new File(exportTempDir + CONSTRAINTS);
-            FileUtils.forceMkdir(constraintsDir);
-            String fileName;
             for (ConstraintSet set : repository.listConstraintSets(project)) {
-                fileName = set.getName();
              /*
               * Copying with file's original name to save ConstraintSet's name
               */
-                FileUtils.copyFile(repository.exportConstraintAsFile(set),
-                        new File(constraintsDir, fileName));
+                aZip.addFile(CONSTRAINTS + set.getName(), repository.exportConstraintAsFile(set));
             }
-
         }
     }
 }
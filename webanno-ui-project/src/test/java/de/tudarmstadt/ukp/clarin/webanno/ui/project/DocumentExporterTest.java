@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.ui.project;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
+import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
+import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
+
+public class DocumentExporterTest
+{
+    public @Rule TemporaryFolder folder = new TemporaryFolder();
+
+    private Project project;
+    private SourceDocument document;
+    private DocumentExporter exporter;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        project = new Project();
+        project.setName("project");
+        project.setMode(Mode.CORRECTION);
+
+        document = new SourceDocument();
+        document.setName("doc.txt");
+        document.setFormat("text");
+        document.setProject(project);
+        document.setState(SourceDocumentState.CURATION_FINISHED);
+
+        // The CAS files only need to exist
+        for (String user : asList("CURATION_USER", "CORRECTION_USER")) {
+            FileUtils.write(new File(folder.getRoot(), user + ".ser"), user, "UTF-8");
+        }
+
+        exporter = new DocumentExporter(createRepository(), createUserRepository(),
+                new ConcurrentLinkedQueue<>(), p -> { });
+    }
+
+    @Test
+    public void thatCuratedDocumentIsExportedInCorrectionProject()
+        throws Exception
+    {
+        File zipFile = folder.newFile("export.zip");
+        try (ExportZip zip = new ExportZip(zipFile)) {
+            exporter.exportDocuments(project, DocumentExporter.FORMAT_AUTO, zip, 0);
+        }
+
+        TreeMap<String, String> entries = new TreeMap<>();
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                try (InputStream is = zip.getInputStream(entry)) {
+                    entries.put(entry.getName(), IOUtils.toString(is, "UTF-8"));
+                }
+            }
+        }
+
+        assertEquals(asList("curation/doc.txt/doc.tsv",
+                "curation_ser/doc.txt/CORRECTION_USER.ser",
+                "curation_ser/doc.txt/CURATION_USER.ser"), asList(entries.keySet().toArray()));
+        // The secondary export of the curated document wins over the one of the correction user
+        assertEquals("CURATION_USER", entries.get("curation/doc.txt/doc.tsv"));
+        assertEquals("CORRECTION_USER", entries.get("curation_ser/doc.txt/CORRECTION_USER.ser"));
+        assertEquals("CURATION_USER", entries.get("curation_ser/doc.txt/CURATION_USER.ser"));
+    }
+
+    /**
+     * Creates a repository which serves a single source document for which only the curation and
+     * correction users have CAS files. Exported documents contain the name of their user.
+     */
+    private RepositoryService createRepository()
+    {
+        return (RepositoryService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { RepositoryService.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "listSourceDocuments":
+                        return asList(document);
+                    case "listAnnotationDocuments":
+                        return Collections.emptyList();
+                    case "getWritableFormats":
+                        return Collections.emptyMap();
+                    case "getCasFile":
+                        return new File(folder.getRoot(), args[1] + ".ser");
+                    case "exportSerializedCas":
+                        ((OutputStream) args[2]).write(
+                                ((String) args[1]).getBytes(StandardCharsets.UTF_8));
+                        return null;
+                    case "exportAnnotationDocument":
+                        return export((String) args[1]);
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private UserDao createUserRepository()
+    {
+        return (UserDao) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { UserDao.class }, (proxy, method, args) -> {
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private File export(String aUser)
+        throws IOException
+    {
+        File file = new File(folder.newFolder(), "doc.tsv");
+        FileUtils.write(file, aUser, "UTF-8");
+        return file;
+    }
+}